@@ -0,0 +1,405 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+
+package gov.sandia.geotessbuilder;
+
+import gov.sandia.geotess.GeoTessException;
+import gov.sandia.geotess.GeoTessGrid;
+import gov.sandia.geotess.GeoTessModel;
+import gov.sandia.geotess.GeoTessUtils;
+import gov.sandia.geotess.Profile;
+import gov.sandia.geotess.ProfileType;
+import gov.sandia.gmp.util.containers.arraylist.ArrayListInt;
+import gov.sandia.gmp.util.globals.InterpolatorType;
+import gov.sandia.gmp.util.numerical.vector.VectorUnit;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * Error-driven adaptive refinement of a GeoTessModel. Each iteration estimates,
+ * for every triangle on the top level of every tessellation, how poorly the
+ * values of one attribute are represented by linear interpolation across the
+ * triangle. Triangles whose error estimate exceeds a tolerance are refined, in
+ * order of decreasing error, until either no triangle exceeds the tolerance,
+ * the vertex budget is exhausted, no triangle can be divided further without
+ * violating the minimum triangle size, or the maximum number of iterations is
+ * reached.
+ * <p>
+ * The attribute is evaluated at the middle radius of each layer. Radial
+ * refinement is not performed.
+ */
+public class AdaptiveRefinement {
+
+	/**
+	 * Error indicators available to the adaptive engine.
+	 */
+	public enum ErrorIndicator {
+		/**
+		 * The maximum absolute difference in attribute value between the two
+		 * vertices at the ends of any edge of the triangle.
+		 */
+		GRADIENT,
+
+		/**
+		 * The maximum, over the corners of the triangle, of the absolute difference
+		 * between the attribute value at the corner and the mean value at the
+		 * corner's neighbors (a discrete Laplacian), which is proportional to the
+		 * error of linear interpolation.
+		 */
+		CURVATURE
+	}
+
+	/**
+	 * Adaptively refine a model.
+	 * 
+	 * @param model         the model to refine.
+	 * @param attribute     index of the attribute used to estimate errors.
+	 * @param indicator     the error indicator.
+	 * @param tolerance     triangles with estimated error greater than tolerance
+	 *                      are refined.
+	 * @param maxVertices   the maximum number of vertices in the refined model.
+	 *                      Refinement stops when the budget is reached.
+	 * @param maxTessLevels for each tessellation, triangles are not divided
+	 *                      beyond this tessellation level (see
+	 *                      minTriangleSize). May be null.
+	 * @param maxIterations maximum number of refinement iterations.
+	 * @param maxProcessors maximum number of threads to use.
+	 * @param verbosity
+	 * @return the refined model. If no refinement was required, the supplied
+	 *         model is returned.
+	 * @throws Exception
+	 */
+	public static GeoTessModel refine(GeoTessModel model, int attribute, ErrorIndicator indicator, double tolerance,
+			int maxVertices, int[] maxTessLevels, int maxIterations, int maxProcessors, int verbosity)
+			throws Exception {
+		for (int iteration = 0; iteration < maxIterations; ++iteration) {
+			int budget = maxVertices - model.getNVertices();
+			if (budget <= 0)
+				break;
+
+			GeoTessGrid grid = model.getGrid();
+			BitSet[] verticesToRefine = new BitSet[grid.getNTessellations()];
+			int nSelected = 0;
+
+			// for each tessellation, the selected candidates in the order they were
+			// selected. Each element holds the number of edges divided by selecting
+			// the candidate followed by the corners that it marked.
+			ArrayList<ArrayList<int[]>> selections = new ArrayList<ArrayList<int[]>>();
+
+			for (int tessId = 0; tessId < grid.getNTessellations(); ++tessId) {
+				verticesToRefine[tessId] = new BitSet(grid.getNVertices());
+				selections.add(new ArrayList<int[]>());
+
+				int[] triangles = getTopLevelTriangles(grid, tessId);
+				double[] errors = getTriangleErrors(model, tessId, attribute, indicator, maxProcessors);
+
+				// candidates are the triangles whose error exceeds the tolerance and
+				// which can still be divided, popped in order of decreasing error.
+				IndexHeap candidates = new IndexHeap(triangles.length);
+				int maxTessLevel = maxTessLevels == null ? Integer.MAX_VALUE : maxTessLevels[tessId];
+				for (int i = 0; i < triangles.length; ++i)
+					if (errors[i] > tolerance && getEdgeLevel(grid, triangles[i]) < maxTessLevel)
+						candidates.push(i, errors[i]);
+
+				int[][] vertexTriangles = getVertexTriangles(grid, triangles);
+
+				// the corners of the selected candidates are marked, and every triangle
+				// whose 3 corners are marked is divided, whether it was selected or not.
+				// Select candidates until the number of edge midpoints that will be added
+				// by all the triangles that will be divided exhausts the vertex budget.
+				// Edges are identified by 3 * triangle index + side and both of the
+				// triangles that share an edge have it set.
+				BitSet marked = verticesToRefine[tessId];
+				BitSet dividedEdges = new BitSet(3 * triangles.length);
+				int nEdges = 0;
+				ArrayListInt newlyMarked = new ArrayListInt(3);
+				ArrayListInt newEdges = new ArrayListInt();
+				while (!candidates.isEmpty()) {
+					int[] corners = grid.getTriangleVertexIndexes(triangles[candidates.pop()]);
+
+					newlyMarked.clear();
+					for (int corner : corners)
+						if (!marked.get(corner)) {
+							marked.set(corner);
+							newlyMarked.add(corner);
+						}
+
+					// a triangle becomes fully marked when its last corner is marked.
+					newEdges.clear();
+					for (int k = 0; k < newlyMarked.size(); ++k)
+						for (int i : vertexTriangles[newlyMarked.get(k)])
+							if (isMarked(grid, triangles[i], marked) && getEdgeLevel(grid, triangles[i]) < maxTessLevel)
+								for (int side = 0; side < 3; ++side)
+									if (!dividedEdges.get(3 * i + side)) {
+										int twin = getTwin(grid, triangles, i, side);
+										dividedEdges.set(3 * i + side);
+										dividedEdges.set(twin);
+										newEdges.add(3 * i + side);
+										newEdges.add(twin);
+									}
+
+					if (nEdges + newEdges.size() / 2 > budget && nSelected > 0) {
+						for (int k = 0; k < newEdges.size(); ++k)
+							dividedEdges.clear(newEdges.get(k));
+						for (int k = 0; k < newlyMarked.size(); ++k)
+							marked.clear(newlyMarked.get(k));
+						break;
+					}
+					nEdges += newEdges.size() / 2;
+					++nSelected;
+
+					int[] selection = new int[newlyMarked.size() + 1];
+					selection[0] = newEdges.size() / 2;
+					for (int k = 0; k < newlyMarked.size(); ++k)
+						selection[k + 1] = newlyMarked.get(k);
+					selections.get(tessId).add(selection);
+				}
+				budget -= nEdges;
+			}
+
+			// refine every triangle whose three corners were selected. Refining a
+			// triangle can force its neighbors to be divided as well, so if the new
+			// grid exceeds the vertex budget, release the candidates that were
+			// selected last, enough to account for the excess, and try again.
+			GeoTessGrid newGrid = null;
+			while (nSelected > 0) {
+				BitSet[] vertices = new BitSet[verticesToRefine.length];
+				for (int tessId = 0; tessId < vertices.length; ++tessId)
+					vertices[tessId] = (BitSet) verticesToRefine[tessId].clone();
+
+				newGrid = RefineModel.buildNewGrid(grid, vertices, maxTessLevels, 3, 1, maxProcessors);
+
+				int excess = newGrid.getNVertices() - maxVertices;
+				if (excess <= 0)
+					break;
+
+				for (int tessId = selections.size() - 1; tessId >= 0 && excess > 0; --tessId) {
+					ArrayList<int[]> selected = selections.get(tessId);
+					while (excess > 0 && !selected.isEmpty()) {
+						int[] selection = selected.remove(selected.size() - 1);
+						for (int k = 1; k < selection.length; ++k)
+							verticesToRefine[tessId].clear(selection[k]);
+						excess -= Math.max(1, selection[0]);
+						--nSelected;
+					}
+				}
+			}
+
+			if (verbosity > 0)
+				System.out.printf("Adaptive refinement iteration %d: %d vertices, %d triangles selected%n",
+						iteration, model.getNVertices(), nSelected);
+
+			if (nSelected == 0)
+				break;
+
+			ArrayListInt oldToNew = new ArrayListInt();
+			ArrayListInt newToOld = new ArrayListInt();
+			ArrayList<BitSet> newVertices = RefineModel.getNewVertexSets(model, newGrid, oldToNew, newToOld);
+
+			// no points are passed to buildNewModel so profiles are not refined
+			// radially.
+			model = RefineModel.buildNewModel(model, newGrid, newVertices, oldToNew, newToOld, new BitSet(),
+					maxProcessors);
+		}
+
+		return model;
+	}
+
+	/**
+	 * Estimate the interpolation error of every triangle on the top level of the
+	 * specified tessellation. The error of a triangle is the maximum of the error
+	 * estimates computed for each layer supported by the tessellation.
+	 * 
+	 * @param model
+	 * @param tessId
+	 * @param attribute
+	 * @param indicator
+	 * @param maxProcessors
+	 * @return error estimates, in the same order as the triangles returned by
+	 *         getTopLevelTriangles(grid, tessId).
+	 * @throws GeoTessException
+	 */
+	public static double[] getTriangleErrors(final GeoTessModel model, final int tessId, final int attribute,
+			final ErrorIndicator indicator, int maxProcessors) throws GeoTessException {
+		final GeoTessGrid grid = model.getGrid();
+		final int[] triangles = getTopLevelTriangles(grid, tessId);
+		final double[] errors = new double[triangles.length];
+
+		for (final int layer : model.getMetaData().getLayers(tessId)) {
+			// attribute value at the middle of the layer at every vertex. Computed
+			// concurrently by vertex range.
+			final double[] values = new double[grid.getNVertices()];
+			new ConcurrentRange() {
+				@Override
+				protected void process(int first, int last) {
+					for (int vertex = first; vertex < last; ++vertex)
+						values[vertex] = getValue(model.getProfile(vertex, layer), attribute);
+				}
+			}.execute(values.length, maxProcessors);
+
+			// for the curvature indicator, the difference between the value at each
+			// vertex and the mean value at its neighbors on the top level. Every edge
+			// is shared by two triangles so each neighbor is counted twice, which does
+			// not change the mean.
+			final double[] laplacian = indicator == ErrorIndicator.CURVATURE ? new double[values.length] : null;
+			if (laplacian != null) {
+				int[] count = new int[values.length];
+				for (int t : triangles) {
+					int[] corners = grid.getTriangleVertexIndexes(t);
+					for (int i = 0; i < 3; ++i)
+						for (int j = 1; j < 3; ++j) {
+							double value = values[corners[(i + j) % 3]];
+							if (!Double.isNaN(value)) {
+								laplacian[corners[i]] += value;
+								++count[corners[i]];
+							}
+						}
+				}
+				for (int vertex = 0; vertex < values.length; ++vertex)
+					laplacian[vertex] = count[vertex] == 0 ? Double.NaN
+							: Math.abs(values[vertex] - laplacian[vertex] / count[vertex]);
+			}
+
+			new ConcurrentRange() {
+				@Override
+				protected void process(int first, int last) {
+					for (int i = first; i < last; ++i) {
+						int[] corners = grid.getTriangleVertexIndexes(triangles[i]);
+						double error = 0;
+						for (int j = 0; j < 3; ++j) {
+							double e = laplacian == null
+									? Math.abs(values[corners[j]] - values[corners[(j + 1) % 3]])
+									: laplacian[corners[j]];
+							if (e > error)
+								error = e;
+						}
+						if (error > errors[i])
+							errors[i] = error;
+					}
+				}
+			}.execute(triangles.length, maxProcessors);
+		}
+		return errors;
+	}
+
+	/**
+	 * Retrieve the indices of the triangles on the top level of the specified
+	 * tessellation.
+	 */
+	static int[] getTopLevelTriangles(GeoTessGrid grid, int tessId) {
+		int[] level = grid.getLevels()[grid.getTessellations()[tessId][1] - 1];
+		int[] triangles = new int[level[1] - level[0]];
+		for (int i = 0; i < triangles.length; ++i)
+			triangles[i] = level[0] + i;
+		return triangles;
+	}
+
+	/**
+	 * @return the value of the attribute at the middle of the profile, or NaN if
+	 *         the profile is empty.
+	 */
+	private static double getValue(Profile profile, int attribute) {
+		if (profile.getType() == ProfileType.EMPTY)
+			return Double.NaN;
+		return profile.getValue(InterpolatorType.LINEAR, attribute,
+				(profile.getRadiusBottom() + profile.getRadiusTop()) / 2, true);
+	}
+
+	/**
+	 * @return the tessellation level corresponding to the length of the longest
+	 *         edge of triangle t.
+	 */
+	private static int getEdgeLevel(GeoTessGrid grid, int t) {
+		int[] corners = grid.getTriangleVertexIndexes(t);
+		double edge = 0;
+		for (int i = 0; i < 3; ++i)
+			edge = Math.max(edge,
+					Math.toDegrees(VectorUnit.angle(grid.getVertex(corners[i]), grid.getVertex(corners[(i + 1) % 3]))));
+		return GeoTessUtils.getTessLevel(edge);
+	}
+
+	/**
+	 * @return true if all 3 corners of triangle t are in marked.
+	 */
+	private static boolean isMarked(GeoTessGrid grid, int t, BitSet marked) {
+		for (int corner : grid.getTriangleVertexIndexes(t))
+			if (!marked.get(corner))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Find the indices, in triangles, of the triangles that touch each vertex.
+	 * 
+	 * @param grid
+	 * @param triangles the triangles on the top level of a tessellation, as
+	 *                  returned by getTopLevelTriangles().
+	 * @return for each vertex in grid, the indices in triangles of the triangles
+	 *         that have the vertex as a corner. Vertices that are not corners of
+	 *         any of the triangles get an empty array.
+	 */
+	private static int[][] getVertexTriangles(GeoTessGrid grid, int[] triangles) {
+		int[] count = new int[grid.getNVertices()];
+		for (int t : triangles)
+			for (int corner : grid.getTriangleVertexIndexes(t))
+				++count[corner];
+
+		int[][] vertexTriangles = new int[count.length][];
+		for (int vertex = 0; vertex < count.length; ++vertex) {
+			vertexTriangles[vertex] = new int[count[vertex]];
+			count[vertex] = 0;
+		}
+
+		for (int i = 0; i < triangles.length; ++i)
+			for (int corner : grid.getTriangleVertexIndexes(triangles[i]))
+				vertexTriangles[corner][count[corner]++] = i;
+		return vertexTriangles;
+	}
+
+	/**
+	 * @return the identifier, 3 * triangle index + side, that the neighbor across
+	 *         the specified side of triangles[i] uses for the shared edge.
+	 */
+	private static int getTwin(GeoTessGrid grid, int[] triangles, int i, int side) throws GeoTessException {
+		int neighbor = grid.getNeighbor(triangles[i], side);
+		for (int k = 0; k < 3; ++k)
+			if (grid.getNeighbor(neighbor, k) == triangles[i])
+				return 3 * (neighbor - triangles[0]) + k;
+		throw new GeoTessException(String.format("%ntriangle %d is not a neighbor of its neighbor %d%n",
+				triangles[i], neighbor));
+	}
+
+}
@@ -38,10 +38,11 @@ package gov.sandia.geotessbuilder;
 import gov.sandia.geotess.*;
 import gov.sandia.gmp.util.containers.hash.sets.HashSetInteger;
 import gov.sandia.gmp.util.containers.hash.sets.HashSetInteger.Iterator;
+import gov.sandia.gmp.util.globals.DataType;
 import gov.sandia.gmp.util.globals.InterpolatorType;
 import gov.sandia.gmp.util.numerical.vector.EarthShape;
 
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.EnumSet;
 
 /**
@@ -55,9 +56,11 @@ import java.util.EnumSet;
  * <li>combineMajorLayers - Combine multiple layers of type CONSTANT or THIN
  * into a single layer.
  * <li>removeLayer - remove a layer from the model.
- * <li>resampleProfile -
+ * <li>resampleProfile, resampleProfiles - Resample NPOINT profiles at new
+ * radii.
  * <li>checkZeroThicknessLayers -
  * </ul>
+ * Sequences of layer edits are applied more efficiently with a LayerEditPlan.
  */
 public class BuilderUtils {
 
@@ -135,69 +138,268 @@ public class BuilderUtils {
 		}
 	}
 
-	static public void changeAttributes(GeoTessModel model, int[] attributeMap) throws Exception {
-		PointMap pm = model.getPointMap();
+	/**
+	 * Supplies the radii at which a profile is to be resampled by
+	 * resampleProfiles(). Called concurrently from multiple threads so
+	 * implementations must be thread safe.
+	 */
+	public interface RadiiProvider {
+		/**
+		 * @param vertex  the index of the vertex
+		 * @param profile the profile at the vertex
+		 * @return the radii at which the profile is to be resampled, in increasing
+		 *         order, or null if the profile is not to be resampled.
+		 * @throws Exception
+		 */
+		float[] getRadii(int vertex, Profile profile) throws Exception;
+	}
 
-		switch (model.getMetaData().getDataType()) {
-		case FLOAT:
-			for (int pointIndex = 0; pointIndex < pm.size(); ++pointIndex) {
-				Data data = pm.getPointData(pointIndex);
-				float[] floats = new float[attributeMap.length];
-				for (int i = 0; i < floats.length; ++i)
-					floats[i] = data.getFloat(attributeMap[i]);
-				pm.setPointData(pointIndex, Data.getDataFloat(floats));
+	/**
+	 * Resample all the profiles of the specified layer at the radii supplied by
+	 * radiiProvider, using all available processors. Equivalent to calling
+	 * resampleProfile() for every vertex of the model.
+	 * <p>
+	 * Only works on profiles of type NPOINT. All others ignored.
+	 * 
+	 * @param model
+	 * @param layer
+	 * @param radiiProvider
+	 * @throws Exception
+	 */
+	static public void resampleProfiles(GeoTessModel model, int layer, RadiiProvider radiiProvider) throws Exception {
+		resampleProfiles(model, layer, radiiProvider, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Resample all the profiles of the specified layer at the radii supplied by
+	 * radiiProvider. Vertices are processed concurrently. For each new radius, the
+	 * pair of nodes that bracket it is found once and all attributes are linearly
+	 * interpolated between them. Radii outside the range of the profile take the
+	 * values of the first or last node.
+	 * <p>
+	 * Only works on profiles of type NPOINT. All others ignored.
+	 * 
+	 * @param model
+	 * @param layer
+	 * @param radiiProvider
+	 * @param maxProcessors
+	 * @throws Exception
+	 */
+	static public void resampleProfiles(final GeoTessModel model, final int layer, final RadiiProvider radiiProvider,
+			int maxProcessors) throws Exception {
+		final DataType dataType = model.getMetaData().getDataType();
+		if (dataType == DataType.CUSTOM)
+			throw new Exception("Cannot resampleProfiles when DataType == DataType.CUSTOM");
+
+		final int nAttributes = model.getNAttributes();
+		final float[][] newRadii = new float[model.getNVertices()][];
+		final Data[][] newData = new Data[model.getNVertices()][];
+
+		new ConcurrentRange() {
+			@Override
+			protected void process(int first, int last) throws Exception {
+				// radii and values of the current profile, reused for every vertex.
+				float[] radii = new float[16];
+				double[] values = new double[16 * nAttributes];
+
+				for (int vertex = first; vertex < last; ++vertex) {
+					Profile profile = model.getProfile(vertex, layer);
+					if (profile.getType() != ProfileType.NPOINT)
+						continue;
+
+					float[] r = radiiProvider.getRadii(vertex, profile);
+					if (r == null)
+						continue;
+
+					int n = profile.getNRadii();
+					if (n > radii.length) {
+						radii = new float[n];
+						values = new double[n * nAttributes];
+					}
+					for (int node = 0; node < n; ++node) {
+						radii[node] = profile.getRadius(node);
+						for (int a = 0; a < nAttributes; ++a)
+							values[node * nAttributes + a] = profile.getValue(a, node);
+					}
+
+					Data[] data = new Data[r.length];
+					int k = 0;
+					for (int i = 0; i < r.length; ++i) {
+						// find k such that radii[k] <= r[i] <= radii[k+1], starting from the
+						// bracket of the previous radius.
+						while (k < n - 2 && r[i] > radii[k + 1])
+							++k;
+						while (k > 0 && r[i] < radii[k])
+							--k;
+
+						int k1 = Math.min(k + 1, n - 1);
+						double w;
+						if (k1 == k || r[i] <= radii[k])
+							w = 0.;
+						else if (r[i] >= radii[k1])
+							w = 1.;
+						else
+							w = (r[i] - radii[k]) / (radii[k1] - radii[k]);
+
+						data[i] = interpolate(dataType, values, k * nAttributes, k1 * nAttributes, w, nAttributes);
+					}
+					newRadii[vertex] = r;
+					newData[vertex] = data;
+				}
 			}
-			break;
+		}.execute(model.getNVertices(), maxProcessors);
+
+		for (int vertex = 0; vertex < newData.length; ++vertex)
+			if (newData[vertex] != null)
+				model.setProfile(vertex, layer, newRadii[vertex], newData[vertex]);
+	}
+
+	/**
+	 * Linearly interpolate nAttributes values between values[i0...] and
+	 * values[i1...] and return the result as a Data object of the specified type.
+	 */
+	private static Data interpolate(DataType dataType, double[] values, int i0, int i1, double w, int nAttributes)
+			throws Exception {
+		switch (dataType) {
+		case FLOAT:
+			float[] floats = new float[nAttributes];
+			for (int a = 0; a < nAttributes; ++a)
+				floats[a] = (float) (values[i0 + a] + w * (values[i1 + a] - values[i0 + a]));
+			return Data.getDataFloat(floats);
 		case DOUBLE:
-			for (int pointIndex = 0; pointIndex < pm.size(); ++pointIndex) {
-				Data data = pm.getPointData(pointIndex);
-				double[] doubles = new double[attributeMap.length];
-				for (int i = 0; i < doubles.length; ++i)
-					doubles[i] = data.getDouble(attributeMap[i]);
-				pm.setPointData(pointIndex, Data.getDataDouble(doubles));
-			}
-			break;
+			double[] doubles = new double[nAttributes];
+			for (int a = 0; a < nAttributes; ++a)
+				doubles[a] = values[i0 + a] + w * (values[i1 + a] - values[i0 + a]);
+			return Data.getDataDouble(doubles);
 		case LONG:
-			for (int pointIndex = 0; pointIndex < pm.size(); ++pointIndex) {
-				Data data = pm.getPointData(pointIndex);
-				long[] longs = new long[attributeMap.length];
-				for (int i = 0; i < longs.length; ++i)
-					longs[i] = data.getLong(attributeMap[i]);
-				pm.setPointData(pointIndex, Data.getDataLong(longs));
-			}
-			break;
+			long[] longs = new long[nAttributes];
+			for (int a = 0; a < nAttributes; ++a)
+				longs[a] = Math.round(values[i0 + a] + w * (values[i1 + a] - values[i0 + a]));
+			return Data.getDataLong(longs);
 		case INT:
-			for (int pointIndex = 0; pointIndex < pm.size(); ++pointIndex) {
-				Data data = pm.getPointData(pointIndex);
-				int[] ints = new int[attributeMap.length];
-				for (int i = 0; i < ints.length; ++i)
-					ints[i] = data.getInt(attributeMap[i]);
-				pm.setPointData(pointIndex, Data.getDataInt(ints));
-			}
-			break;
+			int[] ints = new int[nAttributes];
+			for (int a = 0; a < nAttributes; ++a)
+				ints[a] = (int) Math.round(values[i0 + a] + w * (values[i1 + a] - values[i0 + a]));
+			return Data.getDataInt(ints);
 		case SHORT:
-			for (int pointIndex = 0; pointIndex < pm.size(); ++pointIndex) {
-				Data data = pm.getPointData(pointIndex);
-				short[] shorts = new short[attributeMap.length];
-				for (int i = 0; i < shorts.length; ++i)
-					shorts[i] = data.getShort(attributeMap[i]);
-				pm.setPointData(pointIndex, Data.getDataShort(shorts));
-			}
-			break;
+			short[] shorts = new short[nAttributes];
+			for (int a = 0; a < nAttributes; ++a)
+				shorts[a] = (short) Math.round(values[i0 + a] + w * (values[i1 + a] - values[i0 + a]));
+			return Data.getDataShort(shorts);
 		case BYTE:
-			for (int pointIndex = 0; pointIndex < pm.size(); ++pointIndex) {
-				Data data = pm.getPointData(pointIndex);
-				byte[] bytes = new byte[attributeMap.length];
-				for (int i = 0; i < bytes.length; ++i)
-					bytes[i] = data.getByte(attributeMap[i]);
-				pm.setPointData(pointIndex, Data.getDataByte(bytes));
-			}
-			break;
-		case CUSTOM:
-			throw new Exception("Cannot changeAttributes when DataType == DataType.CUSTOM");
+			byte[] bytes = new byte[nAttributes];
+			for (int a = 0; a < nAttributes; ++a)
+				bytes[a] = (byte) Math.round(values[i0 + a] + w * (values[i1 + a] - values[i0 + a]));
+			return Data.getDataByte(bytes);
 		default:
 			throw new Exception("Unsupported DataType");
 		}
+	}
+
+	/**
+	 * Replace the attributes of the model with the subset, in any order,
+	 * specified by attributeMap, using all available processors.
+	 * 
+	 * @param model
+	 * @param attributeMap the indices of the current attributes that are to
+	 *                     become attributes 0, 1, ... of the model.
+	 * @throws Exception
+	 */
+	static public void changeAttributes(GeoTessModel model, int[] attributeMap) throws Exception {
+		changeAttributes(model, attributeMap, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Replace the attributes of the model with the subset, in any order,
+	 * specified by attributeMap. Ranges of points are processed concurrently and
+	 * the DataType is resolved once per range rather than once per point. If
+	 * attributeMap selects all the attributes in their current order, only the
+	 * metadata is updated.
+	 * 
+	 * @param model
+	 * @param attributeMap  the indices of the current attributes that are to
+	 *                      become attributes 0, 1, ... of the model.
+	 * @param maxProcessors
+	 * @throws Exception
+	 */
+	static public void changeAttributes(GeoTessModel model, final int[] attributeMap, int maxProcessors)
+			throws Exception {
+		final DataType dataType = model.getMetaData().getDataType();
+		if (dataType == DataType.CUSTOM)
+			throw new Exception("Cannot changeAttributes when DataType == DataType.CUSTOM");
+
+		boolean identity = attributeMap.length == model.getNAttributes();
+		for (int i = 0; identity && i < attributeMap.length; ++i)
+			identity = attributeMap[i] == i;
+
+		final PointMap pm = model.getPointMap();
+
+		if (!identity)
+			new ConcurrentRange() {
+				@Override
+				protected void process(int first, int last) throws Exception {
+					int n = attributeMap.length;
+					switch (dataType) {
+					case FLOAT:
+						for (int pointIndex = first; pointIndex < last; ++pointIndex) {
+							Data data = pm.getPointData(pointIndex);
+							float[] floats = new float[n];
+							for (int i = 0; i < n; ++i)
+								floats[i] = data.getFloat(attributeMap[i]);
+							pm.setPointData(pointIndex, Data.getDataFloat(floats));
+						}
+						break;
+					case DOUBLE:
+						for (int pointIndex = first; pointIndex < last; ++pointIndex) {
+							Data data = pm.getPointData(pointIndex);
+							double[] doubles = new double[n];
+							for (int i = 0; i < n; ++i)
+								doubles[i] = data.getDouble(attributeMap[i]);
+							pm.setPointData(pointIndex, Data.getDataDouble(doubles));
+						}
+						break;
+					case LONG:
+						for (int pointIndex = first; pointIndex < last; ++pointIndex) {
+							Data data = pm.getPointData(pointIndex);
+							long[] longs = new long[n];
+							for (int i = 0; i < n; ++i)
+								longs[i] = data.getLong(attributeMap[i]);
+							pm.setPointData(pointIndex, Data.getDataLong(longs));
+						}
+						break;
+					case INT:
+						for (int pointIndex = first; pointIndex < last; ++pointIndex) {
+							Data data = pm.getPointData(pointIndex);
+							int[] ints = new int[n];
+							for (int i = 0; i < n; ++i)
+								ints[i] = data.getInt(attributeMap[i]);
+							pm.setPointData(pointIndex, Data.getDataInt(ints));
+						}
+						break;
+					case SHORT:
+						for (int pointIndex = first; pointIndex < last; ++pointIndex) {
+							Data data = pm.getPointData(pointIndex);
+							short[] shorts = new short[n];
+							for (int i = 0; i < n; ++i)
+								shorts[i] = data.getShort(attributeMap[i]);
+							pm.setPointData(pointIndex, Data.getDataShort(shorts));
+						}
+						break;
+					case BYTE:
+						for (int pointIndex = first; pointIndex < last; ++pointIndex) {
+							Data data = pm.getPointData(pointIndex);
+							byte[] bytes = new byte[n];
+							for (int i = 0; i < n; ++i)
+								bytes[i] = data.getByte(attributeMap[i]);
+							pm.setPointData(pointIndex, Data.getDataByte(bytes));
+						}
+						break;
+					default:
+						throw new Exception("Unsupported DataType");
+					}
+				}
+			}.execute(pm.size(), maxProcessors);
+
 		String[] attributes = new String[attributeMap.length];
 		String[] units = new String[attributeMap.length];
 		for (int i = 0; i < attributeMap.length; ++i) {
@@ -208,25 +410,53 @@ public class BuilderUtils {
 	}
 
 	/**
+	 * Change the EarthShape of the model, stretching the radii of every profile by
+	 * the ratio of the new and old earth radii at its vertex. Uses all available
+	 * processors.
 	 * 
 	 * @param model
 	 * @param newShape
 	 * @throws Exception
 	 */
 	static public void changeEarthShape(GeoTessModel model, EarthShape newShape) throws Exception {
-		double stretch;
-		for (int vertex = 0; vertex < model.getNVertices(); ++vertex) {
-			stretch = newShape.getEarthRadius(model.getGrid().getVertex(vertex))
-					/ model.getEarthShape().getEarthRadius(model.getGrid().getVertex(vertex));
-
-			for (Profile p : model.getProfiles(vertex))
-				for (int r = 0; r < p.getNRadii(); ++r)
-					p.setRadius(r, (float) (p.getRadius(r) * stretch));
-		}
+		changeEarthShape(model, newShape, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Change the EarthShape of the model, stretching the radii of every profile by
+	 * the ratio of the new and old earth radii at its vertex. Vertices are
+	 * processed concurrently and the earth radii are computed once per vertex.
+	 * 
+	 * @param model
+	 * @param newShape
+	 * @param maxProcessors
+	 * @throws Exception
+	 */
+	static public void changeEarthShape(final GeoTessModel model, final EarthShape newShape, int maxProcessors)
+			throws Exception {
+		final EarthShape oldShape = model.getEarthShape();
+		new ConcurrentRange() {
+			@Override
+			protected void process(int first, int last) throws Exception {
+				for (int vertex = first; vertex < last; ++vertex) {
+					double[] u = model.getGrid().getVertex(vertex);
+					double stretch = newShape.getEarthRadius(u) / oldShape.getEarthRadius(u);
+
+					for (Profile p : model.getProfiles(vertex))
+						for (int r = 0; r < p.getNRadii(); ++r)
+							p.setRadius(r, (float) (p.getRadius(r) * stretch));
+				}
+			}
+		}.execute(model.getNVertices(), maxProcessors);
 		model.setEarthShape(newShape);
 	}
 
 	/**
+	 * Change the EarthShape of the model. Radii of layers up to and including
+	 * iCMB are stretched by the ratio of the new and old earth radii, radii of
+	 * layers above i660 keep their depths and radii of the layers in between are
+	 * stretched linearly between the CMB and the 660. Uses all available
+	 * processors.
 	 * 
 	 * @param model
 	 * @param newShape
@@ -235,61 +465,85 @@ public class BuilderUtils {
 	 * @throws Exception
 	 */
 	static public void changeEarthShape(GeoTessModel model, EarthShape newShape, int iCMB, int i660) throws Exception {
+		changeEarthShape(model, newShape, iCMB, i660, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Change the EarthShape of the model. Radii of layers up to and including
+	 * iCMB are stretched by the ratio of the new and old earth radii, radii of
+	 * layers above i660 keep their depths and radii of the layers in between are
+	 * stretched linearly between the CMB and the 660.
+	 * <p>
+	 * Vertices are processed concurrently and the radii of the existing profiles
+	 * are modified in place.
+	 * 
+	 * @param model
+	 * @param newShape
+	 * @param iCMB
+	 * @param i660
+	 * @param maxProcessors
+	 * @throws Exception
+	 */
+	static public void changeEarthShape(final GeoTessModel model, final EarthShape newShape, final int iCMB,
+			final int i660, int maxProcessors) throws Exception {
 		if (newShape == model.getEarthShape())
 			return;
 
 		if (iCMB < 0 || i660 < 0)
 			throw new Exception("both iCMB and i660 must be >= 0");
 
-		double stretch;
-		for (int vertex = 0; vertex < model.getNVertices(); ++vertex) {
-			double originalEarthRadius = model.getEarthShape().getEarthRadius(model.getGrid().getVertex(vertex));
-			double newEarthRadius = newShape.getEarthRadius(model.getGrid().getVertex(vertex));
-
-			double dr = newEarthRadius - originalEarthRadius;
-
-			Profile[] newProfiles = new Profile[model.getNLayers()];
-			for (int layer = 0; layer < model.getNLayers(); ++layer)
-				newProfiles[layer] = model.getProfile(vertex, layer).copy();
-
-			stretch = newEarthRadius / originalEarthRadius;
-
-			// ellipsoidal radius of the core-mantle boundary is stretched/compressed
-			// using the new flattening parameter.
-			double rCMBOriginal = newProfiles[iCMB].getRadiusTop();
-			double rCMBNew = rCMBOriginal * stretch;
-
-			// radius of the discontinuity at ~660 km depth is set to
-			// be at same depth in new model as it was in original model.
-			double depth_660 = originalEarthRadius - newProfiles[i660].getRadiusTop();
-			double r660New = newEarthRadius - depth_660;
-
-			double mfactor = (r660New - rCMBNew) / (newProfiles[i660].getRadiusTop() - rCMBOriginal);
-
-			// for layers from center of earth to CMB, stretch/compress
-			// the radii using ratio of earth flattening parameters
-			for (int i = 0; i <= iCMB; ++i)
-				for (int j = 0; j < newProfiles[i].getNRadii(); ++j)
-					newProfiles[i].setRadius(j, (float) (newProfiles[i].getRadius(j) * stretch));
-
-			// for layers from CMB to M660, stretch/compress linearly
-			// between radii at CMB and M660.
-			for (int i = iCMB + 1; i <= i660; ++i) {
-				newProfiles[i].setRadius(0, (float) newProfiles[i - 1].getRadiusTop());
-				for (int j = 1; j < newProfiles[i].getNRadii(); ++j)
-					newProfiles[i].setRadius(j,
-							(float) (rCMBNew + (newProfiles[i].getRadius(j) - rCMBOriginal) * mfactor));
-			}
+		final EarthShape oldShape = model.getEarthShape();
+		new ConcurrentRange() {
+			@Override
+			protected void process(int first, int last) throws Exception {
+				for (int vertex = first; vertex < last; ++vertex) {
+					double[] u = model.getGrid().getVertex(vertex);
+					double originalEarthRadius = oldShape.getEarthRadius(u);
+					double newEarthRadius = newShape.getEarthRadius(u);
+
+					double dr = newEarthRadius - originalEarthRadius;
+
+					double stretch = newEarthRadius / originalEarthRadius;
+
+					Profile[] profiles = model.getProfiles(vertex);
+
+					// ellipsoidal radius of the core-mantle boundary is stretched/compressed
+					// using the new flattening parameter.
+					double rCMBOriginal = profiles[iCMB].getRadiusTop();
+					double rCMBNew = rCMBOriginal * stretch;
+
+					// radius of the discontinuity at ~660 km depth is set to
+					// be at same depth in new model as it was in original model.
+					double depth_660 = originalEarthRadius - profiles[i660].getRadiusTop();
+					double r660New = newEarthRadius - depth_660;
+
+					// must be computed before any radii are modified.
+					double mfactor = (r660New - rCMBNew) / (profiles[i660].getRadiusTop() - rCMBOriginal);
+
+					// for layers from center of earth to CMB, stretch/compress
+					// the radii using ratio of earth flattening parameters
+					for (int i = 0; i <= iCMB; ++i)
+						for (int j = 0; j < profiles[i].getNRadii(); ++j)
+							profiles[i].setRadius(j, (float) (profiles[i].getRadius(j) * stretch));
+
+					// for layers from CMB to M660, stretch/compress linearly
+					// between radii at CMB and M660.
+					for (int i = iCMB + 1; i <= i660; ++i) {
+						profiles[i].setRadius(0, (float) profiles[i - 1].getRadiusTop());
+						for (int j = 1; j < profiles[i].getNRadii(); ++j)
+							profiles[i].setRadius(j,
+									(float) (rCMBNew + (profiles[i].getRadius(j) - rCMBOriginal) * mfactor));
+					}
 
-			// for interfaces from M660 to surface, preserve depth of the interfaces.
-			for (int i = i660 + 1; i < newProfiles.length; ++i) {
-				newProfiles[i].setRadius(0, (float) newProfiles[i - 1].getRadiusTop());
-				for (int j = 1; j < newProfiles[i].getNRadii(); ++j)
-					newProfiles[i].setRadius(j, (float) (newProfiles[i].getRadius(j) + dr));
+					// for interfaces from M660 to surface, preserve depth of the interfaces.
+					for (int i = i660 + 1; i < profiles.length; ++i) {
+						profiles[i].setRadius(0, (float) profiles[i - 1].getRadiusTop());
+						for (int j = 1; j < profiles[i].getNRadii(); ++j)
+							profiles[i].setRadius(j, (float) (profiles[i].getRadius(j) + dr));
+					}
+				}
 			}
-
-			model.getProfiles()[vertex] = newProfiles;
-		}
+		}.execute(model.getNVertices(), maxProcessors);
 		model.setEarthShape(newShape);
 	}
 
@@ -301,34 +555,7 @@ public class BuilderUtils {
 	 * @throws Exception
 	 */
 	static public void removeLayer(GeoTessModel model, String layerName) throws Exception {
-		int layer = model.getMetaData().getLayerIndex(layerName);
-		if (layer < 0)
-			throw new Exception(layerName + " is not a recognized interface in this model");
-
-		int nLayersOld = model.getNLayers();
-		int nLayersNew = nLayersOld - 1;
-
-		for (int vertex = 0; vertex < model.getNVertices(); ++vertex) {
-			Profile[] oldProfiles = model.getProfiles(vertex);
-
-			Profile[] newProfiles = new Profile[nLayersNew];
-			int idx = 0;
-			for (int i = 0; i < nLayersOld; ++i)
-				if (i != layer)
-					newProfiles[idx++] = oldProfiles[i];
-
-			model.getProfiles()[vertex] = newProfiles;
-		}
-
-		String[] layerNames = new String[nLayersNew];
-		int idx = 0;
-		for (int i = 0; i < nLayersOld; ++i)
-			if (i != layer)
-				layerNames[idx++] = model.getMetaData().getLayerName(i);
-
-		model.getMetaData().setLayerNames(layerNames);
-
-		model.setActiveRegion();
+		new LayerEditPlan().removeLayer(layerName).apply(model);
 	}
 
 	/**
@@ -339,6 +566,10 @@ public class BuilderUtils {
 	 * WARNING: this only works with layers comprised of Profiles that are of type
 	 * CONSTANT or THIN.
 	 * 
+	 * <p>
+	 * Use a LayerEditPlan directly to find out how many vertices were left with
+	 * NaN values (LayerEditPlan.getNThin()).
+	 * 
 	 * @param model
 	 * @param layerName1
 	 * @param layerName2
@@ -347,89 +578,7 @@ public class BuilderUtils {
 	 */
 	static public void combineMajorLayersToConstant(GeoTessModel model, String layerName1, String layerName2,
 			String newLayerName) throws Exception {
-		int layer1 = model.getMetaData().getLayerIndex(layerName1);
-		if (layer1 < 0)
-			throw new Exception(layerName1 + " is not a recognized interface in this model");
-
-		int layer2 = model.getMetaData().getLayerIndex(layerName2);
-		if (layer2 < 0)
-			throw new Exception(layerName2 + " is not a recognized interface in this model");
-
-		int nAttributes = model.getNAttributes();
-		int nLayersOld = model.getNLayers();
-		int nLayersNew = nLayersOld - (layer2 - layer1);
-
-		int nThin = 0;
-
-		for (int vertex = 0; vertex < model.getNVertices(); ++vertex) {
-			Profile[] profiles = model.getProfiles(vertex);
-
-			// find total thickness of layers that are to be replaced.
-			double totalThickness = 0;
-			for (int layer = layer1; layer <= layer2; ++layer)
-				totalThickness += profiles[layer].getThickness();
-
-			float[] values = new float[nAttributes];
-
-			if (totalThickness < 1e-4) {
-				// total thickness is zero. See if any layer has non-NaN values.
-				int[] count = new int[nAttributes];
-				for (int layer = layer1; layer <= layer2; ++layer) {
-					for (int a = 0; a < nAttributes; ++a)
-						if (!Double.isNaN(profiles[layer].getValue(a, 0))) {
-							values[a] += profiles[layer].getValue(a, 0);
-							++count[a];
-						}
-				}
-
-				for (int a = 0; a < nAttributes; ++a)
-					if (count[a] == 0) {
-						// if any attribute is all nans, then set all attribute values to nan.
-						Arrays.fill(values, Float.NaN);
-						++nThin;
-						break;
-					} else
-						values[a] /= count[a];
-
-				float[] radii = new float[] { (float) profiles[layer2].getRadiusTop() };
-
-				profiles[layer1] = Profile.newProfile(radii, new float[][] { values });
-			} else {
-				for (int layer = layer1; layer <= layer2; ++layer)
-					for (int a = 0; a < nAttributes; ++a)
-						if (!Double.isNaN(profiles[layer].getValue(a, 0)))
-							values[a] += profiles[layer].getThickness() * profiles[layer].getValue(a, 0);
-
-				for (int a = 0; a < nAttributes; ++a)
-					values[a] /= totalThickness;
-
-				float[] radii = new float[] { (float) profiles[layer1].getRadiusBottom(),
-						(float) profiles[layer2].getRadiusTop() };
-
-				profiles[layer1] = Profile.newProfile(radii, new float[][] { values });
-			}
-
-			Profile[] newProfiles = new Profile[nLayersNew];
-			int idx = 0;
-			for (int i = 0; i < nLayersOld; ++i)
-				if (i <= layer1 || i > layer2)
-					newProfiles[idx++] = profiles[i];
-
-			model.getProfiles()[vertex] = newProfiles;
-		}
-
-		System.out.println("nThin = " + nThin);
-
-		String[] layerNames = new String[nLayersNew];
-		int idx = 0;
-		for (int i = 0; i < nLayersOld; ++i)
-			if (i <= layer1 || i > layer2)
-				layerNames[idx++] = model.getMetaData().getLayerName(i);
-		layerNames[layer1] = newLayerName;
-
-		model.getMetaData().setLayerNames(layerNames);
-
-		model.setActiveRegion();
+		new LayerEditPlan().combineLayersToConstant(layerName1, layerName2, newLayerName).apply(model);
 	}
 
 	/**
@@ -452,58 +601,138 @@ public class BuilderUtils {
 		checkZeroThicknessValues(model, model.getMetaData().getLayerIndex(layerName));
 	}
 
+	/**
+	 * Replace NaN values in the specified layer with the average of the values at
+	 * neighboring vertices that are not NaN, repeating until no more values can
+	 * be filled in. Only works on layers comprised of Profiles that are of type
+	 * CONSTANT, THIN or SURFACE.
+	 * <p>
+	 * Holes are filled from the outside in, one wave at a time. Each wave only
+	 * visits the NaN vertices that are neighbors of vertices filled by the
+	 * previous wave, and the vertices of a wave are processed concurrently.
+	 * 
+	 * @param model
+	 * @param layer
+	 * @throws Exception
+	 */
 	static public void checkZeroThicknessValues(GeoTessModel model, int layer) throws Exception {
-		int nAttributes = model.getNAttributes();
-		;
+		checkZeroThicknessValues(model, layer, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Replace NaN values in the specified layer with the average of the values at
+	 * neighboring vertices that are not NaN, repeating until no more values can
+	 * be filled in. Only works on layers comprised of Profiles that are of type
+	 * CONSTANT, THIN or SURFACE.
+	 * 
+	 * @param model
+	 * @param layer
+	 * @param maxProcessors
+	 * @throws Exception
+	 */
+	static public void checkZeroThicknessValues(final GeoTessModel model, final int layer, final int maxProcessors)
+			throws Exception {
+		final int nAttributes = model.getNAttributes();
 
-		int[] count = new int[model.getNVertices()];
-		double[][] values = new double[model.getNVertices()][nAttributes];
+		final GeoTessGrid grid = model.getGrid();
+		final int tessId = model.getMetaData().getTessellation(layer);
+		final int level = grid.getNLevels(tessId) - 1;
 
-		GeoTessGrid grid = model.getGrid();
-		int tessId = model.getMetaData().getTessellation(layer);
-		int level = grid.getNLevels(tessId) - 1;
-		int nhits = 1;
 		HashSetInteger vertices = grid.getVertexIndices(tessId, level);
-		Iterator iterator;
+		final int[] topLevel = new int[vertices.size()];
+		int n = 0;
+		Iterator iterator = vertices.iterator();
+		while (iterator.hasNext())
+			topLevel[n++] = iterator.next();
+
+		if (topLevel.length == 0)
+			return;
+
+		// vertex neighbors are computed on demand by the grid. Make sure that
+		// happens before any worker threads ask for them.
+		grid.getVertexNeighbors(tessId, level, topLevel[0]);
 
-		EnumSet<ProfileType> profileTypes = EnumSet.of(ProfileType.CONSTANT, ProfileType.THIN, ProfileType.SURFACE);
+		final EnumSet<ProfileType> profileTypes = EnumSet.of(ProfileType.CONSTANT, ProfileType.THIN,
+				ProfileType.SURFACE);
 
-		while (nhits > 0) {
-			iterator = vertices.iterator();
-			while (iterator.hasNext()) {
-				int vertex = iterator.next();
-				Profile profile = model.getProfile(vertex, layer);
+		// the set of vertices whose values are currently NaN.
+		BitSet nanTopLevel = new ConcurrentRange.Selection() {
+			@Override
+			protected boolean test(int i) throws Exception {
+				Profile profile = model.getProfile(topLevel[i], layer);
 				if (!profileTypes.contains(profile.getType()))
 					throw new Exception("Can't fix data in layer of type " + profile.getType());
-
-				if (Double.isNaN(profile.getValue(0, 0))) {
-					for (int neighborVertex : grid.getVertexNeighbors(tessId, level, vertex)) {
-						Profile neighbor = model.getProfile(neighborVertex, layer);
-						if (!Double.isNaN(neighbor.getValue(0, 0))) {
-							++count[vertex];
+				return Double.isNaN(profile.getValue(0, 0));
+			}
+		}.select(topLevel.length, maxProcessors);
+
+		final BitSet nan = new BitSet(model.getNVertices());
+		for (int i = nanTopLevel.nextSetBit(0); i >= 0; i = nanTopLevel.nextSetBit(i + 1))
+			nan.set(topLevel[i]);
+
+		// the first wave is every NaN vertex. Those with no valid neighbors are
+		// simply not filled.
+		int[] frontier = toArray(nan);
+
+		while (frontier.length > 0) {
+			final int[] wave = frontier;
+			final int[] count = new int[wave.length];
+			final double[] sums = new double[wave.length * nAttributes];
+
+			// accumulate the values of the valid neighbors of every vertex in the wave.
+			new ConcurrentRange() {
+				@Override
+				protected void process(int first, int last) throws Exception {
+					for (int i = first; i < last; ++i)
+						for (int neighborVertex : grid.getVertexNeighbors(tessId, level, wave[i]))
+							if (!nan.get(neighborVertex)) {
+								Profile neighbor = model.getProfile(neighborVertex, layer);
+								++count[i];
+								for (int a = 0; a < nAttributes; ++a)
+									sums[i * nAttributes + a] += neighbor.getValue(a, 0);
+							}
+				}
+			}.execute(wave.length, maxProcessors);
+
+			// fill in the vertices that had valid neighbors.
+			new ConcurrentRange() {
+				@Override
+				protected void process(int first, int last) throws Exception {
+					for (int i = first; i < last; ++i)
+						if (count[i] > 0) {
+							Data data = model.getProfile(wave[i], layer).getData(0);
 							for (int a = 0; a < nAttributes; ++a)
-								values[vertex][a] += neighbor.getValue(a, 0);
+								data.setValue(a, sums[i * nAttributes + a] / count[i]);
 						}
-					}
 				}
-			}
-
-			nhits = 0;
-			for (int vertex = 0; vertex < count.length; ++vertex)
-				if (count[vertex] > 0) {
-					++nhits;
-					Profile profile = model.getProfile(vertex, layer);
-					for (int a = 0; a < nAttributes; ++a)
-						profile.getData(0).setValue(a, values[vertex][a] / count[vertex]);
-
-				}
-
-			Arrays.fill(count, 0);
-			for (int i = 0; i < values.length; ++i)
-				Arrays.fill(values[i], 0.);
-
-			// System.out.println("NHits = "+nhits);
+			}.execute(wave.length, maxProcessors);
+
+			BitSet filled = new BitSet();
+			for (int i = 0; i < wave.length; ++i)
+				if (count[i] > 0)
+					filled.set(wave[i]);
+			nan.andNot(filled);
+
+			// the next wave consists of the NaN neighbors of the vertices just filled.
+			BitSet next = new BitSet();
+			for (int vertex = filled.nextSetBit(0); vertex >= 0; vertex = filled.nextSetBit(vertex + 1))
+				for (int neighborVertex : grid.getVertexNeighbors(tessId, level, vertex))
+					if (nan.get(neighborVertex))
+						next.set(neighborVertex);
+
+			frontier = toArray(next);
 		}
 	}
 
+	/**
+	 * @return the indices of the set bits, in increasing order.
+	 */
+	private static int[] toArray(BitSet bits) {
+		int[] array = new int[bits.cardinality()];
+		int n = 0;
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+			array[n++] = i;
+		return array;
+	}
+
 }
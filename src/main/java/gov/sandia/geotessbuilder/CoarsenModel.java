@@ -0,0 +1,241 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+
+package gov.sandia.geotessbuilder;
+
+import gov.sandia.geotess.GeoTessException;
+import gov.sandia.geotess.GeoTessGrid;
+import gov.sandia.geotess.GeoTessMetaData;
+import gov.sandia.geotess.GeoTessModel;
+import gov.sandia.geotess.PointMap;
+import gov.sandia.gmp.util.globals.Globals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Removes refinement from a GeoTessModel. Sets of 4 sibling triangles are
+ * merged back into their ancestor where all the vertices that would be removed
+ * are associated only with selected points (see TessellationCoarsened). Every
+ * vertex of the coarsened grid is colocated with a vertex of the original grid,
+ * so the profiles of the surviving vertices are copied from the original model
+ * without interpolation. Profiles are not coarsened radially.
+ */
+public class CoarsenModel {
+
+	/**
+	 * Coarsen a model.
+	 * 
+	 * @param oldModel          the model to coarsen.
+	 * @param pointsToCoarsen   the set of points, indexed by point index in
+	 *                          oldModel, where the resolution of the model is no
+	 *                          longer required. A vertex may be removed from a
+	 *                          tessellation only if all of its points in the
+	 *                          layers supported by that tessellation are in this
+	 *                          set.
+	 * @param nCoarseningLevels maximum number of levels of refinement to remove.
+	 * @param maxProcessors     maximum number of threads to use.
+	 * @param verbosity
+	 * @return a new, coarsened model.
+	 * @throws Exception
+	 */
+	public static GeoTessModel coarsenModel(GeoTessModel oldModel, BitSet pointsToCoarsen, int nCoarseningLevels,
+			int maxProcessors, int verbosity) throws Exception {
+		long timer = System.currentTimeMillis();
+
+		if (nCoarseningLevels < 1)
+			throw new GeoTessException(
+					String.format("%nnCoarseningLevels = %d but must be at least 1%n", nCoarseningLevels));
+
+		if (verbosity > 0)
+			System.out.print("Constructing coarsened grid ...");
+
+		long tmr = System.currentTimeMillis();
+
+		GeoTessGrid oldGrid = oldModel.getGrid();
+
+		// for each tessellation, the set of vertices that may be removed, indexed by
+		// vertex index in the current grid.
+		BitSet[] verticesToCoarsen = getVerticesToCoarsen(oldModel, pointsToCoarsen);
+
+		InitialSolid solid = new InitialSolid(oldGrid, 0);
+
+		GeoTessGrid grid = oldGrid;
+
+		// map from vertices in the current grid to vertices in oldGrid, or null
+		// while the current grid is oldGrid.
+		int[] gridToOld = null;
+
+		for (int round = 0; round < nCoarseningLevels; ++round) {
+			GridBuilder newGrid = coarsenTessellations(grid, solid, verticesToCoarsen, maxProcessors);
+
+			int[] newToGrid = newGrid.getSourceVertexIndexes();
+
+			// every vertex of a coarsened grid must exist in the grid it came from.
+			for (int v = 0; v < newToGrid.length; ++v)
+				if (newToGrid[v] < 0)
+					throw new GeoTessException(String.format(
+							"%nVertex %d of the coarsened grid has no counterpart in the original grid.%n", v));
+
+			// the vertices to coarsen in the next round, indexed by vertex in newGrid.
+			BitSet[] next = new BitSet[verticesToCoarsen.length];
+			for (int tessid = 0; tessid < next.length; ++tessid) {
+				next[tessid] = new BitSet(newGrid.getNVertices());
+				for (int v = 0; v < newToGrid.length; ++v)
+					if (verticesToCoarsen[tessid].get(newToGrid[v]))
+						next[tessid].set(v);
+			}
+			verticesToCoarsen = next;
+
+			int[] newToOld = new int[newToGrid.length];
+			for (int v = 0; v < newToOld.length; ++v)
+				newToOld[v] = gridToOld == null ? newToGrid[v] : gridToOld[newToGrid[v]];
+			gridToOld = newToOld;
+
+			boolean changed = newGrid.getNVertices() < grid.getNVertices();
+			grid = newGrid;
+
+			// stop early if nothing more could be removed.
+			if (!changed)
+				break;
+		}
+
+		tmr = System.currentTimeMillis() - tmr;
+		if (verbosity > 0)
+			System.out.printf(" %1.3f sec%n", tmr * 1e-3);
+
+		if (verbosity > 0)
+			System.out.printf("Removed %d of %d vertices%n", oldGrid.getNVertices() - grid.getNVertices(),
+					oldGrid.getNVertices());
+
+		GeoTessModel newModel = buildNewModel(oldModel, grid, gridToOld, maxProcessors);
+
+		if (verbosity > 0)
+			System.out.printf("Total time required to coarsen model %s%n%n", Globals.elapsedTime(timer));
+
+		return newModel;
+	}
+
+	/**
+	 * For each tessellation, find the vertices all of whose points, in the layers
+	 * supported by that tessellation, are in pointsToCoarsen.
+	 * 
+	 * @param model
+	 * @param pointsToCoarsen
+	 * @return for each tessellation, the set of vertices that may be removed,
+	 *         indexed by vertex index.
+	 */
+	static BitSet[] getVerticesToCoarsen(GeoTessModel model, BitSet pointsToCoarsen) {
+		int nTess = model.getGrid().getNTessellations();
+		BitSet[] selected = new BitSet[nTess];
+		BitSet[] rejected = new BitSet[nTess];
+		for (int tessid = 0; tessid < nTess; ++tessid) {
+			selected[tessid] = new BitSet(model.getNVertices());
+			rejected[tessid] = new BitSet(model.getNVertices());
+		}
+
+		PointMap pointMap = model.getPointMap();
+		for (int point = 0; point < pointMap.size(); ++point) {
+			// 0:vertex index, 1:layer index, 2:node index
+			int[] pmap = pointMap.getPointIndices(point);
+			int tessid = model.getMetaData().getTessellation(pmap[1]);
+			if (pointsToCoarsen.get(point))
+				selected[tessid].set(pmap[0]);
+			else
+				rejected[tessid].set(pmap[0]);
+		}
+
+		for (int tessid = 0; tessid < nTess; ++tessid)
+			selected[tessid].andNot(rejected[tessid]);
+		return selected;
+	}
+
+	/**
+	 * Coarsen every tessellation of grid once, concurrently, and assemble the
+	 * results into a new grid.
+	 */
+	static private GridBuilder coarsenTessellations(final GeoTessGrid grid, final InitialSolid solid,
+			final BitSet[] verticesToCoarsen, int maxProcessors) throws GeoTessException {
+		final Tessellation[] coarsened = new Tessellation[grid.getNTessellations()];
+
+		new ConcurrentRange() {
+			@Override
+			protected void process(int first, int last) throws Exception {
+				for (int tessid = first; tessid < last; ++tessid)
+					coarsened[tessid] = new TessellationCoarsened(grid, solid, tessid, verticesToCoarsen[tessid]);
+			}
+		}.execute(coarsened.length, maxProcessors, 1);
+
+		return new GridBuilder(new ArrayList<Tessellation>(Arrays.asList(coarsened)));
+	}
+
+	/**
+	 * Create a new GeoTessModel using newGrid and populate it with copies of the
+	 * profiles of the colocated vertices in oldModel.
+	 * 
+	 * @param oldModel
+	 * @param newGrid
+	 * @param newToOld      for each vertex in newGrid, the index of the colocated
+	 *                      vertex in oldModel.
+	 * @param maxProcessors
+	 * @return
+	 * @throws Exception
+	 */
+	static GeoTessModel buildNewModel(final GeoTessModel oldModel, GeoTessGrid newGrid, final int[] newToOld,
+			int maxProcessors) throws Exception {
+		final GeoTessModel newModel = GeoTessModel.getGeoTessModel(newGrid,
+				new GeoTessMetaData(oldModel.getMetaData()));
+
+		// copy the 'extra' data from the oldModel.
+		newModel.copyDerivedClassData(oldModel);
+
+		new ConcurrentRange() {
+			@Override
+			protected void process(int first, int last) throws Exception {
+				for (int vertex = first; vertex < last; ++vertex)
+					for (int layer = 0; layer < oldModel.getNLayers(); ++layer)
+						newModel.setProfile(vertex, layer, oldModel.getProfile(newToOld[vertex], layer).copy());
+			}
+		}.execute(newToOld.length, maxProcessors);
+
+		// if the oldModel had a Polygon set, set the same Polygon in the
+		// newModel. Otherwise set activeRegion to include all nodes in the model.
+		newModel.setActiveRegion(oldModel.getPointMap().getPolygon());
+
+		return newModel;
+	}
+
+}
@@ -0,0 +1,209 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+
+package gov.sandia.geotessbuilder;
+
+import gov.sandia.geotess.GeoTessException;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a range of indices [0, n) into contiguous blocks, one per processor,
+ * and calls process(first, last) on each block. The blocks are processed
+ * concurrently when more than one processor is available and there are enough
+ * elements to make it worth it, otherwise the whole range is processed in the
+ * calling thread.
+ * <p>
+ * Implementations must only modify state that is owned by the block they are
+ * processing. Objects that are not thread safe, such as GeoTessPosition
+ * objects, should be instantiated inside process() so that each worker thread
+ * gets its own copy.
+ */
+abstract class ConcurrentRange {
+
+	/**
+	 * Default minimum number of elements that will be assigned to a single task.
+	 */
+	static final int MIN_PER_TASK = 1000;
+
+	/**
+	 * Process elements first (inclusive) to last (exclusive).
+	 * 
+	 * @param first index of the first element to process.
+	 * @param last  one more than the index of the last element to process.
+	 * @throws Exception
+	 */
+	protected abstract void process(int first, int last) throws Exception;
+
+	/**
+	 * Process elements 0 to n-1 using up to nProcessors threads.
+	 * 
+	 * @param n           number of elements to process.
+	 * @param nProcessors maximum number of threads to use.
+	 * @throws GeoTessException
+	 */
+	public void execute(int n, int nProcessors) throws GeoTessException {
+		execute(n, nProcessors, MIN_PER_TASK);
+	}
+
+	/**
+	 * Process elements 0 to n-1 using up to nProcessors threads. No thread will
+	 * be assigned fewer than minPerTask elements.
+	 * 
+	 * @param n           number of elements to process.
+	 * @param nProcessors maximum number of threads to use.
+	 * @param minPerTask  minimum number of elements assigned to a single thread.
+	 * @throws GeoTessException
+	 */
+	public void execute(int n, int nProcessors, int minPerTask) throws GeoTessException {
+		if (n <= 0)
+			return;
+
+		int nTasks = (int) Math.min(nProcessors, Math.ceil(n / (double) Math.max(1, minPerTask)));
+
+		try {
+			if (nTasks <= 1) {
+				// do not use concurrency because either there is only one
+				// processor available or because there simply are not enough
+				// elements to make it worth it.
+				process(0, n);
+				return;
+			}
+
+			ExecutorService threadPool = Executors.newFixedThreadPool(nTasks);
+			try {
+				ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(nTasks);
+				for (int task = 0; task < nTasks; ++task) {
+					final int first = (int) ((long) n * task / nTasks);
+					final int last = (int) ((long) n * (task + 1) / nTasks);
+					futures.add(threadPool.submit(new Callable<Object>() {
+						@Override
+						public Object call() throws Exception {
+							process(first, last);
+							return null;
+						}
+					}));
+				}
+
+				// pause until all the tasks are complete.
+				for (Future<Object> future : futures)
+					future.get();
+			} finally {
+				threadPool.shutdown();
+			}
+		} catch (GeoTessException e) {
+			throw e;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof GeoTessException)
+				throw (GeoTessException) e.getCause();
+			if (e.getCause() instanceof Exception)
+				throw new GeoTessException((Exception) e.getCause());
+			throw new GeoTessException(e);
+		} catch (Exception e) {
+			throw new GeoTessException(e);
+		}
+	}
+
+	/**
+	 * Finds the elements of a range of indices [0, n) that satisfy a test. The
+	 * range is split into blocks exactly as ConcurrentRange does. Each block
+	 * records the elements that pass the test in its own BitSet, and the BitSets
+	 * are combined once all the blocks are complete.
+	 * <p>
+	 * Implementations of test() are subject to the same restrictions as
+	 * implementations of ConcurrentRange.process().
+	 */
+	static abstract class Selection {
+
+		/**
+		 * @param i index of an element
+		 * @return true if element i is to be selected.
+		 * @throws Exception
+		 */
+		protected abstract boolean test(int i) throws Exception;
+
+		/**
+		 * Test elements 0 to n-1 using up to nProcessors threads.
+		 * 
+		 * @param n           number of elements to test.
+		 * @param nProcessors maximum number of threads to use.
+		 * @return BitSet with a bit set for every element that passed the test.
+		 * @throws GeoTessException
+		 */
+		public BitSet select(int n, int nProcessors) throws GeoTessException {
+			return select(n, nProcessors, MIN_PER_TASK);
+		}
+
+		/**
+		 * Test elements 0 to n-1 using up to nProcessors threads. No thread will be
+		 * assigned fewer than minPerTask elements.
+		 * 
+		 * @param n           number of elements to test.
+		 * @param nProcessors maximum number of threads to use.
+		 * @param minPerTask  minimum number of elements assigned to a single thread.
+		 * @return BitSet with a bit set for every element that passed the test.
+		 * @throws GeoTessException
+		 */
+		public BitSet select(int n, int nProcessors, int minPerTask) throws GeoTessException {
+			// each block populates its own BitSet. They are combined afterward.
+			final ArrayList<BitSet> results = new ArrayList<BitSet>();
+
+			new ConcurrentRange() {
+				@Override
+				protected void process(int first, int last) throws Exception {
+					BitSet result = new BitSet(last);
+					for (int i = first; i < last; ++i)
+						if (test(i))
+							result.set(i);
+					synchronized (results) {
+						results.add(result);
+					}
+				}
+			}.execute(n, nProcessors, minPerTask);
+
+			BitSet selection = new BitSet(n);
+			for (BitSet result : results)
+				selection.or(result);
+			return selection;
+		}
+	}
+
+}
@@ -37,23 +37,19 @@ package gov.sandia.geotessbuilder;
 
 import gov.sandia.geotess.*;
 import gov.sandia.gmp.util.containers.arraylist.ArrayListInt;
-import gov.sandia.gmp.util.globals.DataType;
 import gov.sandia.gmp.util.globals.Globals;
 import gov.sandia.gmp.util.numerical.platonicsolid.PlatonicSolid;
-import gov.sandia.gmp.util.numerical.polygon.GreatCircle;
-import gov.sandia.gmp.util.numerical.polygon.GreatCircle.GreatCircleException;
 import gov.sandia.gmp.util.numerical.polygon.Polygon;
 import gov.sandia.gmp.util.numerical.polygon.PolygonFactory;
 import gov.sandia.gmp.util.numerical.vector.VectorGeo;
-import gov.sandia.gmp.util.numerical.vector.VectorUnit;
 import gov.sandia.gmp.util.propertiesplus.PropertiesPlus;
 import gov.sandia.gmp.util.propertiesplus.PropertiesPlusException;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Scanner;
-import java.util.zip.ZipFile;
 
 import static java.lang.Math.*;
 
@@ -112,7 +108,6 @@ public class GeoTessBuilderMain {
 	 * @throws PropertiesPlusException
 	 * @throws GeoTessException
 	 * @throws IOException
-	 * @throws GreatCircleException
 	 */
 	static public Object run(PropertiesPlus properties) throws Exception {
 		return run(properties, null);
@@ -121,13 +116,15 @@ public class GeoTessBuilderMain {
 	/**
 	 * 
 	 * @param properties
-	 * @param modelToRefine can be null
+	 * @param modelToRefine can be null. The model to refine or coarsen.
 	 * @return either a GeoTessModel or GeoTessGrid, depending on whether
-	 *         gridConstructionMode is 'model refinement' or 'scratch'.
+	 *         gridConstructionMode is 'model refinement', 'model coarsening' or
+	 *         'scratch'. In 'scratch' mode with estimateGridSize = true, an array
+	 *         of GridSizeEstimator objects, one per tessellation, is returned and
+	 *         no grid is built.
 	 * @throws PropertiesPlusException
 	 * @throws GeoTessException
 	 * @throws IOException
-	 * @throws GreatCircleException
 	 */
 	static public Object run(PropertiesPlus properties, GeoTessModel modelToRefine) throws Exception {
 		int verbosity = properties.getInt("verbosity", 1);
@@ -139,110 +136,77 @@ public class GeoTessBuilderMain {
 			throw new GeoTessException(
 					String.format("%n%nProperty gridConstructionMode is not specified in the properties file.%n"
 							+ "Execting one of the following values:%n" + "gridConstructionMode = model refinement%n"
+							+ "gridConstructionMode = model coarsening%n" + "gridConstructionMode = adaptive refinement%n"
 							+ "gridConstructionMode = scratch%n"));
 
 		if (gridConstructionMode.toLowerCase().contains("model")
-				&& gridConstructionMode.toLowerCase().contains("refine")) {
+				&& gridConstructionMode.toLowerCase().contains("coarsen")) {
 			if (modelToRefine == null) {
-				String model = properties.getProperty("modelToRefine");
+				String model = properties.getProperty("modelToCoarsen");
 				if (model == null)
-					throw new GeoTessException("\nProperty modelToRefine is not specififed.\n"
-							+ "modelToRefine is required when running in 'model refinement' mode.\n");
+					throw new GeoTessException("\nProperty modelToCoarsen is not specififed.\n"
+							+ "modelToCoarsen is required when running in 'model coarsening' mode.\n");
 
 				modelToRefine = new GeoTessModel(model);
 			}
 
-			ArrayListInt pointsToRefine = null;
-			if (properties.containsKey("pointsToRefine"))
-				pointsToRefine = new ArrayListInt(properties.getIntArray("pointsToRefine"));
-			else if (properties.containsKey("fileOfPointsToRefine")) {
-				File f = properties.getFile("fileOfPointsToRefine");
-				if (!f.exists())
-					throw new IOException(
-							"File " + properties.getProperty("fileOfPointsToRefine") + " does not exist.");
-				Scanner input = new Scanner(f);
-				pointsToRefine = new ArrayListInt(1000);
-				while (input.hasNext())
-					pointsToRefine.add(input.nextInt());
-				input.close();
-			} else if (properties.containsKey("polygonToRefine")) {
-				pointsToRefine = new ArrayListInt(1000);
-				for (Polygon polygon : PolygonFactory.getPolygons(properties.getFile("polygonToRefine")))
-					for (int point = 0; point < modelToRefine.getNPoints(); ++point)
-						if (polygon.contains(modelToRefine.getPointMap().getPointUnitVector(point)))
-							pointsToRefine.add(point);
-			} else if (properties.containsKey("threshold")) {
-				// expect property 'threshold' to be something like
-				// attribute > 0.5
-				// where first token is attributeName,
-				// second is one of <=, <, !=, ==, =, >, >=
-				// and third can be parsed to double or long.
-				String[] parts = properties.getProperty("threshold").trim().replaceAll(",", " ").replaceAll("  ", " ")
-						.split(" ");
-
-				if (parts.length < 3)
-					throw new IOException(String.format("%nproperty 'threshold' is invalid.%n"
-							+ "Must contain at least 3 substrings:%nattribute name, comparison operator, and threshold value"));
-
-				String attribute = parts[0];
-				for (int i = 1; i < parts.length - 2; ++i)
-					attribute += String.format(" %s", parts[i]);
-
-				int attributeIndex = modelToRefine.getMetaData().getAttributeIndex(attribute);
-				if (attributeIndex < 0) {
-					throw new IOException(
-							String.format("model does not contain attribute %s.%n" + "Valid attributes are %s%n",
-									attribute, modelToRefine.getMetaData().getAttributeNamesString()));
-				}
-				String comparison = parts[parts.length - 2];
-				String threshold = parts[parts.length - 1];
+			int maxProcessors = properties.getInt("maxProcessors", Runtime.getRuntime().availableProcessors());
 
-				pointsToRefine = getThresholdPoints(modelToRefine, attributeIndex, comparison, threshold);
-			}
+			// the set of points where resolution is no longer required, indexed by point
+			// index in modelToRefine.
+			BitSet pointsToCoarsen = selectPoints(properties, modelToRefine, "Coarsen", maxProcessors);
 
-			if (pointsToRefine == null)
-				throw new IOException("\ninternal variable pointsToRefine is null.  \n"
-						+ "One of the properties 'pointsToRefine', 'fileOfPointsToRefine' or "
-						+ "'threshold' must be set, but none are set.");
+			GeoTessModel newModel = CoarsenModel.coarsenModel(modelToRefine, pointsToCoarsen,
+					properties.getInt("nCoarseningLevels", 1), maxProcessors, verbosity);
 
-			int[] maxTriangleEdgeLevel;
+			newModel.getGrid().delaunay();
 
-			if (properties.containsKey("minTriangleSize")) {
-				double[] minTriangleSize = properties.getDoubleArray("minTriangleSize");
+			String outputFile = properties.getProperty("outputModelFile");
 
-				if (minTriangleSize.length != modelToRefine.getGrid().getNTessellations())
-					throw new PropertiesPlusException(String.format(
-							"%nThe number of elements in minTriangleSize and number of tessellations in modelToRefine do not agree.%n"
-									+ "There are %d tessellations in modelToRefine and %d elements in property minTriangleSize.",
-							modelToRefine.getGrid().getNTessellations(), minTriangleSize.length));
+			if (outputFile != null) {
+				newModel.writeModel(outputFile);
 
-				maxTriangleEdgeLevel = new int[modelToRefine.getGrid().getNTessellations()];
-				for (int tessid = 0; tessid < modelToRefine.getGrid().getNTessellations(); ++tessid) {
-					maxTriangleEdgeLevel[tessid] = GeoTessUtils.getTessLevel(minTriangleSize[tessid]);
-					if (maxTriangleEdgeLevel[tessid] < modelToRefine.getGrid().getNLevels(tessid) - 1)
-						throw new PropertiesPlusException(String.format("%nminTriangleSize[%d] is %1.3f "
-								+ "which is greater than the size of the triangles in tessellation[%d] of modelToRefine which is %1.3f%n",
-								tessid, minTriangleSize[tessid], tessid,
-								GeoTessUtils.getEdgeLength(modelToRefine.getGrid().getNLevels(tessid) - 1)));
+				if (verbosity > 0)
+					System.out.println("Coarsened model written to output file " + outputFile);
+			}
 
-				}
-			} else {
-				maxTriangleEdgeLevel = new int[modelToRefine.getGrid().getNTessellations()];
-				Arrays.fill(maxTriangleEdgeLevel, Integer.MAX_VALUE);
+			plotFile(properties, newModel.getGrid());
+
+			return newModel;
+		} else if (gridConstructionMode.toLowerCase().contains("adaptive")) {
+			if (modelToRefine == null) {
+				String model = properties.getProperty("modelToRefine");
+				if (model == null)
+					throw new GeoTessException("\nProperty modelToRefine is not specififed.\n"
+							+ "modelToRefine is required when running in 'adaptive refinement' mode.\n");
+
+				modelToRefine = new GeoTessModel(model);
 			}
 
-			int minCorners = properties.getInt("minCorners", 1);
+			String attribute = properties.getProperty("adaptiveAttribute");
+			if (attribute == null)
+				throw new GeoTessException("\nProperty adaptiveAttribute is not specififed.\n"
+						+ "adaptiveAttribute is required when running in 'adaptive refinement' mode.\n");
 
-			if (minCorners < 1 || minCorners > 3)
-				throw new PropertiesPlusException(
-						String.format("%nProperty minCorners = %d but must be between 1 and 3 inclusive.%n"
-								+ "Property minCorners specifies the number of corners of a triangle that must satisfy the 'threshold' requirement%n"
-								+ "in order for that triangle to be subdivided.", minCorners));
+			int attributeIndex = modelToRefine.getMetaData().getAttributeIndex(attribute.trim());
+			if (attributeIndex < 0)
+				throw new IOException(String.format("model does not contain attribute %s.%n" + "Valid attributes are %s%n",
+						attribute, modelToRefine.getMetaData().getAttributeNamesString()));
 
-			GeoTessModel newModel = RefineModel.refineModel(modelToRefine, pointsToRefine, maxTriangleEdgeLevel,
-					minCorners, properties.getInt("verbosity", 1), properties.getFile("vtkDir"));
+			if (!properties.containsKey("errorTolerance"))
+				throw new GeoTessException("\nProperty errorTolerance is not specififed.\n"
+						+ "errorTolerance is required when running in 'adaptive refinement' mode.\n");
+
+			AdaptiveRefinement.ErrorIndicator indicator = AdaptiveRefinement.ErrorIndicator
+					.valueOf(properties.getProperty("errorIndicator", "GRADIENT").trim().toUpperCase());
+
+			int maxProcessors = properties.getInt("maxProcessors", Runtime.getRuntime().availableProcessors());
+
+			GeoTessModel newModel = AdaptiveRefinement.refine(modelToRefine, attributeIndex, indicator,
+					properties.getDouble("errorTolerance"), properties.getInt("maxVertices", Integer.MAX_VALUE),
+					getMaxTessLevels(properties, modelToRefine), properties.getInt("maxIterations", 10),
+					maxProcessors, verbosity);
 
-			// should already be a delaunay tessellation, but just to make sure...
 			newModel.getGrid().delaunay();
 
 			String outputFile = properties.getProperty("outputModelFile");
@@ -257,168 +221,133 @@ public class GeoTessBuilderMain {
 			plotFile(properties, newModel.getGrid());
 
 			return newModel;
-		} else {
+		} else if (gridConstructionMode.toLowerCase().contains("model")
+				&& gridConstructionMode.toLowerCase().contains("refine")) {
+			if (modelToRefine == null) {
+				String model = properties.getProperty("modelToRefine");
+				if (model == null)
+					throw new GeoTessException("\nProperty modelToRefine is not specififed.\n"
+							+ "modelToRefine is required when running in 'model refinement' mode.\n");
 
-			InitialSolid initialSolid = new InitialSolid(
-					PlatonicSolid.valueOf(properties.getProperty("initialSolid", "ICOSAHEDRON").toUpperCase()));
-
-			if (properties.getProperty("eulerRotationAngles") != null) {
-				double[] eulerRotationAngles = properties.getDoubleArray("eulerRotationAngles");
-				if (eulerRotationAngles.length != 3)
-					throw new GeoTessException(
-							"If eulerRotationAngles are specified, then 3 angles (in degrees) must be specified.");
-				eulerRotationAngles[0] = Math.toRadians(eulerRotationAngles[0]);
-				eulerRotationAngles[1] = Math.toRadians(eulerRotationAngles[1]);
-				eulerRotationAngles[2] = Math.toRadians(eulerRotationAngles[2]);
-				initialSolid.rotate(eulerRotationAngles);
-			} else if (properties.getProperty("rotateGrid") != null) {
-				// user supplies a lat, lon position. Euler rotation will rotate the grid
-				// such that grid vertex 0 is located at that position.
-				double[] latlon = properties.getDoubleArray("rotateGrid");
-				initialSolid.rotate(latlon[0], latlon[1], true);
-				;
+				modelToRefine = new GeoTessModel(model);
 			}
 
 			int maxProcessors = properties.getInt("maxProcessors", Runtime.getRuntime().availableProcessors());
 
-			int ntess = properties.getInt("nTessellations", 1);
-			if (ntess < 1)
-				throw new GeoTessException("\nnTessellations must be > 0");
-
-			if (properties.getProperty("baseEdgeLengths") == null)
-				throw new GeoTessException("\nbaseEdgeLengths must defined in the properties file");
+			// the set of points to refine, indexed by point index in modelToRefine.
+			BitSet pointsToRefine = selectPoints(properties, modelToRefine, "Refine", maxProcessors);
 
-			int[] baseTessLevels = getTessLevels(properties.getDoubleArray("baseEdgeLengths"));
+			int[] maxTriangleEdgeLevel = getMaxTessLevels(properties, modelToRefine);
 
-			if (baseTessLevels.length != ntess)
-				throw new GeoTessException(
-						String.format("\nbaseEdgeLengths.length=%d is not equal to nTessellations=%d\n"));
+			int minCorners = properties.getInt("minCorners", 1);
 
-			ArrayList<Tessellation> tessellations = new ArrayList<Tessellation>(ntess);
-			for (int i = 0; i < ntess; ++i)
-				tessellations.add(new Tessellation(initialSolid, baseTessLevels[i], maxProcessors));
+			if (minCorners < 1 || minCorners > 3)
+				throw new PropertiesPlusException(
+						String.format("%nProperty minCorners = %d but must be between 1 and 3 inclusive.%n"
+								+ "Property minCorners specifies the number of corners of a triangle that must satisfy the 'threshold' requirement%n"
+								+ "in order for that triangle to be subdivided.", minCorners));
 
-			if (properties.containsKey("polygons"))
-				for (String s : properties.getProperty("polygons").split(";"))
-					if (s.trim().length() > 0) {
-						ArrayList<String> p = parse(s);
-						if (p.size() == 0)
-							continue;
+			// number of times the selected region is refined. The refined grid is
+			// built in memory and the new model is populated only once.
+			int nRefinementLevels = properties.getInt("nRefinementLevels", 1);
 
-						if (p.get(0).equalsIgnoreCase("spherical_cap")) {
-							double[] center = VectorGeo.getVectorDegrees(Double.parseDouble(p.get(1)),
-									Double.parseDouble(p.get(2)));
-							double radius = Math.toRadians(Double.parseDouble(p.get(3)));
+			GeoTessModel newModel = RefineModel.refineModel(modelToRefine, pointsToRefine, maxTriangleEdgeLevel,
+					minCorners, nRefinementLevels, maxProcessors, properties.getInt("verbosity", 1),
+					properties.getFile("vtkDir"));
 
-							Integer tessid = Integer.parseInt(p.get(4));
-							Integer tessLevel = getTessLevel(p.get(5));
+			// should already be a delaunay tessellation, but just to make sure...
+			newModel.getGrid().delaunay();
 
-							if (tessid >= ntess)
-								throw new GeoTessException(String.format(
-										"%n%s%ntessellation index %d must be < nTessellations %d%n", s, tessid, ntess));
+			String outputFile = properties.getProperty("outputModelFile");
 
-							int nEdges = (int) ceil(2 * PI / acos(
-									(cos(tessellations.get(tessid).getInitialSolid().getEdgeLength(tessLevel) / 5)
-											- cos(radius) * cos(radius)) / (sin(radius) * sin(radius))));
+			if (outputFile != null) {
+				newModel.writeModel(outputFile);
 
-							if (nEdges < 20)
-								nEdges = 20;
+				if (verbosity > 0)
+					System.out.println("Refined model written to output file " + outputFile);
+			}
 
-//							System.out.printf("Polygon center=%s, radius = %1.2f deg, nEdges = %d%n",
-//									GeoTessUtils.getLatLonString(center), Math.toDegrees(radius), nEdges);
-							Polygon polygon = new Polygon(center, radius, nEdges);
-							polygon.attachment = tessLevel;
-							tessellations.get(tessid).addPolygon(polygon);
-						} else {
-							if (p.size() != 3)
-								throw new GeoTessException("\nError parsing property \npolygons = " + s
-										+ "\nExpecting 3 substrings: fileName, tessIndex, levelIndex");
-
-							File file = new File(p.get(0));
-							Integer tessid = Integer.parseInt(p.get(1));
-							double edgeLengthDegrees = Double.parseDouble(p.get(2));
-							Integer tessLevel = GeoTessUtils.getTessLevel(edgeLengthDegrees);
-
-							if (tessid >= ntess)
-								throw new GeoTessException(String.format(
-										"%n%s%ntessellation index %d must be < nTessellations %d%n", s, tessid, ntess));
-
-							for (Polygon polygon : PolygonFactory.getPolygons(file)) {
-								polygon.densifyEdges(Math.toRadians(edgeLengthDegrees));
-								polygon.attachment = tessLevel;
-								tessellations.get(tessid).addPolygon(polygon);
-							}
-						}
-					}
+			plotFile(properties, newModel.getGrid());
 
-			if (properties.containsKey("paths"))
-				for (String s : properties.getProperty("paths").split(";"))
-					if (s.trim().length() > 0) {
-						String[] p = s.trim().split(",");
-						if (p.length == 0)
-							continue;
-						if (p.length != 3)
-							throw new GeoTessException("\nError parsing property \npaths = " + s
-									+ "\nExpecting 3 comma-separated substrings: fileName, tessIndex, levelIndex");
+			return newModel;
+		} else {
 
-						File file = new File(p[0].trim());
-						Integer tessid = Integer.parseInt(p[1].trim());
-						Integer tessLevel = getTessLevel(p[2].trim());
+			int maxProcessors = properties.getInt("maxProcessors", Runtime.getRuntime().availableProcessors());
 
-						if (tessid >= ntess)
-							throw new GeoTessException(String.format(
-									"%n%s%ntessellation index %d must be < nTessellations %d%n", s, tessid, ntess));
+			ArrayList<Tessellation> tessellations = getTessellations(properties, maxProcessors);
+			int ntess = tessellations.size();
 
-						ArrayList<double[]> points = readFile(file);
-						expandPath(points, tessellations.get(tessid).getInitialSolid().getEdgeLength(tessLevel) * 0.1);
-						tessellations.get(tessid).addPoints(points, tessLevel);
-					}
+			if (properties.getBoolean("estimateGridSize", false)) {
+				// dry run: predict the size of the grid without building it.
+				GridSizeEstimator[] estimates = new GridSizeEstimator[ntess];
+				for (int i = 0; i < ntess; ++i) {
+					estimates[i] = new GridSizeEstimator(tessellations.get(i), maxProcessors);
+					if (verbosity > 0)
+						System.out.printf("%nEstimated size of tessellation %d%n%s", i, estimates[i]);
+				}
+				return estimates;
+			}
 
-			if (properties.containsKey("points"))
-				for (String s : properties.getProperty("points").split(";"))
-					if (s.trim().length() > 0) {
-						String[] p = s.trim().split(",");
-						if (p.length == 0)
-							continue;
-						if (p.length == 3) {
-							File file = new File(p[0].trim());
-							Integer tessid = Integer.parseInt(p[1].trim());
-							Integer tessLevel = getTessLevel(p[2].trim());
-
-							if (tessid >= ntess)
-								throw new GeoTessException(String.format(
-										"%n%s%ntessellation index %d must be < nTessellations %d%n", s, tessid, ntess));
-
-							ArrayList<double[]> points = readFile(file);
-							tessellations.get(tessid).addPoints(points, tessLevel);
-						} else if (p.length == 5) {
-							double[] point;
-							p[0] = p[0].trim().toLowerCase();
-							if (p[0].startsWith("lat") && p[0].endsWith("lon"))
-								point = VectorGeo.getVectorDegrees(Double.parseDouble(p[3]), Double.parseDouble(p[4]));
-							else if (p[0].startsWith("lon") && p[0].endsWith("lat"))
-								point = VectorGeo.getVectorDegrees(Double.parseDouble(p[4]), Double.parseDouble(p[3]));
-							else
-								throw new GeoTessException(
-										p[0] + " is not recognized.  Must be either lat-lon or lon-lat");
-
-							Integer tessid = Integer.parseInt(p[1].trim());
-							Integer tessLevel = getTessLevel(p[2].trim());
-
-							if (tessid >= ntess)
-								throw new GeoTessException(String.format(
-										"%n%s%ntessellation index %d must be < nTessellations %d%n", s, tessid, ntess));
-
-							tessellations.get(tessid).addPoint(point, tessLevel);
-						} else
-							throw new GeoTessException("\nCould not parse point definition: " + s);
-					}
+			// optional budget on the size of the grid. maxTriangles refers to the
+			// number of triangles on the top level of a tessellation which, for a
+			// closed triangulation of the sphere, is related to the number of
+			// vertices by nTriangles = 2*nVertices - 4.
+			int maxVertices = properties.getInt("maxVertices", Integer.MAX_VALUE);
+			if (properties.containsKey("maxTriangles"))
+				maxVertices = Math.min(maxVertices, (properties.getInt("maxTriangles") + 4) / 2);
+
+			int[] budgets = new int[ntess];
+			Arrays.fill(budgets, maxVertices);
+			if (maxVertices < Integer.MAX_VALUE)
+				for (Tessellation t : tessellations)
+					t.setWeights(properties.getDouble("polygonWeight", 1.), properties.getDouble("pointWeight", 1.),
+							properties.getDouble("pathWeight", 1.));
 
 			long timer = System.currentTimeMillis();
-			for (Tessellation t : tessellations)
-				t.build();
 
-			GridBuilder grid = new GridBuilder(tessellations);
+			// GridBuilder clears the list of tessellations that it is given.
+			Tessellation[] tessArray = tessellations.toArray(new Tessellation[ntess]);
+
+			int[] nVertices = new int[ntess];
+
+			GridBuilder grid;
+			for (int attempt = 0;; ++attempt) {
+				for (int i = 0; i < ntess; ++i)
+					nVertices[i] = tessArray[i].setMaxVertices(budgets[i]).build().getNVertices();
+
+				grid = new GridBuilder(new ArrayList<Tessellation>(Arrays.asList(tessArray)));
+
+				// each tessellation respects its budget but the union of the vertices
+				// of several tessellations can exceed it. If so, reduce the budgets
+				// by the excess and try again.
+				if (grid.getNVertices() <= maxVertices)
+					break;
+
+				if (attempt == 9)
+					throw new GeoTessException(String.format(
+							"%nUnable to build a grid with fewer than maxVertices = %d vertices%n", maxVertices));
+
+				// share the excess among the tessellations in proportion to the number
+				// of vertices that each added beyond its base level. No budget is
+				// reduced below the number of vertices on the base level.
+				int excess = grid.getNVertices() - maxVertices;
+				int nDiscretionary = 0;
+				for (int i = 0; i < ntess; ++i)
+					nDiscretionary += nVertices[i] - tessArray[i].getNBaseVertices();
+
+				if (nDiscretionary == 0)
+					throw new GeoTessException(String.format(
+							"%nThe base tessellation levels alone produce a grid with %d vertices "
+									+ "which exceeds maxVertices = %d%n",
+							grid.getNVertices(), maxVertices));
+
+				for (int i = 0; i < ntess; ++i) {
+					int nBase = tessArray[i].getNBaseVertices();
+					int share = (int) Math.ceil(excess * (double) (nVertices[i] - nBase) / nDiscretionary);
+					budgets[i] = Math.max(nBase, Math.min(budgets[i], nVertices[i]) - share);
+					tessArray[i].clear();
+				}
+			}
 
 			// should already be a delaunay tessellation, but just to make sure...
 			grid.delaunay();
@@ -455,6 +384,227 @@ public class GeoTessBuilderMain {
 		}
 	}
 
+	/**
+	 * Build the Tessellation objects, with all their polygons, paths and points,
+	 * that are specified in a 'scratch' properties file. The tessellations are
+	 * not built.
+	 * 
+	 * @param properties
+	 * @param maxProcessors
+	 * @return one Tessellation for each of nTessellations.
+	 * @throws Exception
+	 */
+	static ArrayList<Tessellation> getTessellations(PropertiesPlus properties, int maxProcessors) throws Exception {
+		InitialSolid initialSolid = new InitialSolid(
+				PlatonicSolid.valueOf(properties.getProperty("initialSolid", "ICOSAHEDRON").toUpperCase()));
+
+		if (properties.getProperty("eulerRotationAngles") != null) {
+			double[] eulerRotationAngles = properties.getDoubleArray("eulerRotationAngles");
+			if (eulerRotationAngles.length != 3)
+				throw new GeoTessException(
+						"If eulerRotationAngles are specified, then 3 angles (in degrees) must be specified.");
+			eulerRotationAngles[0] = Math.toRadians(eulerRotationAngles[0]);
+			eulerRotationAngles[1] = Math.toRadians(eulerRotationAngles[1]);
+			eulerRotationAngles[2] = Math.toRadians(eulerRotationAngles[2]);
+			initialSolid.rotate(eulerRotationAngles);
+		} else if (properties.getProperty("rotateGrid") != null) {
+			// user supplies a lat, lon position. Euler rotation will rotate the grid
+			// such that grid vertex 0 is located at that position.
+			double[] latlon = properties.getDoubleArray("rotateGrid");
+			initialSolid.rotate(latlon[0], latlon[1], true);
+			;
+		}
+
+		int ntess = properties.getInt("nTessellations", 1);
+		if (ntess < 1)
+			throw new GeoTessException("\nnTessellations must be > 0");
+
+		if (properties.getProperty("baseEdgeLengths") == null)
+			throw new GeoTessException("\nbaseEdgeLengths must defined in the properties file");
+
+		int[] baseTessLevels = getTessLevels(properties.getDoubleArray("baseEdgeLengths"));
+
+		if (baseTessLevels.length != ntess)
+			throw new GeoTessException(
+					String.format("\nbaseEdgeLengths.length=%d is not equal to nTessellations=%d\n"));
+
+		ArrayList<Tessellation> tessellations = new ArrayList<Tessellation>(ntess);
+		for (int i = 0; i < ntess; ++i)
+			tessellations.add(new Tessellation(initialSolid, baseTessLevels[i], maxProcessors));
+
+		// spherical caps are either approximated by polygons (the default), or
+		// evaluated analytically when sphericalCapRefinement = analytic.
+		boolean analyticCaps = properties.getProperty("sphericalCapRefinement", "polygon").trim()
+				.equalsIgnoreCase("analytic");
+
+		if (properties.containsKey("polygons"))
+			for (String s : properties.getProperty("polygons").split(";"))
+				if (s.trim().length() > 0) {
+					ArrayList<String> p = parse(s);
+					if (p.size() == 0)
+						continue;
+
+					if (p.get(0).equalsIgnoreCase("spherical_cap")) {
+						double[] center = VectorGeo.getVectorDegrees(Double.parseDouble(p.get(1)),
+								Double.parseDouble(p.get(2)));
+						double radius = Math.toRadians(Double.parseDouble(p.get(3)));
+
+						Integer tessid = Integer.parseInt(p.get(4));
+						Integer tessLevel = getTessLevel(p.get(5));
+
+						if (tessid >= ntess)
+							throw new GeoTessException(String.format(
+									"%n%s%ntessellation index %d must be < nTessellations %d%n", s, tessid, ntess));
+
+						if (analyticCaps && radius < PI / 2) {
+							tessellations.get(tessid).addSphericalCap(new SphericalCap(center, radius, tessLevel));
+							continue;
+						}
+
+						int nEdges = (int) ceil(2 * PI / acos(
+								(cos(tessellations.get(tessid).getInitialSolid().getEdgeLength(tessLevel) / 5)
+										- cos(radius) * cos(radius)) / (sin(radius) * sin(radius))));
+
+						if (nEdges < 20)
+							nEdges = 20;
+
+//							System.out.printf("Polygon center=%s, radius = %1.2f deg, nEdges = %d%n",
+//									GeoTessUtils.getLatLonString(center), Math.toDegrees(radius), nEdges);
+						Polygon polygon = new Polygon(center, radius, nEdges);
+						polygon.attachment = tessLevel;
+						tessellations.get(tessid).addPolygon(polygon);
+					} else {
+						if (p.size() != 3)
+							throw new GeoTessException("\nError parsing property \npolygons = " + s
+									+ "\nExpecting 3 substrings: fileName, tessIndex, levelIndex");
+
+						File file = new File(p.get(0));
+						Integer tessid = Integer.parseInt(p.get(1));
+						double edgeLengthDegrees = Double.parseDouble(p.get(2));
+						Integer tessLevel = GeoTessUtils.getTessLevel(edgeLengthDegrees);
+
+						if (tessid >= ntess)
+							throw new GeoTessException(String.format(
+									"%n%s%ntessellation index %d must be < nTessellations %d%n", s, tessid, ntess));
+
+						for (Polygon polygon : PolygonFactory.getPolygons(file)) {
+							polygon.densifyEdges(Math.toRadians(edgeLengthDegrees));
+							polygon.attachment = tessLevel;
+							tessellations.get(tessid).addPolygon(polygon);
+						}
+					}
+				}
+
+		// paths are either densified into points spaced at one tenth of the
+		// triangle edge length (the default), or evaluated exactly as great circle
+		// arcs when pathRefinement = arcs.
+		boolean pathArcs = properties.getProperty("pathRefinement", "points").trim().equalsIgnoreCase("arcs");
+
+		if (properties.containsKey("paths"))
+			for (String s : properties.getProperty("paths").split(";"))
+				if (s.trim().length() > 0) {
+					String[] p = s.trim().split(",");
+					if (p.length == 0)
+						continue;
+					if (p.length != 3)
+						throw new GeoTessException("\nError parsing property \npaths = " + s
+								+ "\nExpecting 3 comma-separated substrings: fileName, tessIndex, levelIndex");
+
+					File file = new File(p[0].trim());
+					Integer tessid = Integer.parseInt(p[1].trim());
+					Integer tessLevel = getTessLevel(p[2].trim());
+
+					if (tessid >= ntess)
+						throw new GeoTessException(String.format(
+								"%n%s%ntessellation index %d must be < nTessellations %d%n", s, tessid, ntess));
+
+					if (pathArcs)
+						tessellations.get(tessid).addPathArcs(readPaths(file), tessLevel);
+					else
+						// each path is densified separately so that consecutive paths are not
+						// connected to each other.
+						tessellations.get(tessid).addPath(PathDensifier.densify(readPaths(file),
+								tessellations.get(tessid).getInitialSolid().getEdgeLength(tessLevel) * 0.1,
+								maxProcessors), tessLevel);
+				}
+
+		if (properties.containsKey("points"))
+			for (String s : properties.getProperty("points").split(";"))
+				if (s.trim().length() > 0) {
+					String[] p = s.trim().split(",");
+					if (p.length == 0)
+						continue;
+					if (p.length == 3) {
+						File file = new File(p[0].trim());
+						Integer tessid = Integer.parseInt(p[1].trim());
+						Integer tessLevel = getTessLevel(p[2].trim());
+
+						if (tessid >= ntess)
+							throw new GeoTessException(String.format(
+									"%n%s%ntessellation index %d must be < nTessellations %d%n", s, tessid, ntess));
+
+						ArrayList<double[]> points = readFile(file);
+						tessellations.get(tessid).addPoints(points, tessLevel);
+					} else if (p.length == 5) {
+						double[] point;
+						p[0] = p[0].trim().toLowerCase();
+						if (p[0].startsWith("lat") && p[0].endsWith("lon"))
+							point = VectorGeo.getVectorDegrees(Double.parseDouble(p[3]), Double.parseDouble(p[4]));
+						else if (p[0].startsWith("lon") && p[0].endsWith("lat"))
+							point = VectorGeo.getVectorDegrees(Double.parseDouble(p[4]), Double.parseDouble(p[3]));
+						else
+							throw new GeoTessException(
+									p[0] + " is not recognized.  Must be either lat-lon or lon-lat");
+
+						Integer tessid = Integer.parseInt(p[1].trim());
+						Integer tessLevel = getTessLevel(p[2].trim());
+
+						if (tessid >= ntess)
+							throw new GeoTessException(String.format(
+									"%n%s%ntessellation index %d must be < nTessellations %d%n", s, tessid, ntess));
+
+						tessellations.get(tessid).addPoint(point, tessLevel);
+					} else
+						throw new GeoTessException("\nCould not parse point definition: " + s);
+				}
+
+		// optionally grade triangle size with distance from the points, paths,
+		// polygons and caps, so that tessellation levels change gradually instead
+		// of only where the conformity pass requires it.
+		if (properties.containsKey("sizeFieldGradation")) {
+			double gradation = properties.getDouble("sizeFieldGradation");
+			if (gradation <= 0.)
+				throw new GeoTessException(String.format("%nsizeFieldGradation = %s must be > 0%n", gradation));
+			int coarseTessLevel = properties.getInt("sizeFieldTessLevel", 5);
+			for (Tessellation tessellation : tessellations)
+				tessellation.addRegion(new GradedSizeField(tessellation.getInitialSolid(), coarseTessLevel, gradation)
+						.addSources(tessellation, maxProcessors));
+		}
+
+		// target edge lengths, in degrees, defined by lat-lon rasters in either
+		// binary or ESRI ASCII grid format.
+		if (properties.containsKey("sizeFieldRasters"))
+			for (String s : properties.getProperty("sizeFieldRasters").split(";"))
+				if (s.trim().length() > 0) {
+					String[] p = s.trim().split(",");
+					if (p.length != 2)
+						throw new GeoTessException("\nError parsing property \nsizeFieldRasters = " + s
+								+ "\nExpecting 2 comma-separated substrings: fileName, tessIndex");
+
+					File file = new File(p[0].trim());
+					Integer tessid = Integer.parseInt(p[1].trim());
+
+					if (tessid >= ntess)
+						throw new GeoTessException(String.format(
+								"%n%s%ntessellation index %d must be < nTessellations %d%n", s, tessid, ntess));
+
+					tessellations.get(tessid)
+							.addRegion(RasterSizeField.read(file, tessellations.get(tessid).getInitialSolid()));
+				}
+
+		return tessellations;
+	}
+
 	/**
 	 * Convenience method that returns a GeoTessGrid with approximately uniform
 	 * triangle edge lengths.
@@ -473,97 +623,41 @@ public class GeoTessBuilderMain {
 	}
 
 	/**
-	 * Given a bunch of points, add enough additional points in between them to
-	 * ensure that the point spacing is smaller than maxSpacing (radians)
+	 * Read the paths defined in a file. kml and kmz files may define multiple
+	 * paths, one per &lt;coordinates&gt; element. All other files define a single
+	 * path.
 	 * 
-	 * @param points
-	 * @param maxSpacing maximum spacing between points in radians.
-	 * @throws GreatCircleException
+	 * @param file
+	 * @return a list of paths, each of which is a list of unit vectors.
+	 * @throws IOException
+	 * @throws GeoTessException
 	 */
-	private static void expandPath(ArrayList<double[]> points, double maxSpacing) throws GreatCircleException {
-		double tolerance = Math.cos(maxSpacing);
-		ArrayList<double[]> p = new ArrayList<double[]>(points.size() * 2);
-		GreatCircle gc;
-		int n;
-		double dx;
-		p.add(points.get(0));
-
-		for (int i = 0; i < points.size() - 1; ++i) {
-			if (VectorUnit.dot(points.get(i), points.get(i + 1)) < tolerance) {
-				gc = new GreatCircle(points.get(i), points.get(i + 1));
-				n = (int) Math.ceil(gc.getDistance() / maxSpacing);
-				dx = gc.getDistance() / (n - 1);
-				for (int j = 1; j < n; ++j)
-					p.add(gc.getPoint(j * dx));
-			} else
-				p.add(points.get(i + 1));
-
-		}
-		points.clear();
-		points.addAll(p);
+	private static ArrayList<ArrayList<double[]>> readPaths(File file) throws IOException, GeoTessException {
+		if (file.getName().toLowerCase().endsWith("kml") || file.getName().toLowerCase().endsWith("kmz"))
+			return KmlReader.read(file);
+		ArrayList<ArrayList<double[]>> paths = new ArrayList<ArrayList<double[]>>(1);
+		paths.add(readFile(file));
+		return paths;
 	}
 
 	/**
+	 * Read the points defined in a file. All the &lt;coordinates&gt; elements of
+	 * kml and kmz files are read. Binary files written by PointFile are
+	 * recognized by their header, regardless of their extension.
 	 * 
 	 * @param file
 	 * @throws GeoTessException
 	 * @throws FileNotFoundException
 	 */
-	private static ArrayList<double[]> readFile(File file) throws IOException, GeoTessException {
-		ArrayList<double[]> points = new ArrayList<double[]>();
-
-		if (file.getName().toLowerCase().endsWith("kml")) {
-
-			Scanner input = new Scanner(file);
-			StringBuffer contents = new StringBuffer();
-			while (input.hasNext())
-				contents.append(input.next().toLowerCase()).append(" ");
-			input.close();
-
-			int i1 = contents.indexOf("<coordinates>");
-			if (i1 < 0)
-				throw new GeoTessException("String <coordinates> not found in kml file.");
-			int i2 = contents.indexOf("</coordinates>");
-			if (i2 < 0)
-				throw new GeoTessException("String </coordinates> not found in kml file.");
-
-			input = new Scanner(contents.toString().substring(i1 + 13, i2).replaceAll(",", " "));
-
-			double lat, lon;
-			while (input.hasNextDouble()) {
-				lon = input.nextDouble();
-				lat = input.nextDouble();
-				input.nextDouble();
-				points.add(VectorGeo.getVectorDegrees(lat, lon));
-			}
-			input.close();
-		} else if (file.getName().toLowerCase().endsWith("kmz")) {
-			ZipFile zip = new ZipFile(file);
-			Scanner input = new Scanner(zip.getInputStream(zip.entries().nextElement()));
+	static ArrayList<double[]> readFile(File file) throws IOException, GeoTessException {
+		if (PointFile.isPointFile(file))
+			return PointFile.read(file);
 
-			StringBuffer contents = new StringBuffer();
-			while (input.hasNext())
-				contents.append(input.next().toLowerCase()).append(" ");
-			input.close();
-			zip.close();
-
-			int i1 = contents.indexOf("<coordinates>");
-			if (i1 < 0)
-				throw new GeoTessException("String <coordinates> not found in kmz file.");
-			int i2 = contents.indexOf("</coordinates>");
-			if (i2 < 0)
-				throw new GeoTessException("String </coordinates> not found in kmz file.");
-
-			input = new Scanner(contents.toString().substring(i1 + 13, i2).replaceAll(",", " "));
+		ArrayList<double[]> points = new ArrayList<double[]>();
 
-			double lat, lon;
-			while (input.hasNextDouble()) {
-				lon = input.nextDouble();
-				lat = input.nextDouble();
-				input.nextDouble();
-				points.add(VectorGeo.getVectorDegrees(lat, lon));
-			}
-			input.close();
+		if (file.getName().toLowerCase().endsWith("kml") || file.getName().toLowerCase().endsWith("kmz")) {
+			for (ArrayList<double[]> block : KmlReader.read(file))
+				points.addAll(block);
 		} else {
 			double[] u;
 			Scanner input = new Scanner(file);
@@ -647,91 +741,107 @@ public class GeoTessBuilderMain {
 		return tessLevels;
 	}
 
-	private static ArrayListInt getThresholdPoints(GeoTessModel oldModel, int attribute, String comparison,
-			String thresholdString) throws IOException {
-		ArrayListInt pointsToRefine = new ArrayListInt(oldModel.getNPoints() / 2);
-
-		PointMap pm = oldModel.getPointMap();
-		if (oldModel.getMetaData().getDataType() == DataType.DOUBLE
-				|| oldModel.getMetaData().getDataType() == DataType.FLOAT) {
-			double threshold = Double.NaN;
-			try {
-				threshold = Double.parseDouble(thresholdString);
-			} catch (Exception e) {
-				throw new IOException(String.format(
-						"%n%s%n%nProperty 'thresholds' is invalid.%n"
-								+ "%s could not be parsed to a value of type double%n",
-						e.getMessage(), thresholdString));
+	/**
+	 * Convert property minTriangleSize, which must have one element per
+	 * tessellation of model, into the maximum tessellation level of each
+	 * tessellation. If minTriangleSize is not specified, all elements are
+	 * Integer.MAX_VALUE.
+	 * 
+	 * @param properties
+	 * @param model
+	 * @return for each tessellation, the maximum tessellation level.
+	 * @throws PropertiesPlusException
+	 */
+	private static int[] getMaxTessLevels(PropertiesPlus properties, GeoTessModel model)
+			throws PropertiesPlusException {
+		int[] maxTriangleEdgeLevel;
+
+		if (properties.containsKey("minTriangleSize")) {
+			double[] minTriangleSize = properties.getDoubleArray("minTriangleSize");
+
+			if (minTriangleSize.length != model.getGrid().getNTessellations())
+				throw new PropertiesPlusException(String.format(
+						"%nThe number of elements in minTriangleSize and number of tessellations in modelToRefine do not agree.%n"
+								+ "There are %d tessellations in modelToRefine and %d elements in property minTriangleSize.",
+						model.getGrid().getNTessellations(), minTriangleSize.length));
+
+			maxTriangleEdgeLevel = new int[model.getGrid().getNTessellations()];
+			for (int tessid = 0; tessid < model.getGrid().getNTessellations(); ++tessid) {
+				maxTriangleEdgeLevel[tessid] = GeoTessUtils.getTessLevel(minTriangleSize[tessid]);
+				if (maxTriangleEdgeLevel[tessid] < model.getGrid().getNLevels(tessid) - 1)
+					throw new PropertiesPlusException(String.format("%nminTriangleSize[%d] is %1.3f "
+							+ "which is greater than the size of the triangles in tessellation[%d] of modelToRefine which is %1.3f%n",
+							tessid, minTriangleSize[tessid], tessid,
+							GeoTessUtils.getEdgeLength(model.getGrid().getNLevels(tessid) - 1)));
 
 			}
-
-			if (comparison.equals("<")) {
-				for (int i = 0; i < pm.size(); ++i)
-					if (pm.getPointValueDouble(i, attribute) < threshold)
-						pointsToRefine.add(i);
-			} else if (comparison.equals("<=")) {
-				for (int i = 0; i < pm.size(); ++i)
-					if (pm.getPointValueDouble(i, attribute) <= threshold)
-						pointsToRefine.add(i);
-			} else if (comparison.equals("==")) {
-				for (int i = 0; i < pm.size(); ++i)
-					if (pm.getPointValueDouble(i, attribute) == threshold)
-						pointsToRefine.add(i);
-			} else if (comparison.equals("!=")) {
-				for (int i = 0; i < pm.size(); ++i)
-					if (pm.getPointValueDouble(i, attribute) != threshold)
-						pointsToRefine.add(i);
-			} else if (comparison.equals(">=")) {
-				for (int i = 0; i < pm.size(); ++i)
-					if (pm.getPointValueDouble(i, attribute) >= threshold)
-						pointsToRefine.add(i);
-			} else if (comparison.equals(">")) {
-				for (int i = 0; i < pm.size(); ++i)
-					if (pm.getPointValueDouble(i, attribute) > threshold)
-						pointsToRefine.add(i);
-			} else
-				throw new IOException(String.format("%nProperty 'thresholds' is invalid.%n"
-						+ "%s is not a valid comparison operator.%n" + "Expected one of <=, <, !=, ==, =, >, >=%n",
-						comparison));
 		} else {
-			long threshold = 0;
+			maxTriangleEdgeLevel = new int[model.getGrid().getNTessellations()];
+			Arrays.fill(maxTriangleEdgeLevel, Integer.MAX_VALUE);
+		}
+		return maxTriangleEdgeLevel;
+	}
+
+	/**
+	 * Select the points of a model on which refinement or coarsening will operate.
+	 * One of the following properties must be specified, where Operation is the
+	 * value of the operation argument (e.g., 'Refine' or 'Coarsen'):
+	 * <ul>
+	 * <li>pointsToOperation: a list of point indices
+	 * <li>fileOfPointsToOperation: a file containing point indices
+	 * <li>polygonToOperation: a file containing one or more polygons
+	 * <li>threshold: a selection expression. See PointSelector.parse().
+	 * </ul>
+	 * 
+	 * @param properties
+	 * @param model
+	 * @param operation     'Refine' or 'Coarsen'
+	 * @param maxProcessors
+	 * @return the set of selected points, indexed by point index in model.
+	 * @throws Exception
+	 */
+	private static BitSet selectPoints(PropertiesPlus properties, GeoTessModel model, String operation,
+			int maxProcessors) throws Exception {
+		BitSet points = null;
+		if (properties.containsKey("pointsTo" + operation))
+			points = RefineModel.toBitSet(new ArrayListInt(properties.getIntArray("pointsTo" + operation)));
+		else if (properties.containsKey("fileOfPointsTo" + operation)) {
+			File f = properties.getFile("fileOfPointsTo" + operation);
+			if (!f.exists())
+				throw new IOException(
+						"File " + properties.getProperty("fileOfPointsTo" + operation) + " does not exist.");
+			Scanner input = new Scanner(f);
+			points = new BitSet(model.getNPoints());
+			while (input.hasNext())
+				points.set(input.nextInt());
+			input.close();
+		} else if (properties.containsKey("polygonTo" + operation)) {
+			ArrayList<PointSelector> selectors = new ArrayList<PointSelector>();
+			for (Polygon polygon : PolygonFactory.getPolygons(properties.getFile("polygonTo" + operation)))
+				selectors.add(PointSelector.inside(polygon));
+			points = PointSelector.or(selectors.toArray(new PointSelector[selectors.size()]))
+					.select(model, maxProcessors);
+		} else if (properties.containsKey("threshold")) {
+			// expect property 'threshold' to be an expression something like
+			// attribute > 0.5
+			// or
+			// HIT_COUNT > 5 && RESOLUTION < 0.3 || inside(polygon.kml)
+			// where attribute names are followed by one of <=, <, !=, ==, =, >, >=
+			// and a value that can be parsed to double or long.
+			// See PointSelector.parse().
 			try {
-				threshold = Long.parseLong(thresholdString);
-			} catch (Exception e) {
-				throw new IOException(String.format("%n%s%n%nProperty 'thresholds' is invalid.%n"
-						+ "%s could not be parsed to a value of type long%n", e.getMessage(), thresholdString));
+				points = PointSelector.parse(model, properties.getProperty("threshold"))
+						.select(model, maxProcessors);
+			} catch (IOException e) {
+				throw new IOException(String.format("%nProperty 'threshold' is invalid.%s", e.getMessage()));
 			}
-
-			if (comparison.equals("<")) {
-				for (int i = 0; i < pm.size(); ++i)
-					if (pm.getPointValueLong(i, attribute) < threshold)
-						pointsToRefine.add(i);
-			} else if (comparison.equals("<=")) {
-				for (int i = 0; i < pm.size(); ++i)
-					if (pm.getPointValueLong(i, attribute) <= threshold)
-						pointsToRefine.add(i);
-			} else if (comparison.startsWith("=")) {
-				for (int i = 0; i < pm.size(); ++i)
-					if (pm.getPointValueLong(i, attribute) == threshold)
-						pointsToRefine.add(i);
-			} else if (comparison.equals("!=")) {
-				for (int i = 0; i < pm.size(); ++i)
-					if (pm.getPointValueLong(i, attribute) != threshold)
-						pointsToRefine.add(i);
-			} else if (comparison.equals(">=")) {
-				for (int i = 0; i < pm.size(); ++i)
-					if (pm.getPointValueLong(i, attribute) >= threshold)
-						pointsToRefine.add(i);
-			} else if (comparison.equals(">")) {
-				for (int i = 0; i < pm.size(); ++i)
-					if (pm.getPointValueLong(i, attribute) > threshold)
-						pointsToRefine.add(i);
-			} else
-				throw new IOException(String.format("%nProperty 'thresholds' is invalid.%n"
-						+ "%s is not a valid comparison operator.%n" + "Expected one of <=, <, !=, ==, =, >, >=%n",
-						comparison));
 		}
-		return pointsToRefine;
+
+		if (points == null)
+			throw new IOException(String.format("%nOne of the properties 'pointsTo%s', 'fileOfPointsTo%s', "
+					+ "'polygonTo%s' or 'threshold' must be set, but none are set.", operation, operation, operation));
+
+		return points;
 	}
 
 	private static void plotFile(PropertiesPlus properties, GeoTessGrid grid) throws Exception {
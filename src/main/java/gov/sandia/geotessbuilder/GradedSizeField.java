@@ -0,0 +1,495 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+package gov.sandia.geotessbuilder;
+
+import gov.sandia.geotess.GeoTessException;
+import gov.sandia.gmp.util.numerical.polygon.Polygon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A size field in which the target edge length grows with distance from a set
+ * of sources: points, spherical caps and polygons, each with its own target
+ * edge length. At distance d from a source with target edge length h the
+ * target is h + gradation * d, and the field is the minimum over all sources.
+ * The gradation therefore limits how quickly triangle size can change, which
+ * avoids abrupt jumps of several tessellation levels between neighboring
+ * triangles.
+ * <p>
+ * The field is precomputed at the vertices of a coarse, uniform tessellation
+ * level by seeding the vertices near each source and propagating along the
+ * edges of the coarse level with the gradation limit. Triangles on levels
+ * below the coarse level are assigned the smallest target edge length inside
+ * them. Triangles on finer levels are evaluated at their corners and center
+ * from the values at the corners of the coarse triangle that contains them and
+ * the sources that reside inside it. Sources in neighboring coarse triangles
+ * are only felt through the corners, so the field can be somewhat larger than
+ * the exact minimum near coarse triangle boundaries, but never smaller. Not
+ * thread safe.
+ */
+public class GradedSizeField extends SizeField {
+
+	private final int coarseTessLevel;
+
+	private final double gradation;
+
+	/**
+	 * 5 elements per source: unit vector, target edge length and angular radius,
+	 * which is zero for points.
+	 */
+	private double[] sources = new double[5 * 16];
+
+	private int nSources;
+
+	private final ArrayList<PolygonGB> polygons = new ArrayList<PolygonGB>();
+
+	/**
+	 * Target edge length inside each polygon, in the order of polygons.
+	 */
+	private double[] polygonEdgeLengths = new double[4];
+
+	/**
+	 * Unit vectors of the vertices of the coarse level. The field is null until
+	 * it is computed.
+	 */
+	private PointBuffer vertices;
+
+	/**
+	 * 3 vertex indices per coarse triangle, for every level from 0 to
+	 * coarseTessLevel, level by level.
+	 */
+	private int[] corners;
+
+	/**
+	 * Index of the first triangle on each level.
+	 */
+	private int[] levelStart;
+
+	/**
+	 * Target edge length at each vertex.
+	 */
+	private double[] size;
+
+	/**
+	 * Smallest target edge length inside each triangle.
+	 */
+	private double[] minSize;
+
+	/**
+	 * The sources that reside inside each triangle on the coarse level, stored
+	 * as offsets into sourceIndex.
+	 */
+	private int[] sourceStart, sourceIndex;
+
+	/**
+	 * @param initialSolid    the initial solid of the tessellation that will be
+	 *                        refined.
+	 * @param coarseTessLevel the tessellation level at whose vertices the field
+	 *                        is precomputed.
+	 * @param gradation       the rate at which target edge length grows with
+	 *                        distance from the sources, dimensionless.
+	 */
+	public GradedSizeField(InitialSolid initialSolid, int coarseTessLevel, double gradation) {
+		super(initialSolid);
+		this.coarseTessLevel = coarseTessLevel;
+		this.gradation = gradation;
+	}
+
+	/**
+	 * @param point      unit vector
+	 * @param edgeLength target edge length at the point, in radians.
+	 * @return a reference to this
+	 */
+	public GradedSizeField addPoint(double[] point, double edgeLength) {
+		return addSource(point, edgeLength, 0.);
+	}
+
+	/**
+	 * @param points     unit vectors
+	 * @param edgeLength target edge length at the points, in radians.
+	 * @return a reference to this
+	 */
+	public GradedSizeField addPoints(Collection<double[]> points, double edgeLength) {
+		for (double[] point : points)
+			addSource(point, edgeLength, 0.);
+		return this;
+	}
+
+	/**
+	 * @param points     unit vectors
+	 * @param edgeLength target edge length at the points, in radians.
+	 * @return a reference to this
+	 */
+	GradedSizeField addPoints(PointBuffer points, double edgeLength) {
+		double[] u = new double[3];
+		for (int i = 0; i < points.size(); ++i)
+			addSource(points.get(i, u), edgeLength, 0.);
+		return this;
+	}
+
+	/**
+	 * @param cap
+	 * @param edgeLength target edge length inside the cap, in radians.
+	 * @return a reference to this
+	 */
+	public GradedSizeField addSphericalCap(SphericalCap cap, double edgeLength) {
+		return addSource(cap.getCenter(), edgeLength, cap.getRadius());
+	}
+
+	/**
+	 * @param polygon
+	 * @param edgeLength target edge length inside the polygon, in radians.
+	 * @return a reference to this
+	 */
+	public GradedSizeField addPolygon(Polygon polygon, double edgeLength) {
+		return addPolygon(new PolygonGB(polygon), edgeLength);
+	}
+
+	GradedSizeField addPolygon(PolygonGB polygon, double edgeLength) {
+		if (polygons.size() == polygonEdgeLengths.length)
+			polygonEdgeLengths = Arrays.copyOf(polygonEdgeLengths, 2 * polygonEdgeLengths.length);
+		polygonEdgeLengths[polygons.size()] = edgeLength;
+		polygons.add(polygon);
+		addPoints(Arrays.asList(polygon.getPoints(false)), edgeLength);
+		return this;
+	}
+
+	/**
+	 * Add the points, paths, polygons and caps of a tessellation as sources,
+	 * each with the nominal edge length of the tessellation level to which it
+	 * refines. Paths that are evaluated as arcs are densified to one tenth of
+	 * that edge length.
+	 * 
+	 * @param tessellation
+	 * @param maxProcessors
+	 * @return a reference to this
+	 * @throws GeoTessException
+	 */
+	GradedSizeField addSources(Tessellation tessellation, int maxProcessors) throws GeoTessException {
+		for (Integer level : tessellation.getPoints().keySet())
+			addPoints(tessellation.getPoints().get(level), getNominalEdgeLength(level));
+		for (Integer level : tessellation.getPaths().keySet())
+			addPoints(tessellation.getPaths().get(level), getNominalEdgeLength(level));
+		for (Integer level : tessellation.getPathArcs().keySet())
+			addPoints(PathDensifier.densify(tessellation.getPathArcs().get(level).getArcs(),
+					getNominalEdgeLength(level) * 0.1, maxProcessors), getNominalEdgeLength(level));
+		for (PolygonGB polygon : tessellation.polygons)
+			addPolygon(polygon, getNominalEdgeLength(polygon.getTessLevel()));
+		for (SphericalCap cap : tessellation.caps)
+			addSphericalCap(cap, getNominalEdgeLength(cap.getTessLevel()));
+		return this;
+	}
+
+	private GradedSizeField addSource(double[] u, double edgeLength, double radius) {
+		if (5 * (nSources + 1) > sources.length)
+			sources = Arrays.copyOf(sources, 2 * sources.length);
+		int k = 5 * nSources++;
+		System.arraycopy(u, 0, sources, k, 3);
+		sources[k + 3] = edgeLength;
+		sources[k + 4] = radius;
+		vertices = null;
+		return this;
+	}
+
+	/**
+	 * @return the number of point, cap and polygon boundary sources.
+	 */
+	public int getNSources() {
+		return nSources;
+	}
+
+	@Override
+	public double getMinEdgeLength() {
+		double min = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < nSources; ++i)
+			min = Math.min(min, sources[5 * i + 3]);
+		for (int i = 0; i < polygons.size(); ++i)
+			min = Math.min(min, polygonEdgeLengths[i]);
+		return min;
+	}
+
+	@Override
+	public double getEdgeLength(Triangle triangle) {
+		if (vertices == null)
+			computeField();
+
+		double[] u = new double[3];
+		triangle.getCenter(u);
+		int t = locate(u, triangle.getTessLevel());
+		if (triangle.getTessLevel() < coarseTessLevel)
+			return minSize[t];
+
+		double edgeLength = getEdgeLength(t, u);
+		for (double[] corner : triangle.getCorners())
+			edgeLength = Math.min(edgeLength, getEdgeLength(t, corner));
+		return edgeLength;
+	}
+
+	/**
+	 * @param u unit vector
+	 * @return the target edge length at u, in radians.
+	 */
+	public double getEdgeLength(double[] u) {
+		if (vertices == null)
+			computeField();
+		return getEdgeLength(locate(u, coarseTessLevel), u);
+	}
+
+	/**
+	 * @return the target edge length at u, which resides inside triangle t on the
+	 *         coarse level.
+	 */
+	private double getEdgeLength(int t, double[] u) {
+		double edgeLength = Double.POSITIVE_INFINITY;
+		double[] v = new double[3];
+		for (int j = 0; j < 3; ++j) {
+			int i = corners[3 * t + j];
+			edgeLength = Math.min(edgeLength, size[i] + gradation * angle(u, vertices.get(i, v)));
+		}
+		int leaf = t - levelStart[coarseTessLevel];
+		for (int j = sourceStart[leaf]; j < sourceStart[leaf + 1]; ++j)
+			edgeLength = Math.min(edgeLength, getSourceEdgeLength(sourceIndex[j], u));
+		return edgeLength;
+	}
+
+	/**
+	 * @return the target edge length at u due to source i alone.
+	 */
+	private double getSourceEdgeLength(int i, double[] u) {
+		int k = 5 * i;
+		double dot = sources[k] * u[0] + sources[k + 1] * u[1] + sources[k + 2] * u[2];
+		double distance = Math.acos(Math.max(-1., Math.min(1., dot))) - sources[k + 4];
+		return sources[k + 3] + gradation * Math.max(0., distance);
+	}
+
+	private static double angle(double[] u, double[] v) {
+		return Math.acos(Math.max(-1., Math.min(1., u[0] * v[0] + u[1] * v[1] + u[2] * v[2])));
+	}
+
+	/**
+	 * @return the index of the triangle on the specified level, or on the coarse
+	 *         level if that is smaller, that contains u.
+	 */
+	private int locate(double[] u, int tessLevel) {
+		int t = best(u, 0, initialSolid.getNFaces());
+		for (int level = 1; level <= Math.min(tessLevel, coarseTessLevel); ++level) {
+			int first = levelStart[level] + 4 * (t - levelStart[level - 1]);
+			t = best(u, first, first + 4);
+		}
+		return t;
+	}
+
+	/**
+	 * @return the triangle in the range [first, last) for which u is farthest
+	 *         inside the nearest edge.
+	 */
+	private int best(double[] u, int first, int last) {
+		double[] a = new double[3], b = new double[3];
+		int best = first;
+		double bestMin = Double.NEGATIVE_INFINITY;
+		for (int t = first; t < last; ++t) {
+			double min = Double.POSITIVE_INFINITY;
+			for (int j = 0; j < 3; ++j) {
+				vertices.get(corners[3 * t + (j + 2) % 3], a);
+				vertices.get(corners[3 * t + (j + 1) % 3], b);
+				min = Math.min(min, u[0] * (a[1] * b[2] - a[2] * b[1]) + u[1] * (a[2] * b[0] - a[0] * b[2])
+						+ u[2] * (a[0] * b[1] - a[1] * b[0]));
+			}
+			if (min > bestMin) {
+				bestMin = min;
+				best = t;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Subdivide the initial solid down to the coarse level, then compute the
+	 * target edge length at every vertex of the coarse level and the smallest
+	 * target edge length inside every triangle on every level.
+	 */
+	private void computeField() {
+		int nFaces = initialSolid.getNFaces();
+		levelStart = new int[coarseTessLevel + 2];
+		for (int level = 0; level <= coarseTessLevel; ++level)
+			levelStart[level + 1] = levelStart[level] + (nFaces << (2 * level));
+
+		vertices = new PointBuffer();
+		for (double[] vertex : initialSolid.getVertices())
+			vertices.add(vertex);
+
+		// the children of triangle t on level l are the 4 triangles starting at
+		// levelStart[l+1] + 4 * (t - levelStart[l]).
+		corners = new int[3 * levelStart[coarseTessLevel + 1]];
+		for (int t = 0; t < nFaces; ++t)
+			System.arraycopy(initialSolid.getFace(t), 0, corners, 3 * t, 3);
+
+		LongIntMap midpoints = new LongIntMap(levelStart[coarseTessLevel + 1]);
+		for (int level = 0; level < coarseTessLevel; ++level)
+			for (int t = levelStart[level]; t < levelStart[level + 1]; ++t) {
+				int a = corners[3 * t], b = corners[3 * t + 1], c = corners[3 * t + 2];
+				int ab = getMidpoint(midpoints, a, b);
+				int bc = getMidpoint(midpoints, b, c);
+				int ca = getMidpoint(midpoints, c, a);
+				int k = 3 * (levelStart[level + 1] + 4 * (t - levelStart[level]));
+				int[] children = new int[] { a, ab, ca, ab, b, bc, ca, bc, c, ab, bc, ca };
+				System.arraycopy(children, 0, corners, k, 12);
+			}
+
+		int nVertices = vertices.size();
+		int first = levelStart[coarseTessLevel], nLeaves = levelStart[coarseTessLevel + 1] - first;
+		size = new double[nVertices];
+		Arrays.fill(size, Double.POSITIVE_INFINITY);
+		double[] u = new double[3];
+
+		// assign each source to the coarse triangle that contains its center and
+		// seed the corners of that triangle.
+		int[] leaf = new int[nSources];
+		sourceStart = new int[nLeaves + 1];
+		for (int i = 0; i < nSources; ++i) {
+			System.arraycopy(sources, 5 * i, u, 0, 3);
+			int t = locate(u, coarseTessLevel);
+			leaf[i] = t - first;
+			++sourceStart[leaf[i] + 1];
+			for (int j = 0; j < 3; ++j) {
+				int v = corners[3 * t + j];
+				size[v] = Math.min(size[v], getSourceEdgeLength(i, vertices.get(v, u)));
+			}
+		}
+		for (int i = 0; i < nLeaves; ++i)
+			sourceStart[i + 1] += sourceStart[i];
+		int[] next = Arrays.copyOf(sourceStart, nLeaves);
+		sourceIndex = new int[nSources];
+		for (int i = 0; i < nSources; ++i)
+			sourceIndex[next[leaf[i]]++] = i;
+
+		// caps and polygons can contain vertices far from their centers and
+		// boundary points.
+		int nCaps = 0;
+		int[] caps = new int[nSources];
+		for (int i = 0; i < nSources; ++i)
+			if (sources[5 * i + 4] > 0.)
+				caps[nCaps++] = i;
+		for (int v = 0; v < nVertices; ++v) {
+			vertices.get(v, u);
+			for (int i = 0; i < nCaps; ++i)
+				size[v] = Math.min(size[v], getSourceEdgeLength(caps[i], u));
+			for (int i = 0; i < polygons.size(); ++i)
+				if (polygonEdgeLengths[i] < size[v] && polygons.get(i).contains(u))
+					size[v] = polygonEdgeLengths[i];
+		}
+
+		propagate(first, nLeaves);
+
+		// smallest target edge length inside each triangle, from the coarse level
+		// up.
+		minSize = new double[levelStart[coarseTessLevel + 1]];
+		for (int t = first; t < first + nLeaves; ++t) {
+			double min = Math.min(size[corners[3 * t]], Math.min(size[corners[3 * t + 1]], size[corners[3 * t + 2]]));
+			for (int j = sourceStart[t - first]; j < sourceStart[t - first + 1]; ++j)
+				min = Math.min(min, sources[5 * sourceIndex[j] + 3]);
+			minSize[t] = min;
+		}
+		for (int level = coarseTessLevel - 1; level >= 0; --level)
+			for (int t = levelStart[level]; t < levelStart[level + 1]; ++t) {
+				int c = levelStart[level + 1] + 4 * (t - levelStart[level]);
+				minSize[t] = Math.min(Math.min(minSize[c], minSize[c + 1]), Math.min(minSize[c + 2], minSize[c + 3]));
+			}
+	}
+
+	/**
+	 * Limit the growth of target edge length along the edges of the coarse level
+	 * to gradation times the length of the edge, starting from the vertices with
+	 * the smallest target edge length.
+	 */
+	private void propagate(int first, int nLeaves) {
+		int nVertices = vertices.size();
+
+		// every edge appears in two triangles, once in each direction.
+		int[] start = new int[nVertices + 1];
+		for (int t = first; t < first + nLeaves; ++t)
+			for (int j = 0; j < 3; ++j)
+				++start[corners[3 * t + j] + 1];
+		for (int v = 0; v < nVertices; ++v)
+			start[v + 1] += start[v];
+		int[] next = Arrays.copyOf(start, nVertices);
+		int[] neighbors = new int[start[nVertices]];
+		for (int t = first; t < first + nLeaves; ++t)
+			for (int j = 0; j < 3; ++j)
+				neighbors[next[corners[3 * t + j]]++] = corners[3 * t + (j + 1) % 3];
+
+		// vertices in order of increasing target edge length. A vertex is pushed
+		// again whenever its target decreases and stale entries are skipped.
+		IndexHeap queue = new IndexHeap(nVertices);
+		for (int v = 0; v < nVertices; ++v)
+			if (size[v] < Double.POSITIVE_INFINITY)
+				queue.push(v, -size[v]);
+
+		double[] u = new double[3], w = new double[3];
+		while (!queue.isEmpty()) {
+			double s = -queue.peekPriority();
+			int v = queue.pop();
+			if (s > size[v])
+				continue;
+			vertices.get(v, u);
+			for (int j = start[v]; j < start[v + 1]; ++j) {
+				int n = neighbors[j];
+				double sn = size[v] + gradation * angle(u, vertices.get(n, w));
+				if (sn < size[n]) {
+					size[n] = sn;
+					queue.push(n, -sn);
+				}
+			}
+		}
+	}
+
+	private int getMidpoint(LongIntMap midpoints, int a, int b) {
+		long key = LongIntMap.edgeKey(a, b);
+		int m = midpoints.get(key);
+		if (m < 0) {
+			double[] u = new double[3], v = new double[3];
+			vertices.get(a, u);
+			vertices.get(b, v);
+			double x = u[0] + v[0], y = u[1] + v[1], z = u[2] + v[2];
+			double length = Math.sqrt(x * x + y * y + z * z);
+			m = vertices.size();
+			vertices.add(new double[] { x / length, y / length, z / length });
+			midpoints.put(key, m);
+		}
+		return m;
+	}
+}
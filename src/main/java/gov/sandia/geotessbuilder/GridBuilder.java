@@ -46,6 +46,12 @@ import java.util.Date;
 public class GridBuilder extends GeoTessGrid {
 	private Collection<Tessellation> tessList;
 
+	/**
+	 * For each vertex in this grid, the index of the colocated vertex in the grid
+	 * from which the Tessellations were derived, or -1.
+	 */
+	private int[] sourceVertexIndexes;
+
 	public GridBuilder(Collection<Tessellation> tessList) throws GeoTessException {
 		this.tessList = tessList;
 		gridSoftwareVersion = "GridBuilder." + GeoTessBuilderMain.getVersion();
@@ -83,8 +89,11 @@ public class GridBuilder extends GeoTessGrid {
 
 		// store the common vertices in the grid.vertices array
 		vertices = new double[commonVertices.size()][];
-		for (int i = 0; i < vertices.length; ++i)
+		sourceVertexIndexes = new int[commonVertices.size()];
+		for (int i = 0; i < vertices.length; ++i) {
 			vertices[i] = commonVertices.get(i).getArray();
+			sourceVertexIndexes[i] = commonVertices.get(i).getSourceIndex();
+		}
 
 		// count the number of tessellation levels in all tessellations
 		int nLevels = 0;
@@ -141,4 +150,28 @@ public class GridBuilder extends GeoTessGrid {
 		return System.currentTimeMillis() - timer;
 	}
 
+	/**
+	 * Retrieve, for each vertex in this grid, the index of the colocated vertex
+	 * in the grid from which the Tessellations were derived (see
+	 * TessellationRefined). Elements are -1 for vertices that have no
+	 * counterpart in the source grid, or when the Tessellations were built from
+	 * scratch.
+	 * 
+	 * @return array of length nVertices.
+	 */
+	public int[] getSourceVertexIndexes() {
+		return sourceVertexIndexes;
+	}
+
+	/**
+	 * Replace the source vertex indexes of this grid. Used when a grid is derived
+	 * from a source grid through intermediate grids, so that the indexes refer to
+	 * the original source grid.
+	 * 
+	 * @param sourceVertexIndexes array of length nVertices.
+	 */
+	void setSourceVertexIndexes(int[] sourceVertexIndexes) {
+		this.sourceVertexIndexes = sourceVertexIndexes;
+	}
+
 }
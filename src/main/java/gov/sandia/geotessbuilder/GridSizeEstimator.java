@@ -0,0 +1,481 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+package gov.sandia.geotessbuilder;
+
+import gov.sandia.geotess.GeoTessException;
+import gov.sandia.gmp.util.numerical.vector.VectorUnit;
+import gov.sandia.gmp.util.propertiesplus.PropertiesPlus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Predicts the number of triangles and vertices on each level of a
+ * Tessellation without building it. The subdivision of the initial solid is
+ * replayed using only arrays of vertex indices: a cell on level k is divided if
+ * k &lt; baseTessLevel, if any of its corners resides inside a polygon
+ * associated with a level greater than k, or if it contains any of the points,
+ * path points or polygon boundary points associated with a level greater than
+ * k. Points are partitioned among the cells as the cells are divided so each
+ * point is only tested against the cells that it might reside in. Cells that
+ * have a neighbor that was divided more than once along their shared edge are
+ * then divided, as in Tessellation.build().
+ * <p>
+ * Every level of a Tessellation is a closed triangulation of the sphere that
+ * contains all the vertices created on that level or below, so the number of
+ * triangles on a level is 2*nVertices - 4. Vertex budgets (maxVertices) are
+ * ignored, so the estimate is an upper bound when a budget is specified.
+ */
+public class GridSizeEstimator {
+
+	/**
+	 * Number of vertices on each level.
+	 */
+	private final int[] nVertices;
+
+	private final int baseTessLevel;
+
+	/**
+	 * Unit vectors of the vertices, 3 elements per vertex.
+	 */
+	private double[] xyz = new double[3 * 1024];
+
+	/**
+	 * Level on which each vertex was created.
+	 */
+	private int[] vertexLevel = new int[1024];
+
+	/**
+	 * For each vertex, the largest tessellation level of all the polygons that
+	 * contain the vertex, or -1.
+	 */
+	private int[] polygonLevel = new int[1024];
+
+	private int nVert;
+
+	/**
+	 * Map from a pair of vertex indices to the index of the vertex at the center
+	 * of the edge that connects them.
+	 */
+	private final LongIntMap midpoints = new LongIntMap(1024);
+
+	/**
+	 * Points that must be resolved, 3 elements per point, and the tessellation
+	 * level at which each point must be resolved.
+	 */
+	private final double[] points;
+	private final int[] pointLevels;
+
+	private final ArrayList<PolygonGB> polygons = new ArrayList<PolygonGB>();
+
+	private final ArrayList<SphericalCap> caps = new ArrayList<SphericalCap>();
+
+	private final int maxProcessors;
+
+	/**
+	 * Predict the size of the specified tessellation. The tessellation is not
+	 * modified.
+	 * 
+	 * @param tessellation  a tessellation with polygons, paths and points added
+	 *                      but not yet built.
+	 * @param maxProcessors
+	 * @throws GeoTessException
+	 */
+	public GridSizeEstimator(Tessellation tessellation, int maxProcessors) throws GeoTessException {
+		this.maxProcessors = maxProcessors;
+		this.baseTessLevel = tessellation.getBaseTessLevel();
+
+		// polygons associated with levels <= baseTessLevel have no effect since all
+		// triangles below baseTessLevel are divided anyway.
+		HashMap<Integer, PointBuffer> pointMap = new HashMap<Integer, PointBuffer>();
+		for (Integer level : tessellation.getPoints().keySet())
+			getBuffer(pointMap, level).addAll(new PointBuffer(tessellation.getPoints().get(level)));
+		for (Integer level : tessellation.getPaths().keySet())
+			getBuffer(pointMap, level).addAll(tessellation.getPaths().get(level));
+
+		// paths that are evaluated as arcs are approximated by points spaced at
+		// one tenth of the edge length of the level, as in the point evaluation.
+		for (Integer level : tessellation.getPathArcs().keySet())
+			getBuffer(pointMap, level).addAll(PathDensifier.densify(tessellation.getPathArcs().get(level).getArcs(),
+					tessellation.getInitialSolid().getEdgeLength(level) * 0.1, maxProcessors));
+		for (PolygonGB polygon : tessellation.polygons) {
+			if (polygon.getTessLevel() > baseTessLevel)
+				polygons.add(polygon);
+			getBuffer(pointMap, polygon.getTessLevel()).addAll(new PointBuffer(Arrays.asList(polygon.getPoints(false))));
+		}
+
+		// spherical caps are treated like polygons whose only boundary point is the
+		// center, which catches caps that are smaller than the cells they reside
+		// in. Cells that a cap overlaps without containing its center or any of
+		// their corners are missed.
+		for (SphericalCap cap : tessellation.caps) {
+			if (cap.getTessLevel() > baseTessLevel)
+				caps.add(cap);
+			getBuffer(pointMap, cap.getTessLevel()).add(cap.getCenter());
+		}
+
+		// other refinement regions are only known by their intersection with
+		// triangles, so they are approximated by the centers of their bounding caps.
+		// Size fields cover the whole sphere and are not included in the estimate.
+		for (RefinementRegion region : tessellation.getRegions())
+			if (!(region instanceof SizeField))
+				getBuffer(pointMap, region.getTessLevel()).add(region.getBoundingCapCenter());
+
+		int n = 0;
+		for (Integer level : pointMap.keySet())
+			if (level > 0)
+				n += pointMap.get(level).size();
+		points = new double[3 * n];
+		pointLevels = new int[n];
+		n = 0;
+		for (Integer level : pointMap.keySet())
+			if (level > 0) {
+				PointBuffer buffer = pointMap.get(level);
+				System.arraycopy(buffer.array(), 0, points, 3 * n, 3 * buffer.size());
+				Arrays.fill(pointLevels, n, n + buffer.size(), level);
+				n += buffer.size();
+			}
+
+		InitialSolid initialSolid = tessellation.getInitialSolid();
+
+		for (double[] vertex : initialSolid.getVertices())
+			addVertex(vertex, 0);
+		setPolygonLevels(0);
+
+		final Cells cells = new Cells();
+		for (int j = 0; j < initialSolid.getNFaces(); ++j) {
+			int[] face = initialSolid.getFace(j);
+			cells.add(face[0], face[1], face[2]);
+		}
+
+		// assign every point to every face that contains it.
+		final int[] all = new int[pointLevels.length];
+		for (int i = 0; i < all.length; ++i)
+			all[i] = i;
+		new ConcurrentRange() {
+			@Override
+			protected void process(int first, int last) {
+				for (int j = first; j < last; ++j)
+					cells.points[j] = filter(all, cells, j, 0);
+			}
+		}.execute(cells.n, maxProcessors, 1);
+
+		ArrayList<Cells> levels = new ArrayList<Cells>();
+		levels.add(cells);
+
+		while (true) {
+			int level = levels.size() - 1;
+			final Cells cur = levels.get(level);
+			BitSet divisible = getDivisible(cur, level);
+			if (divisible.isEmpty())
+				break;
+
+			final Cells next = new Cells();
+			final int[] parents = new int[divisible.cardinality()];
+			int firstVertex = nVert;
+			int k = 0;
+			for (int i = divisible.nextSetBit(0); i >= 0; i = divisible.nextSetBit(i + 1)) {
+				parents[k++] = i;
+				divide(cur, i, next, level + 1);
+			}
+			setPolygonLevels(firstVertex);
+
+			// distribute the points of each divided cell among its 4 children.
+			final int childLevel = level + 1;
+			new ConcurrentRange() {
+				@Override
+				protected void process(int first, int last) {
+					for (int j = first; j < last; ++j)
+						if (cur.points[parents[j]] != null)
+							for (int c = 4 * j; c < 4 * j + 4; ++c)
+								next.points[c] = filter(cur.points[parents[j]], next, c, childLevel);
+				}
+			}.execute(parents.length, maxProcessors);
+
+			for (int i = 0; i < cur.n; ++i)
+				cur.points[i] = null;
+
+			levels.add(next);
+		}
+
+		// divide cells with an edge that was divided more than once by a neighbor.
+		boolean more;
+		do {
+			more = false;
+			for (int level = 0; level < levels.size() - 1; ++level) {
+				Cells cur = levels.get(level);
+				for (int i = 0; i < cur.n; ++i)
+					if (!cur.divided.get(i) && needsDivision(cur, i)) {
+						divide(cur, i, levels.get(level + 1), level + 1);
+						more = true;
+					}
+			}
+		} while (more);
+
+		nVertices = new int[levels.size()];
+		for (int i = 0; i < nVert; ++i)
+			++nVertices[vertexLevel[i]];
+		for (int level = 1; level < levels.size(); ++level)
+			nVertices[level] += nVertices[level - 1];
+	}
+
+	private static PointBuffer getBuffer(HashMap<Integer, PointBuffer> pointMap, int level) {
+		PointBuffer buffer = pointMap.get(level);
+		if (buffer == null) {
+			buffer = new PointBuffer();
+			pointMap.put(level, buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Predict the size of each of the tessellations specified in a 'scratch'
+	 * properties file.
+	 * 
+	 * @param properties
+	 * @return one GridSizeEstimator per tessellation.
+	 * @throws Exception
+	 */
+	public static GridSizeEstimator[] estimate(PropertiesPlus properties) throws Exception {
+		int maxProcessors = properties.getInt("maxProcessors", Runtime.getRuntime().availableProcessors());
+		ArrayList<Tessellation> tessellations = GeoTessBuilderMain.getTessellations(properties, maxProcessors);
+		GridSizeEstimator[] estimates = new GridSizeEstimator[tessellations.size()];
+		for (int i = 0; i < estimates.length; ++i)
+			estimates[i] = new GridSizeEstimator(tessellations.get(i), maxProcessors);
+		return estimates;
+	}
+
+	/**
+	 * @return the number of levels in the tessellation.
+	 */
+	public int getNLevels() {
+		return nVertices.length;
+	}
+
+	/**
+	 * @param level
+	 * @return the number of vertices on the specified level.
+	 */
+	public int getNVertices(int level) {
+		return nVertices[level];
+	}
+
+	/**
+	 * @return the number of vertices on the top level of the tessellation.
+	 */
+	public int getNVertices() {
+		return nVertices[nVertices.length - 1];
+	}
+
+	/**
+	 * @param level
+	 * @return the number of triangles on the specified level.
+	 */
+	public int getNTriangles(int level) {
+		return 2 * nVertices[level] - 4;
+	}
+
+	/**
+	 * @return the number of triangles on all levels of the tessellation.
+	 */
+	public long getNTriangles() {
+		long n = 0;
+		for (int level = 0; level < nVertices.length; ++level)
+			n += getNTriangles(level);
+		return n;
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer s = new StringBuffer();
+		s.append(String.format("%6s %12s %12s%n", "level", "nTriangles", "nVertices"));
+		for (int level = 0; level < nVertices.length; ++level)
+			s.append(String.format("%6d %12d %12d%n", level, getNTriangles(level), nVertices[level]));
+		s.append(String.format("%6s %12d%n", "total", getNTriangles()));
+		return s.toString();
+	}
+
+	/**
+	 * @return the cells on the specified level that need to be divided.
+	 */
+	private BitSet getDivisible(final Cells cells, final int level) throws GeoTessException {
+		final BitSet divisible = new BitSet(cells.n);
+		if (level < baseTessLevel) {
+			divisible.set(0, cells.n);
+			return divisible;
+		}
+
+		return new ConcurrentRange.Selection() {
+			@Override
+			protected boolean test(int i) {
+				return cells.points[i] != null || polygonLevel[cells.corners[3 * i]] > level
+						|| polygonLevel[cells.corners[3 * i + 1]] > level
+						|| polygonLevel[cells.corners[3 * i + 2]] > level;
+			}
+		}.select(cells.n, maxProcessors);
+	}
+
+	/**
+	 * @return true if one of the edges of the cell has a center vertex and one of
+	 *         the halves of that edge also has a center vertex.
+	 */
+	private boolean needsDivision(Cells cells, int i) {
+		for (int side = 0; side < 3; ++side) {
+			int a = cells.corners[3 * i + (side + 1) % 3];
+			int b = cells.corners[3 * i + (side + 2) % 3];
+			int m = midpoints.get(LongIntMap.edgeKey(a, b));
+			if (m >= 0 && (midpoints.containsKey(LongIntMap.edgeKey(a, m))
+					|| midpoints.containsKey(LongIntMap.edgeKey(m, b))))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Divide cell i into 4 cells that are added to next, in the same order as
+	 * Triangle.divide().
+	 */
+	private void divide(Cells cells, int i, Cells next, int level) {
+		int[] c = new int[] { cells.corners[3 * i], cells.corners[3 * i + 1], cells.corners[3 * i + 2] };
+		int[] m = new int[3];
+		for (int side = 0; side < 3; ++side)
+			m[side] = getMidpoint(c[(side + 1) % 3], c[(side + 2) % 3], level);
+
+		next.add(m[0], m[1], m[2]);
+		for (int j = 0; j < 3; ++j)
+			next.add(c[j], m[(j + 2) % 3], m[(j + 1) % 3]);
+
+		cells.divided.set(i);
+	}
+
+	private int getMidpoint(int a, int b, int level) {
+		long key = LongIntMap.edgeKey(a, b);
+		int m = midpoints.get(key);
+		if (m < 0) {
+			double[] u = new double[] { xyz[3 * a] + xyz[3 * b], xyz[3 * a + 1] + xyz[3 * b + 1],
+					xyz[3 * a + 2] + xyz[3 * b + 2] };
+			VectorUnit.normalize(u);
+			m = addVertex(u, level);
+			midpoints.put(key, m);
+		}
+		return m;
+	}
+
+	private int addVertex(double[] u, int level) {
+		if (nVert == vertexLevel.length) {
+			xyz = Arrays.copyOf(xyz, 6 * nVert);
+			vertexLevel = Arrays.copyOf(vertexLevel, 2 * nVert);
+			polygonLevel = Arrays.copyOf(polygonLevel, 2 * nVert);
+		}
+		System.arraycopy(u, 0, xyz, 3 * nVert, 3);
+		vertexLevel[nVert] = level;
+		polygonLevel[nVert] = -1;
+		return nVert++;
+	}
+
+	/**
+	 * Find the largest tessellation level of the polygons and caps that contain
+	 * each of the vertices from first to nVert.
+	 */
+	private void setPolygonLevels(final int first) throws GeoTessException {
+		if (polygons.isEmpty() && caps.isEmpty())
+			return;
+
+		new ConcurrentRange() {
+			@Override
+			protected void process(int i0, int i1) {
+				double[] u = new double[3];
+				for (int i = i0; i < i1; ++i) {
+					System.arraycopy(xyz, 3 * (first + i), u, 0, 3);
+					for (PolygonGB polygon : polygons)
+						if (polygon.getTessLevel() > polygonLevel[first + i] && polygon.contains(u))
+							polygonLevel[first + i] = polygon.getTessLevel();
+					for (SphericalCap cap : caps)
+						if (cap.getTessLevel() > polygonLevel[first + i] && cap.contains(u))
+							polygonLevel[first + i] = cap.getTessLevel();
+				}
+			}
+		}.execute(nVert - first, maxProcessors);
+	}
+
+	/**
+	 * @return the subset of the specified points that reside inside or on the
+	 *         boundary of the specified cell and that are associated with a
+	 *         tessellation level greater than level, or null if there are none.
+	 */
+	private int[] filter(int[] candidates, Cells cells, int cell, int level) {
+		double[][] c = new double[3][3];
+		for (int j = 0; j < 3; ++j)
+			System.arraycopy(xyz, 3 * cells.corners[3 * cell + j], c[j], 0, 3);
+
+		double[] u = new double[3];
+		int[] selected = new int[candidates.length];
+		int n = 0;
+		for (int p : candidates)
+			if (pointLevels[p] > level) {
+				System.arraycopy(points, 3 * p, u, 0, 3);
+				if (VectorUnit.scalarTripleProduct(c[2], c[1], u) >= -1e-15
+						&& VectorUnit.scalarTripleProduct(c[0], c[2], u) >= -1e-15
+						&& VectorUnit.scalarTripleProduct(c[1], c[0], u) >= -1e-15)
+					selected[n++] = p;
+			}
+		return n == 0 ? null : Arrays.copyOf(selected, n);
+	}
+
+	/**
+	 * The cells on one level of the hierarchy of divided triangles: the indices of
+	 * the 3 corners of each cell, the indices of the points that reside in each
+	 * cell and which cells have been divided.
+	 */
+	private static class Cells {
+		int n;
+		int[] corners = new int[3 * 32];
+		int[][] points = new int[32][];
+		final BitSet divided = new BitSet();
+
+		void add(int a, int b, int c) {
+			if (3 * n == corners.length) {
+				corners = Arrays.copyOf(corners, 2 * corners.length);
+				points = Arrays.copyOf(points, 2 * points.length);
+			}
+			corners[3 * n] = a;
+			corners[3 * n + 1] = b;
+			corners[3 * n + 2] = c;
+			++n;
+		}
+	}
+}
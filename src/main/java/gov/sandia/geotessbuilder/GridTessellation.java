@@ -0,0 +1,386 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+
+package gov.sandia.geotessbuilder;
+
+import gov.sandia.geotess.GeoTessGrid;
+import gov.sandia.gmp.util.numerical.vector.VectorUnit;
+
+import java.util.BitSet;
+
+/**
+ * Read-only view of one of the multi-level tessellations of an existing
+ * GeoTessGrid. Walking triangle searches and descendant counts are computed
+ * directly from the triangle, neighbor and descendant arrays of the grid so
+ * that Tessellations derived from an existing grid (TessellationRefined,
+ * TessellationCoarsened) do not have to construct a Vertex and Triangle object
+ * graph for the original tessellation.
+ * <p>
+ * Not thread safe: descendant counts are cached on demand.
+ */
+class GridTessellation {
+
+	/**
+	 * The grid that contains the tessellation.
+	 */
+	final GeoTessGrid grid;
+
+	/**
+	 * Number of levels in the tessellation.
+	 */
+	final int nLevels;
+
+	/**
+	 * Index of the first triangle on each level of the tessellation.
+	 */
+	private final int[] firstTriangle;
+
+	/**
+	 * Number of triangles on level l+1 that reside inside each triangle on level
+	 * l. Computed on demand; zero means not yet computed. Indexed by triangle
+	 * index minus firstTriangle[0].
+	 */
+	private final byte[] nDescendants;
+
+	/**
+	 * Number of triangles on level 0 of the tessellation.
+	 */
+	private final int nRoots;
+
+	GridTessellation(GeoTessGrid grid, int tessellationIndex) {
+		this.grid = grid;
+		nLevels = grid.getNLevels(tessellationIndex);
+		firstTriangle = new int[nLevels];
+		int level0 = grid.getTessellations()[tessellationIndex][0];
+		for (int level = 0; level < nLevels; ++level)
+			firstTriangle[level] = grid.getLevels()[level0 + level][0];
+		nDescendants = new byte[grid.getLevels()[level0 + nLevels - 1][1] - firstTriangle[0]];
+		nRoots = grid.getLevels()[level0][1] - firstTriangle[0];
+	}
+
+	/**
+	 * @return index of the first triangle on the specified level.
+	 */
+	int getFirstTriangle(int level) {
+		return firstTriangle[level];
+	}
+
+	/**
+	 * Count the number of triangles on the next level that reside inside triangle
+	 * t.
+	 * 
+	 * @param t     index of a triangle in grid.
+	 * @param level the level on which t resides.
+	 * @return number of descendants of t, or 0 if t is on the top level.
+	 */
+	int getNDescendants(int t, int level) {
+		if (level == nLevels - 1)
+			return 0;
+
+		int i = t - firstTriangle[0];
+		if (nDescendants[i] == 0) {
+			int descendant = grid.getDescendant(t);
+			int n = 1;
+			for (int side = 0; side < 3; ++side)
+				if (contains(t, getCenter(grid.getNeighbor(descendant, side))))
+					++n;
+			nDescendants[i] = (byte) n;
+		}
+		return nDescendants[i];
+	}
+
+	/**
+	 * @return the number of corners of triangle t that are in vertices.
+	 */
+	int countCorners(int t, BitSet vertices) {
+		int n = 0;
+		for (int vertex : grid.getTriangleVertexIndexes(t))
+			if (vertices.get(vertex))
+				++n;
+		return n;
+	}
+
+	/**
+	 * @return true if the corners of triangle and grid triangle t are colocated
+	 *         and in the same order.
+	 */
+	boolean sameCorners(Triangle triangle, int t) {
+		int[] corners = grid.getTriangleVertexIndexes(t);
+		for (int i = 0; i < 3; ++i)
+			if (VectorUnit.dot(triangle.get(i).getArray(), grid.getVertex(corners[i])) <= Math.cos(1e-7))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return true if the corners of grid triangle t are, in the same order, the
+	 *         vertices whose source indexes are those of the corners of triangle.
+	 */
+	private boolean hasCorners(int t, Triangle triangle) {
+		int[] corners = grid.getTriangleVertexIndexes(t);
+		for (int i = 0; i < 3; ++i)
+			if (triangle.get(i).getSourceIndex() != corners[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Find the grid triangle that has the same corners as a triangle of a
+	 * tessellation that is being derived from this one, and set the source index
+	 * of the vertices of triangle that are also vertices of this tessellation.
+	 * <p>
+	 * Triangles on level 0 are matched against the level 0 triangles of this
+	 * tessellation. Every other triangle is matched against the triangles that
+	 * reside inside the match of its ancestor: the descendant of the match and the
+	 * neighbors of that descendant. The vertices at the midpoints of the edges of
+	 * the ancestor are given the index of the grid vertex at the midpoint of the
+	 * same edge of the match, if the edge was divided, before they are compared.
+	 * No geometric search is performed, but ancestors must be matched before their
+	 * descendants, which is the order in which Tessellation.build() calls
+	 * isDivisible().
+	 * 
+	 * @param triangle a triangle that is either on level 0 or was produced by
+	 *                 dividing its ancestor into 4 triangles.
+	 * @return index of the grid triangle on the same level as triangle that has the
+	 *         same corners, in the same order, or -1.
+	 */
+	int match(Triangle triangle) {
+		if (triangle.gridTriangle != -1)
+			return Math.max(-1, triangle.gridTriangle);
+
+		int t = -1;
+		Triangle ancestor = triangle.ancestor;
+		if (ancestor == null) {
+			for (int i = firstTriangle[0]; i < firstTriangle[0] + nRoots; ++i)
+				if (sameCorners(triangle, i)) {
+					int[] corners = grid.getTriangleVertexIndexes(i);
+					for (int j = 0; j < 3; ++j)
+						triangle.get(j).setSourceIndex(corners[j]);
+					t = i;
+					break;
+				}
+		} else {
+			int parent = match(ancestor);
+			int level = ancestor.getTessLevel();
+			if (parent >= 0 && level < nLevels - 1) {
+				for (int side = 0; side < 3; ++side) {
+					Vertex midpoint = ancestor.getEdges()[side].getVertex();
+					if (midpoint.getSourceIndex() < 0)
+						midpoint.setSourceIndex(getMidpoint(parent, side, level));
+				}
+
+				int descendant = grid.getDescendant(parent);
+				if (hasCorners(descendant, triangle))
+					t = descendant;
+				else
+					for (int side = 0; side < 3; ++side)
+						if (hasCorners(grid.getNeighbor(descendant, side), triangle)) {
+							t = grid.getNeighbor(descendant, side);
+							break;
+						}
+			}
+		}
+		// remember the match in the triangle, distinguishing 'no match' from 'not
+		// yet visited'.
+		triangle.gridTriangle = t < 0 ? -2 : t;
+		return t;
+	}
+
+	/**
+	 * Find the vertex at the midpoint of one of the edges of grid triangle t. The
+	 * edge has a midpoint if either t or the neighbor of t that shares the edge
+	 * was divided into 4 triangles; the midpoint is then the corresponding corner
+	 * of the central child, which is the descendant of the divided triangle.
+	 * 
+	 * @param t     index of a triangle in grid.
+	 * @param side  the edge of t, opposite corner side.
+	 * @param level the level on which t resides.
+	 * @return index of the grid vertex at the midpoint of the edge, or -1.
+	 */
+	private int getMidpoint(int t, int side, int level) {
+		if (getNDescendants(t, level) == 4)
+			return grid.getTriangleVertexIndexes(grid.getDescendant(t))[side];
+
+		int neighbor = grid.getNeighbor(t, side);
+		if (getNDescendants(neighbor, level) == 4)
+			for (int i = 0; i < 3; ++i)
+				if (grid.getNeighbor(neighbor, i) == t)
+					return grid.getTriangleVertexIndexes(grid.getDescendant(neighbor))[i];
+		return -1;
+	}
+
+	double[] getCenter(int t) {
+		int[] corners = grid.getTriangleVertexIndexes(t);
+		double[] center = new double[3];
+		for (int corner : corners) {
+			double[] v = grid.getVertex(corner);
+			center[0] += v[0];
+			center[1] += v[1];
+			center[2] += v[2];
+		}
+		VectorUnit.normalize(center);
+		return center;
+	}
+
+	/**
+	 * @return true if u is inside or on the boundary of grid triangle t.
+	 */
+	boolean contains(int t, double[] u) {
+		int[] corners = grid.getTriangleVertexIndexes(t);
+		for (int i = 0; i < 3; i++)
+			if (VectorUnit.scalarTripleProduct(grid.getVertex(corners[(i + 2) % 3]),
+					grid.getVertex(corners[(i + 1) % 3]), u) < -1e-15)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Find the triangle on the specified level that contains position u,
+	 * starting the search from the first triangle on level 0.
+	 * 
+	 * @param tessLevel search no higher than this level.
+	 * @param u         the unit vector for which to search.
+	 * @return index of the triangle in grid.
+	 */
+	int findTriangle(int tessLevel, double[] u) {
+		return findTriangle(firstTriangle[0], 0, tessLevel, u, null);
+	}
+
+	/**
+	 * Perform walking triangle search to find the triangle that contains position
+	 * u and which resides on the specified tessellation level.
+	 * 
+	 * @param t         index of the triangle in grid from which to start the
+	 *                  search.
+	 * @param level     the level on which t resides.
+	 * @param tessLevel search no higher than this level.
+	 * @param u         the unit vector for which to search.
+	 * @param c         if not null, a 3-element array that will be filled with
+	 *                  the interpolation coefficients.
+	 * @return index of the triangle in grid.
+	 */
+	int findTriangle(int t, int level, int tessLevel, double[] u, double[] c) {
+		double c0, c1, c2;
+		while (true) {
+			int[] corners = grid.getTriangleVertexIndexes(t);
+			double[] v0 = grid.getVertex(corners[0]);
+			double[] v1 = grid.getVertex(corners[1]);
+			double[] v2 = grid.getVertex(corners[2]);
+			c0 = VectorUnit.scalarTripleProduct(v2, v1, u);
+			if (c0 > -1e-15) {
+				c1 = VectorUnit.scalarTripleProduct(v0, v2, u);
+				if (c1 > -1e-15) {
+					c2 = VectorUnit.scalarTripleProduct(v1, v0, u);
+					if (c2 > -1e-15) {
+						if (level == tessLevel || level == nLevels - 1) {
+							if (c != null) {
+								double sum = c0 + c1 + c2;
+								c[0] = c0 / sum;
+								c[1] = c1 / sum;
+								c[2] = c2 / sum;
+							}
+							return t;
+						}
+						t = grid.getDescendant(t);
+						++level;
+					} else
+						t = grid.getNeighbor(t, 2);
+				} else
+					t = grid.getNeighbor(t, 1);
+			} else
+				t = grid.getNeighbor(t, 0);
+		}
+	}
+
+	/**
+	 * @return the index of the corner of grid triangle t that is colocated with
+	 *         the position for which interpolation coefficients c were computed,
+	 *         or -1.
+	 */
+	int findCorner(int t, double[] c) {
+		for (int i = 0; i < 3; ++i)
+			if (c[i] > .999999999)
+				return grid.getTriangleVertexIndexes(t)[i];
+		return -1;
+	}
+
+	/**
+	 * Find the index of the vertex on the top level of this tessellation that is
+	 * colocated with u.
+	 * 
+	 * @param hint index of a triangle on the top level from which to start the
+	 *             search, or -1.
+	 * @param u    unit vector
+	 * @param c    3-element array that will be filled with interpolation
+	 *             coefficients.
+	 * @return the index of the triangle on the top level that contains u. The
+	 *         colocated vertex, if any, can be retrieved with findCorner(t, c).
+	 */
+	int findTopLevelTriangle(int hint, double[] u, double[] c) {
+		int top = nLevels - 1;
+		return findTriangle(hint < 0 ? firstTriangle[top] : hint, top, top, u, c);
+	}
+
+	/**
+	 * For every vertex in tessellation tess, which must have been derived from
+	 * this tessellation, find the colocated vertex on the top level of this
+	 * tessellation, if there is one, and record its index in the grid as the
+	 * vertex's source index. Vertices that have no counterpart retain source
+	 * index -1. Used where vertices of the original tessellation can be
+	 * recreated by the conformity pass of Tessellation.build(), which match()
+	 * cannot follow.
+	 * <p>
+	 * Vertices are visited in the order of the triangles on the top level of tess
+	 * which is spatially coherent, so each walking triangle search starts from
+	 * the triangle where the previous one ended and only has to take a few steps.
+	 * 
+	 * @param tess a Tessellation whose vertices have been indexed by
+	 *             setConnectivity().
+	 */
+	void setSourceIndexes(Tessellation tess) {
+		double[] c = new double[3];
+		int hint = -1;
+
+		BitSet done = new BitSet();
+		for (Triangle triangle : tess.get(tess.size() - 1))
+			for (Vertex vertex : triangle)
+				if (!done.get(vertex.getIndex())) {
+					done.set(vertex.getIndex());
+					hint = findTopLevelTriangle(hint, vertex.getArray(), c);
+					vertex.setSourceIndex(findCorner(hint, c));
+				}
+	}
+
+}
@@ -0,0 +1,143 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+
+package gov.sandia.geotessbuilder;
+
+import java.util.Arrays;
+
+/**
+ * Binary max-heap of int items ordered by a double priority. Items with equal
+ * priority are popped in increasing order of item, so items numbered in the
+ * order in which they were created come out in that order, as they would from a
+ * stable sort. Items and priorities are stored in primitive arrays that grow as
+ * needed.
+ */
+class IndexHeap {
+
+	private int[] items;
+
+	private double[] priorities;
+
+	private int size;
+
+	/**
+	 * @param capacity initial capacity.
+	 */
+	IndexHeap(int capacity) {
+		items = new int[Math.max(capacity, 1)];
+		priorities = new double[items.length];
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Add an item to the heap.
+	 */
+	void push(int item, double priority) {
+		if (size == items.length) {
+			items = Arrays.copyOf(items, 2 * size);
+			priorities = Arrays.copyOf(priorities, 2 * size);
+		}
+
+		// sift up
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!before(item, priority, items[parent], priorities[parent]))
+				break;
+			items[i] = items[parent];
+			priorities[i] = priorities[parent];
+			i = parent;
+		}
+		items[i] = item;
+		priorities[i] = priority;
+	}
+
+	/**
+	 * @return the item with the highest priority, without removing it.
+	 */
+	int peek() {
+		return items[0];
+	}
+
+	/**
+	 * @return the priority of the item returned by peek().
+	 */
+	double peekPriority() {
+		return priorities[0];
+	}
+
+	/**
+	 * Remove and return the item with the highest priority.
+	 */
+	int pop() {
+		int top = items[0];
+		int item = items[--size];
+		double priority = priorities[size];
+
+		// sift down
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && before(items[child + 1], priorities[child + 1], items[child], priorities[child]))
+				++child;
+			if (!before(items[child], priorities[child], item, priority))
+				break;
+			items[i] = items[child];
+			priorities[i] = priorities[child];
+			i = child;
+		}
+		items[i] = item;
+		priorities[i] = priority;
+		return top;
+	}
+
+	/**
+	 * @return true if item i with priority pi comes out of the heap before item j
+	 *         with priority pj.
+	 */
+	private static boolean before(int i, double pi, int j, double pj) {
+		return pi > pj || (pi == pj && i < j);
+	}
+
+}
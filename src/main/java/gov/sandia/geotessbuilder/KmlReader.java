@@ -0,0 +1,297 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+package gov.sandia.geotessbuilder;
+
+import gov.sandia.geotess.GeoTessException;
+import gov.sandia.gmp.util.numerical.vector.VectorGeo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Streaming reader that extracts the contents of every &lt;coordinates&gt;
+ * element in a kml file, or in every kml file inside a kmz archive. The input is
+ * scanned one byte at a time and numbers are parsed directly from the bytes,
+ * so memory consumption is independent of the size of the file. Coordinates are
+ * 'longitude,latitude[,altitude]' tuples separated by whitespace, as specified
+ * by the kml standard. Altitudes are ignored.
+ */
+class KmlReader {
+
+	private final InputStream input;
+
+	private final byte[] buffer = new byte[1 << 16];
+
+	private int position, limit;
+
+	/**
+	 * The characters of the number currently being parsed, in case it has to be
+	 * handed to Double.parseDouble().
+	 */
+	private final StringBuilder text = new StringBuilder(32);
+
+	/**
+	 * Exact powers of ten that can be represented by a double.
+	 */
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1.;
+		for (int i = 1; i < POWERS_OF_TEN.length; ++i)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.;
+	}
+
+	private KmlReader(InputStream input) {
+		this.input = input;
+	}
+
+	/**
+	 * Read all the &lt;coordinates&gt; elements in a kml or kmz file.
+	 * 
+	 * @param file a file with extension kml or kmz.
+	 * @return one list of unit vectors for each &lt;coordinates&gt; element, in the
+	 *         order in which they appear in the file.
+	 * @throws IOException
+	 * @throws GeoTessException if the file does not contain any
+	 *                          &lt;coordinates&gt; elements.
+	 */
+	static ArrayList<ArrayList<double[]>> read(File file) throws IOException, GeoTessException {
+		ArrayList<ArrayList<double[]>> blocks = new ArrayList<ArrayList<double[]>>();
+		String type = file.getName().toLowerCase().endsWith("kmz") ? "kmz" : "kml";
+
+		if (type.equals("kmz")) {
+			ZipFile zip = new ZipFile(file);
+			try {
+				Enumeration<? extends ZipEntry> entries = zip.entries();
+				while (entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					if (!entry.isDirectory() && entry.getName().toLowerCase().endsWith(".kml")) {
+						InputStream in = zip.getInputStream(entry);
+						try {
+							new KmlReader(in).read(blocks);
+						} finally {
+							in.close();
+						}
+					}
+				}
+			} finally {
+				zip.close();
+			}
+		} else {
+			InputStream in = new FileInputStream(file);
+			try {
+				new KmlReader(in).read(blocks);
+			} finally {
+				in.close();
+			}
+		}
+
+		if (blocks.isEmpty())
+			throw new GeoTessException(String.format("String <coordinates> not found in %s file.", type));
+		return blocks;
+	}
+
+	/**
+	 * Scan the input for &lt;coordinates&gt; elements and add the contents of each
+	 * to blocks.
+	 */
+	private void read(ArrayList<ArrayList<double[]>> blocks) throws IOException {
+		int c;
+		while ((c = next()) >= 0)
+			if (c == '<' && isCoordinatesTag())
+				blocks.add(readCoordinates());
+	}
+
+	/**
+	 * Called just after a '&lt;' has been consumed. Consume the rest of the tag
+	 * and return true if it is an opening coordinates tag, with or without a
+	 * namespace prefix.
+	 */
+	private boolean isCoordinatesTag() throws IOException {
+		final String name = "coordinates";
+		int matched = 0;
+		boolean match = true;
+
+		int c = next();
+		if (c == '/' || c == '!' || c == '?')
+			match = false;
+
+		// the element name, possibly preceded by a namespace prefix.
+		for (; c >= 0 && c != '>' && c != '/' && !Character.isWhitespace(c); c = next())
+			if (c == ':') {
+				matched = 0;
+				match = true;
+			} else if (match && matched < name.length() && Character.toLowerCase(c) == name.charAt(matched))
+				++matched;
+			else
+				match = false;
+
+		// attributes. An empty element ends with '/>'.
+		boolean empty = false;
+		for (; c >= 0 && c != '>'; c = next())
+			empty = c == '/';
+
+		return match && matched == name.length() && !empty;
+	}
+
+	/**
+	 * Parse 'lon,lat[,alt]' tuples until the next '&lt;'.
+	 */
+	private ArrayList<double[]> readCoordinates() throws IOException {
+		ArrayList<double[]> points = new ArrayList<double[]>();
+		double[] values = new double[3];
+		int nValues = 0;
+		boolean afterComma = false;
+
+		int c;
+		while ((c = next()) >= 0 && c != '<') {
+			if (c == ',')
+				afterComma = true;
+			else if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.') {
+				// a number that is not preceded by a comma starts a new tuple.
+				if (!afterComma && nValues > 0) {
+					addPoint(points, values, nValues);
+					nValues = 0;
+				}
+				double x = readNumber(c);
+				if (nValues < values.length)
+					values[nValues] = x;
+				++nValues;
+				afterComma = false;
+			}
+		}
+		addPoint(points, values, nValues);
+		if (c == '<')
+			// put the '<' back so the closing tag is consumed by read().
+			--position;
+		return points;
+	}
+
+	private static void addPoint(ArrayList<double[]> points, double[] values, int nValues) {
+		if (nValues >= 2 && !Double.isNaN(values[0]) && !Double.isNaN(values[1]))
+			points.add(VectorGeo.getVectorDegrees(values[1], values[0]));
+	}
+
+	/**
+	 * Parse a decimal number whose first character, c, has already been consumed.
+	 * Numbers with at most 18 significant digits and small exponents are
+	 * assembled from an integer mantissa and an exact power of ten, which is
+	 * correctly rounded. Anything else is handed to Double.parseDouble().
+	 * 
+	 * @return the number, or NaN if the characters do not form a number.
+	 */
+	private double readNumber(int c) throws IOException {
+		text.setLength(0);
+		boolean negative = false;
+		long mantissa = 0;
+		int scale = 0, exponent = 0;
+		boolean exact = true;
+
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			text.append((char) c);
+			c = next();
+		}
+		for (; c >= '0' && c <= '9'; c = next()) {
+			text.append((char) c);
+			if (mantissa < 100000000000000000L)
+				mantissa = mantissa * 10 + (c - '0');
+			else
+				exact = false;
+		}
+		if (c == '.') {
+			text.append('.');
+			for (c = next(); c >= '0' && c <= '9'; c = next()) {
+				text.append((char) c);
+				if (mantissa < 100000000000000000L) {
+					mantissa = mantissa * 10 + (c - '0');
+					++scale;
+				} else
+					exact = false;
+			}
+		}
+		if (c == 'e' || c == 'E') {
+			text.append('e');
+			c = next();
+			boolean negativeExponent = c == '-';
+			if (c == '-' || c == '+') {
+				text.append((char) c);
+				c = next();
+			}
+			for (; c >= '0' && c <= '9'; c = next()) {
+				text.append((char) c);
+				if (exponent < 1000)
+					exponent = exponent * 10 + (c - '0');
+			}
+			if (negativeExponent)
+				exponent = -exponent;
+		}
+		if (c >= 0)
+			// put back the character that terminated the number.
+			--position;
+
+		scale -= exponent;
+		if (exact && mantissa < (1L << 53) && scale >= -22 && scale <= 22) {
+			double x = scale >= 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa * POWERS_OF_TEN[-scale];
+			return negative ? -x : x;
+		}
+
+		try {
+			return Double.parseDouble(text.toString());
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * @return the next byte of input, or -1 at the end of the input.
+	 */
+	private int next() throws IOException {
+		if (position == limit) {
+			limit = input.read(buffer, 0, buffer.length);
+			position = 0;
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return buffer[position++] & 0xff;
+	}
+}
@@ -0,0 +1,367 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+package gov.sandia.geotessbuilder;
+
+import gov.sandia.geotess.GeoTessModel;
+import gov.sandia.geotess.Profile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A sequence of edits to the layer structure of a GeoTessModel -- removing
+ * layers, combining layers into a single constant layer and renaming layers --
+ * that are applied to the model in a single concurrent pass over the vertices,
+ * followed by a single call to setActiveRegion().
+ * <p>
+ * Edits are applied in the order in which they were added, and layer names
+ * refer to the layers of the model as they are after all the previous edits
+ * have been applied. For example:
+ * 
+ * <pre>
+ * new LayerEditPlan().removeLayer("ICE").combineLayersToConstant("UPPER_CRUST", "LOWER_CRUST", "CRUST")
+ * 		.renameLayer("SEDIMENTS", "SEDS").apply(model);
+ * </pre>
+ */
+public class LayerEditPlan {
+
+	private final ArrayList<Edit> edits = new ArrayList<Edit>();
+
+	/**
+	 * See getNThin().
+	 */
+	private int nThin;
+
+	/**
+	 * Remove the specified layer from the model.
+	 * 
+	 * @param layerName
+	 * @return a reference to this
+	 */
+	public LayerEditPlan removeLayer(String layerName) {
+		edits.add(new Remove(layerName));
+		return this;
+	}
+
+	/**
+	 * Combine all the layers between layerName1 and layerName2, inclusive, into a
+	 * single layer in which the GeoAttributes all have constant values equal to
+	 * the thickness-weighted average of the values in the combined layers.
+	 * <p>
+	 * WARNING: this only works with layers comprised of Profiles that are of type
+	 * CONSTANT or THIN.
+	 * 
+	 * @param layerName1
+	 * @param layerName2
+	 * @param newLayerName
+	 * @return a reference to this
+	 */
+	public LayerEditPlan combineLayersToConstant(String layerName1, String layerName2, String newLayerName) {
+		edits.add(new Combine(layerName1, layerName2, newLayerName));
+		return this;
+	}
+
+	/**
+	 * Change the name of a layer.
+	 * 
+	 * @param layerName
+	 * @param newLayerName
+	 * @return a reference to this
+	 */
+	public LayerEditPlan renameLayer(String layerName, String newLayerName) {
+		edits.add(new Rename(layerName, newLayerName));
+		return this;
+	}
+
+	/**
+	 * Apply all the edits to the model using all available processors.
+	 * 
+	 * @param model
+	 * @throws Exception
+	 */
+	public void apply(GeoTessModel model) throws Exception {
+		apply(model, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Apply all the edits to the model. All layer names are validated before the
+	 * model is modified.
+	 * 
+	 * @param model
+	 * @param maxProcessors
+	 * @throws Exception
+	 */
+	public void apply(final GeoTessModel model, int maxProcessors) throws Exception {
+		String[] layerNames = new String[model.getNLayers()];
+		for (int i = 0; i < layerNames.length; ++i)
+			layerNames[i] = model.getMetaData().getLayerName(i);
+
+		final ArrayList<Step> steps = new ArrayList<Step>(edits.size());
+		for (Edit edit : edits) {
+			Step step = edit.resolve(layerNames, model.getNAttributes());
+			steps.add(step);
+			layerNames = step.layerNames;
+		}
+
+		new ConcurrentRange() {
+			@Override
+			protected void process(int first, int last) throws Exception {
+				for (int vertex = first; vertex < last; ++vertex) {
+					Profile[] profiles = model.getProfiles(vertex);
+					for (Step step : steps)
+						profiles = step.apply(profiles);
+					model.getProfiles()[vertex] = profiles;
+				}
+			}
+		}.execute(model.getNVertices(), maxProcessors);
+
+		nThin = 0;
+		for (Step step : steps)
+			if (step instanceof CombineStep)
+				nThin += ((CombineStep) step).nThin.get();
+
+		model.getMetaData().setLayerNames(layerNames);
+
+		model.setActiveRegion();
+	}
+
+	/**
+	 * @return the number of vertices, summed over all the combineLayersToConstant
+	 *         edits applied by the most recent call to apply(), where the
+	 *         combined layers had zero thickness and at least one attribute was
+	 *         NaN in all of them. The combined layer is NaN at those vertices.
+	 */
+	public int getNThin() {
+		return nThin;
+	}
+
+	/**
+	 * @param layerNames
+	 * @param layerName
+	 * @return the index of layerName in layerNames.
+	 * @throws Exception if layerName is not in layerNames.
+	 */
+	private static int getLayerIndex(String[] layerNames, String layerName) throws Exception {
+		for (int i = 0; i < layerNames.length; ++i)
+			if (layerNames[i].equals(layerName))
+				return i;
+		throw new Exception(layerName + " is not a recognized interface in this model");
+	}
+
+	/**
+	 * An edit as specified by the application, in terms of layer names.
+	 */
+	private static abstract class Edit {
+		/**
+		 * Find the indices of the layers affected by this edit.
+		 * 
+		 * @param layerNames the names of the layers before this edit is applied.
+		 * @param nAttributes
+		 * @return the edit resolved against layerNames.
+		 * @throws Exception
+		 */
+		abstract Step resolve(String[] layerNames, int nAttributes) throws Exception;
+	}
+
+	/**
+	 * An edit resolved against the layers of a particular model. Immutable, so a
+	 * single instance is shared by all the threads that apply it.
+	 */
+	private static abstract class Step {
+		/**
+		 * The names of the layers after this edit is applied.
+		 */
+		final String[] layerNames;
+
+		Step(String[] layerNames) {
+			this.layerNames = layerNames;
+		}
+
+		/**
+		 * @param profiles the profiles at a vertex before this edit is applied.
+		 * @return the profiles at the vertex after this edit is applied.
+		 * @throws Exception
+		 */
+		abstract Profile[] apply(Profile[] profiles) throws Exception;
+	}
+
+	private static class Remove extends Edit {
+		private final String layerName;
+
+		Remove(String layerName) {
+			this.layerName = layerName;
+		}
+
+		@Override
+		Step resolve(String[] layerNames, int nAttributes) throws Exception {
+			final int layer = getLayerIndex(layerNames, layerName);
+			return new Step(remove(layerNames, layer)) {
+				@Override
+				Profile[] apply(Profile[] profiles) {
+					return remove(profiles, layer);
+				}
+			};
+		}
+
+		private static <T> T[] remove(T[] array, int layer) {
+			T[] newArray = Arrays.copyOf(array, array.length - 1);
+			System.arraycopy(array, layer + 1, newArray, layer, array.length - layer - 1);
+			return newArray;
+		}
+	}
+
+	private static class Combine extends Edit {
+		private final String layerName1, layerName2, newLayerName;
+
+		Combine(String layerName1, String layerName2, String newLayerName) {
+			this.layerName1 = layerName1;
+			this.layerName2 = layerName2;
+			this.newLayerName = newLayerName;
+		}
+
+		@Override
+		Step resolve(String[] layerNames, int nAttributes) throws Exception {
+			int layer1 = getLayerIndex(layerNames, layerName1);
+			int layer2 = getLayerIndex(layerNames, layerName2);
+			if (layer2 < layer1)
+				throw new Exception(String.format("%s must be above %s", layerName2, layerName1));
+
+			String[] newNames = new String[layerNames.length - (layer2 - layer1)];
+			int idx = 0;
+			for (int i = 0; i < layerNames.length; ++i)
+				if (i <= layer1 || i > layer2)
+					newNames[idx++] = layerNames[i];
+			newNames[layer1] = newLayerName;
+			return new CombineStep(newNames, layer1, layer2, nAttributes);
+		}
+	}
+
+	private static class CombineStep extends Step {
+		private final int layer1, layer2, nAttributes;
+
+		/**
+		 * Number of vertices where the combined layers had zero thickness and at
+		 * least one attribute was NaN in all of them.
+		 */
+		private final AtomicInteger nThin = new AtomicInteger();
+
+		CombineStep(String[] layerNames, int layer1, int layer2, int nAttributes) {
+			super(layerNames);
+			this.layer1 = layer1;
+			this.layer2 = layer2;
+			this.nAttributes = nAttributes;
+		}
+
+		@Override
+		Profile[] apply(Profile[] profiles) throws Exception {
+			// find total thickness of layers that are to be replaced.
+			double totalThickness = 0;
+			for (int layer = layer1; layer <= layer2; ++layer)
+				totalThickness += profiles[layer].getThickness();
+
+			float[] values = new float[nAttributes];
+
+			Profile combined;
+			if (totalThickness < 1e-4) {
+				// total thickness is zero. See if any layer has non-NaN values.
+				int[] count = new int[nAttributes];
+				for (int layer = layer1; layer <= layer2; ++layer) {
+					for (int a = 0; a < nAttributes; ++a)
+						if (!Double.isNaN(profiles[layer].getValue(a, 0))) {
+							values[a] += profiles[layer].getValue(a, 0);
+							++count[a];
+						}
+				}
+
+				for (int a = 0; a < nAttributes; ++a)
+					if (count[a] == 0) {
+						// if any attribute is all nans, then set all attribute values to nan.
+						Arrays.fill(values, Float.NaN);
+						nThin.incrementAndGet();
+						break;
+					} else
+						values[a] /= count[a];
+
+				float[] radii = new float[] { (float) profiles[layer2].getRadiusTop() };
+
+				combined = Profile.newProfile(radii, new float[][] { values });
+			} else {
+				for (int layer = layer1; layer <= layer2; ++layer)
+					for (int a = 0; a < nAttributes; ++a)
+						if (!Double.isNaN(profiles[layer].getValue(a, 0)))
+							values[a] += profiles[layer].getThickness() * profiles[layer].getValue(a, 0);
+
+				for (int a = 0; a < nAttributes; ++a)
+					values[a] /= totalThickness;
+
+				float[] radii = new float[] { (float) profiles[layer1].getRadiusBottom(),
+						(float) profiles[layer2].getRadiusTop() };
+
+				combined = Profile.newProfile(radii, new float[][] { values });
+			}
+
+			Profile[] newProfiles = new Profile[profiles.length - (layer2 - layer1)];
+			int idx = 0;
+			for (int i = 0; i < profiles.length; ++i)
+				if (i < layer1 || i > layer2)
+					newProfiles[idx++] = profiles[i];
+				else if (i == layer1)
+					newProfiles[idx++] = combined;
+			return newProfiles;
+		}
+	}
+
+	private static class Rename extends Edit {
+		private final String layerName, newLayerName;
+
+		Rename(String layerName, String newLayerName) {
+			this.layerName = layerName;
+			this.newLayerName = newLayerName;
+		}
+
+		@Override
+		Step resolve(String[] layerNames, int nAttributes) throws Exception {
+			String[] newNames = layerNames.clone();
+			newNames[getLayerIndex(layerNames, layerName)] = newLayerName;
+			return new Step(newNames) {
+				@Override
+				Profile[] apply(Profile[] profiles) {
+					return profiles;
+				}
+			};
+		}
+	}
+}
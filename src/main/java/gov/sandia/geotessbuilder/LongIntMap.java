@@ -0,0 +1,141 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+
+package gov.sandia.geotessbuilder;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to non-negative int values, stored in
+ * primitive arrays with linear probing. Used to map a pair of vertex indices,
+ * packed into a long by edgeKey(), to the index of the vertex at the midpoint
+ * of the edge that connects them, without boxing either.
+ */
+class LongIntMap {
+
+	private long[] keys;
+
+	/**
+	 * Values, or -1 for empty slots.
+	 */
+	private int[] values;
+
+	private int size;
+
+	/**
+	 * @param capacity expected number of entries.
+	 */
+	LongIntMap(int capacity) {
+		int n = 16;
+		while (n < 2 * capacity)
+			n <<= 1;
+		keys = new long[n];
+		values = new int[n];
+		Arrays.fill(values, -1);
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the value associated with key, or -1 if there is none.
+	 */
+	int get(long key) {
+		int mask = keys.length - 1;
+		for (int i = hash(key) & mask; values[i] >= 0; i = (i + 1) & mask)
+			if (keys[i] == key)
+				return values[i];
+		return -1;
+	}
+
+	boolean containsKey(long key) {
+		return get(key) >= 0;
+	}
+
+	/**
+	 * Associate value with key, replacing any previous value.
+	 * 
+	 * @param key
+	 * @param value must not be negative.
+	 */
+	void put(long key, int value) {
+		if (value < 0)
+			throw new IllegalArgumentException("value must not be negative: " + value);
+
+		if (2 * (size + 1) > keys.length)
+			rehash(2 * keys.length);
+
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (values[i] >= 0 && keys[i] != key)
+			i = (i + 1) & mask;
+		if (values[i] < 0)
+			++size;
+		keys[i] = key;
+		values[i] = value;
+	}
+
+	private void rehash(int n) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[n];
+		values = new int[n];
+		Arrays.fill(values, -1);
+		int mask = n - 1;
+		for (int j = 0; j < oldKeys.length; ++j)
+			if (oldValues[j] >= 0) {
+				int i = hash(oldKeys[j]) & mask;
+				while (values[i] >= 0)
+					i = (i + 1) & mask;
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * @return a key that identifies the edge between vertices a and b regardless
+	 *         of the order in which they are specified.
+	 */
+	static long edgeKey(int a, int b) {
+		return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+	}
+
+}
@@ -0,0 +1,215 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+package gov.sandia.geotessbuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A collection of great circle arcs that define paths, for which triangle
+ * intersection is evaluated exactly rather than by densifying the paths into
+ * points. A triangle intersects an arc if either end of the arc is inside the
+ * triangle or the arc crosses one of the edges of the triangle. Arcs longer
+ * than 90 degrees are split in half until they are not.
+ * <p>
+ * To avoid testing every triangle against every arc, the arcs that intersect
+ * each triangle are remembered on the triangle (Triangle.arcCandidates) and
+ * only those arcs are tested against the triangle's descendants, since
+ * descendants reside entirely inside their ancestors. All the paths must be
+ * added before the first triangle is tested. Not thread safe.
+ */
+class PathArcs {
+
+	private static final int[] NONE = new int[0];
+
+	/**
+	 * 9 elements per arc: the unit vectors at the two ends of the arc followed by
+	 * the cross product of the two ends.
+	 */
+	private double[] arcs = new double[9 * 16];
+
+	private int size;
+
+	/**
+	 * Index of the element of Triangle.arcCandidates that holds the arcs of this
+	 * PathArcs. Unique among the PathArcs of a tessellation.
+	 */
+	private final int id;
+
+	/**
+	 * @param id unique among the PathArcs of a tessellation.
+	 */
+	PathArcs(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * Add the arcs between consecutive points of a path.
+	 * 
+	 * @param path unit vectors
+	 * @return a reference to this
+	 */
+	PathArcs addPath(List<double[]> path) {
+		for (int i = 1; i < path.size(); ++i)
+			addArc(path.get(i - 1), path.get(i));
+		if (path.size() == 1)
+			addArc(path.get(0), path.get(0));
+		return this;
+	}
+
+	private void addArc(double[] a, double[] b) {
+		if (a[0] * b[0] + a[1] * b[1] + a[2] * b[2] < 0.) {
+			double[] m = new double[] { a[0] + b[0], a[1] + b[1], a[2] + b[2] };
+			double length = Math.sqrt(m[0] * m[0] + m[1] * m[1] + m[2] * m[2]);
+			if (length > 1e-12) {
+				m[0] /= length;
+				m[1] /= length;
+				m[2] /= length;
+				addArc(a, m);
+				addArc(m, b);
+				return;
+			}
+		}
+		if (9 * (size + 1) > arcs.length)
+			arcs = Arrays.copyOf(arcs, 2 * arcs.length);
+		int k = 9 * size++;
+		System.arraycopy(a, 0, arcs, k, 3);
+		System.arraycopy(b, 0, arcs, k + 3, 3);
+		arcs[k + 6] = a[1] * b[2] - a[2] * b[1];
+		arcs[k + 7] = a[2] * b[0] - a[0] * b[2];
+		arcs[k + 8] = a[0] * b[1] - a[1] * b[0];
+	}
+
+	/**
+	 * @return the number of arcs.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return each arc as a path of two points.
+	 */
+	ArrayList<List<double[]>> getArcs() {
+		ArrayList<List<double[]>> list = new ArrayList<List<double[]>>(size);
+		for (int i = 0; i < size; ++i)
+			list.add(Arrays.asList(Arrays.copyOfRange(arcs, 9 * i, 9 * i + 3),
+					Arrays.copyOfRange(arcs, 9 * i + 3, 9 * i + 6)));
+		return list;
+	}
+
+	/**
+	 * @param triangle
+	 * @return true if any arc intersects the triangle.
+	 */
+	boolean intersects(Triangle triangle) {
+		return getCandidates(triangle).length > 0;
+	}
+
+	private int[] getCandidates(Triangle triangle) {
+		if (triangle.arcCandidates == null || triangle.arcCandidates.length <= id)
+			triangle.arcCandidates = triangle.arcCandidates == null ? new int[id + 1][]
+					: Arrays.copyOf(triangle.arcCandidates, id + 1);
+
+		int[] c = triangle.arcCandidates[id];
+		if (c == null) {
+			int[] parent;
+			if (triangle.ancestor == null) {
+				parent = new int[size];
+				for (int i = 0; i < size; ++i)
+					parent[i] = i;
+			} else
+				parent = getCandidates(triangle.ancestor);
+
+			c = parent.length == 0 ? NONE : filter(triangle, parent);
+			triangle.arcCandidates[id] = c;
+		}
+		return c;
+	}
+
+	private int[] filter(Triangle triangle, int[] parent) {
+		double[][] v = triangle.getCorners();
+		double[] a = new double[3], b = new double[3];
+		int[] c = new int[parent.length];
+		int n = 0;
+		for (int i : parent)
+			if (intersects(triangle, v, i, a, b))
+				c[n++] = i;
+		return n == 0 ? NONE : n == parent.length ? parent : Arrays.copyOf(c, n);
+	}
+
+	/**
+	 * @return true if arc i has an end inside triangle or crosses one of its
+	 *         edges. a and b are work space for the ends of the arc.
+	 */
+	private boolean intersects(Triangle triangle, double[][] v, int i, double[] a, double[] b) {
+		int k = 9 * i;
+		System.arraycopy(arcs, k, a, 0, 3);
+		System.arraycopy(arcs, k + 3, b, 0, 3);
+		if (triangle.contains(a) || triangle.contains(b))
+			return true;
+
+		double nx = arcs[k + 6], ny = arcs[k + 7], nz = arcs[k + 8];
+		if (nx * nx + ny * ny + nz * nz < 1e-30)
+			// zero length arc.
+			return false;
+
+		for (int j = 0; j < 3; ++j) {
+			double[] c = v[j], d = v[(j + 1) % 3];
+
+			// c and d must be on opposite sides of the great circle through a and b.
+			double sc = nx * c[0] + ny * c[1] + nz * c[2];
+			double sd = nx * d[0] + ny * d[1] + nz * d[2];
+			if (sc * sd > 0.)
+				continue;
+
+			// a and b must be on opposite sides of the great circle through c and d.
+			double mx = c[1] * d[2] - c[2] * d[1];
+			double my = c[2] * d[0] - c[0] * d[2];
+			double mz = c[0] * d[1] - c[1] * d[0];
+			double sa = mx * a[0] + my * a[1] + mz * a[2];
+			double sb = mx * b[0] + my * b[1] + mz * b[2];
+			if (sa * sb > 0.)
+				continue;
+
+			// and the arcs must be in the same hemisphere, otherwise the great
+			// circles intersect at the antipode of the arcs.
+			if ((a[0] + b[0]) * (c[0] + d[0]) + (a[1] + b[1]) * (c[1] + d[1]) + (a[2] + b[2]) * (c[2] + d[2]) >= 0.)
+				return true;
+		}
+		return false;
+	}
+}
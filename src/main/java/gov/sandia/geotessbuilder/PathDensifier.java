@@ -0,0 +1,162 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+package gov.sandia.geotessbuilder;
+
+import gov.sandia.geotess.GeoTessException;
+import gov.sandia.gmp.util.numerical.vector.VectorUnit;
+
+import java.util.List;
+
+/**
+ * Densifies paths by adding evenly spaced points along the great circles
+ * between consecutive points. A segment of length d is divided into
+ * max(1, ceil(d/spacing)-1) pieces, the same number that GeoTessBuilder has
+ * always used, so that grids are unchanged. The pieces are therefore longer
+ * than spacing, by up to a factor of 2: spacing is a target, not a bound. All
+ * the points of all the paths are written into a single PointBuffer. The
+ * number of points added to each segment is computed first, concurrently, so
+ * that every segment knows where its points go, and then the segments are
+ * filled in concurrently.
+ */
+class PathDensifier {
+
+	private PathDensifier() {
+	}
+
+	/**
+	 * Densify a collection of paths.
+	 * 
+	 * @param paths         each path is a list of unit vectors.
+	 * @param maxSpacing    target spacing between points, in radians. Segments
+	 *                      no longer than twice this are not divided.
+	 * @param maxProcessors
+	 * @return the points of all the densified paths, one path after another.
+	 * @throws GeoTessException
+	 */
+	static PointBuffer densify(List<? extends List<double[]>> paths, final double maxSpacing, int maxProcessors)
+			throws GeoTessException {
+		int n = 0;
+		for (List<double[]> path : paths)
+			n += path.size();
+
+		// the input points of all the paths, and whether each point is the last
+		// point of its path.
+		final double[] input = new double[3 * n];
+		final boolean[] last = new boolean[n];
+		n = 0;
+		for (List<double[]> path : paths) {
+			for (double[] u : path)
+				System.arraycopy(u, 0, input, 3 * n++, 3);
+			if (path.size() > 0)
+				last[n - 1] = true;
+		}
+
+		// number of output points that precede each input point. Initially, the
+		// number of points emitted for the segment that ends at input point i.
+		final int nInput = n;
+		final long[] offsets = new long[nInput + 1];
+		final double tolerance = Math.cos(maxSpacing);
+		new ConcurrentRange() {
+			@Override
+			protected void process(int first, int end) {
+				for (int i = first; i < end; ++i)
+					offsets[i + 1] = i == 0 || last[i - 1] ? 1 : getNPoints(input, i - 1, maxSpacing, tolerance);
+			}
+		}.execute(nInput, maxProcessors);
+
+		for (int i = 1; i <= nInput; ++i)
+			offsets[i] += offsets[i - 1];
+
+		if (3 * offsets[nInput] > Integer.MAX_VALUE)
+			throw new GeoTessException(String.format(
+					"%nDensified paths would contain %d points which is too many.%n", offsets[nInput]));
+
+		final double[] output = new double[(int) (3 * offsets[nInput])];
+
+		new ConcurrentRange() {
+			@Override
+			protected void process(int first, int end) {
+				for (int i = first; i < end; ++i) {
+					int k = (int) offsets[i];
+					int nPoints = (int) (offsets[i + 1] - offsets[i]);
+					if (nPoints > 1)
+						interpolate(input, i - 1, nPoints, output, k);
+					// the last point of the segment is the input point itself.
+					System.arraycopy(input, 3 * i, output, 3 * (k + nPoints - 1), 3);
+				}
+			}
+		}.execute(nInput, maxProcessors);
+
+		return new PointBuffer(output, (int) offsets[nInput]);
+	}
+
+	/**
+	 * @return the number of points, including the end point, that will be emitted
+	 *         for the segment from input point i to input point i+1.
+	 */
+	private static int getNPoints(double[] input, int i, double maxSpacing, double tolerance) {
+		double dot = input[3 * i] * input[3 * i + 3] + input[3 * i + 1] * input[3 * i + 4]
+				+ input[3 * i + 2] * input[3 * i + 5];
+		if (dot >= tolerance)
+			return 1;
+		double distance = Math.acos(Math.max(-1., dot));
+		return Math.max(1, (int) Math.ceil(distance / maxSpacing) - 1);
+	}
+
+	/**
+	 * Write nPoints-1 points, evenly spaced along the great circle from input
+	 * point i to input point i+1, excluding point i and point i+1, into output
+	 * starting at point k.
+	 */
+	private static void interpolate(double[] input, int i, int nPoints, double[] output, int k) {
+		double[] a = new double[] { input[3 * i], input[3 * i + 1], input[3 * i + 2] };
+		double[] b = new double[] { input[3 * i + 3], input[3 * i + 4], input[3 * i + 5] };
+		double distance = VectorUnit.angle(a, b);
+		double sin = Math.sin(distance);
+		double dx = distance / nPoints;
+		for (int j = 1; j < nPoints; ++j) {
+			double wa = Math.sin(distance - j * dx) / sin;
+			double wb = Math.sin(j * dx) / sin;
+			int o = 3 * (k + j - 1);
+			double x = wa * a[0] + wb * b[0];
+			double y = wa * a[1] + wb * b[1];
+			double z = wa * a[2] + wb * b[2];
+			double length = Math.sqrt(x * x + y * y + z * z);
+			output[o] = x / length;
+			output[o + 1] = y / length;
+			output[o + 2] = z / length;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+package gov.sandia.geotessbuilder;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A growable list of unit vectors stored in a single primitive array, 3
+ * elements per point. Used for large collections of points, such as densified
+ * paths, to avoid allocating a double[] per point.
+ */
+class PointBuffer {
+
+	private double[] xyz;
+
+	private int size;
+
+	PointBuffer() {
+		this(16);
+	}
+
+	PointBuffer(int capacity) {
+		xyz = new double[3 * Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Wrap an array of unit vectors, without copying it.
+	 * 
+	 * @param xyz  unit vectors, 3 elements per point
+	 * @param size number of points
+	 */
+	PointBuffer(double[] xyz, int size) {
+		this.xyz = xyz;
+		this.size = size;
+	}
+
+	PointBuffer(Collection<double[]> points) {
+		this(points.size());
+		for (double[] u : points)
+			add(u);
+	}
+
+	/**
+	 * @return the number of points.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the backing array. Point i occupies elements 3*i to 3*i+2.
+	 */
+	double[] array() {
+		return xyz;
+	}
+
+	/**
+	 * Copy point i into u.
+	 * 
+	 * @param i
+	 * @param u
+	 * @return u
+	 */
+	double[] get(int i, double[] u) {
+		System.arraycopy(xyz, 3 * i, u, 0, 3);
+		return u;
+	}
+
+	PointBuffer add(double[] u) {
+		ensureCapacity(size + 1);
+		System.arraycopy(u, 0, xyz, 3 * size++, 3);
+		return this;
+	}
+
+	PointBuffer addAll(PointBuffer other) {
+		ensureCapacity(size + other.size);
+		System.arraycopy(other.xyz, 0, xyz, 3 * size, 3 * other.size);
+		size += other.size;
+		return this;
+	}
+
+	private void ensureCapacity(int n) {
+		if (3 * n > xyz.length)
+			xyz = Arrays.copyOf(xyz, 3 * Math.max(n, 2 * size));
+	}
+}
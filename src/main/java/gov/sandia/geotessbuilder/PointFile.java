@@ -0,0 +1,220 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+package gov.sandia.geotessbuilder;
+
+import gov.sandia.geotess.GeoTessException;
+import gov.sandia.gmp.util.numerical.vector.VectorGeo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Compact binary format for the files of points and paths referenced by the
+ * points, paths and fileOfPointsToRefine properties. A file consists of a
+ * 16-byte header followed by the points:
+ * <ul>
+ * <li>int: magic number 0x47545054 ('GTPT')
+ * <li>int: format, either UNIT_VECTORS (3 doubles per point) or LAT_LON (2
+ * doubles per point, latitude then longitude in degrees)
+ * <li>long: number of points
+ * <li>the points, as big-endian doubles.
+ * </ul>
+ * Files are loaded through a memory-mapped FileChannel. Use main() to convert
+ * files from the text format understood by GeoTessBuilder to this format.
+ */
+public class PointFile {
+
+	static final int MAGIC = 0x47545054;
+
+	/**
+	 * Format in which points are stored as unit vectors, 3 doubles per point.
+	 */
+	public static final int UNIT_VECTORS = 0;
+
+	/**
+	 * Format in which points are stored as latitude, longitude in degrees, 2
+	 * doubles per point.
+	 */
+	public static final int LAT_LON = 1;
+
+	private static final int HEADER_SIZE = 16;
+
+	/**
+	 * Convert a file of points from any of the formats understood by
+	 * GeoTessBuilder (lat-lon text, kml, kmz) to binary format.
+	 * <p>
+	 * Usage: PointFile inputFile outputFile [unit_vectors | lat_lon]
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		try {
+			if (args.length < 2) {
+				System.out.println("Usage: PointFile inputFile outputFile [unit_vectors | lat_lon]");
+				System.exit(1);
+			}
+
+			int format = args.length > 2 && args[2].toLowerCase().startsWith("lat") ? LAT_LON : UNIT_VECTORS;
+
+			long timer = System.currentTimeMillis();
+			ArrayList<double[]> points = GeoTessBuilderMain.readFile(new File(args[0]));
+			write(new File(args[1]), points, format);
+
+			System.out.printf("Wrote %d points to %s in %1.3f seconds%n", points.size(), args[1],
+					(System.currentTimeMillis() - timer) * 1e-3);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return true if the file exists and starts with the PointFile magic number.
+	 * @throws IOException
+	 */
+	public static boolean isPointFile(File file) throws IOException {
+		if (!file.isFile() || file.length() < HEADER_SIZE)
+			return false;
+		FileInputStream input = new FileInputStream(file);
+		try {
+			byte[] b = new byte[4];
+			return input.read(b) == 4 && ((b[0] & 0xff) << 24 | (b[1] & 0xff) << 16 | (b[2] & 0xff) << 8
+					| (b[3] & 0xff)) == MAGIC;
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Write points to a binary file.
+	 * 
+	 * @param file
+	 * @param points unit vectors
+	 * @param format UNIT_VECTORS or LAT_LON
+	 * @throws IOException
+	 */
+	public static void write(File file, Collection<double[]> points, int format) throws IOException {
+		if (format != UNIT_VECTORS && format != LAT_LON)
+			throw new IOException("Unsupported point file format " + format);
+
+		DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(format);
+			output.writeLong(points.size());
+			for (double[] u : points)
+				if (format == UNIT_VECTORS) {
+					output.writeDouble(u[0]);
+					output.writeDouble(u[1]);
+					output.writeDouble(u[2]);
+				} else {
+					output.writeDouble(VectorGeo.getLatDegrees(u));
+					output.writeDouble(VectorGeo.getLonDegrees(u));
+				}
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Load the points in a binary file.
+	 * 
+	 * @param file
+	 * @return unit vectors
+	 * @throws IOException
+	 * @throws GeoTessException if the file is not a PointFile.
+	 */
+	public static ArrayList<double[]> read(File file) throws IOException, GeoTessException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC)
+				throw new GeoTessException(file.getPath() + " is not a binary point file");
+			int format = header.getInt();
+			long nPoints = header.getLong();
+
+			int nValues = format == UNIT_VECTORS ? 3 : format == LAT_LON ? 2 : 0;
+			if (nValues == 0)
+				throw new GeoTessException(
+						String.format("%s has unsupported point file format %d", file.getPath(), format));
+
+			if (channel.size() < HEADER_SIZE + nPoints * nValues * 8)
+				throw new GeoTessException(String.format("%s is truncated. Expected %d points", file.getPath(),
+						nPoints));
+
+			if (nPoints > Integer.MAX_VALUE)
+				throw new GeoTessException(String.format("%s contains too many points (%d)", file.getPath(), nPoints));
+
+			ArrayList<double[]> points = new ArrayList<double[]>((int) nPoints);
+
+			// map the file in chunks of whole points, each less than 2GB.
+			long maxPointsPerChunk = (Integer.MAX_VALUE / (8 * nValues));
+			long position = HEADER_SIZE;
+			for (long first = 0; first < nPoints; first += maxPointsPerChunk) {
+				int n = (int) Math.min(maxPointsPerChunk, nPoints - first);
+				DoubleBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) n * nValues * 8)
+						.asDoubleBuffer();
+				position += (long) n * nValues * 8;
+
+				if (format == UNIT_VECTORS)
+					for (int i = 0; i < n; ++i) {
+						double[] u = new double[3];
+						buffer.get(u);
+						points.add(u);
+					}
+				else
+					for (int i = 0; i < n; ++i) {
+						double lat = buffer.get();
+						points.add(VectorGeo.getVectorDegrees(lat, buffer.get()));
+					}
+			}
+			return points;
+		} finally {
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,569 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+
+package gov.sandia.geotessbuilder;
+
+import gov.sandia.geotess.GeoTessException;
+import gov.sandia.geotess.GeoTessModel;
+import gov.sandia.geotess.PointMap;
+import gov.sandia.gmp.util.globals.DataType;
+import gov.sandia.gmp.util.numerical.polygon.Polygon;
+import gov.sandia.gmp.util.numerical.polygon.PolygonFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * A PointSelector selects the points of a GeoTessModel that satisfy some
+ * criterion, for example all the points where an attribute exceeds a threshold
+ * or all the points whose vertex resides inside a Polygon. Criteria can be
+ * combined with and(), or() and not().
+ * <p>
+ * Every criterion produces a BitSet, indexed by point index, that can be
+ * passed directly to RefineModel.refineModel(). Threshold criteria are
+ * evaluated by a single loop over the points of the model that compares one
+ * attribute of each point with the threshold. Polygon containment is
+ * evaluated once per vertex and the result is shared by all the points
+ * associated with the vertex. Both loops are performed concurrently over
+ * ranges of points or vertices. Compound criteria evaluate each of their
+ * operands once and combine the resulting BitSets with and(), or() and
+ * andNot().
+ * <p>
+ * PointSelectors can also be parsed from a text expression with
+ * {@link #parse(GeoTessModel, String)}, for example
+ * <code>HIT_COUNT &gt; 5 &amp;&amp; RESOLUTION &lt; 0.3 || inside(polygon.kml)</code>.
+ * The expression is parsed once into a tree of criteria. Each comparison in
+ * the expression is then evaluated over all the points of the model, and the
+ * results are combined as described above.
+ */
+public abstract class PointSelector {
+
+	/**
+	 * Comparison operators supported by threshold criteria.
+	 */
+	public enum Comparison {
+		LT("<"), LE("<="), EQ("=="), NE("!="), GE(">="), GT(">");
+
+		private final String symbol;
+
+		private Comparison(String symbol) {
+			this.symbol = symbol;
+		}
+
+		/**
+		 * Parse one of &lt;, &lt;=, =, ==, !=, &gt;=, &gt;.
+		 * 
+		 * @param s
+		 * @return the Comparison.
+		 * @throws IOException if s is not a recognized comparison operator.
+		 */
+		public static Comparison parse(String s) throws IOException {
+			s = s.trim();
+			if (s.equals("="))
+				return EQ;
+			for (Comparison c : values())
+				if (c.symbol.equals(s))
+					return c;
+			throw new IOException(String.format("%n%s is not a valid comparison operator.%n"
+					+ "Expected one of <=, <, !=, ==, =, >, >=%n", s));
+		}
+
+		public boolean compare(double value, double threshold) {
+			switch (this) {
+			case LT:
+				return value < threshold;
+			case LE:
+				return value <= threshold;
+			case EQ:
+				return value == threshold;
+			case NE:
+				return value != threshold;
+			case GE:
+				return value >= threshold;
+			default:
+				return value > threshold;
+			}
+		}
+
+		public boolean compare(long value, long threshold) {
+			switch (this) {
+			case LT:
+				return value < threshold;
+			case LE:
+				return value <= threshold;
+			case EQ:
+				return value == threshold;
+			case NE:
+				return value != threshold;
+			case GE:
+				return value >= threshold;
+			default:
+				return value > threshold;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return symbol;
+		}
+	}
+
+	/**
+	 * Find all the points in model that satisfy this criterion.
+	 * 
+	 * @param model
+	 * @param maxProcessors maximum number of threads to use.
+	 * @return BitSet, indexed by point index, with a bit set for every point that
+	 *         satisfies this criterion.
+	 * @throws GeoTessException
+	 */
+	abstract public BitSet select(GeoTessModel model, int maxProcessors) throws GeoTessException;
+
+	/**
+	 * Find all the points in model that satisfy this criterion using all
+	 * available processors.
+	 * 
+	 * @param model
+	 * @return BitSet, indexed by point index, with a bit set for every point that
+	 *         satisfies this criterion.
+	 * @throws GeoTessException
+	 */
+	public BitSet select(GeoTessModel model) throws GeoTessException {
+		return select(model, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Select points where the value of the specified attribute satisfies
+	 * comparison with threshold. If the model stores DOUBLE or FLOAT data, the
+	 * threshold must be parseable as a double, otherwise it must be parseable as
+	 * a long.
+	 * 
+	 * @param model      the model that will be evaluated.
+	 * @param attribute  index of the attribute.
+	 * @param comparison one of &lt;, &lt;=, =, ==, !=, &gt;=, &gt;.
+	 * @param threshold  the threshold value.
+	 * @return a PointSelector
+	 * @throws IOException if comparison or threshold cannot be parsed.
+	 */
+	public static PointSelector threshold(GeoTessModel model, int attribute, String comparison, String threshold)
+			throws IOException {
+		Comparison c = Comparison.parse(comparison);
+		DataType dataType = model.getMetaData().getDataType();
+		if (dataType == DataType.DOUBLE || dataType == DataType.FLOAT) {
+			try {
+				return new DoubleThreshold(attribute, c, Double.parseDouble(threshold.trim()));
+			} catch (NumberFormatException e) {
+				throw new IOException(String.format("%n%s%n%n%s could not be parsed to a value of type double%n",
+						e.getMessage(), threshold));
+			}
+		}
+		try {
+			return new LongThreshold(attribute, c, Long.parseLong(threshold.trim()));
+		} catch (NumberFormatException e) {
+			throw new IOException(String.format("%n%s%n%n%s could not be parsed to a value of type long%n",
+					e.getMessage(), threshold));
+		}
+	}
+
+	/**
+	 * Select points whose vertex resides inside the specified polygon.
+	 * 
+	 * @param polygon
+	 * @return a PointSelector
+	 */
+	public static PointSelector inside(Polygon polygon) {
+		return new InsidePolygon(polygon);
+	}
+
+	/**
+	 * Select points that satisfy all of the specified criteria.
+	 * 
+	 * @param selectors
+	 * @return a PointSelector
+	 */
+	public static PointSelector and(PointSelector... selectors) {
+		return new And(selectors);
+	}
+
+	/**
+	 * Select points that satisfy any of the specified criteria.
+	 * 
+	 * @param selectors
+	 * @return a PointSelector
+	 */
+	public static PointSelector or(PointSelector... selectors) {
+		return new Or(selectors);
+	}
+
+	/**
+	 * Select points that do not satisfy the specified criterion.
+	 * 
+	 * @param selector
+	 * @return a PointSelector
+	 */
+	public static PointSelector not(PointSelector selector) {
+		return new Not(selector);
+	}
+
+	/**
+	 * Parse a selection expression. Supported syntax:
+	 * <ul>
+	 * <li><code>attribute op value</code> where attribute is the name of one of
+	 * the model's attributes (may contain spaces), op is one of &lt;, &lt;=, =,
+	 * ==, !=, &gt;=, &gt; and value is a number.
+	 * <li><code>inside(file)</code> or <code>inside("file")</code> where file
+	 * contains one or more polygons readable by PolygonFactory. Unquoted file
+	 * names may contain balanced parentheses; quoted file names may contain any
+	 * character other than the quote. Selects points whose vertex is inside any of
+	 * the polygons.
+	 * <li><code>a &amp;&amp; b</code>, <code>a || b</code>, <code>!a</code> and
+	 * parentheses. &amp;&amp; has higher precedence than ||.
+	 * </ul>
+	 * Commas outside of inside(...) are treated as white space so that
+	 * <code>attribute, &gt;, value</code> is also accepted.
+	 * 
+	 * @param model      the model that will be evaluated. Used to resolve
+	 *                   attribute names and data type.
+	 * @param expression
+	 * @return a PointSelector
+	 * @throws IOException if the expression cannot be parsed.
+	 */
+	public static PointSelector parse(GeoTessModel model, String expression) throws IOException {
+		return new Parser(model, expression).parse();
+	}
+
+	/**
+	 * Recursive descent parser for selection expressions.
+	 */
+	private static class Parser {
+		private final GeoTessModel model;
+		private final String expression;
+		private int pos;
+
+		Parser(GeoTessModel model, String expression) {
+			this.model = model;
+			this.expression = expression;
+		}
+
+		PointSelector parse() throws IOException {
+			PointSelector selector = parseOr();
+			skipWhiteSpace();
+			if (pos < expression.length())
+				throw error("unexpected character '" + expression.charAt(pos) + "'");
+			return selector;
+		}
+
+		private PointSelector parseOr() throws IOException {
+			ArrayList<PointSelector> terms = new ArrayList<PointSelector>();
+			terms.add(parseAnd());
+			while (consume("||"))
+				terms.add(parseAnd());
+			return terms.size() == 1 ? terms.get(0) : new Or(terms.toArray(new PointSelector[terms.size()]));
+		}
+
+		private PointSelector parseAnd() throws IOException {
+			ArrayList<PointSelector> terms = new ArrayList<PointSelector>();
+			terms.add(parsePrimary());
+			while (consume("&&"))
+				terms.add(parsePrimary());
+			return terms.size() == 1 ? terms.get(0) : new And(terms.toArray(new PointSelector[terms.size()]));
+		}
+
+		private PointSelector parsePrimary() throws IOException {
+			skipWhiteSpace();
+			if (pos >= expression.length())
+				throw error("unexpected end of expression");
+
+			if (consume("(")) {
+				PointSelector selector = parseOr();
+				if (!consume(")"))
+					throw error("expected ')'");
+				return selector;
+			}
+
+			if (expression.startsWith("!", pos) && !expression.startsWith("!=", pos)) {
+				++pos;
+				return new Not(parsePrimary());
+			}
+
+			if (expression.startsWith("inside", pos)) {
+				int p = pos + 6;
+				while (p < expression.length() && Character.isWhitespace(expression.charAt(p)))
+					++p;
+				if (p < expression.length() && expression.charAt(p) == '(')
+					return parseInside(p + 1);
+			}
+
+			return parseComparison();
+		}
+
+		private PointSelector parseInside(int start) throws IOException {
+			pos = start;
+			skipWhiteSpace();
+			String fileName;
+			char quote = pos < expression.length() ? expression.charAt(pos) : 0;
+			if (quote == '"' || quote == '\'') {
+				// quoted file name may contain any character except the quote.
+				int end = expression.indexOf(quote, pos + 1);
+				if (end < 0)
+					throw error("unterminated file name in inside(");
+				fileName = expression.substring(pos + 1, end);
+				pos = end + 1;
+				if (!consume(")"))
+					throw error("expected ')' after inside(" + quote + fileName + quote);
+			} else {
+				// unquoted file name extends to the ')' that balances the '(' of
+				// inside(, so file names may contain balanced parentheses.
+				int depth = 1, end = pos;
+				for (; end < expression.length(); ++end)
+					if (expression.charAt(end) == '(')
+						++depth;
+					else if (expression.charAt(end) == ')' && --depth == 0)
+						break;
+				if (end >= expression.length())
+					throw error("expected ')' after inside(");
+				fileName = expression.substring(pos, end).trim();
+				pos = end + 1;
+			}
+
+			ArrayList<PointSelector> polygons = new ArrayList<PointSelector>();
+			try {
+				for (Polygon polygon : PolygonFactory.getPolygons(new File(fileName)))
+					polygons.add(new InsidePolygon(polygon));
+			} catch (Exception e) {
+				throw new IOException(String.format("%nUnable to load polygon(s) from file %s%n%s", fileName,
+						e.getMessage()));
+			}
+			if (polygons.isEmpty())
+				throw error("file " + fileName + " contains no polygons");
+			return polygons.size() == 1 ? polygons.get(0)
+					: new Or(polygons.toArray(new PointSelector[polygons.size()]));
+		}
+
+		private PointSelector parseComparison() throws IOException {
+			// attribute name extends up to the comparison operator.
+			int start = pos;
+			while (pos < expression.length() && "<>=!".indexOf(expression.charAt(pos)) < 0)
+				++pos;
+			String attribute = expression.substring(start, pos).replaceAll(",", " ").trim().replaceAll("\\s+",
+					" ");
+			if (attribute.isEmpty())
+				throw error("expected an attribute name");
+			if (pos >= expression.length())
+				throw error("expected a comparison operator after " + attribute);
+
+			int opStart = pos;
+			while (pos < expression.length() && "<>=!".indexOf(expression.charAt(pos)) >= 0)
+				++pos;
+			String comparison = expression.substring(opStart, pos);
+
+			skipWhiteSpace();
+			int valueStart = pos;
+			while (pos < expression.length() && !Character.isWhitespace(expression.charAt(pos))
+					&& "&|(),".indexOf(expression.charAt(pos)) < 0)
+				++pos;
+			String value = expression.substring(valueStart, pos);
+			if (value.isEmpty())
+				throw error("expected a value after " + attribute + " " + comparison);
+
+			int attributeIndex = model.getMetaData().getAttributeIndex(attribute);
+			if (attributeIndex < 0)
+				throw new IOException(
+						String.format("model does not contain attribute %s.%n" + "Valid attributes are %s%n",
+								attribute, model.getMetaData().getAttributeNamesString()));
+
+			return threshold(model, attributeIndex, comparison, value);
+		}
+
+		private boolean consume(String token) {
+			skipWhiteSpace();
+			if (expression.startsWith(token, pos)) {
+				pos += token.length();
+				return true;
+			}
+			return false;
+		}
+
+		private void skipWhiteSpace() {
+			while (pos < expression.length()
+					&& (Character.isWhitespace(expression.charAt(pos)) || expression.charAt(pos) == ','))
+				++pos;
+		}
+
+		private IOException error(String message) {
+			return new IOException(String.format("%nUnable to parse selection expression%n%s%n"
+					+ "Error at position %d: %s%n", expression, pos, message));
+		}
+	}
+
+	static class DoubleThreshold extends PointSelector {
+		private final int attribute;
+		private final Comparison comparison;
+		private final double threshold;
+
+		DoubleThreshold(int attribute, Comparison comparison, double threshold) {
+			this.attribute = attribute;
+			this.comparison = comparison;
+			this.threshold = threshold;
+		}
+
+		@Override
+		public BitSet select(GeoTessModel model, int maxProcessors) throws GeoTessException {
+			final PointMap pointMap = model.getPointMap();
+			return new ConcurrentRange.Selection() {
+				@Override
+				protected boolean test(int point) {
+					return comparison.compare(pointMap.getPointValueDouble(point, attribute), threshold);
+				}
+			}.select(pointMap.size(), maxProcessors, 10000);
+		}
+	}
+
+	static class LongThreshold extends PointSelector {
+		private final int attribute;
+		private final Comparison comparison;
+		private final long threshold;
+
+		LongThreshold(int attribute, Comparison comparison, long threshold) {
+			this.attribute = attribute;
+			this.comparison = comparison;
+			this.threshold = threshold;
+		}
+
+		@Override
+		public BitSet select(GeoTessModel model, int maxProcessors) throws GeoTessException {
+			final PointMap pointMap = model.getPointMap();
+			return new ConcurrentRange.Selection() {
+				@Override
+				protected boolean test(int point) {
+					return comparison.compare(pointMap.getPointValueLong(point, attribute), threshold);
+				}
+			}.select(pointMap.size(), maxProcessors, 10000);
+		}
+	}
+
+	/**
+	 * Vertex-based criterion: polygon containment is evaluated once per vertex
+	 * and the result is shared by all the points associated with the vertex.
+	 */
+	static class InsidePolygon extends PointSelector {
+		private final Polygon polygon;
+
+		InsidePolygon(Polygon polygon) {
+			this.polygon = polygon;
+		}
+
+		@Override
+		public BitSet select(final GeoTessModel model, int maxProcessors) throws GeoTessException {
+			final BitSet vertices = new ConcurrentRange.Selection() {
+				@Override
+				protected boolean test(int vertex) {
+					return polygon.contains(model.getGrid().getVertex(vertex));
+				}
+			}.select(model.getNVertices(), maxProcessors);
+
+			final PointMap pointMap = model.getPointMap();
+			return new ConcurrentRange.Selection() {
+				@Override
+				protected boolean test(int point) {
+					return vertices.get(pointMap.getPointIndices(point)[0]);
+				}
+			}.select(pointMap.size(), maxProcessors, 10000);
+		}
+	}
+
+	static class And extends PointSelector {
+		private final PointSelector[] selectors;
+
+		And(PointSelector... selectors) {
+			this.selectors = selectors;
+		}
+
+		@Override
+		public BitSet select(GeoTessModel model, int maxProcessors) throws GeoTessException {
+			BitSet selection = null;
+			for (PointSelector s : selectors) {
+				if (selection == null)
+					selection = s.select(model, maxProcessors);
+				else if (s instanceof Not)
+					selection.andNot(((Not) s).selector.select(model, maxProcessors));
+				else
+					selection.and(s.select(model, maxProcessors));
+				if (selection.isEmpty())
+					break;
+			}
+			if (selection == null) {
+				selection = new BitSet(model.getNPoints());
+				selection.set(0, model.getNPoints());
+			}
+			return selection;
+		}
+	}
+
+	static class Not extends PointSelector {
+		private final PointSelector selector;
+
+		Not(PointSelector selector) {
+			this.selector = selector;
+		}
+
+		@Override
+		public BitSet select(GeoTessModel model, int maxProcessors) throws GeoTessException {
+			BitSet selection = new BitSet(model.getNPoints());
+			selection.set(0, model.getNPoints());
+			selection.andNot(selector.select(model, maxProcessors));
+			return selection;
+		}
+	}
+
+	static class Or extends PointSelector {
+		private final PointSelector[] selectors;
+
+		Or(PointSelector... selectors) {
+			this.selectors = selectors;
+		}
+
+		@Override
+		public BitSet select(GeoTessModel model, int maxProcessors) throws GeoTessException {
+			BitSet selection = new BitSet(model.getNPoints());
+			for (PointSelector s : selectors)
+				selection.or(s.select(model, maxProcessors));
+			return selection;
+		}
+	}
+
+}
@@ -72,6 +72,14 @@ public class PolygonGB implements Cloneable, Callable<Object> {
 		return ((Integer) polygon.attachment).intValue();
 	}
 
+	/**
+	 * @param u a unit vector
+	 * @return true if u resides inside this polygon.
+	 */
+	public boolean contains(double[] u) {
+		return polygon.contains(u);
+	}
+
 	@Override
 	public PolygonGB call() {
 		for (Vertex v : vertices)
@@ -0,0 +1,442 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+package gov.sandia.geotessbuilder;
+
+import gov.sandia.geotess.GeoTessException;
+import gov.sandia.gmp.util.numerical.vector.VectorGeo;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * A size field defined by a regular latitude, longitude raster of target edge
+ * lengths, in degrees, such as might be derived from station density or ray
+ * coverage maps. Cells that are NaN or not positive, and locations outside the
+ * raster, impose no requirement. The target edge length of a triangle is the
+ * smallest value of all the cells that overlap the latitude, longitude bounds
+ * of the triangle.
+ * <p>
+ * Two file formats are supported. The binary format consists of a 48-byte
+ * header followed by the cells:
+ * <ul>
+ * <li>int: magic number 0x47545346 ('GTSF')
+ * <li>int: number of rows, nLat
+ * <li>int: number of columns, nLon
+ * <li>int: reserved, 0
+ * <li>double: latitude and longitude of the center of the southwest cell, in
+ * degrees
+ * <li>double: latitude and longitude spacing of the cells, in degrees
+ * <li>nLat * nLon big-endian floats, row by row from south to north, each row
+ * from west to east.
+ * </ul>
+ * The text format is the ESRI ASCII grid format, with header lines ncols,
+ * nrows, xllcorner or xllcenter, yllcorner or yllcenter, cellsize and optional
+ * NODATA_value, followed by the rows from north to south. Use main() to
+ * convert text files to binary.
+ */
+public class RasterSizeField extends SizeField {
+
+	static final int MAGIC = 0x47545346;
+
+	private static final int HEADER_SIZE = 48;
+
+	private final int nLat, nLon;
+
+	/**
+	 * Latitude and longitude of the center of the southwest cell, and the
+	 * spacing of the cells, in degrees.
+	 */
+	private final double lat0, lon0, dLat, dLon;
+
+	/**
+	 * True if the raster wraps all the way around in longitude.
+	 */
+	private final boolean periodic;
+
+	/**
+	 * Target edge lengths in degrees, row by row from south to north.
+	 */
+	private final float[] values;
+
+	private final double minEdgeLength;
+
+	/**
+	 * @param initialSolid the initial solid of the tessellation that will be
+	 *                     refined.
+	 * @param nLat         number of rows
+	 * @param nLon         number of columns
+	 * @param lat0         latitude of the center of the southwest cell, degrees.
+	 * @param lon0         longitude of the center of the southwest cell, degrees.
+	 * @param dLat         latitude spacing of the cells, degrees.
+	 * @param dLon         longitude spacing of the cells, degrees.
+	 * @param values       target edge lengths in degrees, row by row from south
+	 *                     to north. Not copied.
+	 */
+	public RasterSizeField(InitialSolid initialSolid, int nLat, int nLon, double lat0, double lon0, double dLat,
+			double dLon, float[] values) {
+		super(initialSolid);
+		this.nLat = nLat;
+		this.nLon = nLon;
+		this.lat0 = lat0;
+		this.lon0 = lon0;
+		this.dLat = dLat;
+		this.dLon = dLon;
+		this.values = values;
+		this.periodic = nLon * dLon >= 360. - 1e-6;
+
+		double min = Double.POSITIVE_INFINITY;
+		for (float value : values)
+			if (value > 0.)
+				min = Math.min(min, value);
+		this.minEdgeLength = Math.toRadians(min);
+	}
+
+	/**
+	 * Convert a raster from ESRI ASCII grid format to binary format.
+	 * <p>
+	 * Usage: RasterSizeField inputFile outputFile
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		try {
+			if (args.length < 2) {
+				System.out.println("Usage: RasterSizeField inputFile outputFile");
+				System.exit(1);
+			}
+
+			long timer = System.currentTimeMillis();
+			RasterSizeField field = read(new File(args[0]), null);
+			field.write(new File(args[1]));
+
+			System.out.printf("Wrote %d x %d cells to %s in %1.3f seconds%n", field.nLat, field.nLon, args[1],
+					(System.currentTimeMillis() - timer) * 1e-3);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Load a raster from a file in either binary or ESRI ASCII grid format.
+	 * 
+	 * @param file
+	 * @param initialSolid the initial solid of the tessellation that will be
+	 *                     refined.
+	 * @return the size field
+	 * @throws IOException
+	 * @throws GeoTessException if the file is malformed.
+	 */
+	public static RasterSizeField read(File file, InitialSolid initialSolid) throws IOException, GeoTessException {
+		return isBinary(file) ? readBinary(file, initialSolid) : readAscii(file, initialSolid);
+	}
+
+	private static boolean isBinary(File file) throws IOException {
+		if (!file.isFile() || file.length() < HEADER_SIZE)
+			return false;
+		FileInputStream input = new FileInputStream(file);
+		try {
+			byte[] b = new byte[4];
+			return input.read(b) == 4 && ((b[0] & 0xff) << 24 | (b[1] & 0xff) << 16 | (b[2] & 0xff) << 8
+					| (b[3] & 0xff)) == MAGIC;
+		} finally {
+			input.close();
+		}
+	}
+
+	private static RasterSizeField readBinary(File file, InitialSolid initialSolid)
+			throws IOException, GeoTessException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			header.getInt();
+			int nLat = header.getInt();
+			int nLon = header.getInt();
+			header.getInt();
+			double lat0 = header.getDouble();
+			double lon0 = header.getDouble();
+			double dLat = header.getDouble();
+			double dLon = header.getDouble();
+
+			long n = (long) nLat * nLon;
+			if (nLat <= 0 || nLon <= 0 || n > Integer.MAX_VALUE / 4)
+				throw new GeoTessException(
+						String.format("%s has invalid dimensions %d x %d", file.getPath(), nLat, nLon));
+			if (channel.size() < HEADER_SIZE + 4 * n)
+				throw new GeoTessException(
+						String.format("%s is truncated. Expected %d x %d cells", file.getPath(), nLat, nLon));
+
+			FloatBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, 4 * n).asFloatBuffer();
+			float[] values = new float[(int) n];
+			buffer.get(values);
+			return new RasterSizeField(initialSolid, nLat, nLon, lat0, lon0, dLat, dLon, values);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static RasterSizeField readAscii(File file, InitialSolid initialSolid)
+			throws IOException, GeoTessException {
+		BufferedReader input = new BufferedReader(new FileReader(file));
+		try {
+			HashMap<String, Double> header = new HashMap<String, Double>();
+			String line;
+			String[] tokens = null;
+			while ((line = input.readLine()) != null) {
+				tokens = line.trim().split("\\s+");
+				if (tokens[0].length() == 0)
+					continue;
+				if (!Character.isLetter(tokens[0].charAt(0)))
+					break;
+				if (tokens.length != 2)
+					throw new GeoTessException(String.format("%s: cannot parse header line%n%s", file.getPath(), line));
+				header.put(tokens[0].toLowerCase(), Double.parseDouble(tokens[1]));
+				tokens = null;
+			}
+
+			for (String key : new String[] { "ncols", "nrows", "cellsize" })
+				if (!header.containsKey(key))
+					throw new GeoTessException(String.format("%s: header does not define %s", file.getPath(), key));
+
+			int nLon = header.get("ncols").intValue();
+			int nLat = header.get("nrows").intValue();
+			double cellSize = header.get("cellsize");
+			double lon0 = getCenter(file, header, "xll", cellSize);
+			double lat0 = getCenter(file, header, "yll", cellSize);
+			Double noData = header.get("nodata_value");
+
+			if (nLat <= 0 || nLon <= 0 || (long) nLat * nLon > Integer.MAX_VALUE / 4)
+				throw new GeoTessException(
+						String.format("%s has invalid dimensions %d x %d", file.getPath(), nLat, nLon));
+
+			// rows are listed from north to south.
+			float[] values = new float[nLat * nLon];
+			int n = 0;
+			while (tokens != null) {
+				for (String token : tokens)
+					if (token.length() > 0) {
+						if (n == values.length)
+							throw new GeoTessException(String.format("%s contains more than %d x %d cells",
+									file.getPath(), nLat, nLon));
+						double value = Double.parseDouble(token);
+						int row = nLat - 1 - n / nLon;
+						values[row * nLon + n % nLon] = noData != null && value == noData ? Float.NaN
+								: (float) value;
+						++n;
+					}
+				line = input.readLine();
+				tokens = line == null ? null : line.trim().split("\\s+");
+			}
+			if (n != values.length)
+				throw new GeoTessException(
+						String.format("%s contains %d cells. Expected %d x %d", file.getPath(), n, nLat, nLon));
+
+			return new RasterSizeField(initialSolid, nLat, nLon, lat0, lon0, cellSize, cellSize, values);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * @return the coordinate of the center of the first cell, from either the
+	 *         corner or the center specified in the header.
+	 */
+	private static double getCenter(File file, HashMap<String, Double> header, String prefix, double cellSize)
+			throws GeoTessException {
+		if (header.containsKey(prefix + "center"))
+			return header.get(prefix + "center");
+		if (header.containsKey(prefix + "corner"))
+			return header.get(prefix + "corner") + 0.5 * cellSize;
+		throw new GeoTessException(
+				String.format("%s: header does not define %scorner or %scenter", file.getPath(), prefix, prefix));
+	}
+
+	/**
+	 * Write this raster to a file in binary format.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(nLat);
+			output.writeInt(nLon);
+			output.writeInt(0);
+			output.writeDouble(lat0);
+			output.writeDouble(lon0);
+			output.writeDouble(dLat);
+			output.writeDouble(dLon);
+			for (float value : values)
+				output.writeFloat(value);
+		} finally {
+			output.close();
+		}
+	}
+
+	@Override
+	public double getMinEdgeLength() {
+		return minEdgeLength;
+	}
+
+	@Override
+	public double getEdgeLength(Triangle triangle) {
+		double[][] v = triangle.getCorners();
+
+		// latitude bounds, including the extremes of the edges, which can be
+		// farther from the equator than the corners.
+		double latMin = Double.POSITIVE_INFINITY, latMax = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < 3; ++i) {
+			double z = v[i][2];
+			latMin = Math.min(latMin, z);
+			latMax = Math.max(latMax, z);
+			double[] extremes = getExtremeZ(v[i], v[(i + 1) % 3]);
+			latMin = Math.min(latMin, extremes[0]);
+			latMax = Math.max(latMax, extremes[1]);
+		}
+
+		// longitude bounds relative to the center of the triangle. Triangles that
+		// contain a pole span all longitudes.
+		double lonMin, lonMax;
+		boolean north = triangle.contains(new double[] { 0., 0., 1. });
+		boolean south = triangle.contains(new double[] { 0., 0., -1. });
+		if (north)
+			latMax = 1.;
+		if (south)
+			latMin = -1.;
+		if (north || south) {
+			lonMin = -180.;
+			lonMax = 180.;
+		} else {
+			double[] center = new double[3];
+			triangle.getCenter(center);
+			double lonCenter = VectorGeo.getLonDegrees(center);
+			lonMin = lonMax = lonCenter;
+			for (double[] corner : v) {
+				double lon = VectorGeo.getLonDegrees(corner) - lonCenter;
+				lon -= 360. * Math.floor((lon + 180.) / 360.);
+				lonMin = Math.min(lonMin, lonCenter + lon);
+				lonMax = Math.max(lonMax, lonCenter + lon);
+			}
+		}
+
+		// geocentric z to geographic latitude is monotonic, so the bounds map
+		// through the corner with the extreme z.
+		latMin = VectorGeo.getLatDegrees(new double[] { Math.sqrt(Math.max(0., 1. - latMin * latMin)), 0., latMin });
+		latMax = VectorGeo.getLatDegrees(new double[] { Math.sqrt(Math.max(0., 1. - latMax * latMax)), 0., latMax });
+
+		int iMin = Math.max(0, (int) Math.ceil((latMin - lat0) / dLat - 0.5));
+		int iMax = Math.min(nLat - 1, (int) Math.floor((latMax - lat0) / dLat + 0.5));
+
+		// shift the longitude range so that it starts at or after the west edge of
+		// the raster, then also consider the part that wraps around.
+		double west = lon0 - 0.5 * dLon;
+		double shift = 360. * Math.floor((lonMin - west) / 360.);
+		lonMin -= shift;
+		lonMax -= shift;
+
+		double min = Double.POSITIVE_INFINITY;
+		for (int k = 0; k < 2; ++k, lonMin -= 360., lonMax -= 360.) {
+			int jMin = (int) Math.ceil((lonMin - lon0) / dLon - 0.5);
+			int jMax = (int) Math.floor((lonMax - lon0) / dLon + 0.5);
+			if (periodic) {
+				if (k == 1)
+					break;
+				if (jMax - jMin >= nLon) {
+					jMin = 0;
+					jMax = nLon - 1;
+				}
+			} else {
+				jMin = Math.max(0, jMin);
+				jMax = Math.min(nLon - 1, jMax);
+			}
+			for (int i = iMin; i <= iMax; ++i)
+				for (int j = jMin; j <= jMax; ++j) {
+					float value = values[i * nLon + ((j % nLon) + nLon) % nLon];
+					if (value > 0. && value < min)
+						min = value;
+				}
+		}
+		return Math.toRadians(min);
+	}
+
+	/**
+	 * @return the smallest and largest z coordinate of the points on the great
+	 *         circle arc from a to b, not counting the ends.
+	 */
+	private static double[] getExtremeZ(double[] a, double[] b) {
+		double[] extremes = new double[] { Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		double nx = a[1] * b[2] - a[2] * b[1];
+		double ny = a[2] * b[0] - a[0] * b[2];
+		double nz = a[0] * b[1] - a[1] * b[0];
+		double n2 = nx * nx + ny * ny + nz * nz;
+		if (n2 < 1e-30)
+			return extremes;
+
+		// the highest point on the great circle is the projection of the north pole
+		// onto the plane of the great circle.
+		double px = -nz * nx / n2, py = -nz * ny / n2, pz = 1. - nz * nz / n2;
+		double length = Math.sqrt(px * px + py * py + pz * pz);
+		if (length < 1e-15)
+			return extremes;
+		px /= length;
+		py /= length;
+		pz /= length;
+
+		for (int sign = 1; sign >= -1; sign -= 2) {
+			double x = sign * px, y = sign * py, z = sign * pz;
+			// the point must fall between a and b.
+			if ((a[1] * z - a[2] * y) * nx + (a[2] * x - a[0] * z) * ny + (a[0] * y - a[1] * x) * nz >= 0.
+					&& (y * b[2] - z * b[1]) * nx + (z * b[0] - x * b[2]) * ny + (x * b[1] - y * b[0]) * nz >= 0.) {
+				extremes[0] = Math.min(extremes[0], z);
+				extremes[1] = Math.max(extremes[1], z);
+			}
+		}
+		return extremes;
+	}
+}
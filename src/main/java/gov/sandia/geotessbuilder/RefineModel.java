@@ -87,6 +87,84 @@ public class RefineModel {
 	 */
 	public static GeoTessModel refineModel(GeoTessModel oldModel, ArrayListInt pointsToRefine, int[] maxTessLevels,
 			int markThreshold, int verbosity, File vtkDir) throws Exception {
+		return refineModel(oldModel, pointsToRefine, maxTessLevels, markThreshold,
+				Runtime.getRuntime().availableProcessors(), verbosity, vtkDir);
+	}
+
+	/**
+	 * 
+	 * @param oldModel
+	 * @param pointsToRefine
+	 * @param maxTessLevels
+	 * @param markThreshold
+	 * @param maxProcessors  maximum number of threads used to populate the new
+	 *                       model.
+	 * @param verbosity
+	 * @param vtkDir
+	 * @return
+	 * @throws Exception
+	 */
+	public static GeoTessModel refineModel(GeoTessModel oldModel, ArrayListInt pointsToRefine, int[] maxTessLevels,
+			int markThreshold, int maxProcessors, int verbosity, File vtkDir) throws Exception {
+		return refineModel(oldModel, toBitSet(pointsToRefine), maxTessLevels, markThreshold, maxProcessors, verbosity,
+				vtkDir);
+	}
+
+	/**
+	 * 
+	 * @param oldModel
+	 * @param points         the set of points to refine, indexed by point index
+	 *                       in the oldModel. See PointSelector.
+	 * @param maxTessLevels
+	 * @param markThreshold
+	 * @param maxProcessors  maximum number of threads used to populate the new
+	 *                       model.
+	 * @param verbosity
+	 * @param vtkDir
+	 * @return
+	 * @throws Exception
+	 */
+	public static GeoTessModel refineModel(GeoTessModel oldModel, BitSet points, int[] maxTessLevels,
+			int markThreshold, int maxProcessors, int verbosity, File vtkDir) throws Exception {
+		return refineModel(oldModel, points, maxTessLevels, markThreshold, 1, maxProcessors, verbosity, vtkDir);
+	}
+
+	/**
+	 * Refine a model by nRefinementLevels levels in a single call. The
+	 * tessellations are refined nRefinementLevels times in memory, each round
+	 * subdividing the triangles that touch the vertices selected in the previous
+	 * round plus the vertices that the previous round created on the edges of
+	 * triangles whose corners were all selected. Vertices created on the edges of
+	 * triangles that were divided because only some of their corners were
+	 * selected are not refined again, so the refined region does not grow from
+	 * one round to the next. The new model is
+	 * then built and populated with data only once. Profiles of type NPOINT that
+	 * contain points to refine have each radial interval adjacent to a refined
+	 * node divided into 2^nRefinementLevels equal intervals.
+	 * <p>
+	 * With nRefinementLevels = 1 this is equivalent to the other refineModel
+	 * methods.
+	 * 
+	 * @param oldModel
+	 * @param points            the set of points to refine, indexed by point
+	 *                          index in the oldModel. See PointSelector.
+	 * @param maxTessLevels
+	 * @param markThreshold
+	 * @param nRefinementLevels number of times the selected region is refined.
+	 * @param maxProcessors     maximum number of threads used to populate the new
+	 *                          model.
+	 * @param verbosity
+	 * @param vtkDir
+	 * @return
+	 * @throws Exception
+	 */
+	public static GeoTessModel refineModel(GeoTessModel oldModel, BitSet points, int[] maxTessLevels,
+			int markThreshold, int nRefinementLevels, int maxProcessors, int verbosity, File vtkDir)
+			throws Exception {
+		if (nRefinementLevels < 1)
+			throw new GeoTessException(
+					String.format("%nnRefinementLevels = %d but must be at least 1%n", nRefinementLevels));
+
 		long timer = System.currentTimeMillis();
 
 		if (verbosity > 1)
@@ -102,7 +180,8 @@ public class RefineModel {
 
 		long tmr = System.currentTimeMillis();
 
-		GeoTessGrid newGrid = buildNewGrid(oldModel, pointsToRefine, maxTessLevels, markThreshold);
+		GeoTessGrid newGrid = buildNewGrid(oldModel, points, maxTessLevels, markThreshold, nRefinementLevels,
+				maxProcessors);
 
 		tmr = System.currentTimeMillis() - tmr;
 		if (verbosity > 0)
@@ -110,24 +189,24 @@ public class RefineModel {
 
 		// an array of length equal to number of vertices in old grid.
 		// Each element is the index of the colocated vertex in the new grid.
-		// This array gets populated in method getNewVertices()
+		// This array gets populated in method getNewVertexSets()
 		ArrayListInt oldToNew = new ArrayListInt();
 
 		// an array of length equal to number of vertices in new grid.
 		// Each element is the index of the colocated vertex in the old grid,
 		// or -1 for vertices that do now exist in the old grid.
-		// This array gets populated in method getNewVertices()
+		// This array gets populated in method getNewVertexSets()
 		ArrayListInt newToOld = new ArrayListInt();
 
 		// Find the newVertices connected to each other in the newModel, by layer.
-		ArrayList<HashSet<Integer>> newVertices = getNewVertices(oldModel, newGrid, oldToNew, newToOld);
+		ArrayList<BitSet> newVertices = getNewVertexSets(oldModel, newGrid, oldToNew, newToOld);
 
 		if (verbosity > 0) {
 			System.out.println("\nVertices that are connected in the newGrid but not in oldGrid:");
 			for (int layer = 0; layer < newVertices.size(); ++layer) {
-				HashSet<Integer> list = newVertices.get(layer);
-				System.out.printf("   layer=%d size=%d: ", layer, list.size());
-				for (int vertex : list)
+				BitSet list = newVertices.get(layer);
+				System.out.printf("   layer=%d size=%d: ", layer, list.cardinality());
+				for (int vertex = list.nextSetBit(0); vertex >= 0; vertex = list.nextSetBit(vertex + 1))
 					System.out.printf(" %d", vertex);
 				System.out.println();
 			}
@@ -138,7 +217,8 @@ public class RefineModel {
 
 		tmr = System.currentTimeMillis();
 
-		GeoTessModel newModel = buildNewModel(oldModel, newGrid, newVertices, oldToNew, newToOld, pointsToRefine);
+		GeoTessModel newModel = buildNewModel(oldModel, newGrid, newVertices, oldToNew, newToOld, points,
+				nRefinementLevels, maxProcessors);
 
 		// check every Profile in the new model and throw an exception if it is null.
 		for (int layer = 0; layer < newModel.getNLayers(); ++layer)
@@ -171,60 +251,257 @@ public class RefineModel {
 	 * @param markThreshold
 	 * @return
 	 * @throws Exception
+	 * @deprecated use {@link #buildNewGrid(GeoTessModel, BitSet, int[], int)}
 	 */
+	@Deprecated
 	static public GeoTessGrid buildNewGrid(GeoTessModel oldModel, ArrayListInt pointsToRefine, int[] maxTessLevels,
 			int markThreshold) throws Exception {
+		return buildNewGrid(oldModel, toBitSet(pointsToRefine), maxTessLevels, markThreshold);
+	}
+
+	/**
+	 * Build a new, refined GeoTessGrid that includes all the multi-level
+	 * tessellations.
+	 * 
+	 * @param oldModel
+	 * @param pointsToRefine the set of points to refine, indexed by point index
+	 *                       in oldModel.
+	 * @param maxTessLevels
+	 * @param markThreshold
+	 * @return
+	 * @throws Exception
+	 */
+	static public GeoTessGrid buildNewGrid(GeoTessModel oldModel, BitSet pointsToRefine, int[] maxTessLevels,
+			int markThreshold) throws Exception {
+		return buildNewGrid(oldModel, pointsToRefine, maxTessLevels, markThreshold,
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Build a new, refined GeoTessGrid that includes all the multi-level
+	 * tessellations. The tessellations are refined concurrently, each in its own
+	 * thread, and then merged by GridBuilder.
+	 * 
+	 * @param oldModel
+	 * @param pointsToRefine the set of points to refine, indexed by point index
+	 *                       in oldModel.
+	 * @param maxTessLevels
+	 * @param markThreshold
+	 * @param maxProcessors  maximum number of tessellations refined concurrently.
+	 * @return
+	 * @throws Exception
+	 */
+	static public GeoTessGrid buildNewGrid(GeoTessModel oldModel, BitSet pointsToRefine, int[] maxTessLevels,
+			int markThreshold, int maxProcessors) throws Exception {
+		return buildNewGrid(oldModel, pointsToRefine, maxTessLevels, markThreshold, 1, maxProcessors);
+	}
+
+	/**
+	 * Build a new GeoTessGrid by refining the tessellations of oldModel
+	 * nRefinementLevels times. Each round refines the grid produced by the
+	 * previous round, subdividing the triangles that touch the vertices selected
+	 * in the previous round plus the vertices that the previous round created on
+	 * the edges of triangles whose corners were all selected. No
+	 * model is constructed for the intermediate grids.
+	 * <p>
+	 * The source vertex indexes of the returned GridBuilder refer to vertices in
+	 * the grid of oldModel.
+	 * 
+	 * @param oldModel
+	 * @param pointsToRefine    the set of points to refine, indexed by point index
+	 *                          in oldModel.
+	 * @param maxTessLevels
+	 * @param markThreshold
+	 * @param nRefinementLevels number of rounds of refinement.
+	 * @param maxProcessors     maximum number of tessellations refined
+	 *                          concurrently.
+	 * @return
+	 * @throws Exception
+	 */
+	static public GeoTessGrid buildNewGrid(GeoTessModel oldModel, BitSet pointsToRefine, int[] maxTessLevels,
+			int markThreshold, int nRefinementLevels, int maxProcessors) throws Exception {
 
 		GeoTessGrid oldGrid = oldModel.getGrid();
 
-		ArrayList<Tessellation> tessellations = new ArrayList<Tessellation>(oldGrid.getNTessellations());
+		// for each tessellation, the set of vertices, indexed by vertex index in
+		// oldGrid, that are associated with a point to refine in one of the layers
+		// supported by that tessellation.
+		BitSet[] verticesToRefine = new BitSet[oldGrid.getNTessellations()];
+		for (int tessid = 0; tessid < verticesToRefine.length; ++tessid)
+			verticesToRefine[tessid] = new BitSet(oldGrid.getNVertices());
+
+		// loop over points to refine.
+		for (int point = pointsToRefine.nextSetBit(0); point >= 0; point = pointsToRefine.nextSetBit(point + 1)) {
+			// 0:vertex index, 1:layer index, 2:node index
+			int[] pmap = oldModel.getPointMap().getPointIndices(point);
+			verticesToRefine[oldModel.getMetaData().getTessellation(pmap[1])].set(pmap[0]);
+		}
+
+		return buildNewGrid(oldGrid, verticesToRefine, maxTessLevels, markThreshold, nRefinementLevels,
+				maxProcessors);
+	}
 
+	/**
+	 * Build a new GeoTessGrid by refining the tessellations of oldGrid
+	 * nRefinementLevels times, given the set of vertices to refine in each
+	 * tessellation.
+	 * 
+	 * @param oldGrid
+	 * @param verticesToRefine  for each tessellation, the set of vertices to
+	 *                          refine, indexed by vertex index in oldGrid. The
+	 *                          BitSets may be modified by this method.
+	 * @param maxTessLevels
+	 * @param markThreshold
+	 * @param nRefinementLevels number of rounds of refinement.
+	 * @param maxProcessors     maximum number of tessellations refined
+	 *                          concurrently.
+	 * @return
+	 * @throws Exception
+	 */
+	static public GridBuilder buildNewGrid(GeoTessGrid oldGrid, BitSet[] verticesToRefine, int[] maxTessLevels,
+			int markThreshold, int nRefinementLevels, int maxProcessors) throws Exception {
 		// deduce the initial tessellation from the grid of the input model. This might
 		// be
 		// one of the PlatonicSolids, or a rotated version.
 		InitialSolid solid = new InitialSolid(oldGrid, 0);
 
-		// loop over all tessellations in the old model
-		for (int tessid = 0; tessid < oldGrid.getNTessellations(); ++tessid) {
-			// clear list of vertices that includes vertices specified in pointsToRefine.
-			HashSet<double[]> vertices = new HashSet<double[]>(100);
-			int[] pmap;
-
-			// find list of layers that are associated with current tessellation
-			int[] layers = oldModel.getMetaData().getLayers(tessid);
-
-			// loop over points to refine.
-			for (int i = 0; i < pointsToRefine.size(); ++i) {
-				// 0:vertex index, 1:layer index, 2:node index
-				pmap = oldModel.getPointMap().getPointIndices(pointsToRefine.get(i));
-				// find all pointsToRefine whose layer index
-				// corresponds to one of the layers associated with
-				// this tessellation.
-				for (int lid = 0; lid < layers.length; ++lid)
-					if (layers[lid] == pmap[1])
-						// retrieve the vertex that is associated with
-						// the point to refine and add it to set
-						// of vertices.
-						vertices.add(oldGrid.getVertices()[pmap[0]]);
-			}
+		GeoTessGrid grid = oldGrid;
+		GridBuilder newGrid = null;
+
+		// map from vertices in the current grid to vertices in oldGrid, or null
+		// while the current grid is oldGrid.
+		int[] gridToOld = null;
+
+		for (int round = 0; round < nRefinementLevels; ++round) {
+			newGrid = refineTessellations(grid, solid, verticesToRefine, maxTessLevels, markThreshold,
+					maxProcessors);
+
+			// map from vertices in newGrid to vertices in grid.
+			int[] newToGrid = newGrid.getSourceVertexIndexes();
 
-			// create a Tessellation that incorporates the old tessellation but
-			// that may have an extra level for the refined vertices. All the
-			// triangles that have at least markThreshold corners on a vertex in
-			// pointsToRefine will be subdivided an extra time.
-			TessellationRefined tess = new TessellationRefined(oldGrid, solid, tessid, vertices,
-					maxTessLevels == null ? Integer.MAX_VALUE : maxTessLevels[tessid], markThreshold);
+			if (round < nRefinementLevels - 1)
+				for (int tessid = 0; tessid < verticesToRefine.length; ++tessid)
+					verticesToRefine[tessid] = selectNextRound(grid, newGrid, newToGrid, tessid,
+							verticesToRefine[tessid]);
 
-			// add the Tessellation to the list of Tessellations included in newGrid.
-			tessellations.add(tess);
+			// compose the map from newGrid to oldGrid.
+			int[] newToOld = new int[newToGrid.length];
+			for (int v = 0; v < newToOld.length; ++v)
+				newToOld[v] = newToGrid[v] < 0 || gridToOld == null ? newToGrid[v] : gridToOld[newToGrid[v]];
+			gridToOld = newToOld;
+
+			grid = newGrid;
 		}
 
-		// instantiate a new empty grid
-		GridBuilder newGrid = new GridBuilder(tessellations);
+		newGrid.setSourceVertexIndexes(gridToOld);
 
 		return newGrid;
 	}
 
+	/**
+	 * Select the vertices of one tessellation of newGrid that are to be refined
+	 * by the next round of refinement: the vertices that were selected in this
+	 * round, and the vertices that this round created at the midpoints of the
+	 * edges of triangles whose corners were all selected.
+	 * <p>
+	 * Vertices created on the edges of triangles that were divided because only
+	 * some of their corners were selected are not selected, otherwise each round
+	 * would add a ring of triangles around the refined region.
+	 * 
+	 * @param grid             the grid that was refined by this round.
+	 * @param newGrid          the grid produced by this round.
+	 * @param newToGrid        map from vertices in newGrid to vertices in grid,
+	 *                         or -1.
+	 * @param tessid           index of the tessellation.
+	 * @param verticesToRefine the vertices selected in this round, indexed by
+	 *                         vertex index in grid.
+	 * @return the vertices selected for the next round, indexed by vertex index in
+	 *         newGrid.
+	 */
+	static private BitSet selectNextRound(GeoTessGrid grid, GeoTessGrid newGrid, int[] newToGrid, int tessid,
+			BitSet verticesToRefine) {
+		HashSetInteger gridTopLevel = grid.getVertexIndicesTopLevel(tessid);
+
+		// vertices in newGrid that were selected in this round.
+		BitSet selected = new BitSet(newGrid.getNVertices());
+		Iterator it = newGrid.getVertexIndicesTopLevel(tessid).iterator();
+		while (it.hasNext()) {
+			int v = it.next();
+			int g = newToGrid[v];
+			if (g >= 0 && gridTopLevel.contains(g) && verticesToRefine.get(g))
+				selected.set(v);
+		}
+
+		BitSet next = (BitSet) selected.clone();
+
+		// visit every triangle that was divided into 4 triangles. When a triangle
+		// is divided, its descendant is the central child whose corners are the
+		// midpoints of its edges and share none of its corners.
+		int level0 = newGrid.getTessellations()[tessid][0];
+		for (int level = 0; level < newGrid.getNLevels(tessid) - 1; ++level)
+			for (int t = newGrid.getLevels()[level0 + level][0]; t < newGrid.getLevels()[level0 + level][1]; ++t) {
+				int[] corners = newGrid.getTriangleVertexIndexes(t);
+				if (!selected.get(corners[0]) || !selected.get(corners[1]) || !selected.get(corners[2]))
+					continue;
+
+				int[] midpoints = newGrid.getTriangleVertexIndexes(newGrid.getDescendant(t));
+				boolean divided = true;
+				for (int midpoint : midpoints)
+					for (int corner : corners)
+						if (midpoint == corner)
+							divided = false;
+
+				if (divided)
+					for (int midpoint : midpoints) {
+						int g = newToGrid[midpoint];
+						if (g < 0 || !gridTopLevel.contains(g))
+							next.set(midpoint);
+					}
+			}
+		return next;
+	}
+
+	/**
+	 * Refine every tessellation of grid once and assemble the results into a new
+	 * grid. The tessellations are refined concurrently, each in its own thread,
+	 * and then merged by GridBuilder.
+	 * 
+	 * @param grid             the grid to refine.
+	 * @param solid            the initial solid of grid.
+	 * @param verticesToRefine for each tessellation, the set of vertices to
+	 *                         refine, indexed by vertex index in grid.
+	 * @param maxTessLevels
+	 * @param markThreshold
+	 * @param maxProcessors    maximum number of tessellations refined
+	 *                         concurrently.
+	 * @return
+	 * @throws GeoTessException
+	 */
+	static private GridBuilder refineTessellations(final GeoTessGrid grid, final InitialSolid solid,
+			final BitSet[] verticesToRefine, final int[] maxTessLevels, final int markThreshold, int maxProcessors)
+			throws GeoTessException {
+		// refined tessellations, in the same order as the tessellations in grid.
+		final Tessellation[] refined = new Tessellation[grid.getNTessellations()];
+
+		// the refinement of each tessellation only reads grid and solid so all the
+		// tessellations can be refined at the same time.
+		new ConcurrentRange() {
+			@Override
+			protected void process(int first, int last) throws Exception {
+				for (int tessid = first; tessid < last; ++tessid)
+					// create a Tessellation that incorporates the old tessellation but
+					// that may have an extra level for the refined vertices. All the
+					// triangles that have at least markThreshold corners on a vertex in
+					// verticesToRefine will be subdivided an extra time.
+					refined[tessid] = new TessellationRefined(grid, solid, tessid, verticesToRefine[tessid],
+							maxTessLevels == null ? Integer.MAX_VALUE : maxTessLevels[tessid], markThreshold);
+			}
+		}.execute(refined.length, maxProcessors, 1);
+
+		// instantiate a new grid
+		return new GridBuilder(new ArrayList<Tessellation>(Arrays.asList(refined)));
+	}
+
 	/**
 	 * For each layer of the oldModel, find the indices of the vertices in the
 	 * newGrid that are not connected in the oldGrid. Return newVertices: an array
@@ -244,11 +521,49 @@ public class RefineModel {
 	 *                 method.
 	 * @return array of length nLayers containing the set of vertices in newGrid
 	 *         that are not connected in the oldModel in the corresponding layer.
+	 * @deprecated use
+	 *             {@link #getNewVertexSets(GeoTessModel, GeoTessGrid, ArrayListInt, ArrayListInt)}
 	 */
+	@Deprecated
 	static public ArrayList<HashSet<Integer>> getNewVertices(GeoTessModel oldModel, GeoTessGrid newGrid,
 			ArrayListInt oldToNew, ArrayListInt newToOld) {
+		// layers that share a tessellation share the same set, as they always have.
+		IdentityHashMap<BitSet, HashSet<Integer>> sets = new IdentityHashMap<BitSet, HashSet<Integer>>();
+		ArrayList<HashSet<Integer>> newVertices = new ArrayList<HashSet<Integer>>();
+		for (BitSet vertices : getNewVertexSets(oldModel, newGrid, oldToNew, newToOld)) {
+			HashSet<Integer> set = vertices == null ? null : sets.get(vertices);
+			if (vertices != null && set == null) {
+				set = new HashSet<Integer>(2 * vertices.cardinality());
+				for (int v = vertices.nextSetBit(0); v >= 0; v = vertices.nextSetBit(v + 1))
+					set.add(v);
+				sets.put(vertices, set);
+			}
+			newVertices.add(set);
+		}
+		return newVertices;
+	}
 
-		ArrayList<HashSet<Integer>> newVertices = new ArrayList<>();
+	/**
+	 * For each layer of the oldModel, find the indices of the vertices in the
+	 * newGrid that are not connected in the oldGrid. Return newVertices: an array
+	 * of size nLayers where each element is the set of vertices in that layer
+	 * that are new (don't exist, or, are not connected in the old model).
+	 * 
+	 * @param oldModel
+	 * @param newGrid
+	 * @param oldToNew populated with the corresponding vertex in newGrid of every
+	 *                 vertex in oldModel.
+	 * @param newToOld populated with the corresponding vertex in oldGrid of every
+	 *                 vertex in newGrid, or -1 for vertices that do not exist in
+	 *                 oldModel.
+	 * @return array of length nLayers containing the set of vertices in newGrid
+	 *         that are not connected in the oldModel in the corresponding layer,
+	 *         indexed by vertex index in newGrid.
+	 */
+	static public ArrayList<BitSet> getNewVertexSets(GeoTessModel oldModel, GeoTessGrid newGrid,
+			ArrayListInt oldToNew, ArrayListInt newToOld) {
+
+		ArrayList<BitSet> newVertices = new ArrayList<>();
 		// ensure an entry for each layer
 		for (int i = 0; i < oldModel.getNLayers(); ++i)
 			newVertices.add(null);
@@ -262,13 +577,23 @@ public class RefineModel {
 		Arrays.fill(x, -1);
 		newToOld.setArray(x);
 
+		// if newGrid was built by GridBuilder from TessellationRefined objects, then
+		// it knows the index of the colocated vertex in the old grid for each of its
+		// vertices and no geometric search is required.
+		int[] sourceIndexes = newGrid instanceof GridBuilder ? ((GridBuilder) newGrid).getSourceVertexIndexes()
+				: null;
+
 		// loop over all the multi-level tessellations
 		for (int tessId = 0; tessId < oldModel.getGrid().getNTessellations(); ++tessId) {
 
+			// the set of vertices connected together by triangles on the top level of
+			// this tessellation in the old grid.
+			HashSetInteger oldTopLevel = oldModel.getGrid().getVertexIndicesTopLevel(tessId);
+
 			// instantiate a new set of integers to contain the indices of the vertices
 			// in the new model and add a reference to newVertices for each layer that
 			// is associated with that tessellation
-			HashSet<Integer> newvtx = new HashSet<Integer>();
+			BitSet newvtx = new BitSet(newGrid.getNVertices());
 			for (int layer : oldModel.getMetaData().getLayers(tessId))
 				newVertices.set(layer, newvtx);
 
@@ -281,13 +606,20 @@ public class RefineModel {
 
 				// find the index of the newGridVertex in the oldGrid, considering only vertices
 				// connected at this tessellation. will = -1 if does not exist.
-				int oldGridVertex = oldModel.getGrid().getVertexIndex(newGrid.getVertex(newGridVertex), tessId);
+				int oldGridVertex;
+				if (sourceIndexes == null)
+					oldGridVertex = oldModel.getGrid().getVertexIndex(newGrid.getVertex(newGridVertex), tessId);
+				else {
+					oldGridVertex = sourceIndexes[newGridVertex];
+					if (oldGridVertex >= 0 && !oldTopLevel.contains(oldGridVertex))
+						oldGridVertex = -1;
+				}
 
 				// if the current vertex is not connected by triangles in the oldGrid in the
 				// current multi-level tessellation, then add it to newvtx.
 				// Otherwise, add the vertex index to the newToOld array.
 				if (oldGridVertex < 0)
-					newvtx.add(newGridVertex);
+					newvtx.set(newGridVertex);
 				else
 					oldToNew.set(oldGridVertex, newGridVertex);
 
@@ -310,28 +642,116 @@ public class RefineModel {
 	 * @param pointsToRefine
 	 * @return
 	 * @throws Exception
+	 * @deprecated use
+	 *             {@link #buildNewModel(GeoTessModel, GeoTessGrid, ArrayList, ArrayListInt, ArrayListInt, BitSet)}
 	 */
+	@Deprecated
 	static public GeoTessModel buildNewModel(GeoTessModel oldModel, GeoTessGrid newGrid,
 			ArrayList<HashSet<Integer>> newVertices, ArrayListInt oldToNew, ArrayListInt newToOld,
 			ArrayListInt pointsToRefine) throws Exception {
+		IdentityHashMap<HashSet<Integer>, BitSet> sets = new IdentityHashMap<HashSet<Integer>, BitSet>();
+		ArrayList<BitSet> vertexSets = new ArrayList<BitSet>(newVertices.size());
+		for (HashSet<Integer> vertices : newVertices) {
+			BitSet set = vertices == null ? null : sets.get(vertices);
+			if (vertices != null && set == null) {
+				set = new BitSet(newGrid.getNVertices());
+				for (int v : vertices)
+					set.set(v);
+				sets.put(vertices, set);
+			}
+			vertexSets.add(set);
+		}
+		return buildNewModel(oldModel, newGrid, vertexSets, oldToNew, newToOld, toBitSet(pointsToRefine));
+	}
+
+	/**
+	 * Create a new GeoTessModel using the newGrid and populate it with data copied
+	 * or interpolated from the oldModel.
+	 * 
+	 * @param oldModel
+	 * @param newGrid
+	 * @param newVertices
+	 * @param oldToNew
+	 * @param newToOld
+	 * @param pointsToRefine the set of points to refine, indexed by point index
+	 *                       in oldModel.
+	 * @return
+	 * @throws Exception
+	 */
+	static public GeoTessModel buildNewModel(GeoTessModel oldModel, GeoTessGrid newGrid,
+			ArrayList<BitSet> newVertices, ArrayListInt oldToNew, ArrayListInt newToOld, BitSet pointsToRefine)
+			throws Exception {
+		return buildNewModel(oldModel, newGrid, newVertices, oldToNew, newToOld, pointsToRefine,
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a new GeoTessModel using the newGrid and populate it with data copied
+	 * or interpolated from the oldModel.
+	 * <p>
+	 * Copying profiles from the oldModel and interpolating profiles at new
+	 * vertices is done concurrently, by vertex range, using up to maxProcessors
+	 * threads. Each thread interpolates the oldModel with its own
+	 * GeoTessPosition object.
+	 * 
+	 * @param oldModel
+	 * @param newGrid
+	 * @param newVertices
+	 * @param oldToNew
+	 * @param newToOld
+	 * @param pointsToRefine the set of points to refine, indexed by point index
+	 *                       in oldModel.
+	 * @param maxProcessors  maximum number of threads to use.
+	 * @return
+	 * @throws Exception
+	 */
+	static public GeoTessModel buildNewModel(GeoTessModel oldModel, GeoTessGrid newGrid,
+			ArrayList<BitSet> newVertices, ArrayListInt oldToNew, ArrayListInt newToOld, BitSet pointsToRefine,
+			int maxProcessors) throws Exception {
+		return buildNewModel(oldModel, newGrid, newVertices, oldToNew, newToOld, pointsToRefine, 1, maxProcessors);
+	}
+
+	/**
+	 * Create a new GeoTessModel using the newGrid and populate it with data copied
+	 * or interpolated from the oldModel. NPOINT profiles that contain points to
+	 * refine have each radial interval adjacent to a point to refine divided into
+	 * 2^nRefinementLevels equal intervals.
+	 * 
+	 * @param oldModel
+	 * @param newGrid
+	 * @param newVertices
+	 * @param oldToNew
+	 * @param newToOld
+	 * @param pointsToRefine    the set of points to refine, indexed by point
+	 *                          index in oldModel.
+	 * @param nRefinementLevels number of levels of radial refinement.
+	 * @param maxProcessors     maximum number of threads to use.
+	 * @return
+	 * @throws Exception
+	 */
+	static public GeoTessModel buildNewModel(final GeoTessModel oldModel, final GeoTessGrid newGrid,
+			ArrayList<BitSet> newVertices, final ArrayListInt oldToNew, final ArrayListInt newToOld,
+			final BitSet pointsToRefine, int nRefinementLevels, int maxProcessors) throws Exception {
 
 		// create a new model of the same derived class as the old model, using the new
 		// Grid and a
 		// copy of the metaData from the oldModel.
-		GeoTessModel newModel = GeoTessModel.getGeoTessModel(newGrid, new GeoTessMetaData(oldModel.getMetaData()));
+		final GeoTessModel newModel = GeoTessModel.getGeoTessModel(newGrid,
+				new GeoTessMetaData(oldModel.getMetaData()));
 
 		// copy the 'extra' data from the oldModel.
 		newModel.copyDerivedClassData(oldModel);
 
 		// for all vertices in the old model copy the Profiles from the old
 		// model to the new model.
-		for (int vertex = 0; vertex < oldToNew.size(); ++vertex)
-			for (int layer = 0; layer < oldModel.getNLayers(); ++layer)
-				newModel.setProfile(oldToNew.get(vertex), layer, oldModel.getProfile(vertex, layer).copy());
-
-		// Create a GeoTessPosition object to use to interpolate model data from the
-		// oldModel.
-		GeoTessPosition posOld = oldModel.getGeoTessPosition(InterpolatorType.LINEAR);
+		new ConcurrentRange() {
+			@Override
+			protected void process(int first, int last) throws Exception {
+				for (int vertex = first; vertex < last; ++vertex)
+					for (int layer = 0; layer < oldModel.getNLayers(); ++layer)
+						newModel.setProfile(oldToNew.get(vertex), layer, oldModel.getProfile(vertex, layer).copy());
+			}
+		}.execute(oldToNew.size(), maxProcessors);
 
 		// for all vertices in the new model that are not in the old model, populate the
 		// Profiles with empty profiles.
@@ -340,82 +760,56 @@ public class RefineModel {
 				if (newToOld.get(v) < 0)
 					newModel.setProfile(v);
 		} else {
-			for (int v = 0; v < newModel.getNVertices(); ++v)
-				if (newToOld.get(v) < 0) {
-					posOld.set(newGrid.getVertex(v), 1e4);
-					for (int layer = 0; layer < newModel.getNLayers(); ++layer)
-						newModel.setProfile(v, layer, new float[] { (float) posOld.getRadiusBottom(layer),
-								(float) posOld.getRadiusTop(layer) });
+			new ConcurrentRange() {
+				@Override
+				protected void process(int first, int last) throws Exception {
+					// each thread needs its own GeoTessPosition object to use to
+					// interpolate model data from the oldModel.
+					GeoTessPosition posOld = oldModel.getGeoTessPosition(InterpolatorType.LINEAR);
+					for (int v = first; v < last; ++v)
+						if (newToOld.get(v) < 0) {
+							posOld.set(newGrid.getVertex(v), 1e4);
+							for (int layer = 0; layer < newModel.getNLayers(); ++layer)
+								newModel.setProfile(v, layer, new float[] { (float) posOld.getRadiusBottom(layer),
+										(float) posOld.getRadiusTop(layer) });
+						}
 				}
+			}.execute(newModel.getNVertices(), maxProcessors);
 		}
 
-		// build a map VertexIndex -> LayerIndex -> ArrayList of NodeIndex
-		// containing the points to be refined but with indices in the new model
-		HashMap<Integer, HashMap<Integer, HashSetInteger>> map = new HashMap<>();
-		for (int i = 0; i < pointsToRefine.size(); ++i) {
+		// find the vertex-layer combinations of the old model that contain
+		// at least one point to refine. Bit (vertex * nLayers + layer) is set
+		// for each such combination.
+		final int nLayers = oldModel.getNLayers();
+		final PointMap pointMap = oldModel.getPointMap();
+		BitSet profilesToRefine = new BitSet();
+		for (int point = pointsToRefine.nextSetBit(0); point >= 0; point = pointsToRefine.nextSetBit(point + 1)) {
 			// 0: vertex index, 1: layer index, 2: node index; in old model
-			int[] pmap = oldModel.getPointMap().getPointIndices(pointsToRefine.get(i));
-			int newVertex = oldToNew.get(pmap[0]);
-			int layerIndex = pmap[1];
-			int nodeIndex = pmap[2];
-			HashMap<Integer, HashSetInteger> layermap = map.get(newVertex);
-			if (layermap == null)
-				map.put(newVertex, layermap = new HashMap<Integer, HashSetInteger>());
-
-			HashSetInteger nodes = layermap.get(layerIndex);
-			if (nodes == null)
-				layermap.put(layerIndex, nodes = new HashSetInteger());
-
-			nodes.add(nodeIndex);
+			int[] pmap = pointMap.getPointIndices(point);
+			profilesToRefine.set(pmap[0] * nLayers + pmap[1]);
 		}
 
 		// Refine the profiles in the new model that have entries in the
 		// pointToRefine array. Only if ProfileType is NPOINTS.
-		TreeSet<Float> setOfRadii = new TreeSet<>();
-		ArrayList<Data> dataList = new ArrayList<Data>();
-		// iterate over newVertices
-		for (Integer vertex : map.keySet()) {
-			// iterate over the layer of this new vertex
-			HashMap<Integer, HashSetInteger> layerMap = map.get(vertex);
-			for (Integer layer : layerMap.keySet()) {
-				// get the list of node indices for this vertex-layer.
-				HashSetInteger nodes = layerMap.get(layer);
-				// get a reference to the Profile for vertex-layer in the newModel
-				Profile profile = newModel.getProfile(vertex, layer);
-				// only refine in the radial dimension if this profile is of type npoint.
-				// profiles of other types do not get refined radially.
-				if (profile.getType() == ProfileType.NPOINT) {
-					// add more radii on either side of the radius of the current node.
-					// Since setOfRaii is a TreeSet, the radii will be ordered.
-					for (int i = 0; i < profile.getNRadii(); ++i) {
-						setOfRadii.add((float) profile.getRadius(i));
-						if (nodes.contains(i)) {
-							if (i > 0)
-								setOfRadii.add((float) ((profile.getRadius(i) + profile.getRadius(i - 1)) / 2));
-							if (i < profile.getNRadii() - 1)
-								setOfRadii.add((float) ((profile.getRadius(i) + profile.getRadius(i + 1)) / 2));
-						}
-					}
-
-					// copy radii from the TreeSet to a float array.
-					float[] radii = new float[setOfRadii.size()];
-					int i = 0;
-					for (Float r : setOfRadii) {
-						radii[i++] = r;
-						// interpolate data from the Profile for both new and old nodes.
-						// Interpolation is only happening in the radial direction (along the profile).
-						dataList.add(((ProfileNPoint) profile).getData(InterpolatorType.LINEAR, r, true));
-					}
-
-					// set the Profile at the current vertex-layer.
-					newModel.setProfile(vertex, layer,
-							new ProfileNPoint(radii, dataList.toArray(new Data[dataList.size()])));
-
-					setOfRadii.clear();
-					dataList.clear();
+		final int[] profileArray = toArray(profilesToRefine);
+		final int nIntervals = 1 << nRefinementLevels;
+		new ConcurrentRange() {
+			@Override
+			protected void process(int first, int last) throws Exception {
+				for (int i = first; i < last; ++i) {
+					int oldVertex = profileArray[i] / nLayers;
+					int layer = profileArray[i] % nLayers;
+					int vertex = oldToNew.get(oldVertex);
+					// get a reference to the Profile for vertex-layer in the newModel
+					Profile profile = newModel.getProfile(vertex, layer);
+					// only refine in the radial dimension if this profile is of type npoint.
+					// profiles of other types do not get refined radially.
+					if (profile.getType() == ProfileType.NPOINT)
+						newModel.setProfile(vertex, layer, refineRadially((ProfileNPoint) profile, pointsToRefine,
+								pointMap, oldVertex, layer, nIntervals));
 				}
 			}
-		}
+		}.execute(profileArray.length, maxProcessors, 100);
 
 		// at this point all profiles in the new model that have corresponding
 		// profiles in the old model have had their profiles updated, including
@@ -428,84 +822,29 @@ public class RefineModel {
 		// the Set of new vertices in the newModel that are connected at the
 		// corresponding layer, and which need to be populated.
 		for (int layer = 0; layer < newVertices.size(); ++layer) {
-			HashSet<Integer> vertices = newVertices.get(layer);
+			final BitSet vertices = newVertices.get(layer);
+			final int[] vertexArray = toArray(vertices);
+
+			final int lyr = layer;
 			// get the id of the multi-level tessellation that supports this layer.
-			int tessId = newModel.getMetaData().getTessellation(layer);
+			final int tessId = newModel.getMetaData().getTessellation(layer);
 			// find the index of the top tessellation level in this multi-level
 			// tessellation.
-			int level = newGrid.getNLevels(tessId) - 1;
-			for (int newVertex : vertices) {
-
-				// set the interpolator in the oldModel to the current layer and vertex
-				// location. The radius is set to 1e4 and is not relevant at this point.
-				posOld.set(layer, newGrid.getVertex(newVertex), 1e4);
-
-				// find the radii of the top and bottom of the layer at this location.
-				double rbot = posOld.getRadiusBottom(layer);
-				double rtop = posOld.getRadiusTop(layer);
-
-				// now search for a profile that is a neighbor of the new vertex and which
-				// is populated in the oldModel, and which has the highest number of nodes
-				// (Data objects).
-				Profile neighborProfile = null;
-
-				// retrieve the set of vertices that are neighbors of the new vertex in the
-				// newGrid
-				// at the current tessellation and tessellation level.
-				HashSet<Integer> neighbors = newGrid.getVertexNeighbors(tessId, level, newVertex);
-				for (int neighbor : neighbors)
-					// ignore neighbors that are newVertices (i.e., consider only vertices that
-					// are connected in the oldModel).
-					if (!vertices.contains(neighbor)) {
-						// get the neighbor's Profile object.
-						Profile p = newModel.getProfile(neighbor, layer);
-						// if the neighbor has more Nodes (Data value), select it.
-						if (neighborProfile == null || p.getNData() > neighborProfile.getNData())
-							neighborProfile = p;
-					}
-
-				// so now neighborProfile is the Profile object which is a neighbor of the
-				// newVertex in the current layer, which is connected in this layer in the
-				// oldModel, and which has the highest number of Data values.
-				// Now make a new Profile of the same ProfileType using the same radii and
-				// new data values interpolated from the oldModel.
-				switch (neighborProfile.getType()) {
-				case EMPTY:
-					// empty layer defined by two radii and no data
-					newModel.setProfile(newVertex, layer, new ProfileEmpty((float) rbot, (float) rtop));
-					break;
-				case THIN:
-					// zero-thickness layer defined by one radius and one data
-					newModel.setProfile(newVertex, layer, new ProfileThin((float) rbot, posOld.getData()));
-					break;
-				case CONSTANT:
-					// constant layer defined by two radii and one data object
-					newModel.setProfile(newVertex, layer,
-							new ProfileConstant((float) rbot, (float) rtop, posOld.getData()));
-					break;
-				case NPOINT:
-					// n radii and n data objects, n >= 2
-					float[] radii = radii(neighborProfile.getRadii(), rbot, rtop);
-					Data dataArray[] = new Data[radii.length];
-
-					for (int j = 0; j < radii.length; ++j) {
-						posOld.setRadius(layer, radii[j]);
-						dataArray[j] = posOld.getData();
-					}
-					newModel.setProfile(newVertex, layer, new ProfileNPoint(radii, dataArray));
-					break;
-				case SURFACE:
-					// layer with 0 radii and one data object
-					newModel.setProfile(newVertex, layer, new ProfileSurface(posOld.getData()));
-					break;
-				case SURFACE_EMPTY:
-					// empty layer defined by no radii and no data (pretty simple!)
-					newModel.setProfile(newVertex, layer, new ProfileSurfaceEmpty());
-					break;
-				default:
-					throw new Exception("Unrecognized ProfileType");
+			final int level = newGrid.getNLevels(tessId) - 1;
+
+			// make sure the grid has computed its vertex neighbor information
+			// before any worker threads ask for it.
+			if (vertexArray.length > 0)
+				newGrid.getVertexNeighbors(tessId, level, vertexArray[0]);
+
+			new ConcurrentRange() {
+				@Override
+				protected void process(int first, int last) throws Exception {
+					GeoTessPosition posOld = oldModel.getGeoTessPosition(InterpolatorType.LINEAR);
+					for (int i = first; i < last; ++i)
+						populateNewProfile(posOld, newModel, newGrid, vertices, tessId, level, lyr, vertexArray[i]);
 				}
-			}
+			}.execute(vertexArray.length, maxProcessors, 100);
 		}
 
 		// throw an exception if any of the nVertices x nLayers Profiles in the
@@ -522,6 +861,188 @@ public class RefineModel {
 		return newModel;
 	}
 
+	/**
+	 * Populate the Profile at newVertex, layer in the newModel with a new Profile
+	 * whose ProfileType is the same as the neighbor of newVertex that has the
+	 * greatest number of Data objects, and whose data values are interpolated from
+	 * the oldModel.
+	 * 
+	 * @param posOld      GeoTessPosition object that interpolates the oldModel.
+	 * @param newModel
+	 * @param newGrid
+	 * @param vertices    set of vertices that are new in the current layer,
+	 *                    indexed by vertex index in newGrid.
+	 * @param tessId
+	 * @param level       index of the top level of tessellation tessId.
+	 * @param layer
+	 * @param newVertex
+	 * @throws Exception
+	 */
+	static private void populateNewProfile(GeoTessPosition posOld, GeoTessModel newModel, GeoTessGrid newGrid,
+			BitSet vertices, int tessId, int level, int layer, int newVertex) throws Exception {
+		// set the interpolator in the oldModel to the current layer and vertex
+		// location. The radius is set to 1e4 and is not relevant at this point.
+		posOld.set(layer, newGrid.getVertex(newVertex), 1e4);
+
+		// find the radii of the top and bottom of the layer at this location.
+		double rbot = posOld.getRadiusBottom(layer);
+		double rtop = posOld.getRadiusTop(layer);
+
+		// now search for a profile that is a neighbor of the new vertex and which
+		// is populated in the oldModel, and which has the highest number of nodes
+		// (Data objects).
+		Profile neighborProfile = null;
+
+		// retrieve the set of vertices that are neighbors of the new vertex in the
+		// newGrid
+		// at the current tessellation and tessellation level.
+		HashSet<Integer> neighbors = newGrid.getVertexNeighbors(tessId, level, newVertex);
+		for (int neighbor : neighbors)
+			// ignore neighbors that are newVertices (i.e., consider only vertices that
+			// are connected in the oldModel).
+			if (!vertices.get(neighbor)) {
+				// get the neighbor's Profile object.
+				Profile p = newModel.getProfile(neighbor, layer);
+				// if the neighbor has more Nodes (Data value), select it.
+				if (neighborProfile == null || p.getNData() > neighborProfile.getNData())
+					neighborProfile = p;
+			}
+
+		// so now neighborProfile is the Profile object which is a neighbor of the
+		// newVertex in the current layer, which is connected in this layer in the
+		// oldModel, and which has the highest number of Data values.
+		// Now make a new Profile of the same ProfileType using the same radii and
+		// new data values interpolated from the oldModel.
+		switch (neighborProfile.getType()) {
+		case EMPTY:
+			// empty layer defined by two radii and no data
+			newModel.setProfile(newVertex, layer, new ProfileEmpty((float) rbot, (float) rtop));
+			break;
+		case THIN:
+			// zero-thickness layer defined by one radius and one data
+			newModel.setProfile(newVertex, layer, new ProfileThin((float) rbot, posOld.getData()));
+			break;
+		case CONSTANT:
+			// constant layer defined by two radii and one data object
+			newModel.setProfile(newVertex, layer, new ProfileConstant((float) rbot, (float) rtop, posOld.getData()));
+			break;
+		case NPOINT:
+			// n radii and n data objects, n >= 2
+			float[] radii = radii(neighborProfile.getRadii(), rbot, rtop);
+			Data dataArray[] = new Data[radii.length];
+
+			for (int j = 0; j < radii.length; ++j) {
+				posOld.setRadius(layer, radii[j]);
+				dataArray[j] = posOld.getData();
+			}
+			newModel.setProfile(newVertex, layer, new ProfileNPoint(radii, dataArray));
+			break;
+		case SURFACE:
+			// layer with 0 radii and one data object
+			newModel.setProfile(newVertex, layer, new ProfileSurface(posOld.getData()));
+			break;
+		case SURFACE_EMPTY:
+			// empty layer defined by no radii and no data (pretty simple!)
+			newModel.setProfile(newVertex, layer, new ProfileSurfaceEmpty());
+			break;
+		default:
+			throw new Exception("Unrecognized ProfileType");
+		}
+	}
+
+	/**
+	 * Build a new ProfileNPoint that has all the radii of the supplied profile
+	 * plus additional radii that divide the intervals between each node that is a
+	 * point to refine and its neighboring nodes into nIntervals equal parts
+	 * (nIntervals = 2 adds a single radius midway). Data values at all the radii are interpolated
+	 * radially from the supplied profile.
+	 * 
+	 * @param profile        the profile to refine.
+	 * @param pointsToRefine the set of points to refine, indexed by point index
+	 *                       in the old model.
+	 * @param pointMap       the PointMap of the old model.
+	 * @param oldVertex      index of the vertex in the old model.
+	 * @param layer          index of the layer.
+	 * @param nIntervals     number of intervals into which refined intervals are
+	 *                       divided.
+	 * @return a new, radially refined ProfileNPoint.
+	 * @throws Exception
+	 */
+	static private ProfileNPoint refineRadially(ProfileNPoint profile, BitSet pointsToRefine, PointMap pointMap,
+			int oldVertex, int layer, int nIntervals) throws Exception {
+		int n = profile.getNRadii();
+
+		// radii are accumulated in ascending order. Each interval between nodes
+		// can contribute at most nIntervals-1 extra radii.
+		float[] buffer = new float[n + (n - 1) * (nIntervals - 1)];
+		int size = 0;
+
+		boolean refinePrevious = false;
+		for (int i = 0; i < n; ++i) {
+			int point = pointMap.getPointIndex(oldVertex, layer, i);
+			boolean refine = point >= 0 && pointsToRefine.get(point);
+
+			// divide the interval between this node and the previous one into
+			// nIntervals equal intervals if either of them is to be refined.
+			if (i > 0 && (refine || refinePrevious))
+				for (int j = 1; j < nIntervals; ++j)
+					size = addRadius(buffer, size, (float) ((profile.getRadius(i - 1) * (nIntervals - j)
+							+ profile.getRadius(i) * j) / nIntervals));
+
+			size = addRadius(buffer, size, (float) profile.getRadius(i));
+			refinePrevious = refine;
+		}
+
+		float[] radii = Arrays.copyOf(buffer, size);
+		Data[] data = new Data[size];
+		for (int i = 0; i < size; ++i)
+			// interpolate data from the Profile for both new and old nodes.
+			// Interpolation is only happening in the radial direction (along the profile).
+			data[i] = profile.getData(InterpolatorType.LINEAR, radii[i], true);
+
+		return new ProfileNPoint(radii, data);
+	}
+
+	/**
+	 * Append radius r to buffer unless it is equal to the last radius already in
+	 * the buffer.
+	 * 
+	 * @return the new number of radii in the buffer.
+	 */
+	static private int addRadius(float[] buffer, int size, float r) {
+		if (size == 0 || r != buffer[size - 1])
+			buffer[size++] = r;
+		return size;
+	}
+
+	/**
+	 * Convert a list of integers into a BitSet.
+	 * 
+	 * @param list
+	 * @return a BitSet with a bit set for every element of list.
+	 */
+	static BitSet toBitSet(ArrayListInt list) {
+		BitSet set = new BitSet();
+		for (int i = 0; i < list.size(); ++i)
+			set.set(list.get(i));
+		return set;
+	}
+
+	/**
+	 * Retrieve the indices of the bits that are set in a BitSet, in ascending
+	 * order.
+	 * 
+	 * @param set
+	 * @return the indices of the bits that are set.
+	 */
+	static int[] toArray(BitSet set) {
+		int[] array = new int[set.cardinality()];
+		int n = 0;
+		for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1))
+			array[n++] = i;
+		return array;
+	}
+
 	/**
 	 * Given an array of radii, retrieve a new array of radii where r[0] and r[n]
 	 * are set to rbot and rtop and the intervening radii maintain the same
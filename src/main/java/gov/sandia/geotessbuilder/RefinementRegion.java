@@ -0,0 +1,71 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+package gov.sandia.geotessbuilder;
+
+/**
+ * A region of the unit sphere within which triangles are to be refined to a
+ * specified tessellation level. Tessellation divides every triangle on a level
+ * less than getTessLevel() that intersects the region.
+ * <p>
+ * Every region also supplies a bounding cap, a circle on the unit sphere that
+ * contains the whole region. Tessellation only calls intersects() for
+ * triangles that overlap the bounding cap, so the tighter the cap, the fewer
+ * the intersection tests. A region that cannot supply a tight cap can return
+ * a radius of PI.
+ */
+public interface RefinementRegion {
+
+	/**
+	 * @return the tessellation level to which triangles that intersect this
+	 *         region are refined.
+	 */
+	int getTessLevel();
+
+	/**
+	 * @return unit vector at the center of a cap that contains this region.
+	 */
+	double[] getBoundingCapCenter();
+
+	/**
+	 * @return angular radius, in radians, of a cap that contains this region.
+	 */
+	double getBoundingCapRadius();
+
+	/**
+	 * @param triangle
+	 * @return true if this region and the triangle overlap.
+	 */
+	boolean intersects(Triangle triangle);
+}
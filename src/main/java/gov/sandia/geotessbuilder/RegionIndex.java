@@ -0,0 +1,237 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+package gov.sandia.geotessbuilder;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Dispatches triangle intersection tests to a collection of refinement
+ * regions, each with a tessellation level and a priority weight. Points are
+ * stored as regions whose bounding cap has zero radius and which intersect a
+ * triangle if the triangle contains the point.
+ * <p>
+ * The regions that are candidates for intersection with each triangle are
+ * remembered on the triangle (Triangle.regionCandidates). A region is a
+ * candidate if the triangle resides on a level less than the level of the
+ * region and the bounding cap of the region overlaps the circle that
+ * circumscribes the triangle. Since descendants reside entirely inside their
+ * ancestors, only the candidates of a triangle's ancestor are considered for
+ * the triangle itself. All the regions must be added before the first
+ * triangle is tested, and the triangles must belong to a single tessellation.
+ * Not thread safe.
+ */
+class RegionIndex {
+
+	private static final int[] NONE = new int[0];
+
+	/**
+	 * Angle, in radians, added to the radius of every triangle's circumscribing
+	 * circle so that rounding never excludes a region that intersects the
+	 * triangle.
+	 */
+	private static final double MARGIN = 1e-9;
+
+	/**
+	 * 6 elements per region: the center of the bounding cap, its radius and the
+	 * cosine and sine of its radius.
+	 */
+	private double[] caps = new double[6 * 16];
+
+	private int[] levels = new int[16];
+
+	private double[] weights = new double[16];
+
+	/**
+	 * The regions, or null for regions that are points.
+	 */
+	private RefinementRegion[] regions = new RefinementRegion[16];
+
+	private int size;
+
+	/**
+	 * @param region
+	 * @param weight priority of triangles that intersect the region.
+	 * @return a reference to this
+	 */
+	RegionIndex add(RefinementRegion region, double weight) {
+		int i = add(region.getBoundingCapCenter(), region.getBoundingCapRadius(), region.getTessLevel(), weight);
+		regions[i] = region;
+		return this;
+	}
+
+	/**
+	 * @param points    unit vectors
+	 * @param tessLevel
+	 * @param weight    priority of triangles that contain any of the points.
+	 * @return a reference to this
+	 */
+	RegionIndex addPoints(Collection<double[]> points, int tessLevel, double weight) {
+		for (double[] u : points)
+			add(u, 0., tessLevel, weight);
+		return this;
+	}
+
+	/**
+	 * @param points    unit vectors
+	 * @param tessLevel
+	 * @param weight    priority of triangles that contain any of the points.
+	 * @return a reference to this
+	 */
+	RegionIndex addPoints(PointBuffer points, int tessLevel, double weight) {
+		double[] u = new double[3];
+		for (int i = 0; i < points.size(); ++i)
+			add(points.get(i, u), 0., tessLevel, weight);
+		return this;
+	}
+
+	/**
+	 * @return the index of the new region.
+	 */
+	private int add(double[] center, double radius, int tessLevel, double weight) {
+		if (size == levels.length) {
+			caps = Arrays.copyOf(caps, 12 * size);
+			levels = Arrays.copyOf(levels, 2 * size);
+			weights = Arrays.copyOf(weights, 2 * size);
+			regions = Arrays.copyOf(regions, 2 * size);
+		}
+		int k = 6 * size;
+		System.arraycopy(center, 0, caps, k, 3);
+		caps[k + 3] = radius;
+		caps[k + 4] = Math.cos(radius);
+		caps[k + 5] = Math.sin(radius);
+		levels[size] = tessLevel;
+		weights[size] = weight;
+		regions[size] = null;
+		return size++;
+	}
+
+	/**
+	 * @return the number of regions, including points.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @param triangle
+	 * @return true if any region associated with a tessellation level greater
+	 *         than the level of triangle intersects it.
+	 */
+	boolean intersects(Triangle triangle) {
+		if (size == 0)
+			return false;
+		double[] u = new double[3];
+		for (int i : getCandidates(triangle))
+			if (intersects(triangle, i, u))
+				return true;
+		return false;
+	}
+
+	/**
+	 * @param triangle
+	 * @return the largest weight of the regions associated with a tessellation
+	 *         level greater than the level of triangle that intersect it, or -1
+	 *         if there are none.
+	 */
+	double getPriority(Triangle triangle) {
+		double priority = -1;
+		if (size == 0)
+			return priority;
+		double[] u = new double[3];
+		for (int i : getCandidates(triangle))
+			if (weights[i] > priority && intersects(triangle, i, u))
+				priority = weights[i];
+		return priority;
+	}
+
+	/**
+	 * @return true if region i intersects triangle. u is work space.
+	 */
+	private boolean intersects(Triangle triangle, int i, double[] u) {
+		if (regions[i] != null)
+			return regions[i].intersects(triangle);
+		System.arraycopy(caps, 6 * i, u, 0, 3);
+		return triangle.contains(u);
+	}
+
+	private int[] getCandidates(Triangle triangle) {
+		int[] c = triangle.regionCandidates;
+		if (c == null) {
+			int[] parent;
+			if (triangle.ancestor == null) {
+				parent = new int[size];
+				for (int i = 0; i < size; ++i)
+					parent[i] = i;
+			} else
+				parent = getCandidates(triangle.ancestor);
+
+			c = parent.length == 0 ? NONE : filter(triangle, parent);
+			triangle.regionCandidates = c;
+		}
+		return c;
+	}
+
+	private int[] filter(Triangle triangle, int[] parent) {
+		// circle that circumscribes the triangle.
+		double[][] v = triangle.getCorners();
+		double x = v[0][0] + v[1][0] + v[2][0];
+		double y = v[0][1] + v[1][1] + v[2][1];
+		double z = v[0][2] + v[1][2] + v[2][2];
+		double length = Math.sqrt(x * x + y * y + z * z);
+		x /= length;
+		y /= length;
+		z /= length;
+		double cos = 1.;
+		for (double[] corner : v)
+			cos = Math.min(cos, x * corner[0] + y * corner[1] + z * corner[2]);
+		double radius = Math.acos(Math.max(-1., cos)) + MARGIN;
+		double cosRadius = Math.cos(radius), sinRadius = Math.sin(radius);
+
+		int[] c = new int[parent.length];
+		int n = 0;
+		for (int i : parent) {
+			if (triangle.getTessLevel() >= levels[i])
+				continue;
+			// the cap and the circle overlap if the distance between their centers
+			// does not exceed the sum of their radii.
+			int k = 6 * i;
+			if (radius + caps[k + 3] >= Math.PI || x * caps[k] + y * caps[k + 1]
+					+ z * caps[k + 2] >= cosRadius * caps[k + 4] - sinRadius * caps[k + 5])
+				c[n++] = i;
+		}
+		return n == 0 ? NONE : n == parent.length ? parent : Arrays.copyOf(c, n);
+	}
+}
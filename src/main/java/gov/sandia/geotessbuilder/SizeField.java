@@ -0,0 +1,116 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+package gov.sandia.geotessbuilder;
+
+/**
+ * A refinement region that covers the whole sphere and specifies the target
+ * edge length of triangles as a function of position. A triangle intersects
+ * the region, and is therefore divided, if the nominal edge length of the
+ * triangles on its tessellation level exceeds the smallest target edge length
+ * anywhere inside the triangle.
+ * <p>
+ * Edge lengths are angles in radians. The nominal edge length of level 0 is
+ * the edge length of the initial solid and each subsequent level halves it.
+ */
+public abstract class SizeField implements RefinementRegion {
+
+	/**
+	 * Triangles are never divided beyond this level, no matter how small the
+	 * target edge length.
+	 */
+	public static final int MAX_TESS_LEVEL = 16;
+
+	/**
+	 * Relative tolerance with which nominal and target edge lengths are compared,
+	 * so that a triangle whose nominal edge length equals the target is not
+	 * divided.
+	 */
+	private static final double TOLERANCE = 1e-6;
+
+	protected final InitialSolid initialSolid;
+
+	protected SizeField(InitialSolid initialSolid) {
+		this.initialSolid = initialSolid;
+	}
+
+	/**
+	 * @param triangle
+	 * @return the smallest target edge length anywhere inside triangle, in
+	 *         radians.
+	 */
+	public abstract double getEdgeLength(Triangle triangle);
+
+	/**
+	 * @return the smallest target edge length anywhere on the sphere, in radians.
+	 */
+	public abstract double getMinEdgeLength();
+
+	/**
+	 * @param tessLevel
+	 * @return the nominal edge length of triangles on the specified tessellation
+	 *         level, in radians.
+	 */
+	public double getNominalEdgeLength(int tessLevel) {
+		return initialSolid.getEdgeLength(tessLevel + 1);
+	}
+
+	/**
+	 * @return the first tessellation level whose nominal edge length does not
+	 *         exceed getMinEdgeLength(), but not more than MAX_TESS_LEVEL.
+	 */
+	@Override
+	public int getTessLevel() {
+		double edgeLength = getMinEdgeLength() * (1. + TOLERANCE);
+		int tessLevel = 0;
+		while (tessLevel < MAX_TESS_LEVEL && getNominalEdgeLength(tessLevel) > edgeLength)
+			++tessLevel;
+		return tessLevel;
+	}
+
+	@Override
+	public double[] getBoundingCapCenter() {
+		return new double[] { 0., 0., 1. };
+	}
+
+	@Override
+	public double getBoundingCapRadius() {
+		return Math.PI;
+	}
+
+	@Override
+	public boolean intersects(Triangle triangle) {
+		return getNominalEdgeLength(triangle.getTessLevel()) > getEdgeLength(triangle) * (1. + TOLERANCE);
+	}
+}
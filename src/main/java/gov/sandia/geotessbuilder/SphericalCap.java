@@ -0,0 +1,161 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+package gov.sandia.geotessbuilder;
+
+/**
+ * A circular region on the surface of the unit sphere, defined by a center and
+ * an angular radius, within which triangles are to be refined to a specified
+ * tessellation level. Containment and triangle intersection are evaluated
+ * analytically by comparing dot products with cos(radius), instead of
+ * approximating the cap with a polygon.
+ */
+public class SphericalCap implements RefinementRegion {
+
+	private final double[] center;
+
+	private final double radius;
+
+	private final double cosRadius;
+
+	private final int tessLevel;
+
+	/**
+	 * @param center    unit vector
+	 * @param radius    angular radius in radians. Must be at least 0 and less
+	 *                  than PI/2.
+	 * @param tessLevel tessellation level to which triangles that intersect the
+	 *                  cap will be refined.
+	 * @throws IllegalArgumentException if radius is out of range.
+	 */
+	public SphericalCap(double[] center, double radius, int tessLevel) {
+		if (!(radius >= 0. && radius < Math.PI / 2))
+			throw new IllegalArgumentException(String.format(
+					"Spherical cap radius %1.4f degrees must be >= 0 and < 90 degrees", Math.toDegrees(radius)));
+		this.center = center.clone();
+		this.radius = radius;
+		this.cosRadius = Math.cos(radius);
+		this.tessLevel = tessLevel;
+	}
+
+	/**
+	 * @return the center of the cap
+	 */
+	public double[] getCenter() {
+		return center;
+	}
+
+	/**
+	 * @return the angular radius of the cap, in radians.
+	 */
+	public double getRadius() {
+		return radius;
+	}
+
+	/**
+	 * A spherical cap is its own bounding cap.
+	 */
+	@Override
+	public double[] getBoundingCapCenter() {
+		return center;
+	}
+
+	@Override
+	public double getBoundingCapRadius() {
+		return radius;
+	}
+
+	/**
+	 * Retrieve the tessellation level with which this cap is associated.
+	 * 
+	 * @return
+	 */
+	@Override
+	public int getTessLevel() {
+		return tessLevel;
+	}
+
+	/**
+	 * @param u unit vector
+	 * @return true if u resides inside or on the boundary of the cap.
+	 */
+	public boolean contains(double[] u) {
+		return center[0] * u[0] + center[1] * u[1] + center[2] * u[2] >= cosRadius;
+	}
+
+	/**
+	 * @param triangle
+	 * @return true if the cap and the triangle overlap.
+	 */
+	@Override
+	public boolean intersects(Triangle triangle) {
+		double[][] v = triangle.getCorners();
+		if (contains(v[0]) || contains(v[1]) || contains(v[2]) || triangle.contains(center))
+			return true;
+
+		// the cap overlaps the triangle if the point on any edge that is closest to
+		// the center is inside the cap.
+		for (int i = 0; i < 3; ++i)
+			if (intersectsEdge(v[i], v[(i + 1) % 3]))
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return true if the interior of the great circle arc from a to b passes
+	 *         through the cap.
+	 */
+	private boolean intersectsEdge(double[] a, double[] b) {
+		double nx = a[1] * b[2] - a[2] * b[1];
+		double ny = a[2] * b[0] - a[0] * b[2];
+		double nz = a[0] * b[1] - a[1] * b[0];
+		double n2 = nx * nx + ny * ny + nz * nz;
+		if (n2 < 1e-30)
+			return false;
+
+		// projection of the center onto the plane of the great circle.
+		double d = (center[0] * nx + center[1] * ny + center[2] * nz) / n2;
+		double px = center[0] - d * nx, py = center[1] - d * ny, pz = center[2] - d * nz;
+
+		// the projection must fall between a and b.
+		if ((a[1] * pz - a[2] * py) * nx + (a[2] * px - a[0] * pz) * ny + (a[0] * py - a[1] * px) * nz < 0.)
+			return false;
+		if ((py * b[2] - pz * b[1]) * nx + (pz * b[0] - px * b[2]) * ny + (px * b[1] - py * b[0]) * nz < 0.)
+			return false;
+
+		// the length of the projection is the cosine of the distance from the
+		// center to the closest point on the great circle.
+		return px * px + py * py + pz * pz >= cosRadius * cosRadius;
+	}
+}
@@ -40,9 +40,11 @@ import gov.sandia.geotess.GeoTessGrid;
 import gov.sandia.gmp.util.numerical.polygon.Polygon;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 
 /**
  * Tessellation manages a single instance of multi-level tessellation of a unit
@@ -70,6 +72,12 @@ public class Tessellation extends ArrayList<ArrayList<Triangle>> {
 
 	protected ArrayList<PolygonGB> polygons;
 
+	/**
+	 * Spherical caps whose containment and triangle intersection are evaluated
+	 * analytically.
+	 */
+	protected ArrayList<SphericalCap> caps;
+
 	protected InitialSolid initialSolid;
 
 	/**
@@ -77,8 +85,56 @@ public class Tessellation extends ArrayList<ArrayList<Triangle>> {
 	 */
 	private HashMap<Integer, ArrayList<double[]>> points;
 
+	/**
+	 * Map from tessellation level to the points that define paths.
+	 */
+	private HashMap<Integer, PointBuffer> paths;
+
+	/**
+	 * Map from tessellation level to paths that are evaluated as great circle
+	 * arcs rather than as points.
+	 */
+	private HashMap<Integer, PathArcs> arcs;
+
+	/**
+	 * Refinement regions supplied by the application.
+	 */
+	private ArrayList<RefinementRegion> regions;
+
+	/**
+	 * Dispatches triangle intersection tests to the polygon boundaries, caps,
+	 * points, paths and regions. Only exists while the tessellation is being
+	 * built.
+	 */
+	private RegionIndex index;
+
 	private int maxProcessors = Runtime.getRuntime().availableProcessors();
 
+	/**
+	 * Maximum number of vertices in this tessellation. When set, triangles beyond
+	 * baseTessLevel are divided in order of priority (see setWeights()) until the
+	 * budget is exhausted.
+	 */
+	private int maxVertices = Integer.MAX_VALUE;
+
+	/**
+	 * Priority weights of triangles that need to be divided because of polygons,
+	 * points and paths respectively. Only used when maxVertices is set.
+	 */
+	private double polygonWeight = 1., pointWeight = 1., pathWeight = 1.;
+
+	/**
+	 * Number of triangles beyond baseTessLevel that were divided in the most
+	 * recent call to build(budget).
+	 */
+	private int nDiscretionary;
+
+	/**
+	 * Number of vertices on levels 0 through baseTessLevel, counted by the most
+	 * recent call to build(budget).
+	 */
+	private int nBaseVertices;
+
 	public Tessellation(InitialSolid initialSolid, int baseTessLevel) {
 		this(initialSolid, baseTessLevel, 1);
 	}
@@ -90,7 +146,11 @@ public class Tessellation extends ArrayList<ArrayList<Triangle>> {
 
 		// polygons = new HashMap<Integer, ArrayList<PolygonGB>>();
 		polygons = new ArrayList<PolygonGB>();
+		caps = new ArrayList<SphericalCap>();
 		points = new HashMap<Integer, ArrayList<double[]>>();
+		paths = new HashMap<Integer, PointBuffer>();
+		arcs = new HashMap<Integer, PathArcs>();
+		regions = new ArrayList<RefinementRegion>();
 	}
 
 	/**
@@ -112,26 +172,181 @@ public class Tessellation extends ArrayList<ArrayList<Triangle>> {
 		if (triangle.get(0).isMarked() || triangle.get(1).isMarked() || triangle.get(2).isMarked())
 			return true;
 
-		// if triangle contains any points that define any of the polygons
-		// then subdivide this triangle
-		for (PolygonGB polygon : polygons)
-			if (triangle.getTessLevel() < polygon.getTessLevel())
-				for (double[] point : polygon.getPoints(false))
-					if (triangle.contains(point))
-						return true;
+		// if triangle contains any points that define any of the polygons, or
+		// intersects any cap, point, path or region associated with a higher
+		// tessellation level, then subdivide this triangle
+		return getIndex().intersects(triangle);
+	}
+
+	/**
+	 * Return the priority with which the specified triangle should be subdivided
+	 * when building within a vertex budget, or -1 if it should not be divided at
+	 * all. Triangles below baseTessLevel have infinite priority. Otherwise the
+	 * priority is the largest weight of the polygons, points and paths that
+	 * require the triangle to be divided. While building within a budget, the
+	 * mark of each vertex is the highest tessellation level of the polygons that
+	 * contain it, so a polygon requires the triangle to be divided if any corner
+	 * has a mark greater than the level of the triangle.
+	 * 
+	 * @param triangle
+	 * @return the priority or -1.
+	 */
+	protected double getPriority(Triangle triangle) {
+		if (triangle.getTessLevel() < baseTessLevel)
+			return Double.POSITIVE_INFINITY;
+
+		double priority = getIndex().getPriority(triangle);
+
+		int level = triangle.getTessLevel();
+		if (polygonWeight > priority && (triangle.get(0).getMark() > level || triangle.get(1).getMark() > level
+				|| triangle.get(2).getMark() > level))
+			priority = polygonWeight;
+
+		return priority;
+	}
+
+	/**
+	 * @return the index of polygon boundaries, caps, points, paths and regions,
+	 *         assembling it if it does not exist yet.
+	 */
+	private RegionIndex getIndex() {
+		if (index == null) {
+			index = new RegionIndex();
+			for (PolygonGB polygon : polygons)
+				index.addPoints(Arrays.asList(polygon.getPoints(false)), polygon.getTessLevel(), polygonWeight);
+			for (SphericalCap cap : caps)
+				index.add(cap, polygonWeight);
+			for (RefinementRegion region : regions)
+				index.add(region, polygonWeight);
+			for (Integer tessLevelPoints : points.keySet())
+				index.addPoints(points.get(tessLevelPoints), tessLevelPoints, pointWeight);
+			for (Integer tessLevelPoints : paths.keySet())
+				index.addPoints(paths.get(tessLevelPoints), tessLevelPoints, pathWeight);
+			for (Integer tessLevelArcs : arcs.keySet())
+				index.add(getRegion(arcs.get(tessLevelArcs), tessLevelArcs), pathWeight);
+		}
+		return index;
+	}
+
+	/**
+	 * @return a region that intersects the triangles that any of the arcs
+	 *         intersect. The arcs maintain their own index so the bounding cap is
+	 *         the whole sphere.
+	 */
+	private static RefinementRegion getRegion(final PathArcs pathArcs, final int tessLevel) {
+		return new RefinementRegion() {
+			@Override
+			public int getTessLevel() {
+				return tessLevel;
+			}
+
+			@Override
+			public double[] getBoundingCapCenter() {
+				return new double[] { 0., 0., 1. };
+			}
+
+			@Override
+			public double getBoundingCapRadius() {
+				return Math.PI;
+			}
+
+			@Override
+			public boolean intersects(Triangle triangle) {
+				return pathArcs.intersects(triangle);
+			}
+		};
+	}
+
+	/**
+	 * @return the index of the last uniform tessellation level.
+	 */
+	int getBaseTessLevel() {
+		return baseTessLevel;
+	}
+
+	/**
+	 * @return map from tessellation level to the points that must be resolved at
+	 *         that level. Paths are not included.
+	 */
+	HashMap<Integer, ArrayList<double[]>> getPoints() {
+		return points;
+	}
+
+	/**
+	 * @return map from tessellation level to the path points that must be resolved
+	 *         at that level.
+	 */
+	HashMap<Integer, PointBuffer> getPaths() {
+		return paths;
+	}
 
-		// tessLevelPoints is a map from tessLevel to collection of double[].
-		// - visit every represented tessLevel.
-		// - if triangle.tessLevel is less than the current tessLevel:
-		// - check every point associated with the current tessLevel
-		// and return true if triangle.contains(point).
-		for (Integer tessLevelPoints : points.keySet())
-			if (triangle.getTessLevel() < tessLevelPoints)
-				for (double[] point : points.get(tessLevelPoints))
-					if (triangle.contains(point))
-						return true;
+	/**
+	 * @return map from tessellation level to the paths that are evaluated as
+	 *         great circle arcs.
+	 */
+	HashMap<Integer, PathArcs> getPathArcs() {
+		return arcs;
+	}
+
+	/**
+	 * @return the refinement regions supplied by the application.
+	 */
+	ArrayList<RefinementRegion> getRegions() {
+		return regions;
+	}
+
+	/**
+	 * Limit the number of vertices in this tessellation. Triangles on levels below
+	 * baseTessLevel are always divided. Beyond that, triangles on all levels are
+	 * divided in order of decreasing priority (see setWeights()), until dividing
+	 * the next triangle would exceed the budget.
+	 * Vertices added by the conformity pass that follows are accounted for by
+	 * rebuilding with a smaller budget if necessary.
+	 * 
+	 * @param maxVertices the maximum number of vertices.
+	 * @return a reference to this
+	 */
+	public Tessellation setMaxVertices(int maxVertices) {
+		this.maxVertices = maxVertices;
+		return this;
+	}
+
+	/**
+	 * @return the number of vertices on levels 0 through baseTessLevel. Only
+	 *         valid after build() with a vertex budget.
+	 */
+	int getNBaseVertices() {
+		return nBaseVertices;
+	}
+
+	/**
+	 * Set the priorities with which triangles that need to be divided because of
+	 * polygons, points and paths are divided when a vertex budget is specified.
+	 * 
+	 * @param polygonWeight
+	 * @param pointWeight
+	 * @param pathWeight
+	 * @return a reference to this
+	 */
+	public Tessellation setWeights(double polygonWeight, double pointWeight, double pathWeight) {
+		this.polygonWeight = polygonWeight;
+		this.pointWeight = pointWeight;
+		this.pathWeight = pathWeight;
+		return this;
+	}
 
-		return false;
+	/**
+	 * Retrieve the number of vertices in this tessellation. Only valid after
+	 * build().
+	 * 
+	 * @return the number of vertices in this tessellation.
+	 */
+	public int getNVertices() {
+		int n = 0;
+		for (Triangle t : get(size() - 1))
+			for (Vertex v : t)
+				n = Math.max(n, v.getIndex() + 1);
+		return n;
 	}
 
 	/**
@@ -180,11 +395,89 @@ public class Tessellation extends ArrayList<ArrayList<Triangle>> {
 		return this;
 	}
 
+	/**
+	 * Add points that define a path. Paths are treated exactly like points
+	 * except that they have their own priority weight when building within a
+	 * vertex budget.
+	 * 
+	 * @param points
+	 * @param tessLevelPoints
+	 * @return a reference to this
+	 */
+	public Tessellation addPath(Collection<double[]> points, int tessLevelPoints) {
+		return addPath(new PointBuffer(points), tessLevelPoints);
+	}
+
+	/**
+	 * Add points that define a path, stored in a PointBuffer, such as the points
+	 * produced by PathDensifier. The buffer is not copied and may be appended to
+	 * by subsequent calls.
+	 * 
+	 * @param points
+	 * @param tessLevelPoints
+	 * @return a reference to this
+	 */
+	Tessellation addPath(PointBuffer points, int tessLevelPoints) {
+		PointBuffer buffer = this.paths.get(tessLevelPoints);
+		if (buffer == null)
+			this.paths.put(tessLevelPoints, points);
+		else
+			buffer.addAll(points);
+		return this;
+	}
+
+	/**
+	 * Add paths that are evaluated as great circle arcs. A triangle on a level
+	 * less than tessLevel is divided if any arc between consecutive points of any
+	 * of the paths intersects it, no matter how small the triangle is relative to
+	 * the spacing of the points.
+	 * 
+	 * @param paths     each path is a list of unit vectors.
+	 * @param tessLevel
+	 * @return a reference to this
+	 */
+	public Tessellation addPathArcs(List<? extends List<double[]>> paths, int tessLevel) {
+		PathArcs pathArcs = arcs.get(tessLevel);
+		if (pathArcs == null) {
+			pathArcs = new PathArcs(arcs.size());
+			arcs.put(tessLevel, pathArcs);
+		}
+		for (List<double[]> path : paths)
+			pathArcs.addPath(path);
+		return this;
+	}
+
+	/**
+	 * Add a refinement region. Triangles on levels less than
+	 * region.getTessLevel() that intersect the region are divided. Regions have
+	 * the same priority as polygons when building within a vertex budget.
+	 * 
+	 * @param region
+	 * @return a reference to this
+	 */
+	public Tessellation addRegion(RefinementRegion region) {
+		regions.add(region);
+		return this;
+	}
+
 	public Tessellation addPolygon(Polygon polygon) {
 		polygons.add(new PolygonGB(polygon));
 		return this;
 	}
 
+	/**
+	 * Add a spherical cap. Triangles on levels less than cap.getTessLevel() that
+	 * overlap the cap are divided. Caps have the same priority as polygons when
+	 * building within a vertex budget.
+	 * 
+	 * @param cap
+	 * @return a reference to this
+	 */
+	public Tessellation addSphericalCap(SphericalCap cap) {
+		caps.add(cap);
+		return this;
+	}
+
 	public Tessellation addPolygons(Collection<Polygon> polygons) {
 		for (Polygon p : polygons)
 			addPolygon(p);
@@ -234,6 +527,43 @@ public class Tessellation extends ArrayList<ArrayList<Triangle>> {
 	 * @throws GeoTessException
 	 */
 	public Tessellation build() throws GeoTessException {
+		if (maxVertices == Integer.MAX_VALUE)
+			return build(Integer.MAX_VALUE);
+
+		// the conformity pass can add vertices beyond those counted while dividing
+		// triangles in priority order. If that happens, reduce the budget by the
+		// excess and try again.
+		int budget = maxVertices;
+		for (int attempt = 0; attempt < 10; ++attempt) {
+			build(budget);
+			int n = getNVertices();
+			if (n <= maxVertices)
+				return this;
+			if (nDiscretionary == 0)
+				throw new GeoTessException(String.format(
+						"%nThe base tessellation level %d alone produces %d vertices which exceeds maxVertices = %d%n",
+						baseTessLevel, n, maxVertices));
+			budget -= n - maxVertices;
+			clear();
+		}
+		throw new GeoTessException(
+				String.format("%nUnable to build a tessellation with fewer than maxVertices = %d vertices%n", maxVertices));
+	}
+
+	/**
+	 * Builds the tessellation, dividing triangles beyond baseTessLevel in order of
+	 * priority until the number of vertices reaches budget. If budget is
+	 * Integer.MAX_VALUE, every triangle for which isDivisible() returns true is
+	 * divided.
+	 * 
+	 * @param budget maximum number of vertices created while dividing triangles.
+	 * @throws GeoTessException
+	 */
+	private Tessellation build(int budget) throws GeoTessException {
+		nDiscretionary = 0;
+
+		index = null;
+
 		ArrayList<Vertex> tnodes = new ArrayList<Vertex>();
 
 		// get Nodes at the vertices of the initialSolid
@@ -254,46 +584,52 @@ public class Tessellation extends ArrayList<ArrayList<Triangle>> {
 		// tessellation level 0.
 		establishNeighbors(0);
 
+		// number of vertices created so far. Only used with a budget.
+		int nVertices = tnodes.size();
+
 		ArrayList<Triangle> trianglesNextLevel;
 
 		boolean more;
 		int currentLevel = 0;
 
 		try {
-			do {
-				// populate nodes on the top level added so far.
-				populateNodes(currentLevel);
+			if (budget == Integer.MAX_VALUE)
+				do {
+					// populate nodes on the top level added so far.
+					populateNodes(currentLevel);
 
-				trianglesNextLevel = new ArrayList<Triangle>(get(currentLevel).size() * 4);
+					trianglesNextLevel = new ArrayList<Triangle>(get(currentLevel).size() * 4);
 
-				// visit every triangle and divide it if required.
-				for (Triangle triangle : get(currentLevel))
-					if (isDivisible(triangle))
-						triangle.divide(trianglesNextLevel);
+					// visit every triangle and divide it if required.
+					for (Triangle triangle : get(currentLevel))
+						if (isDivisible(triangle))
+							triangle.divide(trianglesNextLevel);
 
-				if (trianglesNextLevel.size() > 0) {
-					add(trianglesNextLevel);
+					if (trianglesNextLevel.size() > 0) {
+						add(trianglesNextLevel);
 
-					establishNeighbors(currentLevel + 1);
+						establishNeighbors(currentLevel + 1);
 
-					++currentLevel;
+						++currentLevel;
 
-					more = true;
-				} else
-					more = false;
+						more = true;
+					} else
+						more = false;
 
-				if (polygons.size() > 0)
-					for (Triangle t : get(currentLevel))
-						for (Vertex v : t)
-							v.unmark();
+					if (polygons.size() > 0)
+						for (Triangle t : get(currentLevel))
+							for (Vertex v : t)
+								v.unmark();
 
-			} while (more);
+				} while (more);
+			else
+				divideByPriority(nVertices, budget);
 
 		} catch (Exception e) {
 			throw new GeoTessException(e);
 		}
 
-		trianglesNextLevel = new ArrayList<Triangle>(get(currentLevel).size());
+		trianglesNextLevel = new ArrayList<Triangle>(get(size() - 1).size());
 		do {
 			more = false;
 			for (int tessLevel = 0; tessLevel < size() - 1; ++tessLevel) {
@@ -334,11 +670,166 @@ public class Tessellation extends ArrayList<ArrayList<Triangle>> {
 
 		setConnectivity();
 
+		index = null;
+
 		// delaunay(false);
 
 		return this;
 	}
 
+	/**
+	 * Divide triangles in order of decreasing priority, on whatever level they
+	 * reside, as long as the number of vertices does not exceed budget.
+	 * <p>
+	 * The levels below baseTessLevel are divided completely, one level at a
+	 * time. After that a single max-heap holds every leaf triangle, on any level,
+	 * that has a non-negative priority. The triangle on top of the heap is divided
+	 * and replaced by those of its 4 children that need to be divided, until
+	 * dividing the triangle on top of the heap would exceed the budget. Triangles
+	 * with equal priority are divided in the order in which they were created.
+	 * <p>
+	 * Since levels are no longer completed one at a time, the children of each
+	 * divided triangle are connected to the children of its divided neighbors
+	 * right away so that the vertices at the midpoints of their shared edges are
+	 * shared, and each new vertex is marked with the highest tessellation level
+	 * of the polygons that contain it (see getPriority()).
+	 * 
+	 * @param nVertices the number of vertices created so far.
+	 * @param budget    maximum number of vertices.
+	 * @throws GeoTessException
+	 */
+	private void divideByPriority(int nVertices, int budget) throws GeoTessException {
+		int level = 0;
+		while (level < baseTessLevel) {
+			ArrayList<Triangle> trianglesNextLevel = new ArrayList<Triangle>(get(level).size() * 4);
+			for (Triangle triangle : get(level)) {
+				nVertices += getNNewVertices(triangle);
+				triangle.divide(trianglesNextLevel);
+			}
+			add(trianglesNextLevel);
+			establishNeighbors(++level);
+		}
+		nBaseVertices = nVertices;
+
+		for (Triangle triangle : get(level))
+			for (Vertex vertex : triangle)
+				markPolygonLevel(vertex);
+
+		// every triangle that has been on the heap, in the order in which it was
+		// created. The heap holds indices into this list.
+		ArrayList<Triangle> triangles = new ArrayList<Triangle>(get(level));
+		IndexHeap heap = new IndexHeap(triangles.size());
+		for (int i = 0; i < triangles.size(); ++i) {
+			double priority = getPriority(triangles.get(i));
+			if (priority >= 0)
+				heap.push(i, priority);
+		}
+
+		ArrayList<Triangle> children = new ArrayList<Triangle>(4);
+		while (!heap.isEmpty()) {
+			Triangle triangle = triangles.get(heap.peek());
+			int n = getNNewVertices(triangle);
+			if (nVertices + n > budget)
+				break;
+			heap.pop();
+
+			children.clear();
+			triangle.divide(children);
+			nVertices += n;
+			++nDiscretionary;
+
+			if (triangle.getTessLevel() == size() - 1)
+				add(new ArrayList<Triangle>());
+			get(triangle.getTessLevel() + 1).addAll(children);
+
+			connectChildren(triangle, children);
+
+			for (Edge edge : triangle.getEdges())
+				if (edge.getVertex().getMark() == 0)
+					markPolygonLevel(edge.getVertex());
+
+			for (Triangle child : children) {
+				double priority = getPriority(child);
+				if (priority >= 0) {
+					heap.push(triangles.size(), priority);
+					triangles.add(child);
+				}
+			}
+		}
+
+		for (level = baseTessLevel; level < size(); ++level) {
+			for (Triangle triangle : get(level))
+				for (Vertex vertex : triangle)
+					vertex.unmark();
+			if (level > baseTessLevel)
+				establishNeighbors(level);
+		}
+	}
+
+	/**
+	 * @return the number of edges of triangle that do not yet have a vertex at
+	 *         their center, which is the number of vertices that dividing it
+	 *         would create.
+	 */
+	private static int getNNewVertices(Triangle triangle) {
+		int n = 0;
+		for (Edge edge : triangle.getEdges())
+			if (edge.getVertex() == null)
+				++n;
+		return n;
+	}
+
+	/**
+	 * Mark vertex with the highest tessellation level of the polygons that
+	 * contain it, leaving it unmarked if no polygon contains it. Polygons on
+	 * level 0 never require a triangle to be divided and are ignored.
+	 */
+	private void markPolygonLevel(Vertex vertex) {
+		for (PolygonGB polygon : polygons)
+			if (polygon.getTessLevel() > vertex.getMark() && polygon.contains(vertex.getArray()))
+				vertex.mark(polygon.getTessLevel());
+	}
+
+	/**
+	 * Establish the neighbor relations of the 4 triangles that were just created
+	 * by dividing triangle: with each other, and with the children of the
+	 * neighbors of triangle that have already been divided.
+	 * 
+	 * @param triangle a triangle that was just divided.
+	 * @param children the central child followed by the children at corners 0, 1
+	 *                 and 2 of triangle, as added by Triangle.divide().
+	 */
+	private static void connectChildren(Triangle triangle, ArrayList<Triangle> children) {
+		Triangle center = children.get(0);
+		for (int i = 0; i < 3; ++i)
+			center.setNeighbor(i, children.get(i + 1), 0);
+
+		for (int i = 0; i < 3; ++i) {
+			Triangle child = children.get(i + 1);
+			// sides 1 and 2 of the child at corner i lie on edges (i+1)%3 and
+			// (i+2)%3 of triangle.
+			for (int side = 1; side < 3; ++side) {
+				int edge = (i + side) % 3;
+				Triangle neighbor = triangle.getNeighbors()[edge];
+				if (neighbor == null || neighbor.getDescendant() == null || neighbor.nDescendants != 4)
+					continue;
+
+				int neighborEdge = neighbor.getNeighborIndex(triangle);
+
+				// the child of neighbor that shares corner i of triangle.
+				Triangle neighborCenter = neighbor.getDescendant();
+				for (int k = 0; k < 3; ++k) {
+					Triangle other = neighborCenter.getNeighbors()[k];
+					if (other.get(0) == triangle.get(i)) {
+						// other may already have been divided, so it keeps its edge.
+						other.setNeighbor((neighborEdge - k + 3) % 3, child, side);
+						break;
+					}
+				}
+			}
+		}
+	}
+
 	/**
 	 * Perform the following operations:
 	 * <ul>
@@ -0,0 +1,155 @@
+//- ****************************************************************************
+//- 
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//- 
+//- BSD Open Source License.
+//- All rights reserved.
+//- 
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//- 
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//- 
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+
+package gov.sandia.geotessbuilder;
+
+import gov.sandia.geotess.GeoTessException;
+import gov.sandia.geotess.GeoTessGrid;
+
+import java.util.BitSet;
+
+/**
+ * A Tessellation that reproduces one of the multi-level tessellations of an
+ * existing GeoTessGrid except that sets of 4 sibling triangles are merged back
+ * into their ancestor where the vertices that would be removed by the merge are
+ * all members of a specified set of vertices to coarsen.
+ * <p>
+ * An ancestor triangle is merged only if it was divided into 4 triangles, none
+ * of its 4 children was itself divided into 4 triangles, and all 3 of the
+ * vertices at the midpoints of its edges are in the set of vertices to coarsen.
+ * Each instance removes at most one level of refinement. If a neighboring
+ * triangle remains subdivided and still uses one of the midpoints, the normal
+ * conformity pass of Tessellation.build() divides the ancestor again.
+ * <p>
+ * Every vertex of the coarsened tessellation is colocated with a vertex of the
+ * original tessellation and its source index is set accordingly.
+ */
+public class TessellationCoarsened extends Tessellation {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 2804313950361286418L;
+
+	private GridTessellation originalTessellation;
+
+	/**
+	 * The set of vertices, indexed by vertex index in grid, that may be removed.
+	 */
+	private BitSet verticesToCoarsen;
+
+	private long timer;
+
+	/**
+	 * 
+	 * @param grid              existing grid that is to be coarsened.
+	 * @param initialSolid      the initial solid of grid.
+	 * @param tessellationIndex index of the tessellation in grid that is to be
+	 *                          coarsened.
+	 * @param verticesToCoarsen the set of vertices that may be removed, indexed by
+	 *                          vertex index in grid.
+	 * @throws GeoTessException
+	 */
+	public TessellationCoarsened(GeoTessGrid grid, InitialSolid initialSolid, int tessellationIndex,
+			BitSet verticesToCoarsen) throws GeoTessException {
+		super(initialSolid, -1);
+		timer = System.currentTimeMillis();
+
+		originalTessellation = new GridTessellation(grid, tessellationIndex);
+		this.verticesToCoarsen = verticesToCoarsen;
+
+		build();
+
+		originalTessellation.setSourceIndexes(this);
+
+		// release references to the original tessellation
+		this.verticesToCoarsen = null;
+		originalTessellation = null;
+
+		timer = System.currentTimeMillis() - timer;
+	}
+
+	/**
+	 * Return true if the specified triangle should be subdivided into smaller
+	 * elements. Triangles are subdivided if the corresponding triangle in the
+	 * original tessellation was subdivided into 4 triangles and cannot be
+	 * coarsened.
+	 * 
+	 * @param triangle Triangle
+	 * @return boolean
+	 */
+	public boolean isDivisible(Triangle triangle) {
+		int level = triangle.getTessLevel();
+		if (level >= originalTessellation.nLevels - 1)
+			return false;
+
+		// find the triangle in the original tessellation that resides on
+		// same tessellation level as t, and contains the center of t.
+		int t0 = originalTessellation.findTriangle(level, triangle.getCenter());
+
+		return originalTessellation.getNDescendants(t0, level) == 4 && !isCoarsenable(t0, level);
+	}
+
+	/**
+	 * @param t0    a triangle in the original tessellation that was divided into 4
+	 *              triangles.
+	 * @param level the level on which t0 resides.
+	 * @return true if the children of t0 can be merged back into t0.
+	 */
+	private boolean isCoarsenable(int t0, int level) {
+		GeoTessGrid grid = originalTessellation.grid;
+
+		// when a triangle is divided into 4, its descendant is the central child
+		// whose corners are the midpoints of the edges of t0 and whose neighbors
+		// are the other 3 children.
+		int center = grid.getDescendant(t0);
+
+		if (originalTessellation.countCorners(center, verticesToCoarsen) < 3)
+			return false;
+
+		if (originalTessellation.getNDescendants(center, level + 1) == 4)
+			return false;
+
+		for (int side = 0; side < 3; ++side)
+			if (originalTessellation.getNDescendants(grid.getNeighbor(center, side), level + 1) == 4)
+				return false;
+
+		return true;
+	}
+
+	public long getTimer() {
+		return timer;
+	}
+
+}
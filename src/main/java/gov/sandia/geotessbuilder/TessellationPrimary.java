@@ -124,6 +124,10 @@ public class TessellationPrimary extends Tessellation {
 						// throw error.
 						if (v == null)
 							throw new GeoTessException("Vertex not found.");
+						// carry the correspondence with the source grid, if any,
+						// over to the vertex in this primary tessellation.
+						if (v.getSourceIndex() < 0)
+							v.setSourceIndex(triangle.get(i).getSourceIndex());
 						// replace vertex reference in the supplied tessellation
 						// with reference to vertex in this primary tessellation.
 						triangle.set(i, v);
@@ -40,15 +40,37 @@ import gov.sandia.geotess.GeoTessGrid;
 import gov.sandia.gmp.util.numerical.vector.VectorGeo;
 
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 
+/**
+ * A Tessellation that reproduces one of the multi-level tessellations of an
+ * existing GeoTessGrid and subdivides, one additional time, all the triangles
+ * that touch a specified set of vertices.
+ * <p>
+ * The original tessellation is queried directly through the triangle, neighbor
+ * and descendant arrays of the GeoTessGrid (see GridTessellation). No Vertex or
+ * Triangle objects are constructed for the original tessellation.
+ * <p>
+ * Each triangle is matched with the triangle of the original tessellation that
+ * has the same corners while the tessellation is being built, and every vertex
+ * that is also a vertex of the original tessellation receives the index of that
+ * vertex in grid as its source index. Vertices created by the additional
+ * subdivision retain source index -1.
+ */
 public class TessellationRefined extends Tessellation {
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = -1676691836667629116L;
 
-	private Tessellation originalTessellation;
+	private GridTessellation originalTessellation;
+
+	/**
+	 * The set of vertices, indexed by vertex index in grid, whose triangles are
+	 * to be refined.
+	 */
+	private BitSet verticesToRefine;
 
 	private int maxEdgeLevel;
 
@@ -72,35 +94,62 @@ public class TessellationRefined extends Tessellation {
 	public TessellationRefined(GeoTessGrid grid, InitialSolid initialSolid, int tessellationIndex,
 			Collection<double[]> verticesToRefine, int maxEdgeLevel, int markThreshold) throws GeoTessException {
 		super(initialSolid, -1);
-		this.maxEdgeLevel = maxEdgeLevel;
-
-		this.markThreshold = markThreshold;
-
 		timer = System.currentTimeMillis();
 
-		originalTessellation = new Tessellation(grid, tessellationIndex);
+		originalTessellation = new GridTessellation(grid, tessellationIndex);
 
 		// temporary array to store interpolation coefficients that are never used.
 		double[] c = new double[3];
 
-		// mark every triangle in the originalTessellation that touches a
-		// vertex set for refinement.
+		BitSet vertices = new BitSet(grid.getNVertices());
+		int hint = -1;
 		for (double[] v : verticesToRefine) {
-			Vertex vtx = originalTessellation.findVertex(v, c);
-			if (vtx == null)
+			hint = originalTessellation.findTopLevelTriangle(hint, v, c);
+			int vtx = originalTessellation.findCorner(hint, c);
+			if (vtx < 0)
 				throw new GeoTessException(
 						String.format("%nvertex not found in original tessellation%n%s%nlat,lon=%s%n",
 								Arrays.toString(v), VectorGeo.getLatLonString(v)));
-
-			for (int level = 0; level < originalTessellation.size(); ++level)
-				for (Triangle t : vtx.getTriangles(level))
-					t.mark();
+			vertices.set(vtx);
 		}
 
+		refine(vertices, maxEdgeLevel, markThreshold);
+	}
+
+	/**
+	 * Given an exiting tessellation and a set of vertex indices this constructor
+	 * will build a new tessellation where all the triangles that touch any of the
+	 * verticesToRefine will be subdivided an additional time.
+	 * 
+	 * @param grid              existing grid that is to be refined.
+	 * @param tessellationIndex index of the tessellation in grid that is to be
+	 *                          refined.
+	 * @param verticesToRefine  the set of vertices that are to be refined, indexed
+	 *                          by vertex index in grid. Vertices that are not
+	 *                          connected in the specified tessellation are
+	 *                          ignored.
+	 * @throws GeoTessException
+	 */
+	public TessellationRefined(GeoTessGrid grid, InitialSolid initialSolid, int tessellationIndex,
+			BitSet verticesToRefine, int maxEdgeLevel, int markThreshold) throws GeoTessException {
+		super(initialSolid, -1);
+		timer = System.currentTimeMillis();
+
+		originalTessellation = new GridTessellation(grid, tessellationIndex);
+
+		refine(verticesToRefine, maxEdgeLevel, markThreshold);
+	}
+
+	private void refine(BitSet verticesToRefine, int maxEdgeLevel, int markThreshold) throws GeoTessException {
+		this.verticesToRefine = verticesToRefine;
+		this.maxEdgeLevel = maxEdgeLevel;
+		this.markThreshold = markThreshold;
+
 		build();
 
-		// unmark all the triangles (and vertices) in the original tessellation
-		originalTessellation.unMark();
+		// release references to the original tessellation
+		this.verticesToRefine = null;
+		originalTessellation = null;
 
 		timer = System.currentTimeMillis() - timer;
 	}
@@ -113,21 +162,23 @@ public class TessellationRefined extends Tessellation {
 	 * @return boolean
 	 */
 	public boolean isDivisible(Triangle triangle) {
+		// find the triangle in the original tessellation that has the same
+		// corners as triangle. This has to be done for every triangle, before
+		// anything else, since it also sets the source indexes of the vertices.
+		int t0 = originalTessellation.match(triangle);
+
 		if (triangle.getEdgeLevel() >= maxEdgeLevel)
 			return false;
 
-		if (triangle.getTessLevel() == originalTessellation.size())
+		// triangles that are not in the original tessellation, including those
+		// above its top level, were created by the additional subdivision.
+		if (t0 < 0)
 			return false;
 
-		Triangle t0 = originalTessellation.get(0).get(0);
-
-		// find the triangle in the original tessellation that resides on
-		// same tessellation level as t, and contains the center of t.
-		t0 = originalTessellation.findTriangle(t0, triangle.getTessLevel(), triangle.getCenter());
-
 		// if original triangle was divided into 4 subtriangles on next level,
 		// return true
-		if (t0.getNDescendants() == 4 || (t0.getMarked() >= markThreshold && triangle.equals(t0)))
+		if (originalTessellation.getNDescendants(t0, triangle.getTessLevel()) == 4
+				|| originalTessellation.countCorners(t0, verticesToRefine) >= markThreshold)
 			return true;
 
 		return false;
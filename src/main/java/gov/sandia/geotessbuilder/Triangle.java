@@ -116,6 +116,28 @@ public class Triangle extends ArrayList<Vertex> {
 	 */
 	Triangle ancestor;
 
+	/**
+	 * When this Triangle is rebuilt from an existing GeoTessGrid, the index of
+	 * the grid triangle that has the same corners, as found by
+	 * GridTessellation.match(). -1 if match() has not visited this Triangle yet
+	 * and -2 if there is no such grid triangle.
+	 */
+	int gridTriangle = -1;
+
+	/**
+	 * The indices of the regions of the RegionIndex of the tessellation that are
+	 * candidates for intersection with this Triangle, or null if they have not
+	 * been computed yet. See RegionIndex.
+	 */
+	int[] regionCandidates;
+
+	/**
+	 * For each PathArcs of the tessellation, indexed by PathArcs.id, the indices of
+	 * the arcs that intersect this Triangle, or null if they have not been
+	 * computed yet. See PathArcs.
+	 */
+	int[][] arcCandidates;
+
 	private double[] circumCenter;
 
 	/**
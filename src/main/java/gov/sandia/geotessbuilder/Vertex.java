@@ -64,6 +64,13 @@ public class Vertex extends ArrayListDouble {
 
 	private int marked;
 
+	/**
+	 * Index of the colocated vertex in the GeoTessGrid from which this Vertex was
+	 * derived, or -1 if this Vertex was not derived from an existing grid or has
+	 * no colocated counterpart in that grid.
+	 */
+	private int sourceIndex = -1;
+
 	/**
 	 * Set of Triangles of which this Node is a corner. This list is complicated by
 	 * the fact that a Vertex can belong to triangles in many different
@@ -211,6 +218,26 @@ public class Vertex extends ArrayListDouble {
 		return this;
 	}
 
+	/**
+	 * Retrieve the index of the colocated vertex in the GeoTessGrid from which
+	 * this Vertex was derived.
+	 * 
+	 * @return the index of the source vertex or -1
+	 */
+	public int getSourceIndex() {
+		return sourceIndex;
+	}
+
+	/**
+	 * @param sourceIndex the index of the colocated vertex in the GeoTessGrid from
+	 *                    which this Vertex was derived, or -1.
+	 * @return a reference to this
+	 */
+	public Vertex setSourceIndex(int sourceIndex) {
+		this.sourceIndex = sourceIndex;
+		return this;
+	}
+
 	/**
 	 * True if current mark is &gt; 0
 	 * 
@@ -0,0 +1,547 @@
+//- ****************************************************************************
+//-
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//-
+//- BSD Open Source License.
+//- All rights reserved.
+//-
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//-
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//-
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+
+package geotessbuildertest;
+
+import gov.sandia.geotess.Data;
+import gov.sandia.geotess.GeoTessGrid;
+import gov.sandia.geotess.GeoTessMetaData;
+import gov.sandia.geotess.GeoTessModel;
+import gov.sandia.geotess.Profile;
+import gov.sandia.geotessbuilder.BuilderUtils;
+import gov.sandia.geotessbuilder.GeoTessBuilderMain;
+import gov.sandia.geotessbuilder.LayerEditPlan;
+import gov.sandia.gmp.util.containers.hash.sets.HashSetInteger;
+import gov.sandia.gmp.util.containers.hash.sets.HashSetInteger.Iterator;
+import gov.sandia.gmp.util.globals.DataType;
+import gov.sandia.gmp.util.numerical.vector.EarthShape;
+import gov.sandia.gmp.util.propertiesplus.PropertiesPlus;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BuilderUtilsTest {
+
+	@Test
+	public void testResampleProfiles() throws Exception {
+		// below the bottom node, on a node, between nodes, on the top node and above
+		// the top node of the NPOINT profiles of layer 0.
+		final float[] radii = new float[] { 4900F, 5000F, 5250F, 5500F, 5999.5F, 6300F, 6400F };
+
+		for (DataType dataType : new DataType[] { DataType.FLOAT, DataType.DOUBLE, DataType.INT, DataType.SHORT }) {
+			GeoTessModel expected = getModel(dataType);
+			for (int vertex = 0; vertex < expected.getNVertices(); ++vertex)
+				BuilderUtils.resampleProfile(expected, vertex, 0, radii.clone());
+
+			GeoTessModel actual = getModel(dataType);
+			BuilderUtils.resampleProfiles(actual, 0, new BuilderUtils.RadiiProvider() {
+				@Override
+				public float[] getRadii(int vertex, Profile profile) {
+					return radii.clone();
+				}
+			}, 4);
+
+			assertSameModel(expected, actual);
+
+			// radii outside the profile take the values of the first and last nodes.
+			for (int vertex = 0; vertex < actual.getNVertices(); ++vertex) {
+				Profile profile = actual.getProfile(vertex, 0);
+				assertEquals(radii.length, profile.getNData());
+				for (int a = 0; a < 2; ++a) {
+					assertEquals(getValue(vertex, 0, a), profile.getValue(a, 0), 1e-6);
+					assertEquals(getValue(vertex, 0, a), profile.getValue(a, 1), 1e-6);
+					assertEquals(getValue(vertex, 1, a), profile.getValue(a, 3), 1e-6);
+					assertEquals(getValue(vertex, 3, a), profile.getValue(a, 5), 1e-6);
+					assertEquals(getValue(vertex, 3, a), profile.getValue(a, 6), 1e-6);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testChangeAttributes() throws Exception {
+		for (DataType dataType : new DataType[] { DataType.FLOAT, DataType.DOUBLE, DataType.INT }) {
+			// reorder
+			GeoTessModel model = getModel(dataType);
+			BuilderUtils.changeAttributes(model, new int[] { 1, 0 }, 4);
+			assertEquals(2, model.getNAttributes());
+			assertEquals("B", model.getMetaData().getAttributeName(0));
+			assertEquals("A", model.getMetaData().getAttributeName(1));
+			for (int vertex = 0; vertex < model.getNVertices(); ++vertex)
+				for (int node = 0; node < 4; ++node) {
+					assertEquals(getValue(vertex, node, 1), model.getProfile(vertex, 0).getValue(0, node), 1e-6);
+					assertEquals(getValue(vertex, node, 0), model.getProfile(vertex, 0).getValue(1, node), 1e-6);
+				}
+
+			// subset
+			model = getModel(dataType);
+			BuilderUtils.changeAttributes(model, new int[] { 1 }, 4);
+			assertEquals(1, model.getNAttributes());
+			assertEquals("B", model.getMetaData().getAttributeName(0));
+			for (int vertex = 0; vertex < model.getNVertices(); ++vertex) {
+				for (int node = 0; node < 4; ++node)
+					assertEquals(getValue(vertex, node, 1), model.getProfile(vertex, 0).getValue(0, node), 1e-6);
+				assertEquals(2., model.getProfile(vertex, 1).getValue(0, 0), 1e-6);
+			}
+
+			// all the attributes in their current order only update the metadata, so
+			// the Data objects are not replaced.
+			model = getModel(dataType);
+			Data[] data = new Data[model.getNPoints()];
+			for (int point = 0; point < data.length; ++point)
+				data[point] = model.getPointMap().getPointData(point);
+
+			BuilderUtils.changeAttributes(model, new int[] { 0, 1 }, 4);
+			assertArrayEquals(new String[] { "A", "B" }, model.getMetaData().getAttributeNames());
+			for (int point = 0; point < data.length; ++point)
+				assertTrue(model.getPointMap().getPointData(point) == data[point]);
+		}
+	}
+
+	@Test
+	public void testChangeEarthShape() throws Exception {
+		int iCMB = 1;
+		int i660 = 2;
+
+		GeoTessModel expected = getEarthModel();
+		changeEarthShape(expected, EarthShape.SPHERE, iCMB, i660);
+
+		GeoTessModel actual = getEarthModel();
+		BuilderUtils.changeEarthShape(actual, EarthShape.SPHERE, iCMB, i660, 4);
+
+		assertEquals(EarthShape.SPHERE, actual.getEarthShape());
+		assertSameModel(expected, actual);
+
+		// the surface is at the radius of the sphere.
+		for (int vertex = 0; vertex < actual.getNVertices(); ++vertex)
+			assertEquals(6371., actual.getProfile(vertex, 5).getRadiusTop(), 1e-3);
+	}
+
+	/**
+	 * The implementation of BuilderUtils.changeEarthShape(model, newShape, iCMB,
+	 * i660) that copied every profile before changing its radii.
+	 */
+	private static void changeEarthShape(GeoTessModel model, EarthShape newShape, int iCMB, int i660)
+			throws Exception {
+		for (int vertex = 0; vertex < model.getNVertices(); ++vertex) {
+			double originalEarthRadius = model.getEarthShape().getEarthRadius(model.getGrid().getVertex(vertex));
+			double newEarthRadius = newShape.getEarthRadius(model.getGrid().getVertex(vertex));
+
+			double dr = newEarthRadius - originalEarthRadius;
+
+			Profile[] newProfiles = new Profile[model.getNLayers()];
+			for (int layer = 0; layer < model.getNLayers(); ++layer)
+				newProfiles[layer] = model.getProfile(vertex, layer).copy();
+
+			double stretch = newEarthRadius / originalEarthRadius;
+
+			double rCMBOriginal = newProfiles[iCMB].getRadiusTop();
+			double rCMBNew = rCMBOriginal * stretch;
+
+			double depth_660 = originalEarthRadius - newProfiles[i660].getRadiusTop();
+			double r660New = newEarthRadius - depth_660;
+
+			double mfactor = (r660New - rCMBNew) / (newProfiles[i660].getRadiusTop() - rCMBOriginal);
+
+			for (int i = 0; i <= iCMB; ++i)
+				for (int j = 0; j < newProfiles[i].getNRadii(); ++j)
+					newProfiles[i].setRadius(j, (float) (newProfiles[i].getRadius(j) * stretch));
+
+			for (int i = iCMB + 1; i <= i660; ++i) {
+				newProfiles[i].setRadius(0, (float) newProfiles[i - 1].getRadiusTop());
+				for (int j = 1; j < newProfiles[i].getNRadii(); ++j)
+					newProfiles[i].setRadius(j,
+							(float) (rCMBNew + (newProfiles[i].getRadius(j) - rCMBOriginal) * mfactor));
+			}
+
+			for (int i = i660 + 1; i < newProfiles.length; ++i) {
+				newProfiles[i].setRadius(0, (float) newProfiles[i - 1].getRadiusTop());
+				for (int j = 1; j < newProfiles[i].getNRadii(); ++j)
+					newProfiles[i].setRadius(j, (float) (newProfiles[i].getRadius(j) + dr));
+			}
+
+			model.getProfiles()[vertex] = newProfiles;
+		}
+		model.setEarthShape(newShape);
+	}
+
+	/**
+	 * A model with 6 layers of NPOINT, CONSTANT and THIN profiles whose radii
+	 * follow the WGS84 ellipsoid: inner core, outer core (the CMB is at its top),
+	 * lower mantle (the 660 is at its top), upper mantle, moho and crust.
+	 */
+	private static GeoTessModel getEarthModel() throws Exception {
+		PropertiesPlus properties = new PropertiesPlus();
+		properties.setProperty("verbosity = 0");
+		properties.setProperty("gridConstructionMode = scratch");
+		properties.setProperty("nTessellations = 1");
+		properties.setProperty("baseEdgeLengths = 32");
+
+		GeoTessGrid grid = (GeoTessGrid) GeoTessBuilderMain.run(properties);
+
+		GeoTessMetaData metaData = new GeoTessMetaData();
+		metaData.setDescription("test");
+		metaData.setLayerNames("INNER_CORE; OUTER_CORE; LOWER_MANTLE; UPPER_MANTLE; MOHO; CRUST");
+		metaData.setAttributes("VP", "km/sec");
+		metaData.setDataType(DataType.FLOAT);
+		metaData.setModelSoftwareVersion(BuilderUtilsTest.class.getCanonicalName());
+		metaData.setModelGenerationDate(new Date().toString());
+
+		GeoTessModel model = new GeoTessModel(grid, metaData);
+
+		for (int vertex = 0; vertex < model.getNVertices(); ++vertex) {
+			double r = model.getEarthShape().getEarthRadius(grid.getVertex(vertex));
+			float moho = (float) (r - 35. - vertex % 3);
+
+			model.setProfile(vertex, 0, new float[] { 0F, 600F, 1221F },
+					new float[][] { { 11.3F }, { 11.2F }, { 11.0F } });
+			model.setProfile(vertex, 1, new float[] { 1221F, 3480F }, new float[][] { { 9F } });
+			model.setProfile(vertex, 2, new float[] { 3480F, 4500F, (float) (r - 660.) },
+					new float[][] { { 13.7F }, { 12.5F }, { 10.8F } });
+			model.setProfile(vertex, 3, new float[] { (float) (r - 660.), (float) (r - 400.), moho },
+					new float[][] { { 10.2F }, { 9.1F }, { 8.1F } });
+			model.setProfile(vertex, 4, new float[] { moho }, new float[][] { { 8F } });
+			model.setProfile(vertex, 5, new float[] { moho, (float) r }, new float[][] { { 6.5F } });
+		}
+
+		model.setActiveRegion();
+
+		return model;
+	}
+
+	@Test
+	public void testCheckZeroThicknessValues() throws Exception {
+		GeoTessModel expected = getHoleModel();
+		for (int layer = 0; layer < expected.getNLayers(); ++layer)
+			checkZeroThicknessValues(expected, layer);
+
+		GeoTessModel actual = getHoleModel();
+		for (int layer = 0; layer < actual.getNLayers(); ++layer)
+			BuilderUtils.checkZeroThicknessValues(actual, layer, 4);
+
+		assertSameModel(expected, actual);
+
+		for (int vertex = 0; vertex < actual.getNVertices(); ++vertex)
+			for (int layer = 0; layer < actual.getNLayers(); ++layer)
+				for (int a = 0; a < actual.getNAttributes(); ++a)
+					assertFalse(Double.isNaN(actual.getProfile(vertex, layer).getValue(a, 0)));
+	}
+
+	/**
+	 * The implementation of BuilderUtils.checkZeroThicknessValues(model, layer)
+	 * that swept every vertex of the layer until no NaN value could be filled in.
+	 */
+	private static void checkZeroThicknessValues(GeoTessModel model, int layer) throws Exception {
+		int nAttributes = model.getNAttributes();
+
+		int[] count = new int[model.getNVertices()];
+		double[][] values = new double[model.getNVertices()][nAttributes];
+
+		GeoTessGrid grid = model.getGrid();
+		int tessId = model.getMetaData().getTessellation(layer);
+		int level = grid.getNLevels(tessId) - 1;
+		int nhits = 1;
+		HashSetInteger vertices = grid.getVertexIndices(tessId, level);
+		Iterator iterator;
+
+		while (nhits > 0) {
+			iterator = vertices.iterator();
+			while (iterator.hasNext()) {
+				int vertex = iterator.next();
+				Profile profile = model.getProfile(vertex, layer);
+				if (Double.isNaN(profile.getValue(0, 0))) {
+					for (int neighborVertex : grid.getVertexNeighbors(tessId, level, vertex)) {
+						Profile neighbor = model.getProfile(neighborVertex, layer);
+						if (!Double.isNaN(neighbor.getValue(0, 0))) {
+							++count[vertex];
+							for (int a = 0; a < nAttributes; ++a)
+								values[vertex][a] += neighbor.getValue(a, 0);
+						}
+					}
+				}
+			}
+
+			nhits = 0;
+			for (int vertex = 0; vertex < count.length; ++vertex)
+				if (count[vertex] > 0) {
+					++nhits;
+					Profile profile = model.getProfile(vertex, layer);
+					for (int a = 0; a < nAttributes; ++a)
+						profile.getData(0).setValue(a, values[vertex][a] / count[vertex]);
+				}
+
+			Arrays.fill(count, 0);
+			for (int i = 0; i < values.length; ++i)
+				Arrays.fill(values[i], 0.);
+		}
+	}
+
+	/**
+	 * A model with a THIN layer and a CONSTANT layer, both with attributes A and
+	 * B. The values are NaN at every vertex within 30 degrees of the north pole in
+	 * the THIN layer and within 30 degrees of the south pole in the CONSTANT
+	 * layer. With 8 degree triangles each hole is several rings of vertices deep.
+	 */
+	private static GeoTessModel getHoleModel() throws Exception {
+		PropertiesPlus properties = new PropertiesPlus();
+		properties.setProperty("verbosity = 0");
+		properties.setProperty("gridConstructionMode = scratch");
+		properties.setProperty("nTessellations = 1");
+		properties.setProperty("baseEdgeLengths = 8");
+
+		GeoTessGrid grid = (GeoTessGrid) GeoTessBuilderMain.run(properties);
+
+		GeoTessMetaData metaData = new GeoTessMetaData();
+		metaData.setDescription("test");
+		metaData.setLayerNames("MOHO; CRUST");
+		metaData.setAttributes("A; B", "na; na");
+		metaData.setDataType(DataType.FLOAT);
+		metaData.setModelSoftwareVersion(BuilderUtilsTest.class.getCanonicalName());
+		metaData.setModelGenerationDate(new Date().toString());
+
+		GeoTessModel model = new GeoTessModel(grid, metaData);
+
+		for (int vertex = 0; vertex < model.getNVertices(); ++vertex) {
+			double[] u = grid.getVertex(vertex);
+			float a = (float) (10. * u[0] + vertex % 3);
+			float b = (float) u[1];
+
+			float[] values = u[2] > Math.cos(Math.toRadians(30.)) ? new float[] { Float.NaN, Float.NaN }
+					: new float[] { a, b };
+			model.setProfile(vertex, 0, new float[] { 6336F }, new float[][] { values });
+
+			values = -u[2] > Math.cos(Math.toRadians(30.)) ? new float[] { Float.NaN, Float.NaN }
+					: new float[] { a, b };
+			model.setProfile(vertex, 1, new float[] { 6336F, 6371F }, new float[][] { values });
+		}
+
+		model.setActiveRegion();
+
+		return model;
+	}
+
+	@Test
+	public void testLayerEditPlan() throws Exception {
+		// the edits one at a time.
+		GeoTessModel expected = getCrustModel();
+		BuilderUtils.removeLayer(expected, "ICE");
+		LayerEditPlan combine = new LayerEditPlan().combineLayersToConstant("LOWER_CRUST", "UPPER_CRUST", "CRUST");
+		combine.apply(expected);
+		new LayerEditPlan().renameLayer("SEDIMENTS", "SEDS").apply(expected);
+
+		// the same edits in a single plan.
+		GeoTessModel actual = getCrustModel();
+		LayerEditPlan plan = new LayerEditPlan().removeLayer("ICE")
+				.combineLayersToConstant("LOWER_CRUST", "UPPER_CRUST", "CRUST").renameLayer("SEDIMENTS", "SEDS");
+		plan.apply(actual, 4);
+
+		assertArrayEquals(new String[] { "MANTLE", "CRUST", "SEDS" }, actual.getMetaData().getLayerNames());
+		assertSameModel(expected, actual);
+
+		// the crust has zero thickness and NaN values at every fourth vertex.
+		assertEquals((expected.getNVertices() + 3) / 4, combine.getNThin());
+		assertEquals(combine.getNThin(), plan.getNThin());
+	}
+
+	/**
+	 * A model with layers MANTLE (NPOINT), LOWER_CRUST, UPPER_CRUST, SEDIMENTS
+	 * and ICE (CONSTANT or THIN). At every fourth vertex both crustal layers are
+	 * THIN with NaN values, and at every other vertex the ice is THIN.
+	 */
+	private static GeoTessModel getCrustModel() throws Exception {
+		PropertiesPlus properties = new PropertiesPlus();
+		properties.setProperty("verbosity = 0");
+		properties.setProperty("gridConstructionMode = scratch");
+		properties.setProperty("nTessellations = 1");
+		properties.setProperty("baseEdgeLengths = 32");
+
+		GeoTessGrid grid = (GeoTessGrid) GeoTessBuilderMain.run(properties);
+
+		GeoTessMetaData metaData = new GeoTessMetaData();
+		metaData.setDescription("test");
+		metaData.setLayerNames("MANTLE; LOWER_CRUST; UPPER_CRUST; SEDIMENTS; ICE");
+		metaData.setAttributes("VP", "km/sec");
+		metaData.setDataType(DataType.FLOAT);
+		metaData.setModelSoftwareVersion(BuilderUtilsTest.class.getCanonicalName());
+		metaData.setModelGenerationDate(new Date().toString());
+
+		GeoTessModel model = new GeoTessModel(grid, metaData);
+
+		for (int vertex = 0; vertex < model.getNVertices(); ++vertex) {
+			float moho = 6336F + vertex % 5;
+			model.setProfile(vertex, 0, new float[] { 6000F, 6200F, moho },
+					new float[][] { { 8.5F }, { 8.3F }, { 8.1F } });
+
+			float top = moho;
+			if (vertex % 4 == 0) {
+				model.setProfile(vertex, 1, new float[] { top }, new float[][] { { Float.NaN } });
+				model.setProfile(vertex, 2, new float[] { top }, new float[][] { { Float.NaN } });
+			} else {
+				model.setProfile(vertex, 1, new float[] { top, top + 15F }, new float[][] { { 6.8F } });
+				top += 15F;
+				model.setProfile(vertex, 2, new float[] { top, top + 10F + vertex % 3 },
+						new float[][] { { 6.1F + vertex % 2 } });
+				top += 10F + vertex % 3;
+			}
+
+			model.setProfile(vertex, 3, new float[] { top, top + 2F }, new float[][] { { 2.5F } });
+			top += 2F;
+
+			if (vertex % 2 == 0)
+				model.setProfile(vertex, 4, new float[] { top }, new float[][] { { 3.8F } });
+			else
+				model.setProfile(vertex, 4, new float[] { top, top + 1F }, new float[][] { { 3.8F } });
+		}
+
+		model.setActiveRegion();
+
+		return model;
+	}
+
+	/**
+	 * A model with 2 attributes, A and B, and two layers. Layer 0 has NPOINT
+	 * profiles with nodes at radii 5000, 5500, 6000 and 6300 and values given by
+	 * getValue(). Layer 1 has CONSTANT profiles.
+	 */
+	private static GeoTessModel getModel(DataType dataType) throws Exception {
+		PropertiesPlus properties = new PropertiesPlus();
+		properties.setProperty("verbosity = 0");
+		properties.setProperty("gridConstructionMode = scratch");
+		properties.setProperty("nTessellations = 1");
+		properties.setProperty("baseEdgeLengths = 32");
+
+		GeoTessGrid grid = (GeoTessGrid) GeoTessBuilderMain.run(properties);
+
+		GeoTessMetaData metaData = new GeoTessMetaData();
+		metaData.setDescription("test");
+		metaData.setLayerNames("MANTLE; CRUST");
+		metaData.setAttributes("A; B", "na; na");
+		metaData.setDataType(dataType);
+		metaData.setModelSoftwareVersion(BuilderUtilsTest.class.getCanonicalName());
+		metaData.setModelGenerationDate(new Date().toString());
+
+		GeoTessModel model = new GeoTessModel(grid, metaData);
+
+		float[] radii = new float[] { 5000F, 5500F, 6000F, 6300F };
+		for (int vertex = 0; vertex < model.getNVertices(); ++vertex) {
+			Data[] data = new Data[radii.length];
+			for (int node = 0; node < radii.length; ++node)
+				data[node] = getData(dataType, getValue(vertex, node, 0), getValue(vertex, node, 1));
+			model.setProfile(vertex, 0, radii.clone(), data);
+
+			model.setProfile(vertex, 1, new float[] { 6300F, 6371F }, new Data[] { getData(dataType, 1, 2) });
+		}
+
+		model.setActiveRegion();
+
+		return model;
+	}
+
+	/**
+	 * @return the value of an attribute at a node of the profile of layer 0 of
+	 *         getModel(). All values are even so that interpolation halfway
+	 *         between two nodes is an integer.
+	 */
+	private static double getValue(int vertex, int node, int attribute) {
+		return attribute == 0 ? 2 * (vertex % 5) + 4 * node : 10 - 2 * node * node;
+	}
+
+	/**
+	 * @return a Data object of the specified type containing the values.
+	 */
+	private static Data getData(DataType dataType, double... values) throws Exception {
+		switch (dataType) {
+		case FLOAT:
+			float[] floats = new float[values.length];
+			for (int i = 0; i < values.length; ++i)
+				floats[i] = (float) values[i];
+			return Data.getDataFloat(floats);
+		case DOUBLE:
+			return Data.getDataDouble(values.clone());
+		case LONG:
+			long[] longs = new long[values.length];
+			for (int i = 0; i < values.length; ++i)
+				longs[i] = Math.round(values[i]);
+			return Data.getDataLong(longs);
+		case INT:
+			int[] ints = new int[values.length];
+			for (int i = 0; i < values.length; ++i)
+				ints[i] = (int) Math.round(values[i]);
+			return Data.getDataInt(ints);
+		case SHORT:
+			short[] shorts = new short[values.length];
+			for (int i = 0; i < values.length; ++i)
+				shorts[i] = (short) Math.round(values[i]);
+			return Data.getDataShort(shorts);
+		case BYTE:
+			byte[] bytes = new byte[values.length];
+			for (int i = 0; i < values.length; ++i)
+				bytes[i] = (byte) Math.round(values[i]);
+			return Data.getDataByte(bytes);
+		default:
+			throw new Exception("Unsupported DataType");
+		}
+	}
+
+	/**
+	 * Assert that two models have the same attributes, layers and profiles.
+	 */
+	private static void assertSameModel(GeoTessModel expected, GeoTessModel actual) throws Exception {
+		assertArrayEquals(expected.getMetaData().getAttributeNames(), actual.getMetaData().getAttributeNames());
+		assertArrayEquals(expected.getMetaData().getLayerNames(), actual.getMetaData().getLayerNames());
+		assertEquals(expected.getNVertices(), actual.getNVertices());
+
+		for (int vertex = 0; vertex < expected.getNVertices(); ++vertex)
+			for (int layer = 0; layer < expected.getNLayers(); ++layer) {
+				Profile p1 = expected.getProfile(vertex, layer);
+				Profile p2 = actual.getProfile(vertex, layer);
+				assertEquals(p1.getType(), p2.getType());
+				assertEquals(p1.getNRadii(), p2.getNRadii());
+				assertEquals(p1.getNData(), p2.getNData());
+				for (int i = 0; i < p1.getNRadii(); ++i)
+					assertEquals(p1.getRadius(i), p2.getRadius(i), 1e-6);
+				for (int i = 0; i < p1.getNData(); ++i)
+					for (int a = 0; a < expected.getNAttributes(); ++a)
+						assertEquals(p1.getValue(a, i), p2.getValue(a, i), 1e-6);
+			}
+	}
+
+}
@@ -39,13 +39,34 @@ import gov.sandia.geotess.GeoTessGrid;
 import gov.sandia.geotess.GeoTessModel;
 import gov.sandia.geotess.GeoTessUtils;
 import gov.sandia.geotessbuilder.GeoTessBuilderMain;
+import gov.sandia.geotessbuilder.GridBuilder;
+import gov.sandia.geotessbuilder.GridSizeEstimator;
+import gov.sandia.geotessbuilder.InitialSolid;
+import gov.sandia.geotessbuilder.PointFile;
+import gov.sandia.geotessbuilder.RefinementRegion;
+import gov.sandia.geotessbuilder.SphericalCap;
+import gov.sandia.geotessbuilder.Tessellation;
+import gov.sandia.geotessbuilder.Triangle;
+import gov.sandia.gmp.util.numerical.platonicsolid.PlatonicSolid;
 import gov.sandia.gmp.util.numerical.vector.EarthShape;
+import gov.sandia.gmp.util.numerical.vector.VectorGeo;
+import gov.sandia.gmp.util.numerical.vector.VectorUnit;
 import gov.sandia.gmp.util.propertiesplus.PropertiesPlus;
 import org.junit.Test;
 
 import java.io.File;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Scanner;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class GeoTessBuilderTest {
@@ -142,6 +163,110 @@ public class GeoTessBuilderTest {
 
 	}
 
+	@Test
+	public void testAnalyticSphericalCaps() throws Exception {
+		PropertiesPlus properties = new PropertiesPlus();
+
+		properties.setProperty("gridConstructionMode", "scratch");
+		properties.setProperty("nTessellations", "1");
+		properties.setProperty("baseEdgeLengths", 4.);
+		properties.setProperty("verbosity", 0);
+		properties.setProperty("polygons", "spherical_cap, 10, 20, 18, 0, 2; spherical_cap, 10, 20, 2, 0, 1");
+
+		// the default is to approximate caps with polygons.
+		properties.setProperty("sphericalCapRefinement", "polygon");
+
+		GeoTessGrid polygonGrid = (GeoTessGrid) GeoTessBuilderMain.run(properties);
+
+		// same caps as testSphericalCaps().
+		assertEquals("A3F2F1E1B4F977FBA974F1C4D25C2CBD", polygonGrid.getGridID());
+
+		// the polygons are inscribed in the caps, so the analytic caps refine every
+		// triangle that the polygons refine, plus any triangle that only overlaps a
+		// sliver of a cap outside its polygon.
+		properties.setProperty("sphericalCapRefinement", "analytic");
+
+		GeoTessGrid analyticGrid = (GeoTessGrid) GeoTessBuilderMain.run(properties);
+
+		assertTrue(analyticGrid.getNVertices() >= polygonGrid.getNVertices());
+		assertTrue(containsVertices(analyticGrid, polygonGrid));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSphericalCapRadius() throws Exception {
+		new SphericalCap(VectorGeo.getVectorDegrees(10, 20), Math.PI / 2, 0);
+	}
+
+	@Test
+	public void testRefinementRegion() throws Exception {
+		InitialSolid solid = new InitialSolid(PlatonicSolid.ICOSAHEDRON);
+		int baseLevel = GeoTessUtils.getTessLevel(8.);
+
+		final SphericalCap cap = new SphericalCap(VectorGeo.getVectorDegrees(10, 20), Math.toRadians(6),
+				GeoTessUtils.getTessLevel(1.));
+
+		GeoTessGrid expected = buildGrid(new Tessellation(solid, baseLevel).addSphericalCap(cap));
+
+		// the same cap supplied by the application, with a bounding cap that
+		// covers the whole sphere.
+		GeoTessGrid actual = buildGrid(new Tessellation(solid, baseLevel).addRegion(new RefinementRegion() {
+			@Override
+			public int getTessLevel() {
+				return cap.getTessLevel();
+			}
+
+			@Override
+			public double[] getBoundingCapCenter() {
+				return cap.getCenter();
+			}
+
+			@Override
+			public double getBoundingCapRadius() {
+				return Math.PI;
+			}
+
+			@Override
+			public boolean intersects(Triangle triangle) {
+				return cap.intersects(triangle);
+			}
+		}));
+
+		assertEquals(expected.getGridID(), actual.getGridID());
+		assertTrue(actual.getNVertices() > buildGrid(new Tessellation(solid, baseLevel)).getNVertices());
+
+		// a region that intersects nothing leaves the base grid unchanged.
+		actual = buildGrid(new Tessellation(solid, baseLevel).addRegion(new RefinementRegion() {
+			@Override
+			public int getTessLevel() {
+				return cap.getTessLevel();
+			}
+
+			@Override
+			public double[] getBoundingCapCenter() {
+				return cap.getCenter();
+			}
+
+			@Override
+			public double getBoundingCapRadius() {
+				return Math.PI;
+			}
+
+			@Override
+			public boolean intersects(Triangle triangle) {
+				return false;
+			}
+		}));
+
+		assertEquals(buildGrid(new Tessellation(solid, baseLevel)).getGridID(), actual.getGridID());
+	}
+
+	/**
+	 * @return the grid of a single tessellation.
+	 */
+	private static GeoTessGrid buildGrid(Tessellation tessellation) throws Exception {
+		return new GridBuilder(new ArrayList<Tessellation>(Arrays.asList(tessellation.build())));
+	}
+
 	@Test
 	public void testTomo2d() throws Exception {
 		File dir = new File("GeoTessBuilderExamples/tomo2dTest");
@@ -231,6 +356,36 @@ public class GeoTessBuilderTest {
 		new File(dir, "continent_boundaries.vtk").delete();
 	}
 
+	@Test
+	public void testPathArcs() throws Exception {
+		File dir = new File("GeoTessBuilderExamples/pathTest");
+
+		PropertiesPlus properties = new PropertiesPlus(new File(dir, "gridbuilder.properties"));
+		properties.setProperty("verbosity", 0);
+		properties.remove("outputGridFile");
+		properties.remove("vtkFile");
+
+		GeoTessGrid expectedGrid = new GeoTessGrid(new File(dir, "expected_grid.geotess"));
+
+		// the default is to densify paths into points.
+		properties.setProperty("pathRefinement", "points");
+
+		GeoTessGrid pointsGrid = (GeoTessGrid) GeoTessBuilderMain.run(properties);
+
+		assertEquals(expectedGrid.getGridID(), pointsGrid.getGridID());
+
+		// every triangle that contains one of the densified points intersects the
+		// path, so arcs refine every triangle that points refine. Arcs also refine
+		// triangles that the path only clips between two densified points, so the
+		// grids are not identical.
+		properties.setProperty("pathRefinement", "arcs");
+
+		GeoTessGrid arcsGrid = (GeoTessGrid) GeoTessBuilderMain.run(properties);
+
+		assertTrue(arcsGrid.getNVertices() >= pointsGrid.getNVertices());
+		assertTrue(containsVertices(arcsGrid, pointsGrid));
+	}
+
 	@Test
 	public void testPolygons() throws Exception {
 		File dir = new File("GeoTessBuilderExamples/polygonTest");
@@ -277,4 +432,251 @@ public class GeoTessBuilderTest {
 		new File("testdata/continent_boundaries.vtk").delete();
 	}
 
+	@Test
+	public void testMaxVertices() throws Exception {
+		// a point that requires 0.125 degree triangles and a path that requires 1
+		// degree triangles, far apart, with a budget that can satisfy the point
+		// but not the path.
+		PropertiesPlus properties = new PropertiesPlus();
+		properties.setProperty("verbosity", 0);
+		properties.setProperty("gridConstructionMode = scratch");
+		properties.setProperty("nTessellations = 1");
+		properties.setProperty("baseEdgeLengths = 8");
+		properties.setProperty("points = lat-lon, 0, 0.125, 10.3, 101.7");
+		properties.setProperty("paths = GeoTessBuilderExamples/pathTest/mid_atlantic_ridge.kmz, 0, 1.0");
+		properties.setProperty("maxVertices = 800");
+
+		double[] point = VectorGeo.getVectorDegrees(10.3, 101.7);
+
+		// the point has the higher weight so it is fully resolved.
+		properties.setProperty("pointWeight = 10");
+		properties.setProperty("pathWeight = 1");
+
+		GeoTessGrid grid = (GeoTessGrid) GeoTessBuilderMain.run(properties);
+
+		assertTrue(grid.getNVertices() <= 800);
+		assertTrue(countVertices(grid, point, 0.5) > 10);
+
+		// the path has the higher weight and consumes the whole budget so the
+		// point is not refined at all.
+		properties.setProperty("pointWeight = 1");
+		properties.setProperty("pathWeight = 10");
+
+		grid = (GeoTessGrid) GeoTessBuilderMain.run(properties);
+
+		assertTrue(grid.getNVertices() <= 800);
+		assertTrue(countVertices(grid, point, 0.5) <= 1);
+	}
+
+	@Test
+	public void testGridSizeEstimator() throws Exception {
+		for (String example : new String[] { "pointTest", "polygonTest", "pathTest" }) {
+			File dir = new File("GeoTessBuilderExamples", example);
+
+			PropertiesPlus properties = new PropertiesPlus(new File(dir, "gridbuilder.properties"));
+			properties.setProperty("verbosity", 0);
+			properties.remove("outputGridFile");
+			properties.remove("vtkFile");
+
+			GeoTessGrid grid = (GeoTessGrid) GeoTessBuilderMain.run(properties);
+
+			properties.setProperty("estimateGridSize = true");
+			Object estimates = GeoTessBuilderMain.run(properties);
+			assertTrue(estimates instanceof GridSizeEstimator[]);
+
+			// the estimates predict the number of vertices on every level of the grid
+			// that Tessellation.build() produces.
+			assertEquals(grid.getNTessellations(), ((GridSizeEstimator[]) estimates).length);
+			for (int tessId = 0; tessId < grid.getNTessellations(); ++tessId) {
+				GridSizeEstimator estimate = ((GridSizeEstimator[]) estimates)[tessId];
+				assertEquals(example, grid.getNLevels(tessId), estimate.getNLevels());
+				for (int level = 0; level < estimate.getNLevels(); ++level)
+					assertEquals(example + " level " + level, countVertices(grid, tessId, level),
+							estimate.getNVertices(level));
+			}
+		}
+	}
+
+	@Test
+	public void testSizeFieldGradation() throws Exception {
+		File dir = new File("GeoTessBuilderExamples/pointTest");
+
+		PropertiesPlus properties = new PropertiesPlus(new File(dir, "gridbuilder.properties"));
+		properties.setProperty("verbosity", 0);
+		properties.remove("outputGridFile");
+		properties.remove("vtkFile");
+
+		GeoTessGrid expectedGrid = new GeoTessGrid(new File(dir, "expected_grid.geotess"));
+
+		// without sizeFieldGradation the grid is unchanged.
+		GeoTessGrid defaultGrid = (GeoTessGrid) GeoTessBuilderMain.run(properties);
+
+		assertEquals(expectedGrid.getGridID(), defaultGrid.getGridID());
+
+		// with it, the levels of neighboring triangles differ by at most 1 and the
+		// region around the point that is refined can only grow.
+		properties.setProperty("sizeFieldGradation = 0.5");
+
+		GeoTessGrid gradedGrid = (GeoTessGrid) GeoTessBuilderMain.run(properties);
+
+		assertTrue(getMaxLevelChange(gradedGrid, 0) <= 1);
+		assertTrue(gradedGrid.getNVertices() >= defaultGrid.getNVertices());
+		assertTrue(containsVertices(gradedGrid, defaultGrid));
+	}
+
+	@Test
+	public void testPointFile() throws Exception {
+		File dir = new File("GeoTessBuilderExamples/pathTest");
+		ArrayList<double[]> expected = readKmz(new File(dir, "mid_atlantic_ridge.kmz"));
+
+		File file = File.createTempFile("mid_atlantic_ridge", ".pts");
+		try {
+			assertFalse(PointFile.isPointFile(new File(dir, "mid_atlantic_ridge.kmz")));
+
+			PointFile.write(file, expected, PointFile.LAT_LON);
+			assertTrue(PointFile.isPointFile(file));
+			ArrayList<double[]> actual = PointFile.read(file);
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); ++i)
+				assertArrayEquals(expected.get(i), actual.get(i), 1e-12);
+
+			PointFile.write(file, expected, PointFile.UNIT_VECTORS);
+			assertTrue(PointFile.isPointFile(file));
+			actual = PointFile.read(file);
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); ++i)
+				assertArrayEquals(expected.get(i), actual.get(i), 0.);
+
+			// a path read from the binary file of unit vectors produces the same
+			// grid as the path read from the kmz file.
+			PropertiesPlus properties = new PropertiesPlus(new File(dir, "gridbuilder.properties"));
+			properties.setProperty("verbosity", 0);
+			properties.setProperty("paths", file.getPath() + ", 0, 1.0");
+			properties.remove("outputGridFile");
+			properties.remove("vtkFile");
+
+			GeoTessGrid grid = (GeoTessGrid) GeoTessBuilderMain.run(properties);
+
+			GeoTessGrid expectedGrid = new GeoTessGrid(new File(dir, "expected_grid.geotess"));
+
+			assertEquals(expectedGrid.getGridID(), grid.getGridID());
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Parse the single &lt;coordinates&gt; element of a kmz file with
+	 * Double.parseDouble().
+	 * 
+	 * @return unit vectors
+	 */
+	private static ArrayList<double[]> readKmz(File file) throws Exception {
+		StringBuilder contents = new StringBuilder();
+		ZipFile zip = new ZipFile(file);
+		try {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (entry.getName().toLowerCase().endsWith(".kml")) {
+					Scanner input = new Scanner(zip.getInputStream(entry), "UTF-8");
+					while (input.hasNextLine())
+						contents.append(input.nextLine()).append('\n');
+					input.close();
+				}
+			}
+		} finally {
+			zip.close();
+		}
+
+		String coordinates = contents.substring(contents.indexOf("<coordinates>") + "<coordinates>".length(),
+				contents.indexOf("</coordinates>"));
+
+		ArrayList<double[]> points = new ArrayList<double[]>();
+		for (String tuple : coordinates.trim().split("\\s+")) {
+			String[] values = tuple.split(",");
+			points.add(VectorGeo.getVectorDegrees(Double.parseDouble(values[1]), Double.parseDouble(values[0])));
+		}
+		return points;
+	}
+
+	/**
+	 * @return true if every vertex of other is also a vertex of grid.
+	 */
+	private static boolean containsVertices(GeoTessGrid grid, GeoTessGrid other) {
+		HashSet<String> vertices = new HashSet<String>();
+		for (int i = 0; i < grid.getNVertices(); ++i)
+			vertices.add(Arrays.toString(grid.getVertex(i)));
+		for (int i = 0; i < other.getNVertices(); ++i)
+			if (!vertices.contains(Arrays.toString(other.getVertex(i))))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return the largest difference between the levels of two triangles on the
+	 *         top level of a tessellation that share an edge, where the level of a
+	 *         triangle is the first level on which it appears.
+	 */
+	private static int getMaxLevelChange(GeoTessGrid grid, int tessId) {
+		int firstLevel = grid.getTessellations()[tessId][0];
+		int nLevels = grid.getNLevels(tessId);
+
+		HashMap<String, Integer> firstAppearance = new HashMap<String, Integer>();
+		for (int level = 0; level < nLevels; ++level) {
+			int[] triangles = grid.getLevels()[firstLevel + level];
+			for (int t = triangles[0]; t < triangles[1]; ++t) {
+				int[] corners = grid.getTriangleVertexIndexes(t).clone();
+				Arrays.sort(corners);
+				String key = Arrays.toString(corners);
+				if (!firstAppearance.containsKey(key))
+					firstAppearance.put(key, level);
+			}
+		}
+
+		// map from edge to the level of the first top level triangle found that
+		// contains it.
+		HashMap<String, Integer> edges = new HashMap<String, Integer>();
+		int maxChange = 0;
+		int[] triangles = grid.getLevels()[firstLevel + nLevels - 1];
+		for (int t = triangles[0]; t < triangles[1]; ++t) {
+			int[] corners = grid.getTriangleVertexIndexes(t).clone();
+			Arrays.sort(corners);
+			int level = firstAppearance.get(Arrays.toString(corners));
+			for (int j = 0; j < 3; ++j) {
+				String edge = corners[j] + " " + corners[(j + 1) % 3];
+				if (corners[j] > corners[(j + 1) % 3])
+					edge = corners[(j + 1) % 3] + " " + corners[j];
+				Integer other = edges.put(edge, level);
+				if (other != null)
+					maxChange = Math.max(maxChange, Math.abs(level - other));
+			}
+		}
+		return maxChange;
+	}
+
+	/**
+	 * @return the number of vertices connected to the triangles on the specified
+	 *         level of a tessellation.
+	 */
+	private static int countVertices(GeoTessGrid grid, int tessId, int level) {
+		int[] triangles = grid.getLevels()[grid.getTessellations()[tessId][0] + level];
+		HashSet<Integer> vertices = new HashSet<Integer>();
+		for (int t = triangles[0]; t < triangles[1]; ++t)
+			for (int vertex : grid.getTriangleVertexIndexes(t))
+				vertices.add(vertex);
+		return vertices.size();
+	}
+
+	/**
+	 * @return the number of vertices of grid within radius degrees of u.
+	 */
+	private static int countVertices(GeoTessGrid grid, double[] u, double radius) {
+		int n = 0;
+		for (int i = 0; i < grid.getNVertices(); ++i)
+			if (Math.toDegrees(VectorUnit.angle(grid.getVertex(i), u)) < radius)
+				++n;
+		return n;
+	}
+
 }
@@ -36,7 +36,9 @@
 package geotessbuildertest;
 
 import gov.sandia.geotess.*;
+import gov.sandia.geotessbuilder.AdaptiveRefinement;
 import gov.sandia.geotessbuilder.GeoTessBuilderMain;
+import gov.sandia.geotessbuilder.PointSelector;
 import gov.sandia.gmp.util.containers.hash.sets.HashSetInteger;
 import gov.sandia.gmp.util.containers.hash.sets.HashSetInteger.Iterator;
 import gov.sandia.gmp.util.globals.DataType;
@@ -44,13 +46,17 @@ import gov.sandia.gmp.util.numerical.polygon.Horizon;
 import gov.sandia.gmp.util.numerical.polygon.HorizonLayer;
 import gov.sandia.gmp.util.numerical.polygon.Polygon;
 import gov.sandia.gmp.util.numerical.polygon.Polygon3D;
+import gov.sandia.gmp.util.numerical.polygon.PolygonFactory;
 import gov.sandia.gmp.util.numerical.vector.VectorGeo;
 import gov.sandia.gmp.util.numerical.vector.VectorUnit;
 import gov.sandia.gmp.util.propertiesplus.PropertiesPlus;
 import org.junit.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashSet;
 
@@ -642,6 +648,496 @@ public class RefineModelTest {
 				assertEquals(0., model2.getProfile(v, layer).getValue(0, 0), 1e-3);
 	}
 
+	@Test
+	public void testConcurrency() throws Exception {
+
+		if (verbosity > 0)
+			System.out.println("************************************************\n" + "testConcurrency()\n");
+
+		// refine the same points as test7, once in a single thread and once
+		// concurrently. The results must be identical.
+		GeoTessModel model1 = getCrustalModel3Layers();
+
+		ArrayList<Integer> pointsToRefine = new ArrayList<Integer>();
+		Polygon x = new Polygon(new double[] { 1, 0, 0 }, Math.toRadians(20.), 50);
+		Polygon y = new Polygon(new double[] { 0, 1, 0 }, Math.toRadians(20.), 50);
+		Polygon z = new Polygon(new double[] { 0, 0, 1 }, Math.toRadians(20.), 50);
+
+		for (int pointIndex = 0; pointIndex < model1.getPointMap().size(); ++pointIndex) {
+			double[] vtx = model1.getPointMap().getPointUnitVector(pointIndex);
+			int layer = model1.getPointMap().getLayerIndex(pointIndex);
+			if (layer == 0 && x.contains(vtx))
+				pointsToRefine.add(pointIndex);
+			if (layer == 1 && y.contains(vtx))
+				pointsToRefine.add(pointIndex);
+			if (layer == 2 && z.contains(vtx))
+				pointsToRefine.add(pointIndex);
+		}
+
+		PropertiesPlus properties = new PropertiesPlus();
+		properties.setProperty("verbosity", verbosity);
+		properties.setProperty("gridConstructionMode = model refinement");
+		properties.setProperty("pointsToRefine = " + pointsToRefine.toString());
+
+		properties.setProperty("maxProcessors", 1);
+		GeoTessModel expected = (GeoTessModel) GeoTessBuilderMain.run(properties, model1);
+
+		properties.setProperty("maxProcessors", 4);
+		GeoTessModel actual = (GeoTessModel) GeoTessBuilderMain.run(properties, getCrustalModel3Layers());
+
+		assertSameModel(expected, actual);
+	}
+
+	@Test
+	public void testOneRefinementLevel() throws Exception {
+
+		if (verbosity > 0)
+			System.out.println("************************************************\n" + "testOneRefinementLevel()\n");
+
+		// refine the same point as test1, once without specifying
+		// nRefinementLevels and once with nRefinementLevels = 1. The results
+		// must be identical.
+		int refinedPoint = getGlobalModel().getPointMap().getPointIndex(0, 0, 1);
+
+		PropertiesPlus properties = new PropertiesPlus();
+		properties.setProperty("verbosity", verbosity);
+		properties.setProperty("gridConstructionMode = model refinement");
+		properties.setProperty("pointsToRefine = " + refinedPoint);
+
+		GeoTessModel expected = (GeoTessModel) GeoTessBuilderMain.run(properties, getGlobalModel());
+
+		properties.setProperty("nRefinementLevels", 1);
+
+		GeoTessModel actual = (GeoTessModel) GeoTessBuilderMain.run(properties, getGlobalModel());
+
+		assertEquals(22, actual.getGrid().getVertexIndicesTopLevel(0).size());
+
+		assertSameModel(expected, actual);
+	}
+
+	@Test
+	public void testTwoRefinementLevels() throws Exception {
+
+		if (verbosity > 0)
+			System.out.println("************************************************\n" + "testTwoRefinementLevels()\n");
+
+		// refine the points of the lower crust (layer 1, three nodes per profile)
+		// inside a cap around the north pole with nRefinementLevels = 2.
+		GeoTessModel model0 = getCrustalModel3Layers();
+		GeoTessGrid grid0 = model0.getGrid();
+		int layer = 1;
+
+		Polygon cap = new Polygon(new double[] { 0, 0, 1 }, Math.toRadians(30.), 50);
+
+		// the selected vertices of grid0 and the selected points of model0
+		BitSet selected = new BitSet();
+		ArrayList<Integer> pointsToRefine = new ArrayList<Integer>();
+		for (int point = 0; point < model0.getNPoints(); ++point) {
+			int vertex = model0.getPointMap().getVertexIndex(point);
+			if (model0.getPointMap().getLayerIndex(point) == layer && cap.contains(grid0.getVertex(vertex))) {
+				selected.set(vertex);
+				pointsToRefine.add(point);
+			}
+		}
+
+		PropertiesPlus properties = new PropertiesPlus();
+		properties.setProperty("verbosity", verbosity);
+		properties.setProperty("gridConstructionMode = model refinement");
+		properties.setProperty("pointsToRefine = " + pointsToRefine.toString());
+		properties.setProperty("nRefinementLevels", 2);
+
+		GeoTessModel model2 = (GeoTessModel) GeoTessBuilderMain.run(properties, model0);
+
+		// the first round on its own.
+		properties.setProperty("nRefinementLevels", 1);
+		GeoTessModel model1 = (GeoTessModel) GeoTessBuilderMain.run(properties, getCrustalModel3Layers());
+		GeoTessGrid grid1 = model1.getGrid();
+
+		// the second round refines the vertices selected in the first round and the
+		// midpoints of the edges of the triangles of grid0 whose corners were all
+		// selected. The vertices that the first round created on the edges of
+		// triangles with only some corners selected are left alone.
+		BitSet nextRound = new BitSet();
+		for (int v = selected.nextSetBit(0); v >= 0; v = selected.nextSetBit(v + 1))
+			nextRound.set(grid1.getVertexIndex(grid0.getVertex(v), 0));
+
+		int[] topLevel = grid0.getLevels()[grid0.getTessellations()[0][1] - 1];
+		for (int t = topLevel[0]; t < topLevel[1]; ++t) {
+			int[] corners = grid0.getTriangleVertexIndexes(t);
+			if (selected.get(corners[0]) && selected.get(corners[1]) && selected.get(corners[2]))
+				for (int i = 0; i < 3; ++i) {
+					double[] a = grid0.getVertex(corners[i]);
+					double[] b = grid0.getVertex(corners[(i + 1) % 3]);
+					double[] midpoint = new double[] { a[0] + b[0], a[1] + b[1], a[2] + b[2] };
+					VectorUnit.normalize(midpoint);
+					int v = grid1.getVertexIndex(midpoint, 0);
+					assertTrue(v >= 0);
+					nextRound.set(v);
+				}
+		}
+
+		// the vertices that a ring growth would refine: every vertex selected in
+		// the first round and every vertex that the first round created.
+		BitSet ring = (BitSet) nextRound.clone();
+		for (int v = 0; v < grid1.getNVertices(); ++v)
+			if (grid0.getVertexIndex(grid1.getVertex(v), 0) < 0)
+				ring.set(v);
+		assertTrue(ring.cardinality() > nextRound.cardinality());
+
+		ArrayList<Integer> nextPoints = new ArrayList<Integer>();
+		ArrayList<Integer> ringPoints = new ArrayList<Integer>();
+		for (int point = 0; point < model1.getNPoints(); ++point)
+			if (model1.getPointMap().getLayerIndex(point) == layer) {
+				int vertex = model1.getPointMap().getVertexIndex(point);
+				if (nextRound.get(vertex))
+					nextPoints.add(point);
+				if (ring.get(vertex))
+					ringPoints.add(point);
+			}
+
+		properties.setProperty("pointsToRefine = " + nextPoints.toString());
+		GeoTessModel twice = (GeoTessModel) GeoTessBuilderMain.run(properties, model1);
+
+		properties.setProperty("pointsToRefine = " + ringPoints.toString());
+		GeoTessModel ringGrowth = (GeoTessModel) GeoTessBuilderMain.run(properties, model1);
+
+		// two levels in one call produce the same grid as two calls that do not
+		// grow the refined region, and fewer vertices than a ring growth.
+		assertEquals(twice.getGrid().getGridID(), model2.getGrid().getGridID());
+		assertTrue(model2.getNVertices() < ringGrowth.getNVertices());
+
+		// every selected profile had 2 radial intervals, each divided into
+		// 2^2 equal intervals.
+		for (int v = selected.nextSetBit(0); v >= 0; v = selected.nextSetBit(v + 1)) {
+			Profile p = model2.getProfile(model2.getGrid().getVertexIndex(grid0.getVertex(v), 0), layer);
+			assertEquals(9, p.getNData());
+			for (int i = 0; i < p.getNRadii(); ++i)
+				assertEquals(6341. + 2.5 * i, p.getRadius(i), 1e-3);
+		}
+	}
+
+	@Test
+	public void testCoarsenRefinedModel() throws Exception {
+
+		if (verbosity > 0)
+			System.out.println("************************************************\n" + "testCoarsenRefinedModel()\n");
+
+		// refine the same point as test1 and then coarsen every point of the
+		// refined layer. The coarsened grid must be the original grid.
+		GeoTessModel model0 = getGlobalModel();
+		int refinedLayer = 0;
+
+		PropertiesPlus properties = new PropertiesPlus();
+		properties.setProperty("verbosity", verbosity);
+		properties.setProperty("gridConstructionMode = model refinement");
+		properties.setProperty("pointsToRefine = " + model0.getPointMap().getPointIndex(0, refinedLayer, 1));
+
+		GeoTessModel model1 = (GeoTessModel) GeoTessBuilderMain.run(properties, model0);
+		assertEquals(22, model1.getGrid().getVertexIndicesTopLevel(0).size());
+
+		// the refined layer is the only layer supported by tessellation 0.
+		ArrayList<Integer> pointsToCoarsen = new ArrayList<Integer>();
+		for (int point = 0; point < model1.getNPoints(); ++point)
+			if (model1.getPointMap().getLayerIndex(point) == refinedLayer)
+				pointsToCoarsen.add(point);
+
+		properties = new PropertiesPlus();
+		properties.setProperty("verbosity", verbosity);
+		properties.setProperty("gridConstructionMode = model coarsening");
+		properties.setProperty("pointsToCoarsen = " + pointsToCoarsen.toString());
+
+		GeoTessModel model2 = (GeoTessModel) GeoTessBuilderMain.run(properties, model1);
+
+		assertEquals(model0.getGrid().getGridID(), model2.getGrid().getGridID());
+		assertEquals(12, model2.getGrid().getVertexIndicesTopLevel(0).size());
+
+		// every vertex of the coarsened model keeps the profiles of the colocated
+		// vertex of the refined model.
+		for (int v = 0; v < model2.getNVertices(); ++v) {
+			int v1 = findVertex(model1.getGrid(), model2.getGrid().getVertex(v));
+			assertTrue(v1 >= 0);
+			for (int layer = 0; layer < model2.getNLayers(); ++layer)
+				assertSameProfile(model1.getProfile(v1, layer), model2.getProfile(v, layer),
+						model2.getNAttributes());
+		}
+	}
+
+	@Test
+	public void testCoarsenNothing() throws Exception {
+
+		if (verbosity > 0)
+			System.out.println("************************************************\n" + "testCoarsenNothing()\n");
+
+		// refine the same point as test1 and then coarsen with a selection that
+		// contains no points. The model must be unchanged.
+		GeoTessModel model0 = getGlobalModel();
+
+		PropertiesPlus properties = new PropertiesPlus();
+		properties.setProperty("verbosity", verbosity);
+		properties.setProperty("gridConstructionMode = model refinement");
+		properties.setProperty("pointsToRefine = " + model0.getPointMap().getPointIndex(0, 0, 1));
+
+		GeoTessModel model1 = (GeoTessModel) GeoTessBuilderMain.run(properties, model0);
+
+		properties = new PropertiesPlus();
+		properties.setProperty("verbosity", verbosity);
+		properties.setProperty("gridConstructionMode = model coarsening");
+		properties.setProperty("threshold = DATA > 1000");
+
+		GeoTessModel model2 = (GeoTessModel) GeoTessBuilderMain.run(properties, model1);
+
+		assertSameModel(model1, model2);
+	}
+
+	@Test
+	public void testAdaptiveRefinement() throws Exception {
+
+		if (verbosity > 0)
+			System.out.println("************************************************\n" + "testAdaptiveRefinement()\n");
+
+		// get2DModel() has value 2 inside a 20 degree cap around the north pole and
+		// 0 everywhere else. The grid has 162 vertices on 3 levels.
+		GeoTessModel model0 = get2DModel();
+		assertEquals(3, model0.getGrid().getNLevels(0));
+
+		for (String indicator : new String[] { "GRADIENT", "CURVATURE" }) {
+			PropertiesPlus properties = new PropertiesPlus();
+			properties.setProperty("verbosity", verbosity);
+			properties.setProperty("gridConstructionMode = adaptive refinement");
+			properties.setProperty("adaptiveAttribute = DATA");
+			properties.setProperty("errorIndicator", indicator);
+			properties.setProperty("errorTolerance = 0.5");
+			properties.setProperty("maxIterations = 2");
+
+			GeoTessModel model = (GeoTessModel) GeoTessBuilderMain.run(properties, get2DModel());
+
+			// each iteration divides the triangles that straddle the edge of the cap,
+			// adding one level.
+			assertEquals(5, model.getGrid().getNLevels(0));
+
+			// the new vertices are all near the edge of the cap, none of them in the
+			// hemisphere away from the feature.
+			int nNew = 0;
+			for (int v = 0; v < model.getNVertices(); ++v)
+				if (findVertex(model0.getGrid(), model.getGrid().getVertex(v)) < 0) {
+					++nNew;
+					assertTrue(Math.toDegrees(
+							VectorUnit.angle(model.getGrid().getVertex(v), new double[] { 0, 0, 1 })) < 80.);
+				}
+			assertTrue(nNew > 0);
+			assertEquals(162 + nNew, model.getNVertices());
+		}
+
+		// a tolerance larger than the largest error returns the input model.
+		for (AdaptiveRefinement.ErrorIndicator indicator : AdaptiveRefinement.ErrorIndicator.values())
+			assertTrue(AdaptiveRefinement.refine(model0, 0, indicator, 3., Integer.MAX_VALUE, null, 10, 1,
+					verbosity) == model0);
+
+		// the vertex budget is never exceeded.
+		PropertiesPlus properties = new PropertiesPlus();
+		properties.setProperty("verbosity", verbosity);
+		properties.setProperty("gridConstructionMode = adaptive refinement");
+		properties.setProperty("adaptiveAttribute = DATA");
+		properties.setProperty("errorTolerance = 1");
+		properties.setProperty("maxVertices = 200");
+
+		GeoTessModel model = (GeoTessModel) GeoTessBuilderMain.run(properties, get2DModel());
+		assertTrue(model.getNVertices() > 162);
+		assertTrue(model.getNVertices() <= 200);
+
+		// triangles are not divided beyond minTriangleSize, level 3, no matter how
+		// many iterations are allowed.
+		properties.remove("maxVertices");
+		properties.setProperty("minTriangleSize = 8");
+		properties.setProperty("maxIterations = 10");
+
+		model = (GeoTessModel) GeoTessBuilderMain.run(properties, get2DModel());
+		assertEquals(4, model.getGrid().getNLevels(0));
+
+		// with maxIterations = 0 nothing is refined.
+		properties.remove("minTriangleSize");
+		properties.setProperty("maxIterations = 0");
+
+		model = (GeoTessModel) GeoTessBuilderMain.run(properties, get2DModel());
+		assertEquals(model0.getGrid().getGridID(), model.getGrid().getGridID());
+	}
+
+	@Test
+	public void testPointSelection() throws Exception {
+
+		if (verbosity > 0)
+			System.out.println("************************************************\n" + "testPointSelection()\n");
+
+		// a real model of integer hit counts.
+		GeoTessModel model = new GeoTessModel(
+				new File("GeoTessBuilderExamples/tomo2dTest/hitcount_model_refined.geotess"));
+		int attribute = model.getMetaData().getAttributeIndex("HIT_COUNT");
+		boolean real = model.getMetaData().getDataType() == DataType.DOUBLE
+				|| model.getMetaData().getDataType() == DataType.FLOAT;
+
+		// property threshold selects the same points as the original
+		// getThresholdPoints().
+		for (String comparison : new String[] { "<", "<=", "=", "==", "!=", ">=", ">" })
+			for (String threshold : new String[] { "0", "1", "10" })
+				if (!(real && comparison.equals("=")))
+					assertEquals(getThresholdPoints(model, attribute, comparison, threshold),
+							PointSelector.parse(model, "HIT_COUNT " + comparison + " " + threshold).select(model));
+
+		assertTrue(getThresholdPoints(model, attribute, ">", "0").cardinality() > 0);
+
+		// property polygonToRefine selects the same points as the original loop over
+		// all points and polygons. One of the polygons is centered on the point with
+		// the highest hit count so that the selection is not empty.
+		PointMap pointMap = model.getPointMap();
+		int center = 0;
+		for (int point = 1; point < pointMap.size(); ++point)
+			if (pointMap.getPointValueDouble(point, attribute) > pointMap.getPointValueDouble(center, attribute))
+				center = point;
+
+		ArrayList<Polygon> polygons = new ArrayList<Polygon>(
+				PolygonFactory.getPolygons(new File("testdata/test_polygons.kml")));
+		polygons.add(new Polygon(pointMap.getPointUnitVector(center), Math.toRadians(10.), 100));
+
+		BitSet expected = new BitSet();
+		for (Polygon polygon : polygons)
+			for (int point = 0; point < model.getNPoints(); ++point)
+				if (polygon.contains(model.getPointMap().getPointUnitVector(point)))
+					expected.set(point);
+
+		ArrayList<PointSelector> selectors = new ArrayList<PointSelector>();
+		for (Polygon polygon : polygons)
+			selectors.add(PointSelector.inside(polygon));
+
+		assertTrue(expected.get(center));
+		assertEquals(expected, PointSelector.or(selectors.toArray(new PointSelector[selectors.size()])).select(model));
+
+		// the same, one thread at a time.
+		assertEquals(expected,
+				PointSelector.or(selectors.toArray(new PointSelector[selectors.size()])).select(model, 1));
+	}
+
+	@Test
+	public void testSelectionExpressions() throws Exception {
+
+		if (verbosity > 0)
+			System.out.println("************************************************\n" + "testSelectionExpressions()\n");
+
+		GeoTessModel model = get3AttributeModel();
+		int n = model.getNPoints();
+
+		BitSet a = getThresholdPoints(model, 0, ">", "0");
+		BitSet b = getThresholdPoints(model, 1, ">", "0");
+		BitSet c = getThresholdPoints(model, 2, ">", "0");
+
+		// the legacy 'attribute op value' form, with or without commas.
+		assertEquals(a, PointSelector.parse(model, "A > 0").select(model));
+		assertEquals(a, PointSelector.parse(model, "A, >, 0").select(model));
+		assertEquals(getThresholdPoints(model, 1, "<=", "1"), PointSelector.parse(model, "B <= 1").select(model));
+		assertEquals(getThresholdPoints(model, 2, "==", "3"), PointSelector.parse(model, "C == 3").select(model));
+
+		// && has higher precedence than ||.
+		BitSet expected = (BitSet) a.clone();
+		expected.and(b);
+		expected.or(c);
+		assertEquals(expected, PointSelector.parse(model, "A > 0 && B > 0 || C > 0").select(model));
+		assertEquals(expected, PointSelector.parse(model, "C > 0 || A > 0 && B > 0").select(model));
+
+		// parentheses override precedence.
+		BitSet grouped = (BitSet) b.clone();
+		grouped.or(c);
+		grouped.and(a);
+		assertTrue(!grouped.equals(expected));
+		assertEquals(grouped, PointSelector.parse(model, "A > 0 && (B > 0 || C > 0)").select(model));
+
+		// ! negates the primary that follows it, but != is a comparison.
+		BitSet notA = new BitSet(n);
+		notA.set(0, n);
+		notA.andNot(a);
+		assertEquals(notA, PointSelector.parse(model, "!(A > 0)").select(model));
+		assertEquals(notA, PointSelector.parse(model, "!A > 0").select(model));
+		assertEquals(a, PointSelector.parse(model, "A != 0").select(model));
+
+		BitSet aNotB = (BitSet) a.clone();
+		aNotB.andNot(b);
+		assertEquals(aNotB, PointSelector.parse(model, "A > 0 && !(B > 0)").select(model));
+
+		// inside() with file names that contain parentheses, unquoted when they are
+		// balanced and quoted when they are not.
+		File polygonFile = new File("testdata/test_polygons.kml");
+		BitSet inside = new BitSet(n);
+		for (Polygon polygon : PolygonFactory.getPolygons(polygonFile))
+			for (int point = 0; point < n; ++point)
+				if (polygon.contains(model.getPointMap().getPointUnitVector(point)))
+					inside.set(point);
+
+		File dir = File.createTempFile("selection", "");
+		dir.delete();
+		dir.mkdir();
+		File balanced = new File(dir, "polygons (1).kml");
+		File unbalanced = new File(dir, "polygons).kml");
+		try {
+			Files.copy(polygonFile.toPath(), balanced.toPath());
+			Files.copy(polygonFile.toPath(), unbalanced.toPath());
+
+			assertEquals(inside, PointSelector.parse(model, "inside(" + balanced.getPath() + ")").select(model));
+			assertEquals(inside,
+					PointSelector.parse(model, "inside( \"" + balanced.getPath() + "\" )").select(model));
+			assertEquals(inside, PointSelector.parse(model, "inside('" + unbalanced.getPath() + "')").select(model));
+
+			BitSet insideOrA = (BitSet) inside.clone();
+			insideOrA.or(a);
+			assertEquals(insideOrA, PointSelector
+					.parse(model, "(inside(" + balanced.getPath() + ") || A > 0)").select(model));
+		} finally {
+			balanced.delete();
+			unbalanced.delete();
+			dir.delete();
+		}
+
+		// unknown attributes and malformed expressions are rejected.
+		for (String expression : new String[] { "D > 0", "A >", "A 0", "A > 0 &&", "(A > 0", "A > 0)",
+				"A > 0 B > 0", "A > x", "inside(" + new File(dir, "missing.kml").getPath() + ")", "inside(\"x.kml)" })
+			try {
+				PointSelector.parse(model, expression);
+				Assert.fail("expected an IOException parsing " + expression);
+			} catch (IOException e) {
+				// expected
+			}
+	}
+
+	/**
+	 * The points selected by property 'threshold = attribute comparison
+	 * threshold' before selection was delegated to PointSelector.
+	 */
+	private static BitSet getThresholdPoints(GeoTessModel model, int attribute, String comparison,
+			String threshold) {
+		PointMap pm = model.getPointMap();
+		BitSet points = new BitSet();
+		if (model.getMetaData().getDataType() == DataType.DOUBLE
+				|| model.getMetaData().getDataType() == DataType.FLOAT) {
+			double t = Double.parseDouble(threshold);
+			for (int i = 0; i < pm.size(); ++i) {
+				double v = pm.getPointValueDouble(i, attribute);
+				if (comparison.equals("<") ? v < t
+						: comparison.equals("<=") ? v <= t
+								: comparison.equals("==") ? v == t
+										: comparison.equals("!=") ? v != t : comparison.equals(">=") ? v >= t : v > t)
+					points.set(i);
+			}
+		} else {
+			long t = Long.parseLong(threshold);
+			for (int i = 0; i < pm.size(); ++i) {
+				long v = pm.getPointValueLong(i, attribute);
+				if (comparison.equals("<") ? v < t
+						: comparison.equals("<=") ? v <= t
+								: comparison.startsWith("=") ? v == t
+										: comparison.equals("!=") ? v != t : comparison.equals(">=") ? v >= t : v > t)
+					points.set(i);
+			}
+		}
+		return points;
+	}
+
 	/**
 	 * Generate unrotated model.
 	 * 
@@ -792,6 +1288,38 @@ public class RefineModelTest {
 		return model;
 	}
 
+	/**
+	 * A 2D model with attributes A, B and C whose values at vertex v are v%2, v%3
+	 * and v%5.
+	 */
+	public GeoTessModel get3AttributeModel() throws Exception {
+
+		PropertiesPlus properties = new PropertiesPlus();
+		properties.setProperty("verbosity = 0");
+		properties.setProperty("gridConstructionMode = scratch");
+		properties.setProperty("nTessellations = 1");
+		properties.setProperty("baseEdgeLengths = 4");
+
+		GeoTessGrid grid = (GeoTessGrid) GeoTessBuilderMain.run(properties);
+
+		GeoTessMetaData metaData = new GeoTessMetaData();
+		metaData.setDescription("test");
+		metaData.setLayerNames("SURFACE");
+		metaData.setAttributes("A; B; C", "na; na; na");
+		metaData.setDataType(DataType.FLOAT);
+		metaData.setModelSoftwareVersion(this.getClass().getCanonicalName());
+		metaData.setModelGenerationDate(new Date().toString());
+
+		GeoTessModel model = new GeoTessModel(grid, metaData);
+
+		for (int vtx = 0; vtx < model.getNVertices(); ++vtx)
+			model.setProfile(vtx, Data.getDataFloat(new float[] { vtx % 2, vtx % 3, vtx % 5 }));
+
+		model.setActiveRegion();
+
+		return model;
+	}
+
 	public GeoTessModel get2DModel() throws Exception {
 
 		PropertiesPlus properties = new PropertiesPlus();
@@ -826,4 +1354,47 @@ public class RefineModelTest {
 		return model;
 	}
 
+	/**
+	 * Assert that two models have the same grid and that all their profiles have
+	 * the same radii and data.
+	 * 
+	 * @param expected
+	 * @param actual
+	 * @throws GeoTessException
+	 */
+	private static void assertSameModel(GeoTessModel expected, GeoTessModel actual) throws GeoTessException {
+		assertEquals(expected.getGrid().getGridID(), actual.getGrid().getGridID());
+		assertEquals(expected.getNPoints(), actual.getNPoints());
+
+		for (int v = 0; v < expected.getNVertices(); ++v)
+			for (int layer = 0; layer < expected.getNLayers(); ++layer)
+				assertSameProfile(expected.getProfile(v, layer), actual.getProfile(v, layer),
+						expected.getNAttributes());
+	}
+
+	/**
+	 * Assert that two profiles have the same radii and data.
+	 */
+	private static void assertSameProfile(Profile expected, Profile actual, int nAttributes) {
+		assertEquals(expected.getNRadii(), actual.getNRadii());
+		assertEquals(expected.getNData(), actual.getNData());
+		for (int i = 0; i < expected.getNRadii(); ++i)
+			assertEquals(expected.getRadius(i), actual.getRadius(i), 1e-6);
+		for (int i = 0; i < expected.getNData(); ++i)
+			for (int a = 0; a < nAttributes; ++a)
+				assertEquals(expected.getValue(a, i), actual.getValue(a, i), 1e-6);
+	}
+
+	/**
+	 * Find the vertex of grid colocated with unit vector u.
+	 * 
+	 * @return the index of the vertex, or -1 if there is none.
+	 */
+	private static int findVertex(GeoTessGrid grid, double[] u) {
+		for (int v = 0; v < grid.getNVertices(); ++v)
+			if (VectorUnit.dot(grid.getVertex(v), u) > Math.cos(1e-7))
+				return v;
+		return -1;
+	}
+
 }
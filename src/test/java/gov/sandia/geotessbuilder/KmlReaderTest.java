@@ -0,0 +1,167 @@
+//- ****************************************************************************
+//-
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//-
+//- BSD Open Source License.
+//- All rights reserved.
+//-
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//-
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//-
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+
+package gov.sandia.geotessbuilder;
+
+import gov.sandia.gmp.util.numerical.vector.VectorGeo;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Scanner;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * KmlReader is package-private so it is tested from its own package.
+ */
+public class KmlReaderTest {
+
+	@Test
+	public void testKmz() throws Exception {
+		File kmz = new File("GeoTessBuilderExamples/pathTest/mid_atlantic_ridge.kmz");
+
+		ArrayList<ArrayList<double[]>> blocks = KmlReader.read(kmz);
+
+		assertEquals(1, blocks.size());
+		assertSamePoints(readKmz(kmz), blocks.get(0));
+	}
+
+	@Test
+	public void testNamespacedBlocks() throws Exception {
+		File kml = new File("testdata/kml_reader_test.kml");
+
+		// three <kml:coordinates> elements. The empty element is ignored and
+		// altitudes are ignored.
+		ArrayList<ArrayList<double[]>> expected = new ArrayList<ArrayList<double[]>>();
+		expected.add(getPoints(10.25, -30.5, 11.5, -29.75, 12.75, -29.));
+		expected.add(getPoints(-0.25, 15.));
+		expected.add(getPoints(0., 100., 0., 101., 1., 101., 1., 100., 0., 100.));
+
+		assertSameBlocks(expected, KmlReader.read(kml));
+
+		// the same kml file inside a kmz archive.
+		File kmz = File.createTempFile("kml_reader_test", ".kmz");
+		try {
+			ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(kmz));
+			try {
+				zip.putNextEntry(new ZipEntry("doc.kml"));
+				InputStream in = new FileInputStream(kml);
+				try {
+					byte[] buffer = new byte[4096];
+					for (int n = in.read(buffer); n > 0; n = in.read(buffer))
+						zip.write(buffer, 0, n);
+				} finally {
+					in.close();
+				}
+				zip.closeEntry();
+			} finally {
+				zip.close();
+			}
+
+			assertSameBlocks(expected, KmlReader.read(kmz));
+		} finally {
+			kmz.delete();
+		}
+	}
+
+	/**
+	 * @param latLon latitude, longitude pairs in degrees.
+	 * @return unit vectors
+	 */
+	private static ArrayList<double[]> getPoints(double... latLon) {
+		ArrayList<double[]> points = new ArrayList<double[]>();
+		for (int i = 0; i < latLon.length; i += 2)
+			points.add(VectorGeo.getVectorDegrees(latLon[i], latLon[i + 1]));
+		return points;
+	}
+
+	private static void assertSameBlocks(ArrayList<ArrayList<double[]>> expected,
+			ArrayList<ArrayList<double[]>> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); ++i)
+			assertSamePoints(expected.get(i), actual.get(i));
+	}
+
+	private static void assertSamePoints(ArrayList<double[]> expected, ArrayList<double[]> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); ++i)
+			assertArrayEquals(expected.get(i), actual.get(i), 0.);
+	}
+
+	/**
+	 * Parse the single &lt;coordinates&gt; element of a kmz file with
+	 * Double.parseDouble().
+	 * 
+	 * @return unit vectors
+	 */
+	private static ArrayList<double[]> readKmz(File file) throws Exception {
+		StringBuilder contents = new StringBuilder();
+		ZipFile zip = new ZipFile(file);
+		try {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (entry.getName().toLowerCase().endsWith(".kml")) {
+					Scanner input = new Scanner(zip.getInputStream(entry), "UTF-8");
+					while (input.hasNextLine())
+						contents.append(input.nextLine()).append('\n');
+					input.close();
+				}
+			}
+		} finally {
+			zip.close();
+		}
+
+		String coordinates = contents.substring(contents.indexOf("<coordinates>") + "<coordinates>".length(),
+				contents.indexOf("</coordinates>"));
+
+		ArrayList<double[]> points = new ArrayList<double[]>();
+		for (String tuple : coordinates.trim().split("\\s+")) {
+			String[] values = tuple.split(",");
+			points.add(VectorGeo.getVectorDegrees(Double.parseDouble(values[1]), Double.parseDouble(values[0])));
+		}
+		return points;
+	}
+
+}
@@ -0,0 +1,238 @@
+//- ****************************************************************************
+//-
+//- Copyright 2009 Sandia Corporation. Under the terms of Contract
+//- DE-AC04-94AL85000 with Sandia Corporation, the U.S. Government
+//- retains certain rights in this software.
+//-
+//- BSD Open Source License.
+//- All rights reserved.
+//-
+//- Redistribution and use in source and binary forms, with or without
+//- modification, are permitted provided that the following conditions are met:
+//-
+//-    * Redistributions of source code must retain the above copyright notice,
+//-      this list of conditions and the following disclaimer.
+//-    * Redistributions in binary form must reproduce the above copyright
+//-      notice, this list of conditions and the following disclaimer in the
+//-      documentation and/or other materials provided with the distribution.
+//-    * Neither the name of Sandia National Laboratories nor the names of its
+//-      contributors may be used to endorse or promote products derived from
+//-      this software without specific prior written permission.
+//-
+//- THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+//- AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+//- IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+//- ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+//- LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+//- CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+//- SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+//- INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+//- CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+//- ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+//- POSSIBILITY OF SUCH DAMAGE.
+//-
+//- ****************************************************************************
+
+
+package gov.sandia.geotessbuilder;
+
+import gov.sandia.geotess.GeoTessGrid;
+import gov.sandia.gmp.util.numerical.vector.VectorGeo;
+import gov.sandia.gmp.util.numerical.vector.VectorUnit;
+import gov.sandia.gmp.util.propertiesplus.PropertiesPlus;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Triangle's constructor is protected so RasterSizeField is tested from its own
+ * package.
+ */
+public class RasterSizeFieldTest {
+
+	/**
+	 * Target edge lengths of a 3 x 4 raster of 5 degree cells with its southwest
+	 * corner at 20N, 10W, rows from north to south. -9999 is NODATA.
+	 */
+	private static final double[][] CELLS = new double[][] { { 1., 2., -9999., 4. }, { 0.5, 8., 2., 0.25 },
+			{ -9999., 1., 16., 2. } };
+
+	@Test
+	public void testAsciiBinaryRoundTrip() throws Exception {
+		File corner = File.createTempFile("raster_corner", ".asc");
+		File center = File.createTempFile("raster_center", ".asc");
+		File binary = File.createTempFile("raster", ".bin");
+		try {
+			writeAscii(corner, "xllcorner -10\nyllcorner 20\n");
+			writeAscii(center, "xllcenter -7.5\nyllcenter 22.5\n");
+
+			RasterSizeField cornerField = RasterSizeField.read(corner, null);
+			assertCells(cornerField);
+			assertCells(RasterSizeField.read(center, null));
+
+			cornerField.write(binary);
+			RasterSizeField binaryField = RasterSizeField.read(binary, null);
+			assertCells(binaryField);
+			assertEquals(Math.toRadians(0.25), binaryField.getMinEdgeLength(), 0.);
+		} finally {
+			corner.delete();
+			center.delete();
+			binary.delete();
+		}
+	}
+
+	@Test
+	public void testAntimeridian() throws Exception {
+		// a triangle that spans 179E to 179W, straddling the equator.
+		Triangle triangle = getTriangle(-1., 179., -1., -179., 1., 180.);
+
+		// a global raster, which wraps around in longitude.
+		float[] values = getGlobalValues();
+		values[18 * 72 + 71] = 2.f; // 0..5N, 175..180E
+		values[17 * 72] = 1.f; // 5S..0, 180..175W
+		RasterSizeField field = new RasterSizeField(null, 36, 72, -87.5, -177.5, 5., 5., values);
+
+		assertEquals(Math.toRadians(1.), field.getEdgeLength(triangle), 0.);
+		assertEquals(Math.toRadians(2.), field.getEdgeLength(getTriangle(1., 176., 1., 178., 3., 177.)), 0.);
+		assertEquals(Math.toRadians(4.), field.getEdgeLength(getTriangle(1., 166., 1., 168., 3., 167.)), 0.);
+
+		// a raster from 170E to 170W that does not wrap around, with the cells
+		// centered at 177.5E and 177.5W on either side of the antimeridian.
+		values = new float[] { 8.f, 2.f, 1.f, 8.f };
+		field = new RasterSizeField(null, 1, 4, 0., 172.5, 5., 5., values);
+
+		assertEquals(Math.toRadians(1.), field.getEdgeLength(triangle), 0.);
+		assertEquals(Math.toRadians(2.), field.getEdgeLength(getTriangle(-1., 176., -1., 178., 1., 177.)), 0.);
+		assertEquals(Math.toRadians(1.), field.getEdgeLength(getTriangle(-1., -178., -1., -176., 1., -177.)), 0.);
+	}
+
+	@Test
+	public void testPoles() throws Exception {
+		float[] values = getGlobalValues();
+		values[35 * 72 + 24] = 1.f; // 85..90N, 60..55W
+		values[0 * 72 + 60] = 0.5f; // 90..85S, 120..125E
+		RasterSizeField field = new RasterSizeField(null, 36, 72, -87.5, -177.5, 5., 5., values);
+
+		// triangles that contain a pole span every longitude, so they see the cell
+		// even though it is far from all their corners.
+		assertEquals(Math.toRadians(1.), field.getEdgeLength(getTriangle(86., 0., 86., 120., 86., -120.)), 0.);
+		assertEquals(Math.toRadians(0.5), field.getEdgeLength(getTriangle(-86., 0., -86., 120., -86., -120.)),
+				0.);
+
+		// but a triangle just off the pole does not.
+		assertEquals(Math.toRadians(4.), field.getEdgeLength(getTriangle(86., 0., 86., 20., 88., 10.)), 0.);
+	}
+
+	@Test
+	public void testScratchBuild() throws Exception {
+		// 1 degree triangles requested in a 2 x 2 degree box at 10..12N, 20..22E,
+		// except for its northeast corner.
+		File raster = File.createTempFile("raster", ".asc");
+		try {
+			FileWriter output = new FileWriter(raster);
+			try {
+				output.write("ncols 2\nnrows 2\nxllcorner 20\nyllcorner 10\ncellsize 1\nNODATA_value -1\n");
+				output.write("1 -1\n1 1\n");
+			} finally {
+				output.close();
+			}
+
+			PropertiesPlus properties = new PropertiesPlus();
+			properties.setProperty("verbosity", 0);
+			properties.setProperty("gridConstructionMode = scratch");
+			properties.setProperty("nTessellations = 1");
+			properties.setProperty("baseEdgeLengths = 8");
+			properties.setProperty("sizeFieldRasters", raster.getPath() + ", 0");
+
+			GeoTessGrid grid = (GeoTessGrid) GeoTessBuilderMain.run(properties);
+			GeoTessGrid baseGrid = GeoTessBuilderMain.getGrid(8.);
+
+			double[] box = VectorGeo.getVectorDegrees(11., 21.);
+
+			// the box is refined to about 1 degree.
+			int n = 0;
+			for (int i = 0; i < grid.getNVertices(); ++i)
+				if (Math.toDegrees(VectorUnit.angle(grid.getVertex(i), box)) < 1.5)
+					++n;
+			assertTrue(n >= 4);
+
+			// every vertex that is not in the base grid is close enough to the box
+			// to be part of the transition from 1 to 8 degree triangles.
+			HashSet<String> baseVertices = new HashSet<String>();
+			for (int i = 0; i < baseGrid.getNVertices(); ++i)
+				baseVertices.add(Arrays.toString(baseGrid.getVertex(i)));
+			assertTrue(grid.getNVertices() > baseGrid.getNVertices());
+			for (int i = 0; i < grid.getNVertices(); ++i)
+				if (!baseVertices.contains(Arrays.toString(grid.getVertex(i))))
+					assertTrue(Math.toDegrees(VectorUnit.angle(grid.getVertex(i), box)) < 20.);
+		} finally {
+			raster.delete();
+		}
+	}
+
+	/**
+	 * Write CELLS in ESRI ASCII grid format with the specified lower left corner
+	 * or center lines.
+	 */
+	private static void writeAscii(File file, String lowerLeft) throws IOException {
+		FileWriter output = new FileWriter(file);
+		try {
+			output.write("ncols 4\nnrows 3\n" + lowerLeft + "cellsize 5\nNODATA_value -9999\n");
+			for (double[] row : CELLS) {
+				for (double value : row)
+					output.write(" " + value);
+				output.write("\n");
+			}
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Assert that a small triangle at the center of each cell of field has the
+	 * target edge length of the cell, and that triangles outside the raster and
+	 * in NODATA cells have no target.
+	 */
+	private static void assertCells(RasterSizeField field) {
+		for (int row = 0; row < 3; ++row)
+			for (int col = 0; col < 4; ++col) {
+				double lat = 32.5 - 5. * row, lon = -7.5 + 5. * col;
+				double expected = CELLS[row][col] < 0. ? Double.POSITIVE_INFINITY : Math.toRadians(CELLS[row][col]);
+				assertEquals(expected,
+						field.getEdgeLength(getTriangle(lat - 0.5, lon - 0.5, lat - 0.5, lon + 0.5, lat + 0.5, lon)),
+						0.);
+			}
+		assertEquals(Double.POSITIVE_INFINITY, field.getEdgeLength(getTriangle(0., 0., 0., 1., 1., 0.5)), 0.);
+	}
+
+	/**
+	 * @return a global raster of 5 degree cells with target edge length 4 degrees.
+	 */
+	private static float[] getGlobalValues() {
+		float[] values = new float[36 * 72];
+		Arrays.fill(values, 4.f);
+		return values;
+	}
+
+	/**
+	 * @param latLon latitude, longitude pairs of the corners, in degrees, in either
+	 *               order.
+	 * @return a triangle on level 0 with the corners in clockwise order.
+	 */
+	private static Triangle getTriangle(double... latLon) {
+		Vertex[] v = new Vertex[3];
+		for (int i = 0; i < 3; ++i)
+			v[i] = new Vertex(VectorGeo.getVectorDegrees(latLon[2 * i], latLon[2 * i + 1]));
+		Triangle triangle = new Triangle(null, v[0], v[1], v[2], 0, 0);
+		if (!triangle.contains(triangle.getCenter()))
+			triangle = new Triangle(null, v[0], v[2], v[1], 0, 0);
+		return triangle;
+	}
+}